@@ -472,7 +472,7 @@ int CoreCallback::OnPropertyChanged(const MM::Device* device, const char* propNa
       const PropertySetting* ps = new PropertySetting(label, propName, value, readOnly);
       {
          MMThreadGuard scg(core_->stateCacheLock_);
-         core_->stateCache_.addSetting(*ps);
+         core_->addSettingToStateCache(*ps);
       }
       core_->externalCallback_->onPropertyChanged(label, propName, value);
 
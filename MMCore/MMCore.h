@@ -285,6 +285,7 @@ public:
     */
    ///@{
    Configuration getSystemStateCache() const;
+   unsigned long getSystemStateCacheGeneration() const;
    void updateSystemStateCache();
    std::string getPropertyFromCache(const char* deviceLabel,
          const char* propName) const throw (CMMError);
@@ -683,12 +684,14 @@ private:
    // or acquiring a module lock
    mutable MMThreadLock stateCacheLock_;
    mutable Configuration stateCache_; // Synchronized by stateCacheLock_
+   unsigned long stateCacheGeneration_; // Synchronized by stateCacheLock_
 
    MMThreadLock* pPostedErrorsLock_;
    mutable std::deque<std::pair< int, std::string> > postedErrors_;
 
 private:
    void InitializeErrorMessages();
+   void addSettingToStateCache(const PropertySetting& setting);
    void CreateCoreProperties();
 
    // Parameter/value validation
@@ -634,18 +634,72 @@
    import java.awt.geom.Point2D;
    import java.awt.Rectangle;
    import java.util.ArrayList;
+   import java.util.Collections;
+   import java.util.HashMap;
    import java.util.List;
+   import java.util.Map;
 %}
 
 %typemap(javacode) CMMCore %{
-   private JSONObject metadataToMap(Metadata md) {
-      JSONObject tags = new JSONObject();
-      for (String key:md.GetKeys()) {
-         try {
-            tags.put(key, md.GetSingleTag(key).GetValue());
-         } catch (Exception e) {} 
+   // Device property tags derived from the system state cache, reused for
+   // all tagged images until the cache changes (see getStateTags()).
+   private final Object stateTagsLock_ = new Object();
+   private boolean shareSystemStateTags_ = true;
+   private Map<String, String> stateTags_ = null;
+   private long stateTagsGeneration_ = 0;
+
+   /**
+    * Set whether tagged images reuse a snapshot of the system state cache.
+    * <p>
+    * When enabled (the default), the device property tags attached to each
+    * TaggedImage are read from the Core only when the system state cache has
+    * changed since the previous image; otherwise the same immutable snapshot
+    * is reused. This saves reading the whole cache through JNI for every
+    * image in popNextTaggedImage() and friends during sequence acquisitions.
+    * Each image still gets its own copy of the tags, since TaggedImage.tags
+    * may be modified by its consumers. The resulting tags are the same
+    * either way.
+    * @param share whether to reuse system state snapshots between images
+    */
+   public void setShareSystemStateTags(boolean share) {
+      synchronized (stateTagsLock_) {
+         shareSystemStateTags_ = share;
+         stateTags_ = null;
+      }
+   }
+
+   public boolean getShareSystemStateTags() {
+      synchronized (stateTagsLock_) {
+         return shareSystemStateTags_;
+      }
+   }
+
+   private Map<String, String> readStateTags() {
+      Configuration config = getSystemStateCache();
+      Map<String, String> tags = new HashMap<String, String>((int) config.size() * 2);
+      PropertySetting setting;
+      for (int i = 0; i < config.size(); ++i) {
+         setting = config.getSetting(i);
+         String key = setting.getDeviceLabel() + "-" + setting.getPropertyName();
+         tags.put(key, setting.getPropertyValue());
+      }
+      return Collections.unmodifiableMap(tags);
+   }
+
+   private Map<String, String> getStateTags() {
+      synchronized (stateTagsLock_) {
+         if (!shareSystemStateTags_) {
+            return readStateTags();
+         }
+         // Read the generation before the cache, so that a concurrent change
+         // can at worst cause one unnecessary refresh
+         long generation = getSystemStateCacheGeneration();
+         if (stateTags_ == null || generation != stateTagsGeneration_) {
+            stateTags_ = readStateTags();
+            stateTagsGeneration_ = generation;
+         }
+         return stateTags_;
       }
-      return tags;
    }
 
    private String getROITag() throws java.lang.Exception {
@@ -717,14 +771,16 @@
    }
 
    private TaggedImage createTaggedImage(Object pixels, Metadata md) throws java.lang.Exception {
-      JSONObject tags = metadataToMap(md);
-      PropertySetting setting;
-      Configuration config = getSystemStateCache();
-      for (int i = 0; i < config.size(); ++i) {
-         setting = config.getSetting(i);
-         String key = setting.getDeviceLabel() + "-" + setting.getPropertyName();
-         String value = setting.getPropertyValue();
-          tags.put(key, value);
+      // System state values take precedence over image metadata with the
+      // same key
+      Map<String, String> stateTags = getStateTags();
+      JSONObject tags = new JSONObject(stateTags);
+      for (String key:md.GetKeys()) {
+         if (!stateTags.containsKey(key)) {
+            try {
+               tags.put(key, md.GetSingleTag(key).GetValue());
+            } catch (Exception e) {}
+         }
       }
       tags.put("BitDepth", getImageBitDepth());
       tags.put("PixelSizeUm", getPixelSizeUm(true));
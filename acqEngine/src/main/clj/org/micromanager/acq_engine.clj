@@ -977,7 +977,8 @@
   (def last-acq this)
   (def last-state (.state this)) ; for debugging
     (reset! (.state this) {:stop false :pause false :finished false})
-    (let [out-queue (LinkedBlockingQueue. 10) ; Q: Why 10?
+    (let [out-queue (TaggedImageQueue/createForAcquisition
+                      gui (core getImageBufferSize))
           acq-thread (Thread. #(binding [state (.state this)]
                                  (run-acquisition settings out-queue cleanup? position-list autofocus-device))
                               "AcquisitionEngine2010 Thread (Clojure)")]
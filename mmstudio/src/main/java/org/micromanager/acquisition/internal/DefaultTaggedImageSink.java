@@ -1,7 +1,6 @@
 package org.micromanager.acquisition.internal;
 
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 import mmcorej.TaggedImage;
@@ -12,6 +11,8 @@ import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.events.EventManager;
 import org.micromanager.events.internal.DefaultAcquisitionEndedEvent;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.gui.PerformanceMonitorUI;
 
 /**
  * This object spawns a new thread that receives images from the acquisition
@@ -30,6 +31,10 @@ public final class DefaultTaggedImageSink  {
    private final Pipeline pipeline_;
    private final AcquisitionEngine engine_;
    private final EventManager studioEvents_;
+   private final PerformanceMonitor perfMon_ =
+         PerformanceMonitor.createWithTimeConstantMs(1000.0);
+   private final PerformanceMonitorUI perfMonUI_ =
+         PerformanceMonitorUI.create(perfMon_, "Acquisition Sink Performance");
 
    public DefaultTaggedImageSink(BlockingQueue<TaggedImage> queue,
          Pipeline pipeline, 
@@ -41,6 +46,9 @@ public final class DefaultTaggedImageSink  {
       store_ = store;
       engine_ = engine;
       studioEvents_ = studioEvents;
+      if (queue instanceof TaggedImageQueue) {
+         ((TaggedImageQueue) queue).setPerformanceMonitor(perfMon_);
+      }
    }
 
    public void start() {
@@ -58,32 +66,30 @@ public final class DefaultTaggedImageSink  {
             int imageCount = 0;
             try {
                while (true) {
-                  TaggedImage tagged = imageProducingQueue_.poll(1, TimeUnit.SECONDS);
-                  if (tagged != null) {
-                     if (TaggedImageQueue.isPoison(tagged)) {
-                        // Acquisition has ended. Clean up under "finally"                        
-                        break;
-                     }
+                  TaggedImage tagged = imageProducingQueue_.take();
+                  if (TaggedImageQueue.isPoison(tagged)) {
+                     // Acquisition has ended. Clean up under "finally"
+                     break;
+                  }
+                  try {
+                     ++imageCount;
+                     DefaultImage image = new DefaultImage(tagged);
                      try {
-                        ++imageCount;
-                        DefaultImage image = new DefaultImage(tagged);
-                        try {
-                           pipeline_.insertImage(image);
-                        }
-                        catch (PipelineErrorException e) {
-                           // TODO: make showing the dialog optional.
-                           // TODO: allow user to cancel acquisition from
-                           // here.
-                           ReportingUtils.showError(e,
-                                 "There was an error in processing images.");
-                           pipeline_.clearExceptions();
-                        }
+                        pipeline_.insertImage(image);
                      }
-                     catch (OutOfMemoryError e) {
-                        handleOutOfMemory(e, sinkFullCallback);
-                        break;
+                     catch (PipelineErrorException e) {
+                        // TODO: make showing the dialog optional.
+                        // TODO: allow user to cancel acquisition from
+                        // here.
+                        ReportingUtils.showError(e,
+                              "There was an error in processing images.");
+                        pipeline_.clearExceptions();
                      }
                   }
+                  catch (OutOfMemoryError e) {
+                     handleOutOfMemory(e, sinkFullCallback);
+                     break;
+                  }
                }
             } catch (Exception ex2) {
                ReportingUtils.logError(ex2);
@@ -94,6 +100,16 @@ public final class DefaultTaggedImageSink  {
             }
             long t2 = System.currentTimeMillis();
             ReportingUtils.logMessage(imageCount + " images stored in " + (t2 - t1) + " ms.");
+            if (imageProducingQueue_ instanceof TaggedImageQueue) {
+               TaggedImageQueue queue = (TaggedImageQueue) imageProducingQueue_;
+               ReportingUtils.logMessage(String.format(
+                     "Image queue: high-water mark %.1f of %d MB, " +
+                     "%d stalls (%d ms), %d dropped, %d spilled to disk",
+                     queue.getHighWaterMarkBytes() / (1024.0 * 1024.0),
+                     queue.getCapacityBytes() / (1024 * 1024),
+                     queue.getStallCount(), queue.getStallTimeMs(),
+                     queue.getDroppedCount(), queue.getSpilledCount()));
+            }
          }
       };
       savingThread.start();
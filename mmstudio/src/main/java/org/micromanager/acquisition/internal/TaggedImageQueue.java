@@ -1,14 +1,48 @@
-
 package org.micromanager.acquisition.internal;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 import mmcorej.TaggedImage;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.micromanager.Studio;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.propertymap.MutablePropertyMapView;
 
 /**
+ * Bounded hand-off of acquired images from the acquisition engine to the
+ * image sink.
+ * <p>
+ * This is a ring buffer for exactly one producer thread (the acquisition
+ * engine) and one consumer thread (the sink). Slots are allocated up front
+ * and the fast path takes no locks; a waiting thread parks until the other
+ * side signals it. The capacity is given in bytes of pixel data, and what
+ * happens when it is exhausted is set by an {@link OverflowPolicy}.
+ * <p>
+ * Only the {@link BlockingQueue} operations used for the hand-off are
+ * supported; iteration and bulk removal other than {@code clear()} and
+ * {@code drainTo()} throw {@code UnsupportedOperationException}. The same
+ * TaggedImage instance must not be in the queue twice.
  *
  * @author arthur
  */
-public final class TaggedImageQueue extends LinkedBlockingQueue<TaggedImage>
+public final class TaggedImageQueue extends AbstractQueue<TaggedImage>
+      implements BlockingQueue<TaggedImage>
 {
    // Poison in the sense of an end-of-stream object. (See http://bit.ly/c1Vgju)
    public static TaggedImage POISON = new TaggedImage(null, null);
@@ -16,4 +50,748 @@ public final class TaggedImageQueue extends LinkedBlockingQueue<TaggedImage>
    public static boolean isPoison(TaggedImage image) {
       return ((image.pix == null) && (image.tags == null));
    }
+
+   /**
+    * What the producer does when an image does not fit into the queue.
+    */
+   public enum OverflowPolicy {
+      /** Wait until the consumer has made room. */
+      BLOCK,
+      /** Discard the oldest images to make room. */
+      DROP_OLDEST,
+      /** Write images to a temporary file until the consumer catches up. */
+      SPILL_TO_DISK,
+   }
+
+   // Profile keys
+   public static final String CAPACITY_MB =
+         "capacity of the acquisition image queue (MB)";
+   public static final String OVERFLOW_POLICY =
+         "what to do when the acquisition image queue is full";
+   public static final int DEFAULT_CAPACITY_MB = 128;
+
+   private static final int MAX_SLOTS = 1 << 16;
+
+   private final AtomicReferenceArray<TaggedImage> slots_;
+   private final int numSlots_;
+   private final long capacityBytes_;
+   private final OverflowPolicy policy_;
+
+   // Sequence number of the next image to remove. Normally advanced by the
+   // consumer, but the producer also advances it when dropping images, so
+   // it is always advanced by compare-and-set.
+   private final AtomicLong head_ = new AtomicLong(0);
+   // Sequence number of the next slot to fill; written only by the producer
+   private final AtomicLong tail_ = new AtomicLong(0);
+   private final AtomicLong bytes_ = new AtomicLong(0);
+   private final Spill spill_;
+
+   private volatile Thread waitingConsumer_;
+   private volatile Thread waitingProducer_;
+
+   // Statistics, written only by the producer
+   private volatile long highWaterMarkBytes_ = 0;
+   private volatile long stallCount_ = 0;
+   private volatile long stallNs_ = 0;
+   private volatile long droppedCount_ = 0;
+   private volatile long spilledCount_ = 0;
+   private volatile PerformanceMonitor perfMon_;
+
+   /**
+    * Create a queue for an acquisition, with the capacity and overflow
+    * policy set in the user profile.
+    * @param studio the Studio, or null to use the defaults
+    * @param bytesPerImage expected size of each image's pixel data
+    * @return a new, empty queue
+    */
+   public static TaggedImageQueue createForAcquisition(Studio studio,
+         long bytesPerImage)
+   {
+      int capacityMB = DEFAULT_CAPACITY_MB;
+      OverflowPolicy policy = OverflowPolicy.BLOCK;
+      if (studio != null) {
+         MutablePropertyMapView settings =
+               studio.profile().getSettings(TaggedImageQueue.class);
+         capacityMB = settings.getInteger(CAPACITY_MB, DEFAULT_CAPACITY_MB);
+         String policyName = settings.getString(OVERFLOW_POLICY,
+               OverflowPolicy.BLOCK.name());
+         try {
+            policy = OverflowPolicy.valueOf(policyName);
+         }
+         catch (IllegalArgumentException e) {
+            ReportingUtils.logError("Unknown image queue overflow policy " +
+                  policyName + "; blocking instead");
+         }
+      }
+      return new TaggedImageQueue(capacityMB * 1024L * 1024L, bytesPerImage,
+            policy);
+   }
+
+   /**
+    * @param capacityBytes maximum total size of the pixel data in the queue;
+    *        a single image larger than this is still accepted when the queue
+    *        is empty
+    * @param bytesPerImage expected size of each image's pixel data, used to
+    *        size the ring
+    * @param policy what to do when an image does not fit
+    */
+   public TaggedImageQueue(long capacityBytes, long bytesPerImage,
+         OverflowPolicy policy)
+   {
+      capacityBytes_ = Math.max(1, capacityBytes);
+      long slots = capacityBytes_ / Math.max(1, bytesPerImage);
+      // One extra slot so that the poison fits behind a full queue
+      numSlots_ = (int) Math.min(MAX_SLOTS, Math.max(1, slots) + 1);
+      slots_ = new AtomicReferenceArray<TaggedImage>(numSlots_);
+      policy_ = policy;
+      spill_ = policy == OverflowPolicy.SPILL_TO_DISK ? new Spill() : null;
+   }
+
+   public OverflowPolicy getOverflowPolicy() {
+      return policy_;
+   }
+
+   public long getCapacityBytes() {
+      return capacityBytes_;
+   }
+
+   /** The largest total size of queued pixel data seen so far. */
+   public long getHighWaterMarkBytes() {
+      return highWaterMarkBytes_;
+   }
+
+   /** Number of times the producer had to wait for room. */
+   public long getStallCount() {
+      return stallCount_;
+   }
+
+   /** Total time the producer has spent waiting for room. */
+   public long getStallTimeMs() {
+      return stallNs_ / 1000000;
+   }
+
+   /** Number of images discarded under {@link OverflowPolicy#DROP_OLDEST}. */
+   public long getDroppedCount() {
+      return droppedCount_;
+   }
+
+   /** Number of images written to disk under
+    * {@link OverflowPolicy#SPILL_TO_DISK}. */
+   public long getSpilledCount() {
+      return spilledCount_;
+   }
+
+   /**
+    * Report occupancy, high-water mark, stalls and overflow counts to the
+    * given monitor as images are removed.
+    * @param perfMon the monitor, or null to stop reporting
+    */
+   public void setPerformanceMonitor(PerformanceMonitor perfMon) {
+      perfMon_ = perfMon;
+   }
+
+   private static long sizeOf(TaggedImage image) {
+      Object pix = image.pix;
+      if (pix instanceof byte[]) {
+         return ((byte[]) pix).length;
+      }
+      if (pix instanceof short[]) {
+         return 2L * ((short[]) pix).length;
+      }
+      if (pix instanceof int[]) {
+         return 4L * ((int[]) pix).length;
+      }
+      if (pix instanceof float[]) {
+         return 4L * ((float[]) pix).length;
+      }
+      return 0;
+   }
+
+   private int indexOf(long sequence) {
+      return (int) (sequence % numSlots_);
+   }
+
+   //
+   // Producer side
+   //
+
+   private boolean hasRoomFor(long bytes) {
+      long tail = tail_.get();
+      long head = head_.get();
+      if (tail - head >= numSlots_) {
+         return false;
+      }
+      return tail == head || bytes_.get() + bytes <= capacityBytes_;
+   }
+
+   private void publish(TaggedImage image, long bytes) {
+      long tail = tail_.get();
+      slots_.set(indexOf(tail), image);
+      long queued = bytes_.addAndGet(bytes);
+      if (queued > highWaterMarkBytes_) {
+         highWaterMarkBytes_ = queued;
+      }
+      // Must be a volatile write, so that it cannot be reordered with the
+      // read of waitingConsumer_ (otherwise a wake-up could be lost)
+      tail_.set(tail + 1);
+      signalConsumer();
+   }
+
+   private void signalConsumer() {
+      Thread consumer = waitingConsumer_;
+      if (consumer != null) {
+         LockSupport.unpark(consumer);
+      }
+   }
+
+   private void signalProducer() {
+      Thread producer = waitingProducer_;
+      if (producer != null) {
+         LockSupport.unpark(producer);
+      }
+   }
+
+   private boolean trySpill(TaggedImage image) {
+      if (!spill_.tryWrite(image)) {
+         return false;
+      }
+      ++spilledCount_;
+      signalConsumer();
+      return true;
+   }
+
+   /**
+    * Try to insert without waiting, applying the overflow policy.
+    * @return false if the image must wait for room
+    */
+   private boolean tryInsert(TaggedImage image) {
+      long bytes = sizeOf(image);
+      if (spill_ != null && spill_.hasImages()) {
+         // Keep order: once spilling, spill until the consumer catches up
+         return trySpill(image);
+      }
+      if (hasRoomFor(bytes)) {
+         publish(image, bytes);
+         return true;
+      }
+      switch (policy_) {
+         case DROP_OLDEST:
+            while (!hasRoomFor(bytes) && removeFromRing() != null) {
+               ++droppedCount_;
+            }
+            publish(image, bytes);
+            return true;
+         case SPILL_TO_DISK:
+            return trySpill(image);
+         default:
+            return false;
+      }
+   }
+
+   private boolean isFullFor(TaggedImage image) {
+      if (spill_ != null && spill_.hasImages()) {
+         return spill_.isFailed();
+      }
+      return !hasRoomFor(sizeOf(image));
+   }
+
+   /**
+    * Insert, waiting for room if necessary.
+    * @param timeoutNs maximum time to wait, or negative to wait indefinitely
+    * @return false if the timeout elapsed
+    */
+   private boolean insert(TaggedImage image, long timeoutNs)
+         throws InterruptedException
+   {
+      if (image == null) {
+         throw new NullPointerException();
+      }
+      if (tryInsert(image)) {
+         return true;
+      }
+      ++stallCount_;
+      long start = System.nanoTime();
+      try {
+         while (true) {
+            long remaining = timeoutNs;
+            if (timeoutNs >= 0) {
+               remaining = timeoutNs - (System.nanoTime() - start);
+               if (remaining <= 0) {
+                  return false;
+               }
+            }
+            waitingProducer_ = Thread.currentThread();
+            if (isFullFor(image)) {
+               if (remaining < 0) {
+                  LockSupport.park(this);
+               }
+               else {
+                  LockSupport.parkNanos(this, remaining);
+               }
+            }
+            waitingProducer_ = null;
+            if (Thread.interrupted()) {
+               throw new InterruptedException();
+            }
+            if (tryInsert(image)) {
+               return true;
+            }
+         }
+      }
+      finally {
+         waitingProducer_ = null;
+         stallNs_ += System.nanoTime() - start;
+      }
+   }
+
+   @Override
+   public boolean offer(TaggedImage image) {
+      if (image == null) {
+         throw new NullPointerException();
+      }
+      return tryInsert(image);
+   }
+
+   @Override
+   public boolean offer(TaggedImage image, long timeout, TimeUnit unit)
+         throws InterruptedException
+   {
+      return insert(image, Math.max(0, unit.toNanos(timeout)));
+   }
+
+   @Override
+   public void put(TaggedImage image) throws InterruptedException {
+      insert(image, -1);
+   }
+
+   @Override
+   public int remainingCapacity() {
+      return (int) (numSlots_ - (tail_.get() - head_.get()));
+   }
+
+   //
+   // Consumer side (but the producer removes images to drop or clear them)
+   //
+
+   private TaggedImage removeFromRing() {
+      while (true) {
+         long head = head_.get();
+         if (head >= tail_.get()) {
+            return null;
+         }
+         int index = indexOf(head);
+         TaggedImage image = slots_.get(index);
+         if (head_.compareAndSet(head, head + 1)) {
+            // Release the reference unless the producer has already reused
+            // the slot
+            slots_.compareAndSet(index, image, null);
+            bytes_.addAndGet(-sizeOf(image));
+            signalProducer();
+            return image;
+         }
+      }
+   }
+
+   /**
+    * Remove the oldest image, from the ring if it has any, otherwise from
+    * the spill file.
+    * <p>
+    * Images in the ring always precede those in the spill file, because the
+    * producer only uses the ring while nothing is spilled. But after
+    * removeFromRing() has found the ring empty, the producer may see the
+    * spill file empty too, refill the ring, and spill again, so the ring is
+    * checked again while holding the spill's lock, which the producer needs
+    * in order to spill.
+    */
+   private TaggedImage removeFromRingOrSpill() {
+      while (true) {
+         TaggedImage image = removeFromRing();
+         if (image != null || spill_ == null) {
+            return image;
+         }
+         synchronized (spill_) {
+            if (head_.get() >= tail_.get()) {
+               image = spill_.read();
+               if (image != null) {
+                  signalProducer();
+               }
+               return image;
+            }
+         }
+      }
+   }
+
+   @Override
+   public TaggedImage poll() {
+      TaggedImage image = removeFromRingOrSpill();
+      if (image != null) {
+         sampleStatistics();
+         if (isPoison(image) && spill_ != null) {
+            spill_.close();
+         }
+      }
+      return image;
+   }
+
+   private boolean isEmptyForConsumer() {
+      return head_.get() >= tail_.get() &&
+            (spill_ == null || !spill_.hasImages());
+   }
+
+   /**
+    * Remove, waiting for an image if necessary.
+    * @param timeoutNs maximum time to wait, or negative to wait indefinitely
+    * @return null if the timeout elapsed
+    */
+   private TaggedImage remove(long timeoutNs) throws InterruptedException {
+      TaggedImage image = poll();
+      if (image != null) {
+         return image;
+      }
+      long start = System.nanoTime();
+      try {
+         while (true) {
+            long remaining = timeoutNs;
+            if (timeoutNs >= 0) {
+               remaining = timeoutNs - (System.nanoTime() - start);
+               if (remaining <= 0) {
+                  return null;
+               }
+            }
+            waitingConsumer_ = Thread.currentThread();
+            if (isEmptyForConsumer()) {
+               if (remaining < 0) {
+                  LockSupport.park(this);
+               }
+               else {
+                  LockSupport.parkNanos(this, remaining);
+               }
+            }
+            waitingConsumer_ = null;
+            if (Thread.interrupted()) {
+               throw new InterruptedException();
+            }
+            image = poll();
+            if (image != null) {
+               return image;
+            }
+         }
+      }
+      finally {
+         waitingConsumer_ = null;
+      }
+   }
+
+   @Override
+   public TaggedImage take() throws InterruptedException {
+      return remove(-1);
+   }
+
+   @Override
+   public TaggedImage poll(long timeout, TimeUnit unit)
+         throws InterruptedException
+   {
+      return remove(Math.max(0, unit.toNanos(timeout)));
+   }
+
+   @Override
+   public TaggedImage peek() {
+      long head = head_.get();
+      if (head < tail_.get()) {
+         return slots_.get(indexOf(head));
+      }
+      if (spill_ != null && spill_.hasImages()) {
+         throw new UnsupportedOperationException(
+               "Cannot peek at images spilled to disk");
+      }
+      return null;
+   }
+
+   @Override
+   public int size() {
+      int size = (int) (tail_.get() - head_.get());
+      if (spill_ != null) {
+         size += spill_.size();
+      }
+      return size;
+   }
+
+   @Override
+   public void clear() {
+      while (removeFromRing() != null) {
+         // Keep removing
+      }
+      if (spill_ != null) {
+         spill_.clear();
+      }
+   }
+
+   @Override
+   public int drainTo(Collection<? super TaggedImage> c) {
+      return drainTo(c, Integer.MAX_VALUE);
+   }
+
+   @Override
+   public int drainTo(Collection<? super TaggedImage> c, int maxElements) {
+      int count = 0;
+      TaggedImage image;
+      while (count < maxElements && (image = poll()) != null) {
+         c.add(image);
+         ++count;
+      }
+      return count;
+   }
+
+   @Override
+   public Iterator<TaggedImage> iterator() {
+      throw new UnsupportedOperationException(
+            "Iteration over the image queue is not supported");
+   }
+
+   @Override
+   public boolean remove(Object o) {
+      throw new UnsupportedOperationException(
+            "Removal of specific images is not supported");
+   }
+
+   private void sampleStatistics() {
+      PerformanceMonitor perfMon = perfMon_;
+      if (perfMon == null) {
+         return;
+      }
+      perfMon.sample("Image queue occupancy (MB)",
+            bytes_.get() / (1024.0 * 1024.0));
+      perfMon.sample("Image queue high-water mark (MB)",
+            highWaterMarkBytes_ / (1024.0 * 1024.0));
+      perfMon.sample("Image queue producer stalls", stallCount_);
+      perfMon.sample("Image queue producer stall time (ms)",
+            stallNs_ / 1e6);
+      if (policy_ == OverflowPolicy.DROP_OLDEST) {
+         perfMon.sample("Image queue dropped images", droppedCount_);
+      }
+      else if (policy_ == OverflowPolicy.SPILL_TO_DISK) {
+         perfMon.sample("Image queue spilled images", spilledCount_);
+      }
+   }
+
+   /**
+    * Images written to a temporary file, in order. Each record is a header
+    * (pixel type, pixel count, tag length) followed by the pixels and the
+    * tags as JSON. This is the slow path, so a lock is fine here.
+    */
+   private static final class Spill {
+      private static final byte POISON_RECORD = 0;
+      private static final byte BYTE_PIXELS = 1;
+      private static final byte SHORT_PIXELS = 2;
+      private static final byte INT_PIXELS = 3;
+      private static final int HEADER_SIZE = 9;
+      private static final Charset UTF8 = Charset.forName("UTF-8");
+
+      // Guarded by monitor on this, like the file positions; atomic so that
+      // it can also be read without the lock
+      private final AtomicInteger count_ = new AtomicInteger(0);
+      private volatile boolean failed_ = false;
+      private File file_;
+      private RandomAccessFile raf_;
+      private FileChannel channel_;
+      private long writePosition_ = 0;
+      private long readPosition_ = 0;
+
+      boolean hasImages() {
+         return count_.get() > 0;
+      }
+
+      int size() {
+         return count_.get();
+      }
+
+      boolean isFailed() {
+         return failed_;
+      }
+
+      /**
+       * @return false if the image could not be written (the caller should
+       *         then wait for room in memory)
+       */
+      synchronized boolean tryWrite(TaggedImage image) {
+         if (failed_) {
+            return false;
+         }
+         try {
+            ByteBuffer record = encode(image);
+            if (channel_ == null) {
+               file_ = File.createTempFile("mm-acquisition-spill", ".bin");
+               file_.deleteOnExit();
+               raf_ = new RandomAccessFile(file_, "rw");
+               channel_ = raf_.getChannel();
+            }
+            while (record.hasRemaining()) {
+               writePosition_ += channel_.write(record, writePosition_);
+            }
+            count_.incrementAndGet();
+            return true;
+         }
+         catch (IOException e) {
+            ReportingUtils.logError(e,
+                  "Failed to spill image to disk; waiting for room instead");
+            failed_ = true;
+            return false;
+         }
+      }
+
+      synchronized TaggedImage read() {
+         if (count_.get() == 0) {
+            return null;
+         }
+         try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).
+                  order(ByteOrder.nativeOrder());
+            readFully(header, readPosition_);
+            header.flip();
+            byte kind = header.get();
+            int numPixels = header.getInt();
+            int tagLength = header.getInt();
+            int pixelBytes = numPixels * bytesPerPixel(kind);
+            ByteBuffer body = ByteBuffer.allocate(pixelBytes + tagLength).
+                  order(ByteOrder.nativeOrder());
+            readFully(body, readPosition_ + HEADER_SIZE);
+            body.flip();
+            readPosition_ += HEADER_SIZE + pixelBytes + tagLength;
+            if (count_.decrementAndGet() == 0) {
+               // Caught up; start over at the beginning of the file
+               readPosition_ = 0;
+               writePosition_ = 0;
+            }
+            if (kind == POISON_RECORD) {
+               return POISON;
+            }
+            Object pix;
+            switch (kind) {
+               case BYTE_PIXELS:
+                  pix = new byte[numPixels];
+                  body.get((byte[]) pix);
+                  break;
+               case SHORT_PIXELS:
+                  pix = new short[numPixels];
+                  body.asShortBuffer().get((short[]) pix);
+                  break;
+               default:
+                  pix = new int[numPixels];
+                  body.asIntBuffer().get((int[]) pix);
+                  break;
+            }
+            body.position(pixelBytes);
+            byte[] tags = new byte[tagLength];
+            body.get(tags);
+            return new TaggedImage(pix,
+                  new JSONObject(new String(tags, UTF8)));
+         }
+         catch (IOException e) {
+            throw new IllegalStateException(
+                  "Failed to read back image spilled to disk", e);
+         }
+         catch (JSONException e) {
+            throw new IllegalStateException(
+                  "Failed to read back image spilled to disk", e);
+         }
+      }
+
+      synchronized void clear() {
+         count_.set(0);
+         readPosition_ = 0;
+         writePosition_ = 0;
+      }
+
+      synchronized void close() {
+         clear();
+         if (channel_ != null) {
+            try {
+               raf_.close();
+            }
+            catch (IOException e) {
+               ReportingUtils.logError(e, "Failed to close image spill file");
+            }
+            if (!file_.delete()) {
+               ReportingUtils.logError("Failed to delete " + file_);
+            }
+            channel_ = null;
+            raf_ = null;
+            file_ = null;
+         }
+      }
+
+      private void readFully(ByteBuffer buffer, long position)
+            throws IOException
+      {
+         while (buffer.hasRemaining()) {
+            int n = channel_.read(buffer, position);
+            if (n < 0) {
+               throw new IOException("Unexpected end of image spill file");
+            }
+            position += n;
+         }
+      }
+
+      private static int bytesPerPixel(byte kind) {
+         switch (kind) {
+            case BYTE_PIXELS:
+               return 1;
+            case SHORT_PIXELS:
+               return 2;
+            case INT_PIXELS:
+               return 4;
+            default:
+               return 0;
+         }
+      }
+
+      private static ByteBuffer encode(TaggedImage image) throws IOException {
+         if (isPoison(image)) {
+            ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE).
+                  order(ByteOrder.nativeOrder());
+            record.put(POISON_RECORD).putInt(0).putInt(0);
+            record.flip();
+            return record;
+         }
+         byte kind;
+         int numPixels;
+         if (image.pix instanceof byte[]) {
+            kind = BYTE_PIXELS;
+            numPixels = ((byte[]) image.pix).length;
+         }
+         else if (image.pix instanceof short[]) {
+            kind = SHORT_PIXELS;
+            numPixels = ((short[]) image.pix).length;
+         }
+         else if (image.pix instanceof int[]) {
+            kind = INT_PIXELS;
+            numPixels = ((int[]) image.pix).length;
+         }
+         else {
+            throw new IOException("Cannot spill pixels of type " +
+                  image.pix.getClass().getName());
+         }
+         byte[] tags = image.tags.toString().getBytes(UTF8);
+         int pixelBytes = numPixels * bytesPerPixel(kind);
+         ByteBuffer record = ByteBuffer.allocate(
+               HEADER_SIZE + pixelBytes + tags.length).
+               order(ByteOrder.nativeOrder());
+         record.put(kind).putInt(numPixels).putInt(tags.length);
+         switch (kind) {
+            case BYTE_PIXELS:
+               record.put((byte[]) image.pix);
+               break;
+            case SHORT_PIXELS:
+               record.asShortBuffer().put((short[]) image.pix);
+               break;
+            default:
+               record.asIntBuffer().put((int[]) image.pix);
+               break;
+         }
+         record.position(HEADER_SIZE + pixelBytes);
+         record.put(tags);
+         record.flip();
+         return record;
+      }
+   }
 }
@@ -326,7 +326,9 @@ public interface DataManager {
     *        the pipeline (any result Image(s) have been added to the Datastore
     *        the Pipeline is connected to). If false, then a separate thread
     *        is created for each Processor in the Pipeline, in which that
-    *        Processor's work is done, and any call to Pipeline.insertImage()
+    *        Processor's work is done (Processors that declare themselves
+    *        parallel-safe may be given several threads; see
+    *        Processor.isParallelSafe()), and any call to Pipeline.insertImage()
     *        will return as soon as the first processor in the pipeline begins
     *        processing the image. The output images from the pipeline will
     *        arrive in the Datastore at some indeterminate later time.
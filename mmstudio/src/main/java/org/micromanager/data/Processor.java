@@ -52,6 +52,24 @@ public abstract class Processor {
     */
    public abstract void processImage(Image image, ProcessorContext context);
 
+   /**
+    * Return whether this Processor may be given several images at once.
+    * Asynchronous Pipelines can run a Processor that returns true here on
+    * several threads, so that processImage() is called concurrently for
+    * different images. Each of those calls gets its own ProcessorContext,
+    * and the Pipeline forwards the output Images in the order in which the
+    * input Images arrived. This is only appropriate for Processors that keep
+    * no state between images (for example, a Processor that flips or
+    * flat-field corrects each image independently). cleanup() is still
+    * called exactly once, after all calls to processImage() have returned.
+    * The default implementation returns false.
+    * @return true if processImage() may be called from several threads at
+    *         the same time
+    */
+   public boolean isParallelSafe() {
+      return false;
+   }
+
    /**
     * Clean up when processing is finished. At this time no more images are
     * going to be sent to the processImage method. The ProcessorContext is
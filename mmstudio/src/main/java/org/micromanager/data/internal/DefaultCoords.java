@@ -21,10 +21,10 @@
 package org.micromanager.data.internal;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.ArrayUtils;
 import org.micromanager.PropertyMap;
@@ -36,22 +36,80 @@ import static org.micromanager.data.Coords.TIME_POINT;
 import static org.micromanager.data.Coords.Z_SLICE;
 
 
+/**
+ * Coords stored as a single array of (axis id, index) pairs, where the axis
+ * ids come from a global dictionary of axis names. Coords are the keys of
+ * the image maps in every Storage, so equality and hashing (which ignore
+ * axis order) are computed without allocating or comparing strings, and the
+ * hash is computed once.
+ */
 public final class DefaultCoords implements Coords {
 
+   // Interned axis names. The names array is only ever replaced by a longer
+   // copy, under AXIS_IDS, so an id taken from AXIS_IDS can always be looked
+   // up in the current array.
+   private static final ConcurrentHashMap<String, Integer> AXIS_IDS =
+         new ConcurrentHashMap<String, Integer>();
+   private static volatile String[] axisNames_ = new String[0];
+
+   static {
+      for (String axis : new String[] {
+            CHANNEL, STAGE_POSITION, TIME_POINT, Z_SLICE}) {
+         addAxis(axis);
+      }
+   }
+
+   /**
+    * @return the id of the given axis, or -1 if no Coords has used it
+    */
+   private static int getAxisId(String axis) {
+      Integer id = AXIS_IDS.get(axis);
+      return id == null ? -1 : id;
+   }
+
+   private static int internAxis(String axis) {
+      int id = getAxisId(axis);
+      if (id >= 0) {
+         return id;
+      }
+      Preconditions.checkArgument(isValidAxis(axis), "Invalid axis name");
+      return addAxis(axis);
+   }
+
+   private static int addAxis(String axis) {
+      synchronized (AXIS_IDS) {
+         int id = getAxisId(axis);
+         if (id < 0) {
+            String[] names = Arrays.copyOf(axisNames_, axisNames_.length + 1);
+            id = names.length - 1;
+            names[id] = axis;
+            axisNames_ = names;
+            AXIS_IDS.put(axis, id);
+         }
+         return id;
+      }
+   }
+
+   private static int hashEntry(int axisId, int index) {
+      int h = index * 0x9e3779b9 + axisId;
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      return h ^ (h >>> 13);
+   }
+
    public static class Builder implements Coords.Builder {
-      // Since we only hold several axes, array lists are likely more efficient
-      // than a LinkedHashMap
-      private final List<String> axes_;
-      private final List<Integer> indices_;
+      // (axis id, index) pairs, in the order the axes were added
+      private int[] entries_;
+      private int length_;
 
       public Builder() {
-         axes_ = new ArrayList<String>(5);
-         indices_ = new ArrayList<Integer>(5);
+         entries_ = new int[10];
+         length_ = 0;
       }
 
-      private Builder(List<String> axes, List<Integer> indices) {
-         axes_ = new ArrayList<String>(axes);
-         indices_ = new ArrayList<Integer>(indices);
+      private Builder(int[] entries) {
+         entries_ = Arrays.copyOf(entries, Math.max(10, entries.length));
+         length_ = entries.length;
       }
 
       @Override
@@ -61,43 +119,54 @@ public final class DefaultCoords implements Coords {
 
       @Override
       public Builder index(String axis, int index) {
-         Preconditions.checkArgument(isValidAxis(axis), "Invalid axis name");
          if (index < 0) {
+            Preconditions.checkArgument(isValidAxis(axis), "Invalid axis name");
             return removeAxis(axis);
          }
 
-         removeAxis(axis);
-         axes_.add(axis);
-         indices_.add(index);
+         int id = internAxis(axis);
+         removeAxisId(id);
+         if (length_ == entries_.length) {
+            entries_ = Arrays.copyOf(entries_, 2 * length_);
+         }
+         entries_[length_++] = id;
+         entries_[length_++] = index;
          return this;
       }
 
       @Override
       public Builder removeAxis(String axis) {
-         int i = axes_.indexOf(axis);
-         if (i >= 0) {
-            axes_.remove(i);
-            indices_.remove(i);
+         int id = getAxisId(axis);
+         if (id >= 0) {
+            removeAxisId(id);
          }
          return this;
       }
 
+      private void removeAxisId(int id) {
+         int i = find(entries_, length_, id);
+         if (i >= 0) {
+            System.arraycopy(entries_, i + 2, entries_, i, length_ - i - 2);
+            length_ -= 2;
+         }
+      }
+
       @Override
       public Builder offset(String axis, int offset)
             throws IllegalArgumentException, IndexOutOfBoundsException
       {
-         int i = axes_.indexOf(axis);
+         int i = find(entries_, length_, getAxisId(axis));
          if (i < 0) {
             throw new IllegalArgumentException(
                   "Coords does not have index for axis \"" + axis + "\"");
          }
-         int newIndex = indices_.get(i) + offset;
+         int newIndex = entries_[i + 1] + offset;
          if (newIndex < 0) {
             throw new IndexOutOfBoundsException(
                   "Offset would make Coords have negative index for axis \"" +
                         axis + "\"");
          }
-         indices_.set(i, newIndex);
+         entries_[i + 1] = newIndex;
          return this;
       }
 
@@ -115,23 +184,47 @@ public final class DefaultCoords implements Coords {
       @Override public Builder c(int channel) { return channel(channel); }
    }
 
-   // Since we only hold several axes, array lists are likely more efficient
-   // than a LinkedHashMap
-   private final List<String> axes_;
-   private final List<Integer> indices_;
+   /**
+    * @return the position of the pair for the given axis id in entries, or
+    * -1
+    */
+   private static int find(int[] entries, int length, int axisId) {
+      if (axisId < 0) {
+         return -1;
+      }
+      for (int i = 0; i < length; i += 2) {
+         if (entries[i] == axisId) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   // (axis id, index) pairs, in the order the axes were added
+   private final int[] entries_;
+   private final int hash_;
 
    public DefaultCoords(Builder builder) {
-      axes_ = ImmutableList.copyOf(builder.axes_);
-      indices_ = ImmutableList.copyOf(builder.indices_);
+      entries_ = Arrays.copyOf(builder.entries_, builder.length_);
+      // Summed so that axis order does not matter
+      int hash = 0;
+      for (int i = 0; i < entries_.length; i += 2) {
+         hash += hashEntry(entries_[i], entries_[i + 1]);
+      }
+      hash_ = hash;
    }
 
    @Override
    public int getIndex(String axis) {
-      int i = axes_.indexOf(axis);
-      if (i < 0) {
-         return -1;
+      String[] names = axisNames_;
+      for (int i = 0; i < entries_.length; i += 2) {
+         // Axis names are usually the constants in Coords, so this is
+         // typically an identity comparison
+         if (names[entries_[i]].equals(axis)) {
+            return entries_[i + 1];
+         }
       }
-      return indices_.get(i);
+      return -1;
    }
 
    @Override public int getTimePoint() { return getIndex(TIME_POINT); }
@@ -146,12 +239,17 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public List<String> getAxes() {
-      return new ArrayList<String>(axes_);
+      String[] names = axisNames_;
+      List<String> axes = new ArrayList<String>(entries_.length / 2);
+      for (int i = 0; i < entries_.length; i += 2) {
+         axes.add(names[entries_[i]]);
+      }
+      return axes;
    }
 
    @Override
    public boolean hasAxis(String axis) {
-      return axes_.contains(axis);
+      return getIndex(axis) >= 0;
    }
 
    @Override public boolean hasTimePointAxis() { return hasAxis(TIME_POINT); }
@@ -165,9 +263,20 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public boolean isSuperspaceCoordsOf(Coords other) {
-      for (String axis : axes_) {
+      if (other instanceof DefaultCoords) {
+         int[] otherEntries = ((DefaultCoords) other).entries_;
+         for (int i = 0; i < entries_.length; i += 2) {
+            int j = find(otherEntries, otherEntries.length, entries_[i]);
+            if (j < 0 || otherEntries[j + 1] != entries_[i + 1]) {
+               return false;
+            }
+         }
+         return true;
+      }
+      String[] names = axisNames_;
+      for (int i = 0; i < entries_.length; i += 2) {
          // If other doesn't have axis, -1 != this.getIndex(axis)
-         if (other.getIndex(axis) != getIndex(axis)) {
+         if (other.getIndex(names[entries_[i]]) != entries_[i + 1]) {
             return false;
          }
       }
@@ -187,7 +296,7 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public Builder copyBuilder() {
-      return new Builder(axes_, indices_);
+      return new Builder(entries_);
    }
 
    @Override
@@ -218,46 +327,38 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public boolean equals(Object other) {
+      if (other == this) {
+         return true;
+      }
+      if (other instanceof DefaultCoords) {
+         DefaultCoords coords = (DefaultCoords) other;
+         // Axis order is not considered for equality, but with equal
+         // lengths, each of our axes being in other makes the axes the same
+         return coords.hash_ == hash_ &&
+               coords.entries_.length == entries_.length &&
+               isSuperspaceCoordsOf(coords);
+      }
       if (!(other instanceof Coords)) {
          return false;
       }
       // Axis order is not considered for equality
-      List<String> thisAxes = getAxes();
       List<String> otherAxes = ((Coords) other).getAxes();
-      if (thisAxes.size() != otherAxes.size()) {
+      if (otherAxes.size() != entries_.length / 2) {
          return false;
       }
-      for (String axis : thisAxes) {
-         if (!otherAxes.contains(axis)) {
-            return false;
-         }
-         if (((Coords) other).getIndex(axis) != getIndex(axis)) {
-            return false;
-         }
-      }
-      return true;
+      return isSuperspaceCoordsOf((Coords) other);
    }
    
    @Override
    public int hashCode() {
-      // Axis order is not considered for equality
-      List<String> axes = getAxes();
-      Collections.sort(axes);
-      List<Integer> indices = new ArrayList<Integer>(axes.size());
-      for (String axis : axes) {
-         indices.add(getIndex(axis));
-      }
-      int hash = 3;
-      hash = 23 * hash + axes.hashCode();
-      hash = 23 * hash + indices.hashCode();
-      return hash;
+      return hash_;
    }
 
    @Override
    public String toString() {
       StringBuilder sb = new StringBuilder().append("<");
       boolean isFirst = true;
-      for (String axis : axes_) {
+      for (String axis : getAxes()) {
          if (!isFirst) {
             sb.append(" ");
          }
@@ -269,7 +370,7 @@ public final class DefaultCoords implements Coords {
 
    public PropertyMap toPropertyMap() {
       PropertyMap.Builder b = PropertyMaps.builder();
-      for (String axis : axes_) {
+      for (String axis : getAxes()) {
          b.putInteger(axis, getIndex(axis));
       }
       return b.build();
@@ -291,7 +392,7 @@ public final class DefaultCoords implements Coords {
    @Deprecated
    public String toNormalizedString() {
       StringBuilder sb = new StringBuilder();
-      for (String axis : axes_) {
+      for (String axis : getAxes()) {
          // Trailing commas are allowed
          sb.append(String.format("%s=%d,", axis, getIndex(axis)));
       }
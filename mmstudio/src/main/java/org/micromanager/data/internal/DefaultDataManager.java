@@ -54,6 +54,9 @@ import org.micromanager.internal.UserCancelledException;
 import org.micromanager.internal.utils.FileDialogs;
 import org.micromanager.internal.utils.JavaUtils;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.gui.PerformanceMonitorUI;
+import org.micromanager.propertymap.MutablePropertyMapView;
 
 /**
  * This implementation of the DataManager interface provides general utility
@@ -63,9 +66,18 @@ public final class DefaultDataManager implements DataManager {
    private static final String CANCEL_OPTION = "Cancel";
    private static final String CONTINUE_OPTION = "Continue";
    private static final String VIRTUAL_OPTION = "Use Virtual";
+   // Profile keys for tuning asynchronous pipelines
+   private static final String PIPELINE_QUEUE_DEPTH =
+         "number of images that may wait for each pipeline processor";
+   private static final String PIPELINE_WORKER_THREADS =
+         "number of threads for each parallel-safe pipeline processor";
    
    private final MMStudio studio_;
    private final ImageJConverter ijConverter_;
+   private final PerformanceMonitor pipelinePerfMon_ =
+         PerformanceMonitor.createWithTimeConstantMs(1000.0);
+   private final PerformanceMonitorUI pipelinePerfMonUI_ =
+         PerformanceMonitorUI.create(pipelinePerfMon_, "Pipeline Performance");
    
    public DefaultDataManager(MMStudio studio) {
       studio_ = studio;
@@ -313,7 +325,16 @@ public final class DefaultDataManager implements DataManager {
       for (ProcessorFactory factory : factories) {
          processors.add(factory.createProcessor());
       }
-      return new DefaultPipeline(processors, store, isSynchronous);
+      MutablePropertyMapView settings =
+            studio_.profile().getSettings(DefaultPipeline.class);
+      DefaultPipeline result = new DefaultPipeline(processors, store,
+            isSynchronous,
+            settings.getInteger(PIPELINE_QUEUE_DEPTH,
+                  DefaultPipeline.DEFAULT_QUEUE_DEPTH),
+            settings.getInteger(PIPELINE_WORKER_THREADS,
+                  DefaultPipeline.DEFAULT_WORKER_THREADS));
+      result.setPerformanceMonitor(pipelinePerfMon_);
+      return result;
    }
 
    @Override
@@ -42,10 +42,12 @@ public class DefaultDataSaver extends SwingWorker<Void, Void> {
       duplicate_ = new DefaultDatastore(mmStudio_);
 
       if (mode_ == Datastore.SaveMode.MULTIPAGE_TIFF) {
-         saver_ = new StorageMultipageTiff(MMStudio.getFrame(),
-                 duplicate_,
+         StorageMultipageTiff saver = new StorageMultipageTiff(
+                 MMStudio.getFrame(), duplicate_,
                  path_, true, true,
                  StorageMultipageTiff.getShouldSplitPositions());
+         saver.setWriteBigTiff(StorageMultipageTiff.getShouldWriteBigTiff());
+         saver_ = saver;
       } else if (mode_ == Datastore.SaveMode.SINGLEPLANE_TIFF_SERIES) {
          saver_ = new StorageSinglePlaneTiffSeries(duplicate_, path_, true);
       } else {
@@ -37,6 +37,7 @@ import org.micromanager.data.Coords;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.DatastoreRewriteException;
+import org.micromanager.data.DataProviderHasNewImageEvent;
 import org.micromanager.data.Image;
 import org.micromanager.data.Storage;
 import org.micromanager.data.SummaryMetadata;
@@ -46,6 +47,8 @@ import org.micromanager.internal.utils.FileDialogs;
 import org.micromanager.internal.utils.PrioritizedEventBus;
 import org.micromanager.internal.utils.ProgressBar;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.gui.PerformanceMonitorUI;
 
 
 public class DefaultDatastore implements Datastore {
@@ -77,6 +80,12 @@ public class DefaultDatastore implements Datastore {
    private static final FileFilter MULTIPAGEFILTER = new SaveFileFilter(
          MULTIPAGE_TIFF);
    private static final String PREFERRED_SAVE_FORMAT = "default format for saving data";
+
+   // Time spent in each subscriber's handlers, shared by all datastores
+   private static final PerformanceMonitor eventPerfMon_ =
+         PerformanceMonitor.createWithTimeConstantMs(1000.0);
+   private static final PerformanceMonitorUI eventPerfMonUI_ =
+         PerformanceMonitorUI.create(eventPerfMon_, "Datastore Events");
    
    protected Storage storage_ = null;
    protected String name_ = "Untitled";
@@ -91,6 +100,7 @@ public class DefaultDatastore implements Datastore {
    public DefaultDatastore(MMStudio mmStudio) {
       mmStudio_ = mmStudio;
       bus_ = new PrioritizedEventBus();
+      bus_.setPerformanceMonitor(eventPerfMon_);
    }
 
    /**
@@ -160,6 +170,21 @@ public class DefaultDatastore implements Datastore {
       bus_.register(obj, priority);
    }
 
+   /**
+    * Registers an object to receive events on a separate thread, so that
+    * its handlers do not slow down putImage(). Events are delivered in
+    * order, but if coalesceNewImages is true and new-image events arrive
+    * faster than they are handled, only the latest of a run of them is
+    * delivered.
+    * @param obj object to be registered
+    * @param coalesceNewImages whether new-image events may be skipped
+    */
+   public void registerForEventsAsynchronously(Object obj,
+         boolean coalesceNewImages) {
+      bus_.registerAsync(obj, coalesceNewImages ?
+            DataProviderHasNewImageEvent.class : null);
+   }
+
    @Override
    public void unregisterForEvents(Object obj) {
       bus_.unregister(obj);
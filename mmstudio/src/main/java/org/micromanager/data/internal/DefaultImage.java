@@ -25,9 +25,10 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import java.lang.ref.SoftReference;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 import mmcorej.TaggedImage;
 import org.json.JSONException;
@@ -38,6 +39,7 @@ import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
+import org.micromanager.internal.propertymap.MM1JSONSerializer;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.DirectBuffers;
 import org.micromanager.internal.utils.imageanalysis.ImageUtils;
@@ -49,17 +51,28 @@ import org.micromanager.internal.utils.ReportingUtils;
  * the image's index as part of a larger dataset (in the form of an
  * Coords instance).
  *
- * For efficiency during high-speed acquisitions, we store the image data in
- * a ByteBuffer or ShortBuffer. However, ImageJ wants to work with image data
- * in the form of byte[], short[], or int[] arrays (depending on pixel type).
- * getRawPixels(), the method exposed in the Image interface to access pixel
- * data, returns an ImageJ-style array, while getPixelBuffer (which is not
- * exposed in the API) returns the raw buffer.
+ * The image data is stored in a ByteBuffer or ShortBuffer. When the image is
+ * created from a Java array (the usual case: camera images, processor output,
+ * data read from files), the buffer simply wraps that array, which from then
+ * on belongs to the image and must not be modified. getRawPixels(), the
+ * method exposed in the Image interface to access pixel data, then returns
+ * the array itself without copying. Images backed by a direct buffer (such
+ * as memory-mapped file data) are copied to an array on the first call to
+ * getRawPixels(), and that copy is kept, softly referenced, for later calls.
+ * <p>
+ * Internal code that can work with buffers should prefer
+ * getReadOnlyPixelBuffer(), which never copies, regardless of how the pixels
+ * are stored. getPixelBuffer() returns the underlying buffer itself.
  */
 public final class DefaultImage implements Image {
    private DefaultMetadata metadata_;
    private Coords coords_;
    private Buffer rawPixels_;
+   // If rawPixels_ is a direct buffer: the array returned by getRawPixels(),
+   // shared by the display, statistics and rendering code that each ask for
+   // the pixels of a displayed plane. Softly referenced so that it does not
+   // undo the memory savings of images that are read through a mapping.
+   private volatile SoftReference<Object> pixelArray_;
 
    // Width of the image, in pixels
    int pixelWidth_;
@@ -87,13 +100,15 @@ public final class DefaultImage implements Image {
     */
    public DefaultImage(TaggedImage tagged, Coords coords, Metadata metadata)
          throws IllegalArgumentException {
-      String json = tagged.tags.toString();
+      // Convert the tags once, directly, and share the tree between the
+      // metadata, coords, and format readers below. Going through
+      // tags.toString() and re-parsing costs more than everything else here.
       JsonElement je;
       try {
-         je = new JsonParser().parse(json);
+         je = MM1JSONSerializer.fromJSONObject(tagged.tags);
       }
       catch (Exception unlikely) {
-         throw new IllegalArgumentException("Failed to parse JSON created from TaggedImage tags", unlikely);
+         throw new IllegalArgumentException("Failed to convert TaggedImage tags to JSON", unlikely);
       }
 
       if (metadata == null) {
@@ -127,7 +142,10 @@ public final class DefaultImage implements Image {
       metadata_ = (DefaultMetadata) metadata;
       coords_ = coords;
 
-      rawPixels_ = DirectBuffers.bufferFromArray(tagged.pix);
+      rawPixels_ = DirectBuffers.wrapArray(tagged.pix);
+      if (rawPixels_ == null) {
+         throw new IllegalArgumentException("Unsupported pixel array type");
+      }
       if (rawPixels_.capacity() == 0) {
          throw new IllegalArgumentException("Pixel data has length 0");
       }
@@ -167,7 +185,7 @@ public final class DefaultImage implements Image {
       metadata_ = metadata == null ? new DefaultMetadata.Builder().build() :
             (DefaultMetadata) metadata;
       coords_ = coords == null ? Coordinates.builder().build() : coords;
-      rawPixels_ = DirectBuffers.bufferFromArray(pixels);
+      rawPixels_ = DirectBuffers.wrapArray(pixels);
       pixelWidth_ = format.getInteger(PropertyKey.WIDTH.key(), 0);
       pixelHeight_ = format.getInteger(PropertyKey.HEIGHT.key(), 0);
       pixelType_ = format.getStringAsEnum(PropertyKey.PIXEL_TYPE.key(),
@@ -178,6 +196,34 @@ public final class DefaultImage implements Image {
       }
    }
 
+   /**
+    * Create an image that uses the given buffer as its pixel storage, without
+    * copying. The buffer, which must be a ByteBuffer or ShortBuffer with
+    * exactly the image's samples between 0 and its capacity, must not be
+    * modified afterwards. It may be direct (e.g. memory mapped from a file),
+    * in which case it must be in native byte order.
+    */
+   public DefaultImage(Buffer pixels, PropertyMap format, Coords coords,
+         Metadata metadata) throws IllegalArgumentException {
+      Preconditions.checkNotNull(pixels);
+      Preconditions.checkNotNull(format);
+      if (!(pixels instanceof ByteBuffer || pixels instanceof ShortBuffer)) {
+         throw new IllegalArgumentException("Unsupported pixel buffer type");
+      }
+      metadata_ = metadata == null ? new DefaultMetadata.Builder().build() :
+            (DefaultMetadata) metadata;
+      coords_ = coords == null ? Coordinates.builder().build() : coords;
+      rawPixels_ = pixels;
+      pixelWidth_ = format.getInteger(PropertyKey.WIDTH.key(), 0);
+      pixelHeight_ = format.getInteger(PropertyKey.HEIGHT.key(), 0);
+      pixelType_ = format.getStringAsEnum(PropertyKey.PIXEL_TYPE.key(),
+            PixelType.class, null);
+      if (pixelWidth_ * pixelHeight_ * pixelType_.getBytesPerPixel() !=
+            rawPixels_.capacity() * pixelType_.getBytesPerComponent()) {
+         throw new IllegalArgumentException("Image width, height, and pixel type do not match pixel buffer size");
+      }
+   }
+
    /**
     * @param pixels Assumed to be a Java array of either bytes or shorts.
     */
@@ -191,7 +237,7 @@ public final class DefaultImage implements Image {
       }
       coords_ = coords;
 
-      rawPixels_ = DirectBuffers.bufferFromArray(pixels);
+      rawPixels_ = DirectBuffers.wrapArray(pixels);
       if (rawPixels_ == null || rawPixels_.capacity() < width * height) {
          throw new IllegalArgumentException("Invalid pixel data " + pixels);
       }
@@ -213,11 +259,13 @@ public final class DefaultImage implements Image {
       metadata_ = (DefaultMetadata) metadata;
       coords_ = coords;
       if (source instanceof DefaultImage) {
-         // Just copy their Buffer over directly.
+         // Just copy their Buffer over directly, and their array copy of
+         // it, if any.
          rawPixels_ = ((DefaultImage) source).getPixelBuffer();
+         pixelArray_ = ((DefaultImage) source).pixelArray_;
       }
       else {
-         rawPixels_ = DirectBuffers.bufferFromArray(source.getRawPixels());
+         rawPixels_ = DirectBuffers.wrapArray(source.getRawPixelsCopy());
       }
       if (rawPixels_.capacity() == 0) {
          throw new IllegalArgumentException("Pixel data has length 0.");
@@ -260,16 +308,36 @@ public final class DefaultImage implements Image {
 
    /**
     * Note this returns a byte[], short[], or int[] array, not a ByteBuffer,
-    * ShortBuffer, or IntBuffer. Use getPixelBuffer() for that.
+    * ShortBuffer, or IntBuffer. Use getReadOnlyPixelBuffer() for that.
+    * <p>
+    * If the pixels are stored in a Java array, that array is returned without
+    * copying. Otherwise a copy is made on the first call and returned again
+    * as long as the garbage collector has not reclaimed it. Either way, the
+    * returned array must not be modified.
     */
    @Override
    public Object getRawPixels() {
-      return DirectBuffers.arrayFromBuffer(rawPixels_);
+      Object array = DirectBuffers.backingArray(rawPixels_);
+      if (array != null) {
+         return array;
+      }
+      SoftReference<Object> ref = pixelArray_;
+      array = ref == null ? null : ref.get();
+      if (array == null) {
+         // Concurrent first calls may each copy; any of the copies will do
+         array = DirectBuffers.arrayFromBuffer(rawPixels_);
+         pixelArray_ = new SoftReference<Object>(array);
+      }
+      return array;
    }
 
    @Override
    public Object getRawPixelsCopy() {
-      Object original = getRawPixels();
+      Object original = DirectBuffers.backingArray(rawPixels_);
+      if (original == null) {
+         // Already a fresh copy
+         return DirectBuffers.arrayFromBuffer(rawPixels_);
+      }
       Object copy;
       int length;
       if (original instanceof byte[]) {
@@ -294,10 +362,43 @@ public final class DefaultImage implements Image {
       return copy;
    }
 
+   /**
+    * Return the buffer holding the pixel data.
+    * <p>
+    * This is the image's own storage, which may be shared with other images
+    * (see copyWith()); callers must not modify its contents. The buffer may be
+    * a heap or a direct buffer.
+    */
    public Buffer getPixelBuffer() {
       return rawPixels_;
    }
 
+   /**
+    * Return a read-only view of the pixel data, without copying.
+    * <p>
+    * The returned buffer has its own position (zero) and limit (the number
+    * of samples), so it can be used from any thread without affecting other
+    * users of the image.
+    * @return a read-only ByteBuffer or ShortBuffer
+    */
+   public Buffer getReadOnlyPixelBuffer() {
+      Buffer view;
+      if (rawPixels_ instanceof ByteBuffer) {
+         view = ((ByteBuffer) rawPixels_).asReadOnlyBuffer();
+      }
+      else if (rawPixels_ instanceof ShortBuffer) {
+         view = ((ShortBuffer) rawPixels_).asReadOnlyBuffer();
+      }
+      else if (rawPixels_ instanceof IntBuffer) {
+         view = ((IntBuffer) rawPixels_).asReadOnlyBuffer();
+      }
+      else {
+         throw new UnsupportedOperationException("Unsupported pixel data type");
+      }
+      view.clear();
+      return view;
+   }
+
    // TODO Use ImgLib2
    @Override
    public Object getRawPixelsForComponent(int component) {
@@ -0,0 +1,134 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import org.micromanager.data.Coords;
+
+/**
+ * An index of the coords of the images in a Storage, answering
+ * getImagesMatching() queries without scanning every image.
+ * <p>
+ * Queries are answered from an inverted index for the set of axes in the
+ * query, which groups the image coords by their indices along those axes.
+ * The index for a set of axes is built the first time a query uses that set,
+ * and is then kept up to date as images are added and removed. Callers such
+ * as the display and ZProjector use only a few different sets of axes, so
+ * after the first query the cost is proportional to the number of results.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class ImageCoordsIndex {
+   private final HashSet<Coords> allCoords_ = new HashSet<Coords>();
+   // Sorted axis names -> (coords retaining only those axes -> image coords)
+   private final HashMap<List<String>, HashMap<Coords, HashSet<Coords>>>
+         axesToGroups_ =
+         new HashMap<List<String>, HashMap<Coords, HashSet<Coords>>>();
+
+   public synchronized void add(Coords coords) {
+      if (!allCoords_.add(coords)) {
+         return;
+      }
+      for (List<String> axes : axesToGroups_.keySet()) {
+         addToGroup(axesToGroups_.get(axes), axes, coords);
+      }
+   }
+
+   public synchronized void remove(Coords coords) {
+      if (!allCoords_.remove(coords)) {
+         return;
+      }
+      for (List<String> axes : axesToGroups_.keySet()) {
+         HashMap<Coords, HashSet<Coords>> groups = axesToGroups_.get(axes);
+         Coords key = groupKey(axes, coords);
+         if (key == null) {
+            continue;
+         }
+         HashSet<Coords> group = groups.get(key);
+         if (group != null) {
+            group.remove(coords);
+            if (group.isEmpty()) {
+               groups.remove(key);
+            }
+         }
+      }
+   }
+
+   public synchronized void clear() {
+      allCoords_.clear();
+      axesToGroups_.clear();
+   }
+
+   /**
+    * @return the coords of all images that lie in the subspace given by the
+    * query, i.e. that have the query's index along each of its axes
+    */
+   public synchronized List<Coords> getMatching(Coords query) {
+      List<String> axes = query.getAxes();
+      if (axes.isEmpty()) {
+         return new ArrayList<Coords>(allCoords_);
+      }
+      Collections.sort(axes);
+      HashMap<Coords, HashSet<Coords>> groups = axesToGroups_.get(axes);
+      if (groups == null) {
+         groups = new HashMap<Coords, HashSet<Coords>>();
+         for (Coords coords : allCoords_) {
+            addToGroup(groups, axes, coords);
+         }
+         axesToGroups_.put(axes, groups);
+      }
+      HashSet<Coords> group = groups.get(query);
+      if (group == null) {
+         return new ArrayList<Coords>();
+      }
+      return new ArrayList<Coords>(group);
+   }
+
+   private static void addToGroup(HashMap<Coords, HashSet<Coords>> groups,
+         List<String> axes, Coords coords) {
+      Coords key = groupKey(axes, coords);
+      if (key == null) {
+         return;
+      }
+      HashSet<Coords> group = groups.get(key);
+      if (group == null) {
+         group = new HashSet<Coords>();
+         groups.put(key, group);
+      }
+      group.add(coords);
+   }
+
+   /**
+    * @return the coords retaining only the given axes, or null if coords
+    * lacks any of them (and so matches no query on those axes)
+    */
+   private static Coords groupKey(List<String> axes, Coords coords) {
+      DefaultCoords.Builder builder = new DefaultCoords.Builder();
+      for (String axis : axes) {
+         int index = coords.getIndex(axis);
+         if (index < 0) {
+            return null;
+         }
+         builder.index(axis, index);
+      }
+      return builder.build();
+   }
+}
@@ -0,0 +1,279 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+/**
+ * Mirroring, rotation by multiples of 90 degrees, and cropping of
+ * single-component 8- and 16-bit pixel arrays, without going through an
+ * ImageJ ImageProcessor.
+ * <p>
+ * The transform is: mirror left-right (if requested), then rotate clockwise,
+ * then crop a rectangle of the result, all in one pass that writes each
+ * output pixel once. Any combination of these maps output pixels to input
+ * pixels with a constant step along output rows and along output columns.
+ * When the step along a row is +1 or -1 (rotation by 0 or 180 degrees), rows
+ * are copied or reversed in order. Otherwise (90 or 270 degrees) the input
+ * is read down its columns, which is done in square tiles so that the input
+ * rows and output rows touched by a tile stay in cache.
+ * <p>
+ * Mirroring and rotating agree with ImageJ's
+ * {@code ImageProcessor.flipHorizontal()}, {@code rotateRight()} and
+ * {@code rotateLeft()}.
+ */
+public final class PixelTransforms {
+   // Side of the square tiles, in pixels, for 90 and 270 degree rotations:
+   // 64 rows of 64 16-bit pixels in and out fit easily in L1/L2 cache
+   private static final int TILE = 64;
+
+   private PixelTransforms() {
+   }
+
+   /**
+    * @return true if the pixels (as returned by Image.getRawPixels()) can
+    *         be transformed by this class
+    */
+   public static boolean isSupported(Object pixels, int numComponents) {
+      return numComponents == 1 &&
+            (pixels instanceof byte[] || pixels instanceof short[]);
+   }
+
+   /** Width of the image after rotation by the given number of degrees. */
+   public static int rotatedWidth(int width, int height, int rotation) {
+      checkRotation(rotation);
+      return rotation == 90 || rotation == 270 ? height : width;
+   }
+
+   /** Height of the image after rotation by the given number of degrees. */
+   public static int rotatedHeight(int width, int height, int rotation) {
+      checkRotation(rotation);
+      return rotation == 90 || rotation == 270 ? width : height;
+   }
+
+   /**
+    * Mirror and/or rotate a whole image.
+    *
+    * @param pixels byte[] or short[], width * height
+    * @param mirror whether to mirror left-right before rotating
+    * @param rotation clockwise rotation in degrees (0, 90, 180 or 270)
+    * @return a new array of the same type, rotatedWidth() * rotatedHeight()
+    */
+   public static Object transform(Object pixels, int width, int height,
+         boolean mirror, int rotation) {
+      return transform(pixels, width, height, mirror, rotation, 0, 0,
+            rotatedWidth(width, height, rotation),
+            rotatedHeight(width, height, rotation));
+   }
+
+   /**
+    * Mirror and/or rotate an image and crop the result, in one pass.
+    *
+    * @param pixels byte[] or short[], width * height
+    * @param mirror whether to mirror left-right before rotating
+    * @param rotation clockwise rotation in degrees (0, 90, 180 or 270)
+    * @param x left of the crop, in the mirrored and rotated image
+    * @param y top of the crop, in the mirrored and rotated image
+    * @param outWidth width of the crop
+    * @param outHeight height of the crop
+    * @return a new array of the same type, outWidth * outHeight
+    */
+   public static Object transform(Object pixels, int width, int height,
+         boolean mirror, int rotation, int x, int y, int outWidth,
+         int outHeight) {
+      Object output;
+      if (pixels instanceof byte[]) {
+         output = new byte[outWidth * outHeight];
+      }
+      else if (pixels instanceof short[]) {
+         output = new short[outWidth * outHeight];
+      }
+      else {
+         throw new IllegalArgumentException("Unsupported pixel type " +
+               (pixels == null ? null : pixels.getClass().getSimpleName()));
+      }
+      transform(pixels, width, height, mirror, rotation, x, y, outWidth,
+            outHeight, output);
+      return output;
+   }
+
+   /**
+    * Crop an image.
+    *
+    * @return a new array of the same type as pixels, cropWidth * cropHeight
+    */
+   public static Object crop(Object pixels, int width, int height, int x,
+         int y, int cropWidth, int cropHeight) {
+      return transform(pixels, width, height, false, 0, x, y, cropWidth,
+            cropHeight);
+   }
+
+   /**
+    * Like {@link #transform(Object, int, int, boolean, int, int, int, int,
+    * int)}, writing into the given array.
+    *
+    * @param output array of the same type as pixels, at least
+    *        outWidth * outHeight long
+    */
+   public static void transform(Object pixels, int width, int height,
+         boolean mirror, int rotation, int x, int y, int outWidth,
+         int outHeight, Object output) {
+      int rotatedWidth = rotatedWidth(width, height, rotation);
+      int rotatedHeight = rotatedHeight(width, height, rotation);
+      if (x < 0 || y < 0 || outWidth < 0 || outHeight < 0 ||
+            x + outWidth > rotatedWidth || y + outHeight > rotatedHeight) {
+         throw new IllegalArgumentException("Crop " + outWidth + "x" +
+               outHeight + " at (" + x + ", " + y + ") is outside the " +
+               rotatedWidth + "x" + rotatedHeight + " image");
+      }
+      if (outWidth == 0 || outHeight == 0) {
+         return;
+      }
+
+      // Input (column, row) of output pixel (0, 0), and the change in input
+      // x and y for each output column and each output row, before mirroring
+      int column;
+      int row;
+      int columnStepX;
+      int rowStepX;
+      int columnStepY;
+      int rowStepY;
+      switch (rotation) {
+         case 0:
+            column = x;
+            row = y;
+            columnStepX = 1; rowStepX = 0;
+            columnStepY = 0; rowStepY = 1;
+            break;
+         case 90:
+            column = y;
+            row = height - 1 - x;
+            columnStepX = 0; rowStepX = 1;
+            columnStepY = -1; rowStepY = 0;
+            break;
+         case 180:
+            column = width - 1 - x;
+            row = height - 1 - y;
+            columnStepX = -1; rowStepX = 0;
+            columnStepY = 0; rowStepY = -1;
+            break;
+         default: // 270
+            column = width - 1 - y;
+            row = x;
+            columnStepX = 0; rowStepX = -1;
+            columnStepY = 1; rowStepY = 0;
+            break;
+      }
+      if (mirror) {
+         column = width - 1 - column;
+         columnStepX = -columnStepX;
+         rowStepX = -rowStepX;
+      }
+      int start = row * width + column;
+      int step = columnStepX + columnStepY * width;
+      int rowStep = rowStepX + rowStepY * width;
+
+      if (pixels instanceof byte[]) {
+         transformBytes((byte[]) pixels, start, step, rowStep,
+               (byte[]) output, outWidth, outHeight);
+      }
+      else if (pixels instanceof short[]) {
+         transformShorts((short[]) pixels, start, step, rowStep,
+               (short[]) output, outWidth, outHeight);
+      }
+      else {
+         throw new IllegalArgumentException("Unsupported pixel type " +
+               (pixels == null ? null : pixels.getClass().getSimpleName()));
+      }
+   }
+
+   private static void checkRotation(int rotation) {
+      if (rotation != 0 && rotation != 90 && rotation != 180 &&
+            rotation != 270) {
+         throw new IllegalArgumentException("Invalid rotation " + rotation +
+               "; must be 0, 90, 180 or 270");
+      }
+   }
+
+   // Output pixel (i, j) is input[start + i * step + j * rowStep]
+
+   private static void transformBytes(byte[] in, int start, int step,
+         int rowStep, byte[] out, int outWidth, int outHeight) {
+      if (step == 1) {
+         for (int j = 0; j < outHeight; ++j) {
+            System.arraycopy(in, start + j * rowStep, out, j * outWidth,
+                  outWidth);
+         }
+      }
+      else if (step == -1) {
+         for (int j = 0; j < outHeight; ++j) {
+            int src = start + j * rowStep;
+            int dst = j * outWidth;
+            for (int i = 0; i < outWidth; ++i) {
+               out[dst + i] = in[src - i];
+            }
+         }
+      }
+      else {
+         for (int j0 = 0; j0 < outHeight; j0 += TILE) {
+            int j1 = Math.min(outHeight, j0 + TILE);
+            for (int i0 = 0; i0 < outWidth; i0 += TILE) {
+               int i1 = Math.min(outWidth, i0 + TILE);
+               for (int j = j0; j < j1; ++j) {
+                  int src = start + j * rowStep;
+                  int dst = j * outWidth;
+                  for (int i = i0; i < i1; ++i) {
+                     out[dst + i] = in[src + i * step];
+                  }
+               }
+            }
+         }
+      }
+   }
+
+   private static void transformShorts(short[] in, int start, int step,
+         int rowStep, short[] out, int outWidth, int outHeight) {
+      if (step == 1) {
+         for (int j = 0; j < outHeight; ++j) {
+            System.arraycopy(in, start + j * rowStep, out, j * outWidth,
+                  outWidth);
+         }
+      }
+      else if (step == -1) {
+         for (int j = 0; j < outHeight; ++j) {
+            int src = start + j * rowStep;
+            int dst = j * outWidth;
+            for (int i = 0; i < outWidth; ++i) {
+               out[dst + i] = in[src - i];
+            }
+         }
+      }
+      else {
+         for (int j0 = 0; j0 < outHeight; j0 += TILE) {
+            int j1 = Math.min(outHeight, j0 + TILE);
+            for (int i0 = 0; i0 < outWidth; i0 += TILE) {
+               int i1 = Math.min(outWidth, i0 + TILE);
+               for (int j = j0; j < j1; ++j) {
+                  int src = start + j * rowStep;
+                  int dst = j * outWidth;
+                  for (int i = i0; i < i1; ++i) {
+                     out[dst + i] = in[src + i * step];
+                  }
+               }
+            }
+         }
+      }
+   }
+}
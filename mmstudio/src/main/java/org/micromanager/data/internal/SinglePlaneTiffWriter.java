@@ -0,0 +1,231 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import ij.IJ;
+import ij.io.TiffDecoder;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import org.micromanager.data.Image;
+
+/**
+ * Writes a single image plane to a TIFF file straight from its pixel
+ * buffer, in the same form as ImageJ's {@code FileSaver.saveAsTiff()}
+ * (uncompressed, one strip, the metadata JSON as the ImageJ "Info"
+ * property and the pixel size, Z step and frame interval as ImageJ
+ * calibration), so that the files read back the same way.
+ * <p>
+ * This class is thread-safe.
+ */
+final class SinglePlaneTiffWriter {
+   private static final ByteOrder BYTE_ORDER = ByteOrder.nativeOrder();
+
+   private static final char WIDTH = 256;
+   private static final char HEIGHT = 257;
+   private static final char BITS_PER_SAMPLE = 258;
+   private static final char COMPRESSION = 259;
+   private static final char PHOTOMETRIC_INTERPRETATION = 262;
+   private static final char IMAGE_DESCRIPTION = 270;
+   private static final char STRIP_OFFSETS = 273;
+   private static final char SAMPLES_PER_PIXEL = 277;
+   private static final char ROWS_PER_STRIP = 278;
+   private static final char STRIP_BYTE_COUNTS = 279;
+   private static final char X_RESOLUTION = 282;
+   private static final char Y_RESOLUTION = 283;
+   private static final char RESOLUTION_UNIT = 296;
+   private static final char IJ_METADATA_BYTE_COUNTS =
+         TiffDecoder.META_DATA_BYTE_COUNTS;
+   private static final char IJ_METADATA = TiffDecoder.META_DATA;
+
+   private static final char TYPE_BYTE = 1;
+   private static final char TYPE_ASCII = 2;
+   private static final char TYPE_SHORT = 3;
+   private static final char TYPE_LONG = 4;
+   private static final char TYPE_RATIONAL = 5;
+
+   private static final int IJ_MAGIC = 0x494a494a; // "IJIJ"
+   private static final int IJ_INFO = 0x696e666f; // "info"
+   private static final int IJ_HEADER_SIZE = 4 + 8;
+
+   // Denominator of the resolution rationals
+   private static final int RESOLUTION_SCALE = 1000000;
+
+   private SinglePlaneTiffWriter() {
+   }
+
+   /**
+    * @param file the file to write, which is replaced if it exists
+    * @param image an 8- or 16-bit grayscale or 32-bit RGB image
+    * @param info the metadata JSON, stored as the ImageJ "Info" property
+    * @param pixelSizeUm pixel size, or null if not calibrated
+    * @param zStepUm Z step, or null; only used if pixelSizeUm is set
+    * @param frameIntervalS frame interval in seconds, or null; only used if
+    * pixelSizeUm is set
+    * @throws IllegalArgumentException if the image format is not supported
+    */
+   static void write(File file, Image image, String info, Double pixelSizeUm,
+         Double zStepUm, Double frameIntervalS) throws IOException
+   {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int bytesPerPixel = image.getBytesPerPixel();
+      int numComponents = image.getNumComponents();
+      int samples;
+      int bitsPerSample;
+      if (numComponents == 3 && bytesPerPixel == 4) {
+         samples = 3;
+         bitsPerSample = 8;
+      }
+      else if (numComponents == 1 &&
+            (bytesPerPixel == 1 || bytesPerPixel == 2)) {
+         samples = 1;
+         bitsPerSample = 8 * bytesPerPixel;
+      }
+      else {
+         throw new IllegalArgumentException(String.format("Unexpected image format with %d bytes per pixel and %d components", bytesPerPixel, numComponents));
+      }
+      boolean calibrated = pixelSizeUm != null && pixelSizeUm > 0;
+
+      byte[] description = createDescription(calibrated, zStepUm,
+            frameIntervalS).getBytes(StandardCharsets.US_ASCII);
+      int numEntries = 15;
+      int ifdSize = 2 + numEntries * 12 + 4;
+      // Values that do not fit in their IFD entries follow the IFD
+      int bitsOffset = 8 + ifdSize;
+      int descriptionOffset = bitsOffset + (samples == 3 ? 6 : 0);
+      int xResolutionOffset = descriptionOffset + description.length;
+      int yResolutionOffset = xResolutionOffset + 8;
+      int ijCountsOffset = yResolutionOffset + 8;
+      int ijMetadataOffset = ijCountsOffset + 8;
+      int infoSize = 2 * info.length();
+      int pixelsOffset = ijMetadataOffset + IJ_HEADER_SIZE + infoSize;
+      int pixelBytes = width * height * samples * (bitsPerSample / 8);
+
+      ByteBuffer buffer = ByteBuffer.allocate(pixelsOffset + pixelBytes).
+            order(BYTE_ORDER);
+      buffer.put((byte) (BYTE_ORDER == ByteOrder.BIG_ENDIAN ? 'M' : 'I'));
+      buffer.put(buffer.get(0));
+      buffer.putChar((char) 42);
+      buffer.putInt(8);
+
+      // Entries must be sorted by tag
+      buffer.putChar((char) numEntries);
+      putEntry(buffer, WIDTH, TYPE_LONG, 1, width);
+      putEntry(buffer, HEIGHT, TYPE_LONG, 1, height);
+      if (samples == 3) {
+         putEntry(buffer, BITS_PER_SAMPLE, TYPE_SHORT, 3, bitsOffset);
+      }
+      else {
+         putShortEntry(buffer, BITS_PER_SAMPLE, bitsPerSample);
+      }
+      putShortEntry(buffer, COMPRESSION, 1);
+      putShortEntry(buffer, PHOTOMETRIC_INTERPRETATION, samples == 3 ? 2 : 1);
+      putEntry(buffer, IMAGE_DESCRIPTION, TYPE_ASCII, description.length,
+            descriptionOffset);
+      putEntry(buffer, STRIP_OFFSETS, TYPE_LONG, 1, pixelsOffset);
+      putShortEntry(buffer, SAMPLES_PER_PIXEL, samples);
+      putEntry(buffer, ROWS_PER_STRIP, TYPE_LONG, 1, height);
+      putEntry(buffer, STRIP_BYTE_COUNTS, TYPE_LONG, 1, pixelBytes);
+      putEntry(buffer, X_RESOLUTION, TYPE_RATIONAL, 1, xResolutionOffset);
+      putEntry(buffer, Y_RESOLUTION, TYPE_RATIONAL, 1, yResolutionOffset);
+      // No absolute unit; the unit is given in the description
+      putShortEntry(buffer, RESOLUTION_UNIT, 1);
+      putEntry(buffer, IJ_METADATA_BYTE_COUNTS, TYPE_LONG, 2, ijCountsOffset);
+      putEntry(buffer, IJ_METADATA, TYPE_BYTE, IJ_HEADER_SIZE + infoSize,
+            ijMetadataOffset);
+      buffer.putInt(0); // No next IFD
+
+      if (samples == 3) {
+         buffer.putChar((char) 8).putChar((char) 8).putChar((char) 8);
+      }
+      buffer.put(description);
+      int resolution = calibrated ?
+            (int) Math.round(RESOLUTION_SCALE / pixelSizeUm) : 1;
+      int scale = calibrated ? RESOLUTION_SCALE : 1;
+      buffer.putInt(resolution).putInt(scale);
+      buffer.putInt(resolution).putInt(scale);
+      buffer.putInt(IJ_HEADER_SIZE).putInt(infoSize);
+      buffer.putInt(IJ_MAGIC).putInt(IJ_INFO).putInt(1);
+      for (int i = 0; i < info.length(); ++i) {
+         buffer.putChar(info.charAt(i));
+      }
+
+      putPixels(buffer, image.getRawPixels(), samples);
+      buffer.flip();
+
+      FileOutputStream stream = new FileOutputStream(file);
+      try {
+         FileChannel channel = stream.getChannel();
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+      }
+      finally {
+         stream.close();
+      }
+   }
+
+   private static String createDescription(boolean calibrated,
+         Double zStepUm, Double frameIntervalS)
+   {
+      StringBuilder sb = new StringBuilder("ImageJ=").
+            append(IJ.getVersion()).append("\n");
+      if (calibrated) {
+         sb.append("unit=um\n");
+         if (zStepUm != null) {
+            sb.append("spacing=").append(zStepUm).append("\n");
+         }
+         if (frameIntervalS != null && frameIntervalS != 0.0) {
+            sb.append("finterval=").append(frameIntervalS).append("\n");
+         }
+      }
+      // ASCII values are null-terminated
+      return sb.append('\0').toString();
+   }
+
+   private static void putEntry(ByteBuffer buffer, char tag, char type,
+         int count, int value)
+   {
+      buffer.putChar(tag).putChar(type).putInt(count).putInt(value);
+   }
+
+   // A SHORT value is left-justified in the value field
+   private static void putShortEntry(ByteBuffer buffer, char tag, int value) {
+      buffer.putChar(tag).putChar(TYPE_SHORT).putInt(1).
+            putChar((char) value).putChar((char) 0);
+   }
+
+   private static void putPixels(ByteBuffer buffer, Object pixels,
+         int samples)
+   {
+      if (pixels instanceof short[]) {
+         short[] shorts = (short[]) pixels;
+         buffer.asShortBuffer().put(shorts);
+         buffer.position(buffer.position() + 2 * shorts.length);
+      }
+      else if (samples == 3) {
+         // Stored as BGRA
+         byte[] bgra = (byte[]) pixels;
+         for (int i = 0; i < bgra.length; i += 4) {
+            buffer.put(bgra[i + 2]).put(bgra[i + 1]).put(bgra[i]);
+         }
+      }
+      else {
+         buffer.put((byte[]) pixels);
+      }
+   }
+}
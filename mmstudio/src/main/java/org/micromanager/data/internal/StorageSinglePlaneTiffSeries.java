@@ -50,6 +50,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.micromanager.PropertyMap;
@@ -63,17 +67,32 @@ import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.JavaUtils;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.internal.utils.TextUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
+import org.micromanager.internal.MMStudio;
 
 /**
  * This class provides Image storage backed by a file system in which each
  * file contains a single 2D image plane. It descends from the old
  * TaggedImageStorageDiskDefault class.
+ * <p>
+ * Images are written in the background: putImage() only records the image
+ * and queues it. A single thread appends to the metadata.txt files (which
+ * must stay in order), then hands each image to a pool of threads that
+ * write the TIFF files in parallel. putImage() blocks once too much image
+ * data is waiting to be written, and freeze() waits for all writing to
+ * finish.
  */
 public final class StorageSinglePlaneTiffSeries implements Storage {
    private static final HashSet<String> ALLOWED_AXES = new HashSet<String>(
          Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
             Coords.STAGE_POSITION));
+   private static final int NUM_WRITING_THREADS = 4;
+   private static final String MAX_PENDING_WRITE_MB =
+         "maximum megabytes of image data waiting to be written to single-plane TIFF files";
+   private static final int DEFAULT_MAX_PENDING_WRITE_MB = 512;
+   private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().
+         setPrettyPrinting().create();
    private final DefaultDatastore store_;
    private final String dir_;
    private boolean firstElement_;
@@ -82,11 +101,28 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    private boolean isDatasetWritable_;
    private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
    private HashMap<Coords, String> coordsToFilename_;
+   private final ImageCoordsIndex coordsIndex_ = new ImageCoordsIndex();
    private HashMap<Integer, String> positionIndexToName_;
    private ArrayList<String> orderedChannelNames_;
    private Coords maxIndices_;
    private boolean isMultiPosition_;
 
+   // Appends to metadataStreams_ (which is only accessed on this thread
+   // until writing is finished) and then submits to writingExecutor_
+   private ThreadPoolExecutor metadataExecutor_;
+   private ThreadPoolExecutor writingExecutor_;
+
+   // Bytes of image data handed to the executors that have not been written
+   // yet. Guarded by pendingWriteLock_.
+   private final Object pendingWriteLock_ = new Object();
+   private long pendingWriteBytes_ = 0;
+   private long maxPendingWriteBytes_ =
+         DEFAULT_MAX_PENDING_WRITE_MB * 1024L * 1024L;
+
+   // Images that are not yet in their files, for getImage()
+   private final ConcurrentHashMap<Coords, Image> coordsToPendingImage_ =
+         new ConcurrentHashMap<Coords, Image>();
+
    public StorageSinglePlaneTiffSeries(DefaultDatastore store,
          String directory, boolean newDataSet) throws IOException {
       store_ = store;
@@ -112,6 +148,20 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       if (!isDatasetWritable_) {
          openExistingDataSet();
       }
+      else {
+         setMaxPendingWriteBytes(getMaxPendingWriteMB() * 1024L * 1024L);
+         metadataExecutor_ = new ThreadPoolExecutor(1, 1, 10,
+               TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+               ThreadFactoryFactory.createThreadFactory(
+                     "Image Sequence Metadata"));
+         metadataExecutor_.allowCoreThreadTimeOut(true);
+         writingExecutor_ = new ThreadPoolExecutor(NUM_WRITING_THREADS,
+               NUM_WRITING_THREADS, 10, TimeUnit.SECONDS,
+               new LinkedBlockingQueue<Runnable>(),
+               ThreadFactoryFactory.createThreadFactory(
+                     "Image Sequence Writing"));
+         writingExecutor_.allowCoreThreadTimeOut(true);
+      }
    }
 
    @Override
@@ -153,12 +203,53 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          fileName = positionPrefix + create14FileName(image.getCoords());
       }
       if (!amLoading_) {
+         final Image pendingImage = image;
+         final String pendingFileName = fileName;
+         final SummaryMetadata summary = summaryMetadata_;
+         final long numBytes = (long) image.getWidth() * image.getHeight() *
+               image.getBytesPerPixel();
+         reservePendingWriteBytes(numBytes);
+         coordsToPendingImage_.put(image.getCoords(), image);
+         metadataExecutor_.execute(new Runnable() {
+            @Override
+            public void run() {
+               writeMetadataAndStartWriting(pendingImage, pendingFileName,
+                     summary, numBytes);
+            }
+         });
+      }
+
+      Coords coords = image.getCoords();
+      if (!coordsToFilename_.containsKey(coords)) {
+         // TODO: is this in fact always the correct fileName? What if it
+         // isn't?  See the above code that branches based on amLoading_.
+         coordsToFilename_.put(coords, fileName);
+      }
+      coordsIndex_.add(coords);
+      // Update our tracking of the max index along each axis.
+      for (String axis : coords.getAxes()) {
+         if (coords.getIndex(axis) > maxIndices_.getIndex(axis)) {
+            maxIndices_ = maxIndices_.copyBuilder().index(
+                    axis, coords.getIndex(axis)).build();
+         }
+      }
+   }
+
+   /**
+    * Runs on the metadata thread.
+    */
+   private void writeMetadataAndStartWriting(final Image image,
+         final String fileName, final SummaryMetadata summary,
+         final long numBytes)
+   {
+      boolean submitted = false;
+      try {
          int imagePos = Math.max(0, image.getCoords().getStagePosition());
          if (!metadataStreams_.containsKey(imagePos)) {
             // No metadata for image at this location, means we haven't
             // written to its location before.
             try {
-               openNewDataSet(image);
+               openNewDataSet(image, summary);
             } catch (Exception ex) {
                ReportingUtils.logError(ex);
             }
@@ -185,38 +276,114 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
                  fileName(fileName).build();
          NonPropertyMapJSONFormats.metadata().addToGson(jo,
                ((DefaultMetadata) imgMetadata).toPropertyMap());
+         final String metadataJSON = GSON.toJson(jo);
 
-         Gson gson = new GsonBuilder().disableHtmlEscaping().
-               setPrettyPrinting().create();
-         String metadataJSON = gson.toJson(jo);
-
-         saveImageFile(image, dir_, fileName, metadataJSON);
          writeFrameMetadata(image, metadataJSON, fileName);
+         if (metadataExecutor_.getQueue().isEmpty()) {
+            flushMetadataStreams();
+         }
+
+         writingExecutor_.execute(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  saveImageFile(image, dir_, fileName, metadataJSON, summary);
+               }
+               finally {
+                  coordsToPendingImage_.remove(image.getCoords(), image);
+                  releasePendingWriteBytes(numBytes);
+               }
+            }
+         });
+         submitted = true;
+      }
+      finally {
+         if (!submitted) {
+            coordsToPendingImage_.remove(image.getCoords(), image);
+            releasePendingWriteBytes(numBytes);
+         }
       }
+   }
 
-      Coords coords = image.getCoords();
-      if (!coordsToFilename_.containsKey(coords)) {
-         // TODO: is this in fact always the correct fileName? What if it
-         // isn't?  See the above code that branches based on amLoading_.
-         coordsToFilename_.put(coords, fileName);
+   /**
+    * Set the maximum number of bytes that may be waiting to be written. When
+    * the limit is reached, calls to putImage() block until the writing
+    * threads have caught up.
+    */
+   public void setMaxPendingWriteBytes(long maxBytes) {
+      synchronized (pendingWriteLock_) {
+         maxPendingWriteBytes_ = maxBytes;
+         pendingWriteLock_.notifyAll();
       }
-      // Update our tracking of the max index along each axis.
-      for (String axis : coords.getAxes()) {
-         if (coords.getIndex(axis) > maxIndices_.getIndex(axis)) {
-            maxIndices_ = maxIndices_.copyBuilder().index(
-                    axis, coords.getIndex(axis)).build();
+   }
+
+   private void reservePendingWriteBytes(long numBytes) {
+      synchronized (pendingWriteLock_) {
+         boolean warned = false;
+         while (pendingWriteBytes_ > 0 &&
+               pendingWriteBytes_ + numBytes > maxPendingWriteBytes_) {
+            if (!warned) {
+               ReportingUtils.logMessage("Warning: writing queue behind by " +
+                     (pendingWriteBytes_ / 1024 / 1024) + " MB.");
+               warned = true;
+            }
+            try {
+               pendingWriteLock_.wait();
+            }
+            catch (InterruptedException e) {
+               ReportingUtils.logError(e, "Interrupted while waiting for image writing");
+               Thread.currentThread().interrupt();
+               break;
+            }
          }
+         pendingWriteBytes_ += numBytes;
       }
    }
 
+   private void releasePendingWriteBytes(long numBytes) {
+      synchronized (pendingWriteLock_) {
+         pendingWriteBytes_ -= numBytes;
+         pendingWriteLock_.notifyAll();
+      }
+   }
+
+   /**
+    * Wait for all images passed to putImage() to be written, and finish
+    * the metadata files.
+    */
    @Override
    public void freeze() {
+      if (isDatasetWritable_) {
+         // The metadata thread submits to the writing threads, so it must
+         // finish first
+         awaitTermination(metadataExecutor_);
+         awaitTermination(writingExecutor_);
+      }
       closeMetadataStreams();
       isDatasetWritable_ = false;
    }
 
+   private static void awaitTermination(ThreadPoolExecutor executor) {
+      executor.shutdown();
+      try {
+         int i = 0;
+         while (!executor.awaitTermination(4, TimeUnit.SECONDS)) {
+            ReportingUtils.logMessage("Waiting for image files to finish writing (" + i + ")...");
+            i++;
+         }
+      }
+      catch (InterruptedException e) {
+         ReportingUtils.logError("Image file finishing thread interrupted");
+         Thread.currentThread().interrupt();
+      }
+   }
+
    @Override
    public Image getImage(Coords coords) {
+      Image pendingImage = coordsToPendingImage_.get(coords);
+      if (pendingImage != null) {
+         return pendingImage;
+      }
       if (coordsToFilename_.get(coords) == null) {
          // We don't have that image.
          ReportingUtils.logError("Asked for image at " + coords + " that we don't know about");
@@ -296,17 +463,8 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    @Override
    public List<Image> getImagesMatching(Coords coords) {
       ArrayList<Image> result = new ArrayList<Image>();
-      for (Coords altCoords : coordsToFilename_.keySet()) {
-         boolean canUse = true;
-         for (String axis : coords.getAxes()) {
-            if (coords.getIndex(axis) != altCoords.getIndex(axis)) {
-               canUse = false;
-               break;
-            }
-         }
-         if (canUse) {
-            result.add(getImage(altCoords));
-         }
+      for (Coords altCoords : coordsIndex_.getMatching(coords)) {
+         result.add(getImage(altCoords));
       }
       return result;
    }
@@ -410,9 +568,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          JsonObject jo = new JsonObject();         
          NonPropertyMapJSONFormats.coords().addToGson(jo,
                ((DefaultCoords) image.getCoords()).toPropertyMap());
-         Gson gson = new GsonBuilder().disableHtmlEscaping().
-               setPrettyPrinting().create();
-         writeJSONMetadata(pos, gson.toJson(jo), coordsKey);
+         writeJSONMetadata(pos, GSON.toJson(jo), coordsKey);
 
          String mdKey = "Metadata-" + fileName;
          writeJSONMetadata(pos, metadataJSON, mdKey);
@@ -433,87 +589,42 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          }
          metadataStream.write("\"" + title + "\": ");
          metadataStream.write(json);
-         metadataStream.flush();
          firstElement_ = false;
       } catch (IOException e) {
          ReportingUtils.logError(e);
       }
    }
 
-   private void saveImageFile(Image image, String path, String tiffFileName,
-         String metadataJSON) {
-      ImagePlus imp;
+   // Called once the metadata thread has caught up, rather than after
+   // every entry
+   private void flushMetadataStreams() {
       try {
-         ImageProcessor ip;
-         int width = image.getWidth();
-         int height = image.getHeight();
-         Object pixels = image.getRawPixels();
-         int bytesPerPixel = image.getBytesPerPixel();
-         int numComponents = image.getNumComponents();
-         ImageProcessor proc;
-         if (numComponents == 3 && bytesPerPixel == 4) {
-            // 32-bit RGB
-            proc = new ColorProcessor(width, height);
-            int[] rgbPixels = new int[width * height];
-            byte[] rawPixels = (byte[]) pixels;
-            for (int i=0; i < width * height; i++) {
-               rgbPixels[i] = (rawPixels[4 * i + 3] << (Byte.SIZE * 3));
-               rgbPixels[i] |= (rawPixels[4 * i + 2] & 0xFF) << (Byte.SIZE * 2);
-               rgbPixels[i] |= (rawPixels[4 * i + 1] & 0xFF) << (Byte.SIZE * 1);
-               rgbPixels[i] |= (rawPixels[4 * i] & 0xFF);
-            }
-            ((ColorProcessor) proc).setPixels(rgbPixels);
+         for (Writer metadataStream : metadataStreams_.values()) {
+            metadataStream.flush();
          }
-         else if (numComponents == 1 && bytesPerPixel == 1) {
-            // Byte
-            proc = new ByteProcessor(width, height);
-            proc.setPixels((byte[]) pixels);
-         }
-         else if (numComponents == 1 && bytesPerPixel == 2) {
-            // Short
-            proc = new ShortProcessor(width, height);
-            proc.setPixels((short[]) pixels);
-         }
-         else {
-            throw new IllegalArgumentException(String.format("Unexpected image format with %d bytes per pixel and %d components", bytesPerPixel, numComponents));
-         }
-         saveImageProcessor(proc, image, path, tiffFileName, metadataJSON);
-      } catch (IllegalArgumentException ex) {
-         ReportingUtils.logError(ex);
+      } catch (IOException e) {
+         ReportingUtils.logError(e);
       }
    }
 
-
-   private void saveImageProcessor(ImageProcessor ip, Image image,
-         String path, String tiffFileName, String metadataJSON) {
-      // TODO: why is this check here?
-      if (ip == null) {
-         return;
+   private void saveImageFile(Image image, String path, String tiffFileName,
+         String metadataJSON, SummaryMetadata summary) {
+      Double zStepUm = summary.getZStepUm();
+      Double frameIntervalS = null;
+      if (summary.getWaitInterval() != null) {
+         frameIntervalS = summary.getWaitInterval() / 1000.0;
       }
-      ImagePlus imp = new ImagePlus(path + "/" + tiffFileName, ip);
-      applyPixelSizeCalibration(imp, image.getMetadata());
-      saveImagePlus(imp, image, path, tiffFileName, metadataJSON);
-   }
-
-   private void applyPixelSizeCalibration(final ImagePlus ip,
-         Metadata metadata) {
-      Double pixSizeUm = metadata.getPixelSizeUm();
-      if (pixSizeUm != null && pixSizeUm > 0) {
-         ij.measure.Calibration cal = new ij.measure.Calibration();
-         cal.setUnit("um");
-         cal.pixelWidth = pixSizeUm;
-         cal.pixelHeight = pixSizeUm;
-         if (summaryMetadata_.getWaitInterval() != null) {
-            cal.frameInterval = summaryMetadata_.getWaitInterval() / 1000.0;
-         }
-         if (summaryMetadata_.getZStepUm() != null) {
-            cal.pixelDepth = summaryMetadata_.getZStepUm();
-         }
-         ip.setCalibration(cal);
+      try {
+         SinglePlaneTiffWriter.write(new File(path, tiffFileName), image,
+               metadataJSON, image.getMetadata().getPixelSizeUm(), zStepUm,
+               frameIntervalS);
+      } catch (IOException ex) {
+         ReportingUtils.logError(ex, "Unable to write image file " + tiffFileName);
+      } catch (IllegalArgumentException ex) {
+         ReportingUtils.logError(ex);
       }
    }
 
-
    public void saveImagePlus(ImagePlus imp, Image image,
       String path, String tiffFileName, String metadataJSON) {
       imp.setProperty("Info", metadataJSON);
@@ -522,7 +633,8 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       fs.saveAsTiff(path + "/" + tiffFileName);
    }
 
-   private void openNewDataSet(Image image) throws IOException, Exception {
+   private void openNewDataSet(Image image, SummaryMetadata summary)
+         throws IOException, Exception {
       String posName = image.getMetadata().getPositionName();
       if (posName == null || posName.contentEquals("null")) {
          posName = "";
@@ -551,7 +663,6 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       // potentially locale-dependent.
       String time = image.getMetadata().getReceivedTime();
       // TODO: should we log if the date isn't available?
-      SummaryMetadata summary = summaryMetadata_;
       if (time != null && summary.getStartDate() == null) {
          summary = summary.copyBuilder().startDate(time.split(" ")[0]).build();
       }
@@ -564,9 +675,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       PropertyMap formatPmap = ((DefaultImage) image).formatToPropertyMap();
       PropertyKey.IJ_TYPE.storeInGsonObject(formatPmap, jo);
       PropertyKey.PIXEL_TYPE.storeInGsonObject(formatPmap, jo);
-      Gson gson = new GsonBuilder().disableHtmlEscaping().
-            setPrettyPrinting().create();
-      writeJSONMetadata(pos, gson.toJson(jo), "Summary");
+      writeJSONMetadata(pos, GSON.toJson(jo), "Summary");
    }
 
    private void closeMetadataStreams() {
@@ -785,4 +894,22 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    public void close() {
       // We don't maintain any state that needs to be cleaned up.
    }
+
+   /**
+    * The limit on image data waiting to be written; 512 MB unless set in
+    * the profile. Lower it on machines with little memory.
+    */
+   public static int getMaxPendingWriteMB() {
+      // Also used without the GUI, e.g. from scripts
+      if (MMStudio.getInstance() == null) {
+         return DEFAULT_MAX_PENDING_WRITE_MB;
+      }
+      return MMStudio.getInstance().profile().getSettings(StorageSinglePlaneTiffSeries.class).
+              getInteger(MAX_PENDING_WRITE_MB, DEFAULT_MAX_PENDING_WRITE_MB);
+   }
+
+   public static void setMaxPendingWriteMB(int megabytes) {
+      MMStudio.getInstance().profile().getSettings(StorageSinglePlaneTiffSeries.class).
+              putInteger(MAX_PENDING_WRITE_MB, megabytes);
+   }
 }
\ No newline at end of file
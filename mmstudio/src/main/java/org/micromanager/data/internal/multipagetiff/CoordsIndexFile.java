@@ -0,0 +1,204 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Multipage TIFF
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.data.internal.multipagetiff;
+
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.micromanager.data.Coords;
+import org.micromanager.data.internal.DefaultCoords;
+
+/**
+ * A sidecar file, kept next to the TIFF files of a dataset, that maps the
+ * coords of every image to the file and offset of its IFD, so that a
+ * dataset can be opened without reading the index map of each file.
+ * <p>
+ * The file is appended to as images are written. It starts with a magic
+ * number and a version, followed by records of three kinds: a file
+ * record (the UTF-8 name of a TIFF file, which gets the next file id), an
+ * image record (a file id, the channel, z, time and stage position indices,
+ * and the IFD offset), and an end record (the number of image records),
+ * written once the dataset is complete. Later image records for the same coords replace earlier ones,
+ * as in the index map. A file without an end record, as left behind by a
+ * crash, is ignored by {@link #read}.
+ */
+final class CoordsIndexFile {
+   static final String FILE_NAME = "MMStack.index";
+   static final int MAGIC = 0x4d4d4958; // "MMIX"
+   static final int VERSION = 1;
+
+   private static final byte FILE_RECORD = 1;
+   private static final byte IMAGE_RECORD = 2;
+   private static final byte END_RECORD = 3;
+   // The same axes, in the same order, as in the index map
+   private static final List<String> AXES = ImmutableList.of(
+         Coords.CHANNEL, Coords.Z, Coords.T, Coords.STAGE_POSITION);
+
+   private final DataOutputStream out_;
+   private final HashMap<String, Integer> fileIds_ =
+         new HashMap<String, Integer>();
+   private int numImages_ = 0;
+
+   private CoordsIndexFile(File file) throws IOException {
+      out_ = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file)));
+      out_.writeInt(MAGIC);
+      out_.writeInt(VERSION);
+   }
+
+   /**
+    * Start a new index file in the given directory, replacing any that
+    * exists.
+    */
+   static CoordsIndexFile create(File directory) throws IOException {
+      return new CoordsIndexFile(new File(directory, FILE_NAME));
+   }
+
+   synchronized void add(String fileName, Coords coords, long offset)
+         throws IOException {
+      Integer fileId = fileIds_.get(fileName);
+      if (fileId == null) {
+         fileId = fileIds_.size();
+         fileIds_.put(fileName, fileId);
+         byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+         out_.writeByte(FILE_RECORD);
+         out_.writeShort(name.length);
+         out_.write(name);
+      }
+      out_.writeByte(IMAGE_RECORD);
+      out_.writeInt(fileId);
+      for (String axis : AXES) {
+         out_.writeInt(coords.getIndex(axis));
+      }
+      out_.writeLong(offset);
+      numImages_++;
+   }
+
+   /**
+    * Mark the index as complete and close it. Call this only once every
+    * image it refers to has been written.
+    */
+   synchronized void finish() throws IOException {
+      out_.writeByte(END_RECORD);
+      out_.writeInt(numImages_);
+      out_.close();
+   }
+
+   /**
+    * Close the index without marking it as complete, so that it will not
+    * be used.
+    */
+   synchronized void abandon() {
+      try {
+         out_.close();
+      }
+      catch (IOException e) {
+         // Nothing we can do; the file is unusable anyway
+      }
+   }
+
+   /**
+    * Write a complete index for the given files.
+    * @param index the index map of each file, by file name
+    */
+   static void write(File directory,
+         Map<String, ? extends Map<Coords, Long>> index) throws IOException {
+      CoordsIndexFile file = create(directory);
+      try {
+         for (Map.Entry<String, ? extends Map<Coords, Long>> entry :
+               index.entrySet()) {
+            for (Map.Entry<Coords, Long> image : entry.getValue().entrySet()) {
+               file.add(entry.getKey(), image.getKey(), image.getValue());
+            }
+         }
+         file.finish();
+      }
+      catch (IOException e) {
+         file.abandon();
+         throw e;
+      }
+   }
+
+   /**
+    * Read the index in the given directory with a single read.
+    * @return the index map of each file, by file name, or null if there is
+    * no index, it is of another version, or it is incomplete or corrupt
+    */
+   static Map<String, HashMap<Coords, Long>> read(File directory)
+         throws IOException {
+      File file = new File(directory, FILE_NAME);
+      if (!file.isFile()) {
+         return null;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+      try {
+         if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+         }
+         List<HashMap<Coords, Long>> maps = new ArrayList<HashMap<Coords, Long>>();
+         Map<String, HashMap<Coords, Long>> result =
+               new HashMap<String, HashMap<Coords, Long>>();
+         int numImages = 0;
+         while (true) {
+            byte type = buffer.get();
+            if (type == FILE_RECORD) {
+               byte[] name = new byte[buffer.getChar()];
+               buffer.get(name);
+               HashMap<Coords, Long> map = new HashMap<Coords, Long>();
+               maps.add(map);
+               result.put(new String(name, StandardCharsets.UTF_8), map);
+            }
+            else if (type == IMAGE_RECORD) {
+               int fileId = buffer.getInt();
+               if (fileId < 0 || fileId >= maps.size()) {
+                  return null;
+               }
+               DefaultCoords.Builder builder = new DefaultCoords.Builder();
+               for (String axis : AXES) {
+                  builder.index(axis, buffer.getInt());
+               }
+               maps.get(fileId).put(builder.build(), buffer.getLong());
+               numImages++;
+            }
+            else if (type == END_RECORD) {
+               if (buffer.getInt() != numImages || buffer.hasRemaining()) {
+                  return null;
+               }
+               return result;
+            }
+            else {
+               return null;
+            }
+         }
+      }
+      catch (BufferUnderflowException e) {
+         // Truncated, or missing the end record
+         return null;
+      }
+   }
+}
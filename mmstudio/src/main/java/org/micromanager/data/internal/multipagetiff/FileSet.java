@@ -29,6 +29,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.micromanager.PropertyMap;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
@@ -48,6 +51,9 @@ class FileSet {
    private static final int SPACE_FOR_PARTIAL_OME_MD = 2000; //this should be more than enough
 
    private final LinkedList<MultipageTiffWriter> tiffWriters_;
+   // Each file set writes on its own thread, so that files for different
+   // positions are written in parallel
+   private final ThreadPoolExecutor writingExecutor_;
    private FileWriter mdWriter_;
    private final OMEMetadata omeMetadata_;
    private final String baseFilename_;
@@ -70,6 +76,9 @@ class FileSet {
       throws IOException {
       tiffWriters_ = new LinkedList<>();  
       masterStorage_ = masterStorage;
+      writingExecutor_ = new ThreadPoolExecutor(1, 1, 0,
+            TimeUnit.NANOSECONDS,
+            new LinkedBlockingQueue<java.lang.Runnable>());
       omeMetadata_ = omeMetadata;
       splitByXYPosition_ = splitByXYPosition;
       separateMetadataFile_ = separateMetadataFile;
@@ -80,13 +89,21 @@ class FileSet {
       currentTiffUUID_ = "urn:uuid:" + UUID.randomUUID().toString();
       //make first writer
       tiffWriters_.add(new MultipageTiffWriter(masterStorage_,
-            firstImage, currentTiffFilename_));
+            writingExecutor_, firstImage, currentTiffFilename_));
 
       if (separateMetadataFile_) {
          startMetadataFile();
       }
    }
 
+   /**
+    * The executor on which this file set's files are written. Tasks
+    * submitted to it run after all writes requested so far have been made.
+    */
+   public ThreadPoolExecutor getWritingExecutor() {
+      return writingExecutor_;
+   }
+
    public String getCurrentUUID() {
       return currentTiffUUID_;
    }
@@ -137,12 +154,14 @@ class FileSet {
    }
 
    public void writeImage(final Image imgIn) throws IOException {
-      //Add filename to image tags - needed by hasSpaceToWrite function
+      //Add filename to image tags - part of the metadata written to the IFD
       Image img = imgIn.copyWithMetadata(imgIn.getMetadata().
             copyBuilderPreservingUUID().fileName(currentTiffFilename_).
             build());
+      byte[] mdBytes = MultipageTiffWriter.serializeImageMetadata(img);
       //check if current writer is out of space, if so, make a new one
-      if (!tiffWriters_.getLast().hasSpaceToWrite(img, SPACE_FOR_PARTIAL_OME_MD)) {
+      if (!tiffWriters_.getLast().hasSpaceToWrite(mdBytes.length,
+               SPACE_FOR_PARTIAL_OME_MD)) {
          //write index map here but still need to call close() at end of acq
          tiffWriters_.getLast().finish();          
 
@@ -150,16 +169,17 @@ class FileSet {
          currentTiffUUID_ = "urn:uuid:" + UUID.randomUUID().toString();
          ifdCount_ = 0;
          tiffWriters_.add(new MultipageTiffWriter(masterStorage_,
-               img, currentTiffFilename_));
+               writingExecutor_, img, currentTiffFilename_));
          
          //Add new filename to image tags
          img = img.copyWithMetadata(img.getMetadata().
                copyBuilderPreservingUUID().fileName(currentTiffFilename_).
                build());
+         mdBytes = MultipageTiffWriter.serializeImageMetadata(img);
       }      
 
       //write image
-      tiffWriters_.getLast().writeImage(img);
+      tiffWriters_.getLast().writeImage(img, mdBytes);
 
       if (expectedImageOrder_) {
          if (splitByXYPosition_) {
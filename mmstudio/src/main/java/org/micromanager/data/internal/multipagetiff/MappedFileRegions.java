@@ -0,0 +1,163 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Multipage TIFF
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.data.internal.multipagetiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves reads from a file that is no longer being written as slices of
+ * memory-mapped windows of the file, without copying.
+ * <p>
+ * Windows are mapped on first use. Consecutive windows overlap, so that any
+ * read no longer than the overlap lies entirely in one window; longer reads
+ * that cross a window boundary fall back to reading from the channel. At
+ * most {@link #MAX_MAPPED_WINDOWS} windows, over all files, are kept; the
+ * least recently used window is dropped when another is mapped.
+ * <p>
+ * Dropped windows are unmapped by the garbage collector once no slice of
+ * them is referenced (there is no way to unmap explicitly), so images that
+ * were read from a window remain valid after it is dropped.
+ */
+final class MappedFileRegions {
+   static final long WINDOW_SIZE = 256L * 1024 * 1024;
+   static final long WINDOW_OVERLAP = 64L * 1024 * 1024;
+   static final int MAX_MAPPED_WINDOWS = 32;
+
+   private static final LinkedHashMap<WindowKey, ByteBuffer> windows_ =
+         new LinkedHashMap<WindowKey, ByteBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                  Map.Entry<WindowKey, ByteBuffer> eldest) {
+               return size() > MAX_MAPPED_WINDOWS;
+            }
+         };
+
+   private final FileChannel channel_;
+   private final ByteOrder byteOrder_;
+   private final long fileSize_;
+   private final long windowSize_;
+   private final long windowOverlap_;
+
+   MappedFileRegions(FileChannel channel, ByteOrder byteOrder)
+         throws IOException {
+      this(channel, byteOrder, WINDOW_SIZE, WINDOW_OVERLAP);
+   }
+
+   MappedFileRegions(FileChannel channel, ByteOrder byteOrder,
+         long windowSize, long windowOverlap) throws IOException {
+      channel_ = channel;
+      byteOrder_ = byteOrder;
+      fileSize_ = channel.size();
+      windowSize_ = windowSize;
+      windowOverlap_ = windowOverlap;
+   }
+
+   /**
+    * Read part of the file.
+    * @return a read-only buffer with position 0 and the given capacity, in
+    * the file's byte order. It is a slice of a mapped window unless the
+    * range crosses a window boundary.
+    */
+   ByteBuffer read(long position, int length) throws IOException {
+      ByteBuffer slice = slice(position, length);
+      if (slice != null) {
+         return slice;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(length).order(byteOrder_);
+      channel_.read(buffer, position);
+      buffer.rewind();
+      return buffer;
+   }
+
+   private ByteBuffer slice(long position, int length) throws IOException {
+      if (position < 0 || position + length > fileSize_) {
+         return null;
+      }
+      long index = position / windowSize_;
+      long windowStart = index * windowSize_;
+      if (position + length > windowStart + windowSize_ + windowOverlap_) {
+         return null;
+      }
+      ByteBuffer window = getWindow(index, windowStart);
+      // Slice a duplicate, so that concurrent readers do not interfere
+      ByteBuffer dup = window.duplicate();
+      int offset = (int) (position - windowStart);
+      dup.limit(offset + length);
+      dup.position(offset);
+      return dup.slice().order(byteOrder_);
+   }
+
+   private ByteBuffer getWindow(long index, long windowStart)
+         throws IOException {
+      WindowKey key = new WindowKey(this, index);
+      synchronized (windows_) {
+         ByteBuffer window = windows_.get(key);
+         if (window == null) {
+            long size = Math.min(windowSize_ + windowOverlap_,
+                  fileSize_ - windowStart);
+            window = channel_.map(FileChannel.MapMode.READ_ONLY,
+                  windowStart, size);
+            windows_.put(key, window);
+         }
+         return window;
+      }
+   }
+
+   /**
+    * Drop this file's windows from the cache.
+    */
+   void close() {
+      synchronized (windows_) {
+         Iterator<WindowKey> it = windows_.keySet().iterator();
+         while (it.hasNext()) {
+            if (it.next().owner_ == this) {
+               it.remove();
+            }
+         }
+      }
+   }
+
+   private static final class WindowKey {
+      private final MappedFileRegions owner_;
+      private final long index_;
+
+      WindowKey(MappedFileRegions owner, long index) {
+         owner_ = owner;
+         index_ = index;
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         if (!(other instanceof WindowKey)) {
+            return false;
+         }
+         WindowKey key = (WindowKey) other;
+         return key.owner_ == owner_ && key.index_ == index_;
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * System.identityHashCode(owner_) + (int) index_;
+      }
+   }
+}
@@ -33,6 +33,7 @@ import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.List;
@@ -75,9 +76,12 @@ public final class MultipageTiffReader {
    static final List<String> ALLOWED_AXES = ImmutableList.of("channel", "z", "time", "position");
 
    private ByteOrder byteOrder_;
+   private TiffFormat format_ = TiffFormat.CLASSIC;
    private File file_;
    private RandomAccessFile raFile_;
    private FileChannel fileChannel_;
+   // Non-null when reading through memory-mapped windows of the file
+   private MappedFileRegions mappedRegions_;
 
    private StorageMultipageTiff masterStorage_;
    private SummaryMetadata summaryMetadata_;
@@ -91,13 +95,15 @@ public final class MultipageTiffReader {
     * @param summaryMD
     * @param summaryPmap
     * @param firstImage
+    * @param format the format the file is being written in
     */
    public MultipageTiffReader(StorageMultipageTiff masterStorage,
          SummaryMetadata summaryMD, PropertyMap summaryPmap,
-         Image firstImage) {
+         Image firstImage, TiffFormat format) {
       masterStorage_ = masterStorage;
       summaryMetadata_ = summaryMD;
       byteOrder_ = MultipageTiffWriter.BYTE_ORDER;
+      format_ = format;
    }
 
    public void setIndexMap(HashMap<Coords, Long> indexMap) {
@@ -113,6 +119,18 @@ public final class MultipageTiffReader {
     */
    public MultipageTiffReader(StorageMultipageTiff masterStorage, File file)
          throws IOException, InvalidIndexMapException {
+      this(masterStorage, file, null);
+   }
+
+   /**
+    * This constructor is used for opening datasets that have already been
+    * saved, when the index map of the file is already known (from the
+    * dataset's CoordsIndexFile).
+    * @param indexMap the file's index map, or null to read it from the file
+    */
+   MultipageTiffReader(StorageMultipageTiff masterStorage, File file,
+         HashMap<Coords, Long> indexMap)
+         throws IOException, InvalidIndexMapException {
       masterStorage_ = masterStorage;
       file_ = file;
       try {
@@ -124,12 +142,17 @@ public final class MultipageTiffReader {
       readHeader(); // Determine byte order
       readSummaryMD();
 
-      try {
-         readIndexMap();
+      if (indexMap != null) {
+         coordsToOffset_ = indexMap;
       }
-      catch (IOException e) {
-         // Unlike other IOErrors, this is a potentially recoverable error.
-         throw new InvalidIndexMapException(e);
+      else {
+         try {
+            readIndexMap();
+         }
+         catch (IOException e) {
+            // Unlike other IOErrors, this is a potentially recoverable error.
+            throw new InvalidIndexMapException(e);
+         }
       }
 
       readComments();
@@ -189,7 +212,8 @@ public final class MultipageTiffReader {
         return false;
       }
       FileChannel channel = ra.getChannel();
-      ByteBuffer tiffHeader = ByteBuffer.allocate(36);
+      ByteBuffer tiffHeader = ByteBuffer.allocate(
+            (int) TiffFormat.BIG.summaryMDHeaderPosition() + 4);
       ByteOrder bo;
       channel.read(tiffHeader,0);
       char zeroOne = tiffHeader.getChar(0);
@@ -201,7 +225,14 @@ public final class MultipageTiffReader {
          throw new IOException("Error reading TIFF header");
       }
       tiffHeader.order(bo);
-      int summaryMDHeader = tiffHeader.getInt(32);
+      TiffFormat format = TiffFormat.fromVersionCode(tiffHeader.getChar(2));
+      if (format == null) {
+         channel.close();
+         ra.close();
+         return false;
+      }
+      int summaryMDHeader = tiffHeader.getInt(
+            (int) format.summaryMDHeaderPosition());
       channel.close();
       ra.close();
       if (summaryMDHeader == MultipageTiffWriter.SUMMARY_MD_HEADER) {
@@ -214,6 +245,27 @@ public final class MultipageTiffReader {
       return summaryMetadata_;
    }
 
+   /**
+    * Read IFDs and pixels through memory-mapped windows of the file (see
+    * MappedFileRegions) instead of reading them into newly allocated
+    * buffers. Images read this way share memory with the mapping. Only
+    * applies to files opened from disk, not to files being written, and is
+    * ignored on 32-bit Java, which does not have the address space.
+    */
+   public void setMemoryMapped(boolean mapped) throws IOException {
+      if (mapped == (mappedRegions_ != null)) {
+         return;
+      }
+      if (!mapped) {
+         mappedRegions_.close();
+         mappedRegions_ = null;
+      }
+      else if (file_ != null && fileChannel_ != null &&
+            !"32".equals(System.getProperty("sun.arch.data.model"))) {
+         mappedRegions_ = new MappedFileRegions(fileChannel_, byteOrder_);
+      }
+   }
+
    public DefaultImage readImage(Coords coords) throws IOException {
       if (!coordsToOffset_.containsKey(coords)) {
          // Coordinates not in our map; maybe the writer hasn't finished
@@ -230,6 +282,15 @@ public final class MultipageTiffReader {
       return (DefaultImage) readImage(data);
    }
 
+   File getFile() {
+      return file_;
+   }
+
+   /** The coords of each image in the file, mapped to its IFD offset. */
+   HashMap<Coords, Long> getIndexMap() {
+      return coordsToOffset_;
+   }
+
    public Set<Coords> getIndexKeys() {
       if (coordsToOffset_ == null)
          return null;
@@ -238,7 +299,7 @@ public final class MultipageTiffReader {
 
    private void readSummaryMD() throws IOException {
       ByteBuffer mdInfo = ByteBuffer.allocate(8).order(byteOrder_);
-      fileChannel_.read(mdInfo, 32);
+      fileChannel_.read(mdInfo, format_.summaryMDHeaderPosition());
       int header = mdInfo.getInt(0);
       int length = mdInfo.getInt(4);
 
@@ -247,7 +308,7 @@ public final class MultipageTiffReader {
       }
 
       ByteBuffer mdBuffer = ByteBuffer.allocate(length).order(byteOrder_);
-      fileChannel_.read(mdBuffer, 40);
+      fileChannel_.read(mdBuffer, format_.summaryMDPosition());
       String summaryJSON = getString(mdBuffer);
 
       JsonParser parser = new JsonParser();
@@ -279,7 +340,8 @@ public final class MultipageTiffReader {
       boolean didCreate = false;
       ByteBuffer buffer = null;
       try {
-         long offset = readOffsetHeaderAndOffset(MultipageTiffWriter.COMMENTS_OFFSET_HEADER, 24);
+         long offset = readOffsetHeaderAndOffset(MultipageTiffWriter.COMMENTS_OFFSET_HEADER,
+               format_.commentsOffsetHeaderPosition());
          ByteBuffer header = readIntoBuffer(offset, 8);
          if (header.getInt(0) != MultipageTiffWriter.COMMENTS_HEADER) {
             ReportingUtils.logError("Can't find image comments in file: " + file_.getName());
@@ -322,35 +384,41 @@ public final class MultipageTiffReader {
    }
 
    private ByteBuffer readIntoBuffer(long position, int length) throws IOException {
+      if (mappedRegions_ != null) {
+         return mappedRegions_.read(position, length);
+      }
       ByteBuffer buffer = ByteBuffer.allocate(length).order(byteOrder_);
       fileChannel_.read(buffer, position);
+      buffer.rewind();
       return buffer;
    }
 
-   private long readOffsetHeaderAndOffset(int offsetHeaderVal, int startOffset) throws IOException  {
-      ByteBuffer buffer1 = readIntoBuffer(startOffset,8);
+   private long readOffsetHeaderAndOffset(int offsetHeaderVal, long startOffset) throws IOException  {
+      ByteBuffer buffer1 = readIntoBuffer(startOffset, 4 + format_.offsetBytes);
       int offsetHeader = buffer1.getInt(0);
       if ( offsetHeader != offsetHeaderVal) {
          throw new IOException("Offset header incorrect, expected: " + offsetHeaderVal +"   found: " + offsetHeader);
       }
-      return unsignInt(buffer1.getInt(4));     
+      return format_.getOffset(buffer1, 4);     
    }
 
    private void readIndexMap() throws IOException, InvalidIndexMapException {
-      long offset = readOffsetHeaderAndOffset(MultipageTiffWriter.INDEX_MAP_OFFSET_HEADER, 8);
+      long offset = readOffsetHeaderAndOffset(MultipageTiffWriter.INDEX_MAP_OFFSET_HEADER,
+            format_.indexMapOffsetHeaderPosition());
       ByteBuffer header = readIntoBuffer(offset, 8);
       if (header.getInt(0) != MultipageTiffWriter.INDEX_MAP_HEADER) {
          throw new InvalidIndexMapException();
       }
       int numMappings = header.getInt(4);
       coordsToOffset_ = new HashMap<Coords, Long>();
-      ByteBuffer mapBuffer = readIntoBuffer(offset+8, 20*numMappings);     
+      int entryBytes = format_.indexMapEntryBytes();
+      ByteBuffer mapBuffer = readIntoBuffer(offset+8, entryBytes*numMappings);     
       for (int i = 0; i < numMappings; i++) {
-         int channel = mapBuffer.getInt(i*20);
-         int slice = mapBuffer.getInt(i*20+4);
-         int frame = mapBuffer.getInt(i*20+8);
-         int position = mapBuffer.getInt(i*20+12);
-         long imageOffset = unsignInt(mapBuffer.getInt(i*20+16));
+         int channel = mapBuffer.getInt(i*entryBytes);
+         int slice = mapBuffer.getInt(i*entryBytes+4);
+         int frame = mapBuffer.getInt(i*entryBytes+8);
+         int position = mapBuffer.getInt(i*entryBytes+12);
+         long imageOffset = format_.getOffset(mapBuffer, i*entryBytes+16);
          if (imageOffset == 0) {
             break; // end of index map reached
          }
@@ -366,13 +434,16 @@ public final class MultipageTiffReader {
    }
 
    private IFDData readIFD(long byteOffset) throws IOException {
-      ByteBuffer buff = readIntoBuffer(byteOffset, 2);
-      int numEntries = buff.getChar(0);
+      int countBytes = format_.entryCountBytes;
+      int entryBytes = format_.ifdEntryBytes;
+      ByteBuffer buff = readIntoBuffer(byteOffset, countBytes);
+      int numEntries = countBytes == 2 ? buff.getChar(0) : (int) buff.getLong(0);
 
-      ByteBuffer entries = readIntoBuffer(byteOffset + 2, numEntries * 12 + 4).order(byteOrder_);
+      ByteBuffer entries = readIntoBuffer(byteOffset + countBytes,
+            numEntries * entryBytes + format_.offsetBytes).order(byteOrder_);
       IFDData data = new IFDData();
       for (int i = 0; i < numEntries; i++) {
-         IFDEntry entry = readDirectoryEntry(i * 12, entries);
+         IFDEntry entry = readDirectoryEntry(i * entryBytes, entries);
          if (entry.tag == MM_METADATA) {
             data.mdOffset = entry.value;
             data.mdLength = entry.count;
@@ -382,8 +453,8 @@ public final class MultipageTiffReader {
             data.bytesPerImage = entry.value;
          }
       }
-      data.nextIFD = unsignInt(entries.getInt(numEntries * 12));
-      data.nextIFDOffsetLocation = byteOffset + 2 + numEntries * 12;
+      data.nextIFD = format_.getOffset(entries, numEntries * entryBytes);
+      data.nextIFDOffsetLocation = byteOffset + countBytes + numEntries * entryBytes;
       if (data.pixelOffset == 0 || data.bytesPerImage == 0
               || data.mdOffset == 0 || data.mdLength == 0) {
          throw new IOException("Failed to read image from file at offset "
@@ -394,8 +465,20 @@ public final class MultipageTiffReader {
    }
 
    private String getString(ByteBuffer buffer) {
+      byte[] bytes;
+      if (buffer.hasArray() && buffer.arrayOffset() == 0 &&
+            buffer.array().length == buffer.capacity()) {
+         bytes = buffer.array();
+      }
+      else {
+         // Mapped (or otherwise direct) buffer
+         bytes = new byte[buffer.capacity()];
+         ByteBuffer dup = buffer.duplicate();
+         dup.clear();
+         dup.get(bytes);
+      }
       try {
-         return new String(buffer.array(), "UTF-8");
+         return new String(bytes, "UTF-8");
       } catch (UnsupportedEncodingException ex) {
          ReportingUtils.logError(ex);
          return "";
@@ -403,10 +486,8 @@ public final class MultipageTiffReader {
    }
 
    private Image readImage(IFDData data) throws IOException {
-      ByteBuffer pixelBuffer = ByteBuffer.allocate((int) data.bytesPerImage).order(byteOrder_);
-      ByteBuffer mdBuffer = ByteBuffer.allocate((int) data.mdLength).order(byteOrder_);
-      fileChannel_.read(pixelBuffer, data.pixelOffset);
-      fileChannel_.read(mdBuffer, data.mdOffset);
+      ByteBuffer pixelBuffer = readIntoBuffer(data.pixelOffset, (int) data.bytesPerImage);
+      ByteBuffer mdBuffer = readIntoBuffer(data.mdOffset, (int) data.mdLength);
 
       String mdJSON = getString(mdBuffer);
       JsonParser parser = new JsonParser();
@@ -453,23 +534,31 @@ public final class MultipageTiffReader {
                     PropertyKey.PIXEL_TYPE.key(), pixelType).build();
          }
 
-         // TODO We should avoid converting to Java array and back, instead using
-         // a nio buffer directly as the Image storage (even better if memory
-         // mapped).
+         // Pixels read from a mapped file are used in place, unless they need
+         // converting. Native byte order is required because image buffers
+         // may be handed to native code as they are.
+         boolean useInPlace = !pixelBuffer.hasArray() &&
+               byteOrder_.equals(ByteOrder.nativeOrder());
          switch (pixelType) {
             case GRAY8:
-               return new DefaultImage(pixelBuffer.array(), formatPmap,
+               if (useInPlace) {
+                  return new DefaultImage(pixelBuffer, formatPmap, coords,
+                        metadata);
+               }
+               return new DefaultImage(pixelBufferBytes(pixelBuffer), formatPmap,
                        coords, metadata);
             case GRAY16:
-               short[] pixels16 = new short[pixelBuffer.capacity() / 2];
-               for (int i = 0; i < pixels16.length; i++) {
-                  pixels16[i] = pixelBuffer.getShort(i * 2);
+               ShortBuffer shorts = pixelBuffer.order(byteOrder_).asShortBuffer();
+               if (useInPlace) {
+                  return new DefaultImage(shorts, formatPmap, coords, metadata);
                }
+               short[] pixels16 = new short[shorts.capacity()];
+               shorts.get(pixels16);
                return new DefaultImage(pixels16, formatPmap, coords, metadata);
             case RGB32:
                byte[] pixelsARGB = new byte[(int) (4 * data.bytesPerImage / 3)];
                int i = 0;
-               for (byte b : pixelBuffer.array()) {
+               for (byte b : pixelBufferBytes(pixelBuffer)) {
                   pixelsARGB[i] = b;
                   i++;
                   if ((i + 1) % 4 == 0) {
@@ -488,22 +577,36 @@ public final class MultipageTiffReader {
       }
    }
 
+   private byte[] pixelBufferBytes(ByteBuffer buffer) {
+      if (buffer.hasArray()) {
+         return buffer.array();
+      }
+      byte[] bytes = new byte[buffer.capacity()];
+      ByteBuffer dup = buffer.duplicate();
+      dup.clear();
+      dup.get(bytes);
+      return bytes;
+   }
+
    private IFDEntry readDirectoryEntry(int offset, ByteBuffer buffer) throws IOException {
       char tag =  buffer.getChar(offset); 
       char type = buffer.getChar(offset + 2);
-      long count = unsignInt( buffer.getInt(offset + 4) );
+      long count = format_.getOffset(buffer, offset + 4);
+      int valueOffset = offset + 4 + format_.offsetBytes;
       long value;
       if ( type == 3 && count == 1) {
-         value = buffer.getChar(offset + 8);
+         value = buffer.getChar(valueOffset);
+      } else if (type == 4 && count == 1) {
+         value = unsignInt(buffer.getInt(valueOffset));
       } else {
-         value = unsignInt(buffer.getInt(offset + 8));
+         value = format_.getOffset(buffer, valueOffset);
       }
       return (new IFDEntry(tag,type,count,value));
    }
 
    //returns byteoffset of first IFD
    private long readHeader() throws IOException {           
-      ByteBuffer tiffHeader = ByteBuffer.allocate(8);
+      ByteBuffer tiffHeader = ByteBuffer.allocate(16);
       fileChannel_.read(tiffHeader,0);
       char zeroOne = tiffHeader.getChar(0);
       if (zeroOne == 0x4949 ) {
@@ -515,10 +618,14 @@ public final class MultipageTiffReader {
       }
       tiffHeader.order( byteOrder_ );  
       short twoThree = tiffHeader.getShort(2);
-      if (twoThree != 42) {
+      format_ = TiffFormat.fromVersionCode(twoThree);
+      if (format_ == null) {
          throw new IOException("Tiff identifier code incorrect");
       }
-      return unsignInt(tiffHeader.getInt(4));
+      if (format_ == TiffFormat.BIG && tiffHeader.getShort(4) != 8) {
+         throw new IOException("Unsupported BigTIFF offset size");
+      }
+      return format_.getOffset(tiffHeader, format_.headerBytes() - format_.offsetBytes);
    }
 
    private byte[] getBytesFromString(String s) {
@@ -536,6 +643,10 @@ public final class MultipageTiffReader {
    }
 
    public void close() throws IOException {
+      if (mappedRegions_ != null) {
+         mappedRegions_.close();
+         mappedRegions_ = null;
+      }
       if (fileChannel_ != null) {
          fileChannel_.close();
          fileChannel_ = null;
@@ -606,8 +717,8 @@ public final class MultipageTiffReader {
 
       filePosition += writeIndexMap(filePosition);
 
-      ByteBuffer buffer = ByteBuffer.allocate(4).order(byteOrder_);
-      buffer.putInt(0, 0);
+      ByteBuffer buffer = ByteBuffer.allocate(format_.offsetBytes).order(byteOrder_);
+      format_.putOffset(buffer, 0, 0);
       fileChannel_.write(buffer, nextIFDOffsetLocation); 
 
       filePosition += writeDisplaySettings(
@@ -630,26 +741,26 @@ public final class MultipageTiffReader {
       fileChannel_.write(header, filePosition);
       fileChannel_.write(buffer, filePosition + 8);
 
-      ByteBuffer offsetHeader = ByteBuffer.allocate(8).order(MultipageTiffWriter.BYTE_ORDER);
+      ByteBuffer offsetHeader = ByteBuffer.allocate(4 + format_.offsetBytes).order(MultipageTiffWriter.BYTE_ORDER);
       offsetHeader.putInt(0, MultipageTiffWriter.DISPLAY_SETTINGS_OFFSET_HEADER);
-      offsetHeader.putInt(4, (int) filePosition);
-      fileChannel_.write(offsetHeader, 16);
+      format_.putOffset(offsetHeader, 4, filePosition);
+      fileChannel_.write(offsetHeader, format_.displaySettingsOffsetHeaderPosition());
       return numReservedBytes + 8;
    }
 
    private int writeIndexMap(long filePosition) throws IOException {
       // TODO: this method presumes only four axes exist.
-      //Write 4 byte header, 4 byte number of entries, and 20 bytes for each
-      //entry
+      //Write 4 byte header, 4 byte number of entries, and 20 bytes (24 for
+      //BigTIFF) for each entry
       int numMappings = coordsToOffset_.size();
-      ByteBuffer buffer = ByteBuffer.allocate(8 + 20 * numMappings).order(byteOrder_);
+      ByteBuffer buffer = ByteBuffer.allocate(8 + format_.indexMapEntryBytes() * numMappings).order(byteOrder_);
       buffer.putInt(0, MultipageTiffWriter.INDEX_MAP_HEADER);
       buffer.putInt(4, numMappings);
-      int position = 2;
+      int position = 8;
       for (Coords coords : coordsToOffset_.keySet()) {
          for (String axis : ALLOWED_AXES) {
-            buffer.putInt(4 * position, coords.getIndex(axis));
-            position++;
+            buffer.putInt(position, coords.getIndex(axis));
+            position += 4;
          }
          // TODO: this probably doesn't help our performance any, but I want
          // the extra logging just in case.
@@ -658,15 +769,15 @@ public final class MultipageTiffReader {
                ReportingUtils.logError("Axis " + axis + " is ignored because it is not one of " + ALLOWED_AXES.toString());
             }
          }
-         buffer.putInt(4 * position, coordsToOffset_.get(coords).intValue());
-         position++;
+         format_.putOffset(buffer, position, coordsToOffset_.get(coords));
+         position += format_.offsetBytes;
       }
       fileChannel_.write(buffer, filePosition);
 
-      ByteBuffer header = ByteBuffer.allocate(8).order(byteOrder_);
+      ByteBuffer header = ByteBuffer.allocate(4 + format_.offsetBytes).order(byteOrder_);
       header.putInt(0, MultipageTiffWriter.INDEX_MAP_OFFSET_HEADER);
-      header.putInt(4, (int) filePosition);
-      fileChannel_.write(header, 8);
+      format_.putOffset(header, 4, filePosition);
+      fileChannel_.write(header, format_.indexMapOffsetHeaderPosition());
       return buffer.capacity();
    }
 
@@ -34,7 +34,7 @@ import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.CharBuffer;
+import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayDeque;
 import java.util.Deque;
@@ -65,8 +65,6 @@ import org.micromanager.internal.utils.ReportingUtils;
 
 public final class MultipageTiffWriter {
 
-   private static final long BYTES_PER_GIG = 1073741824;
-   private static final long MAX_FILE_SIZE = 4 * BYTES_PER_GIG;
    public static final int DISPLAY_SETTINGS_BYTES_PER_CHANNEL = 256;
    //1 MB for now...might have to increase
    public static final long SPACE_FOR_COMMENTS = 1048576;
@@ -99,11 +97,18 @@ public final class MultipageTiffWriter {
    public static final int SUMMARY_MD_HEADER = 2355492;
          
    public static final ByteOrder BYTE_ORDER = ByteOrder.nativeOrder();
+
+   // Gson instances are thread-safe, so all writers share one serializer
+   private static final Gson METADATA_GSON =
+         new GsonBuilder().disableHtmlEscaping().create();
    
    private StorageMultipageTiff masterStorage_;
+   private final TiffFormat format_;
+   private long maxImagesInFile_;
    private RandomAccessFile raFile_;
    private FileChannel fileChannel_; 
    private final ThreadPoolExecutor writingExecutor_;
+   private final String fileName_;
    private long filePosition_ = 0;
    private long indexMapPosition_; //current position of the dynamically written index map
    private long indexMapFirstEntry_; // mark position of first entry so that number of entries can be written at end
@@ -123,14 +128,22 @@ public final class MultipageTiffWriter {
    private long ijMetadataTagPosition_;
    //Reader associated with this file
    private MultipageTiffReader reader_;
-   private long blankPixelsOffset_ = -1;
    
+   /**
+    * @param writingExecutor single-threaded executor on which all writes to
+    * the file are made, in the order in which they are requested. Writers
+    * for different files may use different executors to write in parallel.
+    */
    public MultipageTiffWriter(
             final StorageMultipageTiff masterStorage,
+            final ThreadPoolExecutor writingExecutor,
             final Image firstImage, 
             final String filename)
          throws IOException {
       masterStorage_ = masterStorage;
+      writingExecutor_ = writingExecutor;
+      fileName_ = filename;
+      format_ = masterStorage.getTiffFormat();
       // TODO: casting to DefaultSummaryMetadata here.
       DefaultSummaryMetadata summary = (DefaultSummaryMetadata) masterStorage.getSummaryMetadata();
       File f = new File(masterStorage.getDiskLocation() + "/" + filename);
@@ -151,10 +164,10 @@ public final class MultipageTiffWriter {
       summaryPmap = augmentWithDisplaySettings(summaryPmap,
             DefaultDisplaySettings.builder().build());
       reader_ = new MultipageTiffReader(masterStorage_, summary, summaryPmap,
-            firstImage);
+            firstImage, format_);
 
       //This is an overestimate of file size because file gets truncated at end
-      long fileSize = Math.min(MAX_FILE_SIZE,
+      long fileSize = Math.min(format_.maxFileSize,
             NonPropertyMapJSONFormats.summaryMetadata().toJSON(summaryPmap).length() +
             2000000 +
             numFrames_ * numChannels_ * numSlices_ * ((long) bytesPerImagePixels_ + 2000));
@@ -180,7 +193,6 @@ public final class MultipageTiffWriter {
                "Insufficent space on disk: no room to write data");
       }
       fileChannel_ = raFile_.getChannel();
-      writingExecutor_ = masterStorage_.getWritingExecutor();
       coordsToOffset_ = new HashMap<Coords, Long>();
       reader_.setFileChannel(fileChannel_);
       reader_.setIndexMap(coordsToOffset_);
@@ -272,7 +284,7 @@ public final class MultipageTiffWriter {
 
    private static void tryRecycleLargeBuffer(ByteBuffer b) {
       // Keep up to BUFFER_POOL_SIZE direct buffers of the current size
-      if (BUFFER_POOL_SIZE == 0 || !b.isDirect()) {
+      if (BUFFER_POOL_SIZE == 0 || !b.isDirect() || b.isReadOnly()) {
          return;
       }
       synchronized (MultipageTiffWriter.class) {
@@ -293,7 +305,12 @@ public final class MultipageTiffWriter {
       writingExecutor_.execute(writingTask);
    }
 
+   // Buffers handed to the writing executor count towards the storage's cap
+   // on bytes waiting to be written until the write has been made; this is
+   // what keeps a slow disk from filling up memory.
    private void fileChannelWrite(final ByteBuffer buffer, final long position) {
+      final long numBytes = buffer.limit();
+      masterStorage_.reservePendingWriteBytes(numBytes);
       executeWritingTask(new Runnable() {
          @Override
          public void run() {
@@ -304,12 +321,21 @@ public final class MultipageTiffWriter {
             catch (IOException e) {
                ReportingUtils.logError(e);
             }
+            finally {
+               masterStorage_.releasePendingWriteBytes(numBytes);
+            }
             tryRecycleLargeBuffer(buffer);
          }
       });
    }
 
    private void fileChannelWrite(final ByteBuffer[] buffers) {
+      long bytes = 0;
+      for (ByteBuffer buffer : buffers) {
+         bytes += buffer.remaining();
+      }
+      final long numBytes = bytes;
+      masterStorage_.reservePendingWriteBytes(numBytes);
       executeWritingTask(new Runnable() {
          @Override
          public void run() {
@@ -319,6 +345,9 @@ public final class MultipageTiffWriter {
             catch (IOException e) {
                ReportingUtils.logError(e);
             }
+            finally {
+               masterStorage_.releasePendingWriteBytes(numBytes);
+            }
             for (ByteBuffer buffer : buffers) {
                tryRecycleLargeBuffer(buffer);
             }
@@ -338,33 +367,43 @@ public final class MultipageTiffWriter {
       String summaryJSON = NonPropertyMapJSONFormats.summaryMetadata().toJSON(summaryMD);
       byte[] summaryMDBytes = getBytesFromString(summaryJSON);
       int mdLength = summaryMDBytes.length;
-      //20 bytes plus 8 header for index map
-      long maxImagesInFile = MAX_FILE_SIZE / bytesPerImagePixels_;
-      long indexMapSpace = 8 + 20 * maxImagesInFile;
+      //20 (24 for BigTIFF) bytes per entry plus 8 header for index map
+      maxImagesInFile_ = Math.min(format_.maxImagesPerFile,
+            format_.maxFileSize / bytesPerImagePixels_);
+      long indexMapSpace = 8 + format_.indexMapEntryBytes() * maxImagesInFile_;
       
-      ByteBuffer headerBuffer = allocateByteBuffer(40);
-      //8 bytes for file header
+      int headerBytes = (int) format_.summaryMDPosition();
+      ByteBuffer headerBuffer = allocateByteBuffer(headerBytes);
+      //8 bytes (16 for BigTIFF) for file header
       if (BYTE_ORDER.equals(ByteOrder.BIG_ENDIAN)) {
-         headerBuffer.asCharBuffer().put(0,(char) 0x4d4d);
+         headerBuffer.putChar(0,(char) 0x4d4d);
       } else {
-         headerBuffer.asCharBuffer().put(0,(char) 0x4949);
+         headerBuffer.putChar(0,(char) 0x4949);
+      }
+      headerBuffer.putChar(2,format_.versionCode);
+      if (format_ == TiffFormat.BIG) {
+         //size of offsets, then a reserved 0
+         headerBuffer.putChar(4,(char) 8);
+         headerBuffer.putChar(6,(char) 0);
       }
-      headerBuffer.asCharBuffer().put(1,(char) 42);
-      headerBuffer.putInt(4,40 + (int) (mdLength + indexMapSpace));
+      format_.putOffset(headerBuffer, format_.headerBytes() - format_.offsetBytes,
+            headerBytes + mdLength + indexMapSpace);
       
-      //8 bytes for index map offset header and offset
-      headerBuffer.putInt(8,INDEX_MAP_OFFSET_HEADER);
-      headerBuffer.putInt(12,headerBuffer.capacity() + mdLength);
+      //index map offset header and offset
+      int position = (int) format_.indexMapOffsetHeaderPosition();
+      headerBuffer.putInt(position,INDEX_MAP_OFFSET_HEADER);
+      format_.putOffset(headerBuffer, position + 4, headerBytes + mdLength);
       
-      //8 bytes for display settings offset header and display settings offset--written later
-      //8 bytes for comments offset header and comments offset--written later
+      //display settings offset header and display settings offset--written later
+      //comments offset header and comments offset--written later
       //8 bytes for summaryMD header  summary md length + 
-      headerBuffer.putInt(32,SUMMARY_MD_HEADER);
-      headerBuffer.putInt(36,mdLength);
+      position = (int) format_.summaryMDHeaderPosition();
+      headerBuffer.putInt(position,SUMMARY_MD_HEADER);
+      headerBuffer.putInt(position + 4,mdLength);
       
       ByteBuffer indexMapBuffer = allocateByteBuffer((int) indexMapSpace);
       indexMapBuffer.putInt(0,INDEX_MAP_HEADER);
-      indexMapBuffer.putInt(4,(int) maxImagesInFile);  
+      indexMapBuffer.putInt(4,(int) maxImagesInFile_);  
       indexMapPosition_ = headerBuffer.capacity() + mdLength + 8;
       indexMapFirstEntry_ = indexMapPosition_;
 
@@ -394,7 +433,7 @@ public final class MultipageTiffWriter {
       // the the end of the index map. It is added here for backwards
       // compatibility of reading using versions of MM before 6-6-2014. Without
       // it, old versions wouldn't correctly read image 0_0_0_0
-      int numImages = (int) ((indexMapPosition_ - indexMapFirstEntry_) / 20);
+      int numImages = getNumImagesInIndexMap();
       ByteBuffer indexMapNumEntries = allocateByteBuffer(4);
       indexMapNumEntries.putInt(0, numImages);
       fileChannelWrite(indexMapNumEntries, indexMapFirstEntry_ - 4);
@@ -440,25 +479,36 @@ public final class MultipageTiffWriter {
       });
    }
    
+   private int getNumImagesInIndexMap() {
+      return (int) ((indexMapPosition_ - indexMapFirstEntry_) /
+            format_.indexMapEntryBytes());
+   }
+
    public boolean hasSpaceForFullOMEMetadata(int length) {
       //5 MB extra padding..just to be safe
       int extraPadding = 5000000; 
       long size = length + SPACE_FOR_COMMENTS + numChannels_ * 
               DISPLAY_SETTINGS_BYTES_PER_CHANNEL + extraPadding + filePosition_;
-      return size < MAX_FILE_SIZE;
+      return size < format_.maxFileSize;
    }
    
-   public boolean hasSpaceToWrite(Image img, int omeMDLength) {
-      PropertyMap mdPmap = ((DefaultMetadata) img.getMetadata()).toPropertyMap();
-      int mdLength = NonPropertyMapJSONFormats.metadata().toJSON(mdPmap).length();
-      int IFDSize = ENTRIES_PER_IFD*12 + 4 + 16;
+   /**
+    * @param mdLength length of the image metadata, as returned by
+    * {@link #serializeImageMetadata}
+    * @param omeMDLength space to reserve for OME metadata
+    */
+   public boolean hasSpaceToWrite(int mdLength, int omeMDLength) {
+      if (getNumImagesInIndexMap() >= maxImagesInFile_) {
+         return false;
+      }
+      int IFDSize = format_.ifdBytes(ENTRIES_PER_IFD) + 16;
       //5 MB extra padding...just to be safe...
       int extraPadding = 5000000; 
       long size = mdLength+IFDSize+bytesPerImagePixels_+SPACE_FOR_COMMENTS+
       numChannels_ * DISPLAY_SETTINGS_BYTES_PER_CHANNEL + extraPadding + filePosition_;
       size += omeMDLength;
       
-      return size < MAX_FILE_SIZE;
+      return size < format_.maxFileSize;
    }
    
    public boolean isClosed() {
@@ -470,25 +520,33 @@ public final class MultipageTiffWriter {
       writeBuffers();
    }
 
-   public void writeImage(Image img) throws IOException {
-      if (writingExecutor_ != null) {
-         int queueSize = writingExecutor_.getQueue().size();
-         int attemptCount = 0;
-         while (queueSize > 20) {
-            if (attemptCount == 0) {
-               ReportingUtils.logMessage("Warning: writing queue behind by " + queueSize + " images.");
-            }
-            ++attemptCount;
-            try {
-               Thread.sleep(5);
-               queueSize = writingExecutor_.getQueue().size();
-            } catch (InterruptedException ex) {
-               ReportingUtils.logError(ex);
-            }
-         }
-      }
+   /**
+    * Serialize the per-image metadata that is stored in each IFD. This is
+    * done once per image, before choosing the file to write it to, so that
+    * the result can be used both to check for space and to write the IFD.
+    * @return the null-terminated UTF-8 JSON
+    */
+   public static byte[] serializeImageMetadata(Image img) {
+      JsonObject jo = new JsonObject();
+      NonPropertyMapJSONFormats.imageFormat().addToGson(jo,
+            ((DefaultImage) img).formatToPropertyMap());
+      NonPropertyMapJSONFormats.coords().addToGson(jo,
+            ((DefaultCoords) img.getCoords()).toPropertyMap());
+      NonPropertyMapJSONFormats.metadata().addToGson(jo,
+            ((DefaultMetadata) img.getMetadata()).toPropertyMap());
+      byte[] mdBytes = getBytesFromString(METADATA_GSON.toJson(jo) + " "); // Space for null
+      // Null-terminate buffer.
+      mdBytes[mdBytes.length - 1] = 0;
+      return mdBytes;
+   }
+
+   /**
+    * @param mdBytes the image's metadata, from
+    * {@link #serializeImageMetadata}
+    */
+   public void writeImage(Image img, byte[] mdBytes) throws IOException {
       long offset = filePosition_;
-      writeIFD(img);
+      writeIFD(img, mdBytes);
       addToIndexMap(img.getCoords(), offset);
       writeBuffers();
    }
@@ -497,7 +555,7 @@ public final class MultipageTiffWriter {
       //If a duplicate key is received, forget about the previous one
       //this allows overwriting of images without loss of data
       coordsToOffset_.put(coords, offset);
-      ByteBuffer buffer = allocateByteBuffer(20);
+      ByteBuffer buffer = allocateByteBuffer(format_.indexMapEntryBytes());
       int bufOffset = 0;
       for (String axis : MultipageTiffReader.ALLOWED_AXES) {
          buffer.putInt(4 * bufOffset, coords.getIndex(axis));
@@ -511,9 +569,10 @@ public final class MultipageTiffWriter {
          }
       }
 
-      buffer.putInt(16, new Long(offset).intValue());
+      format_.putOffset(buffer, 16, offset);
       fileChannelWrite(buffer,indexMapPosition_);
-      indexMapPosition_ += 20;  
+      indexMapPosition_ += format_.indexMapEntryBytes();  
+      masterStorage_.addToCoordsIndex(fileName_, coords, offset);
    }
    
    private void writeBuffers() throws IOException {
@@ -532,101 +591,142 @@ public final class MultipageTiffWriter {
       return val;
    }
 
-   private void writeIFD(Image img) throws IOException {
+   private void writeIFD(Image img, byte[] mdBytes) throws IOException {
+      buffers_.add(makeIFD(mdBytes.length));
+      buffers_.add(getPixelBuffer(img));
+      if (format_ != TiffFormat.BIG) {
+         buffers_.add(getResolutionValuesBuffer());
+      }
+      buffers_.add(ByteBuffer.wrap(mdBytes));
+   }
+
+   /**
+    * Create the IFD for an image that is followed in the file by its pixels,
+    * the x and y resolution (not for BigTIFF, which has room for them in the
+    * IFD entries) and mdLength bytes of metadata, and advance filePosition_
+    * past all of them.
+    */
+   private ByteBuffer makeIFD(int mdLength) throws IOException {
       char numEntries = ((firstIFD_  ? ENTRIES_PER_IFD + 4 : ENTRIES_PER_IFD));
+      boolean big = format_ == TiffFormat.BIG;
 
-      JsonObject jo = new JsonObject();
-      NonPropertyMapJSONFormats.imageFormat().addToGson(jo,
-            ((DefaultImage) img).formatToPropertyMap());
-      NonPropertyMapJSONFormats.coords().addToGson(jo,
-            ((DefaultCoords) img.getCoords()).toPropertyMap());
-      NonPropertyMapJSONFormats.metadata().addToGson(jo,
-            ((DefaultMetadata) img.getMetadata()).toPropertyMap());
-      Gson gson = new GsonBuilder().disableHtmlEscaping().create();
-      String mdJSON = gson.toJson(jo);
+      //2 bytes for number of directory entries, 12 bytes per directory entry, 4 byte offset of next IFD
+      //(8, 20 and 8 bytes for BigTIFF)
+      //6 bytes for bits per sample if RGB, 16 bytes for x and y resolution (not for BigTIFF), 1 byte per character of MD string
+      //number of bytes for pixels
+      int IFDBytes = format_.ifdBytes(numEntries);
+      int IFDandBitDepthBytes = IFDBytes + (rgb_ && !big ? 6 : 0);
+      long totalBytes = IFDandBitDepthBytes + (big ? 0 : 16) + mdLength + bytesPerImagePixels_;
 
-      byte[] mdBytes = getBytesFromString(mdJSON + " "); // Space for null
-      // Null-terminate buffer.
-      mdBytes[mdBytes.length - 1] = 0;
+      ByteBuffer ifdBuffer = allocateByteBuffer(IFDandBitDepthBytes);
 
-      //2 bytes for number of directory entries, 12 bytes per directory entry, 4 byte offset of next IFD
-     //6 bytes for bits per sample if RGB, 16 bytes for x and y resolution, 1 byte per character of MD string
-     //number of bytes for pixels
-     int totalBytes = 2 + numEntries*12 + 4 + (rgb_?6:0) + 16 + mdBytes.length + bytesPerImagePixels_;
-     int IFDandBitDepthBytes = 2+ numEntries*12 + 4 + (rgb_?6:0);
-     
-     ByteBuffer ifdBuffer = allocateByteBuffer(IFDandBitDepthBytes);
-     CharBuffer charView = ifdBuffer.asCharBuffer();
-         
-     long tagDataOffset = filePosition_ + 2 + numEntries*12 + 4;
-     nextIFDOffsetLocation_ = filePosition_ + 2 + numEntries*12;
-     
-     bufferPosition_ = 0;
-      charView.put(bufferPosition_,numEntries);
-      bufferPosition_ += 2;
-      writeIFDEntry(ifdBuffer,charView, WIDTH,(char)4,1,imageWidth_);
-      writeIFDEntry(ifdBuffer,charView,HEIGHT,(char)4,1,imageHeight_);
-      writeIFDEntry(ifdBuffer,charView,BITS_PER_SAMPLE,(char)3,rgb_?3:1,  rgb_? tagDataOffset:byteDepth_*8);
-      if (rgb_) {
+      long tagDataOffset = filePosition_ + IFDBytes;
+      nextIFDOffsetLocation_ = filePosition_ + IFDBytes - format_.offsetBytes;
+
+      bufferPosition_ = 0;
+      if (big) {
+         ifdBuffer.putLong(bufferPosition_, numEntries);
+      } else {
+         ifdBuffer.putChar(bufferPosition_, numEntries);
+      }
+      bufferPosition_ += format_.entryCountBytes;
+      writeIFDEntry(ifdBuffer,WIDTH,(char)4,1,imageWidth_);
+      writeIFDEntry(ifdBuffer,HEIGHT,(char)4,1,imageHeight_);
+      if (!rgb_) {
+         writeIFDEntry(ifdBuffer,BITS_PER_SAMPLE,(char)3,1,byteDepth_*8);
+      } else if (!big) {
+         writeIFDEntry(ifdBuffer,BITS_PER_SAMPLE,(char)3,3,tagDataOffset);
          tagDataOffset += 6;
+      } else {
+         int valuePosition = writeIFDEntry(ifdBuffer,BITS_PER_SAMPLE,(char)3,3,0);
+         for (int i = 0; i < 3; i++) {
+            ifdBuffer.putChar(valuePosition + 2 * i,(char) (byteDepth_*8));
+         }
       }
-      writeIFDEntry(ifdBuffer,charView,COMPRESSION,(char)3,1,1);
-      writeIFDEntry(ifdBuffer,charView,PHOTOMETRIC_INTERPRETATION,(char)3,1,rgb_?2:1);
+      writeIFDEntry(ifdBuffer,COMPRESSION,(char)3,1,1);
+      writeIFDEntry(ifdBuffer,PHOTOMETRIC_INTERPRETATION,(char)3,1,rgb_?2:1);
       
       if (firstIFD_ ) {
          omeDescriptionTagPosition_ = filePosition_ + bufferPosition_;
-         writeIFDEntry(ifdBuffer, charView, IMAGE_DESCRIPTION, (char) 2, 0, 0);
+         writeIFDEntry(ifdBuffer, IMAGE_DESCRIPTION, (char) 2, 0, 0);
          ijDescriptionTagPosition_ = filePosition_ + bufferPosition_;
-         writeIFDEntry(ifdBuffer, charView, IMAGE_DESCRIPTION, (char) 2, 0, 0);
+         writeIFDEntry(ifdBuffer, IMAGE_DESCRIPTION, (char) 2, 0, 0);
       }
            
-      writeIFDEntry(ifdBuffer,charView,STRIP_OFFSETS,(char)4,1, tagDataOffset );
+      writeIFDEntry(ifdBuffer,STRIP_OFFSETS,format_.offsetType(),1, tagDataOffset );
       tagDataOffset += bytesPerImagePixels_;
-      writeIFDEntry(ifdBuffer,charView,SAMPLES_PER_PIXEL,(char)3,1,(rgb_?3:1));
-      writeIFDEntry(ifdBuffer,charView,ROWS_PER_STRIP, (char) 3, 1, imageHeight_);
-      writeIFDEntry(ifdBuffer,charView,STRIP_BYTE_COUNTS, (char) 4, 1, bytesPerImagePixels_ );
-      writeIFDEntry(ifdBuffer,charView,X_RESOLUTION, (char)5, 1, tagDataOffset);
-      tagDataOffset += 8;
-      writeIFDEntry(ifdBuffer,charView,Y_RESOLUTION, (char)5, 1, tagDataOffset);
-      tagDataOffset += 8;
-      writeIFDEntry(ifdBuffer,charView,RESOLUTION_UNIT, (char) 3,1,3);
+      writeIFDEntry(ifdBuffer,SAMPLES_PER_PIXEL,(char)3,1,(rgb_?3:1));
+      writeIFDEntry(ifdBuffer,ROWS_PER_STRIP, (char) 3, 1, imageHeight_);
+      writeIFDEntry(ifdBuffer,STRIP_BYTE_COUNTS, (char) 4, 1, bytesPerImagePixels_ );
+      if (big) {
+         //Rationals fit in the entry
+         for (char tag : new char[] {X_RESOLUTION, Y_RESOLUTION}) {
+            int valuePosition = writeIFDEntry(ifdBuffer,tag,(char)5,1,0);
+            ifdBuffer.putInt(valuePosition,(int)resNumerator_);
+            ifdBuffer.putInt(valuePosition + 4,(int)resDenomenator_);
+         }
+      } else {
+         writeIFDEntry(ifdBuffer,X_RESOLUTION, (char)5, 1, tagDataOffset);
+         tagDataOffset += 8;
+         writeIFDEntry(ifdBuffer,Y_RESOLUTION, (char)5, 1, tagDataOffset);
+         tagDataOffset += 8;
+      }
+      writeIFDEntry(ifdBuffer,RESOLUTION_UNIT, (char) 3,1,3);
       if (firstIFD_) {         
          ijMetadataCountsTagPosition_ = filePosition_ + bufferPosition_;
-         writeIFDEntry(ifdBuffer,charView,IJ_METADATA_BYTE_COUNTS,(char)4,0,0);
+         writeIFDEntry(ifdBuffer,IJ_METADATA_BYTE_COUNTS,(char)4,0,0);
          ijMetadataTagPosition_ = filePosition_ + bufferPosition_;
-         writeIFDEntry(ifdBuffer,charView,IJ_METADATA,(char)1,0,0);
+         writeIFDEntry(ifdBuffer,IJ_METADATA,(char)1,0,0);
       }
-      writeIFDEntry(ifdBuffer,charView,MM_METADATA,(char)2,mdBytes.length,tagDataOffset);
-      tagDataOffset += mdBytes.length;
+      writeIFDEntry(ifdBuffer,MM_METADATA,(char)2,mdLength,tagDataOffset);
+      tagDataOffset += mdLength;
       //NextIFDOffset
-      ifdBuffer.putInt(bufferPosition_, (int)tagDataOffset);
-      bufferPosition_ += 4;
+      format_.putOffset(ifdBuffer, bufferPosition_, tagDataOffset);
+      bufferPosition_ += format_.offsetBytes;
       
-      if (rgb_) {
-         charView.put(bufferPosition_/2,(char) (byteDepth_*8));
-         charView.put(bufferPosition_/2+1,(char) (byteDepth_*8));
-         charView.put(bufferPosition_/2+2,(char) (byteDepth_*8));
+      if (rgb_ && !big) {
+         ifdBuffer.putChar(bufferPosition_,(char) (byteDepth_*8));
+         ifdBuffer.putChar(bufferPosition_+2,(char) (byteDepth_*8));
+         ifdBuffer.putChar(bufferPosition_+4,(char) (byteDepth_*8));
       }
-      buffers_.add(ifdBuffer);
-      buffers_.add(getPixelBuffer(img.getRawPixels()));
-      buffers_.add(getResolutionValuesBuffer());   
-      buffers_.add(ByteBuffer.wrap(mdBytes));
       
       filePosition_ += totalBytes;
       firstIFD_ = false;
+      return ifdBuffer;
    }
 
-   private void writeIFDEntry(ByteBuffer buffer, CharBuffer cBuffer, char tag, char type, long count, long value) throws IOException {
-      cBuffer.put(bufferPosition_ / 2, tag);
-      cBuffer.put(bufferPosition_ / 2 + 1, type);
-      buffer.putInt(bufferPosition_ + 4, (int) count);
-      if (type ==3 && count == 1) {  //Left justify in 4 byte value field
-         cBuffer.put(bufferPosition_/2 + 4, (char) value);
-         cBuffer.put(bufferPosition_/2 + 5,(char) 0);
+   /**
+    * Write an IFD entry at bufferPosition_. Values that fit in the entry are
+    * stored left-justified in its value field; otherwise the value is the
+    * offset of the data.
+    * @return the position in the buffer of the entry's value field
+    */
+   private int writeIFDEntry(ByteBuffer buffer, char tag, char type, long count, long value) throws IOException {
+      buffer.putChar(bufferPosition_, tag);
+      buffer.putChar(bufferPosition_ + 2, type);
+      format_.putOffset(buffer, bufferPosition_ + 4, count);
+      int valuePosition = bufferPosition_ + 4 + format_.offsetBytes;
+      if (type == 3 && count == 1) {
+         buffer.putChar(valuePosition, (char) value);
+      } else if (type == 4 && count == 1) {
+         buffer.putInt(valuePosition, (int) value);
       } else {
-         buffer.putInt(bufferPosition_ + 8, (int) value);
-      }      
-      bufferPosition_ += 12;
+         format_.putOffset(buffer, valuePosition, value);
+      }
+      bufferPosition_ += format_.ifdEntryBytes;
+      return valuePosition;
+   }
+
+   /**
+    * Fill in the count and offset of an IFD entry that was written before its
+    * data.
+    */
+   private void writeIFDEntryCountAndOffset(long entryPosition, long count,
+         long offset) {
+      ByteBuffer buffer = allocateByteBuffer(2 * format_.offsetBytes);
+      format_.putOffset(buffer, 0, count);
+      format_.putOffset(buffer, format_.offsetBytes, offset);
+      fileChannelWrite(buffer, entryPosition + 4);
    }
 
    private ByteBuffer getResolutionValuesBuffer() throws IOException {
@@ -642,6 +742,19 @@ public final class MultipageTiffWriter {
       numFrames_ = n;
    }
 
+   private ByteBuffer getPixelBuffer(Image img) throws IOException {
+      if (!rgb_ && byteDepth_ == 2 && img instanceof DefaultImage) {
+         // Copy straight from the image's storage into the (byte-order
+         // converting) output buffer, without an intermediate short[]
+         ShortBuffer pix = (ShortBuffer)
+               ((DefaultImage) img).getReadOnlyPixelBuffer();
+         ByteBuffer buffer = getLargeBuffer(pix.capacity() * 2);
+         buffer.asShortBuffer().put(pix);
+         return buffer;
+      }
+      return getPixelBuffer(img.getRawPixels());
+   }
+
    private ByteBuffer getPixelBuffer(Object pixels) throws IOException {
       if (rgb_) {
          if (byteDepth_ == 1) {
@@ -780,10 +893,8 @@ public final class MultipageTiffWriter {
 
       //Header (1) File info (1) display ranges (1) LUTS (1 per channel)
       int numMDEntries = 3 + numChannels;
-      ByteBuffer ifdCountAndValueBuffer = allocateByteBuffer(8);
-      ifdCountAndValueBuffer.putInt(0, numMDEntries);
-      ifdCountAndValueBuffer.putInt(4, (int) filePosition_);
-      fileChannelWrite(ifdCountAndValueBuffer, ijMetadataCountsTagPosition_ + 4);
+      writeIFDEntryCountAndOffset(ijMetadataCountsTagPosition_,
+            numMDEntries, filePosition_);
 
       fileChannelWrite(mdByteCountsBuffer, filePosition_);
       filePosition_ += mdByteCountsBufferSize;
@@ -876,10 +987,8 @@ public final class MultipageTiffWriter {
       }
    
 
-      ifdCountAndValueBuffer = allocateByteBuffer(8);
-      ifdCountAndValueBuffer.putInt(0, mdBufferSize);
-      ifdCountAndValueBuffer.putInt(4, (int) filePosition_);
-      fileChannelWrite(ifdCountAndValueBuffer, ijMetadataTagPosition_ + 4);
+      writeIFDEntryCountAndOffset(ijMetadataTagPosition_, mdBufferSize,
+            filePosition_);
 
       fileChannelWrite(mdBuffer, filePosition_);
       filePosition_ += mdBufferSize;
@@ -890,17 +999,15 @@ public final class MultipageTiffWriter {
       // Null-terminate string
       bytes[bytes.length - 1] = 0;
       //write first image IFD
-      ByteBuffer ifdCountAndValueBuffer = allocateByteBuffer(8);
-      ifdCountAndValueBuffer.putInt(0, bytes.length);
-      ifdCountAndValueBuffer.putInt(4, (int) filePosition_);
-      fileChannelWrite(ifdCountAndValueBuffer, imageDescriptionTagOffset + 4);
+      writeIFDEntryCountAndOffset(imageDescriptionTagOffset, bytes.length,
+            filePosition_);
 
       //write String
       fileChannelWrite(ByteBuffer.wrap(bytes), filePosition_);
       filePosition_ += bytes.length;
    }
 
-   private byte[] getBytesFromString(String s) {
+   private static byte[] getBytesFromString(String s) {
       try {
          return s.getBytes("UTF-8");
       } catch (UnsupportedEncodingException ex) {
@@ -910,8 +1017,8 @@ public final class MultipageTiffWriter {
    }
 
    private void writeNullOffsetAfterLastImage() throws IOException {
-      ByteBuffer buffer = allocateByteBuffer(4);
-      buffer.putInt(0, 0);
+      ByteBuffer buffer = allocateByteBuffer(format_.offsetBytes);
+      format_.putOffset(buffer, 0, 0);
       fileChannelWrite(buffer, nextIFDOffsetLocation_);
    }
 
@@ -944,10 +1051,10 @@ public final class MultipageTiffWriter {
       fileChannelWrite(header, filePosition_);
       fileChannelWrite(buffer, filePosition_ + 8);
 
-      ByteBuffer offsetHeader = allocateByteBuffer(8);
+      ByteBuffer offsetHeader = allocateByteBuffer(4 + format_.offsetBytes);
       offsetHeader.putInt(0, COMMENTS_OFFSET_HEADER);
-      offsetHeader.putInt(4, (int) filePosition_);
-      fileChannelWrite(offsetHeader, 24);
+      format_.putOffset(offsetHeader, 4, filePosition_);
+      fileChannelWrite(offsetHeader, format_.commentsOffsetHeaderPosition());
       filePosition_ += 8 + commentsBytes.length;
    }
 
@@ -963,97 +1070,22 @@ public final class MultipageTiffWriter {
       fileChannelWrite(header, filePosition_);
       fileChannelWrite(buffer, filePosition_ + 8);
 
-      ByteBuffer offsetHeader = allocateByteBuffer(8);
+      ByteBuffer offsetHeader = allocateByteBuffer(4 + format_.offsetBytes);
       offsetHeader.putInt(0, DISPLAY_SETTINGS_OFFSET_HEADER);
-      offsetHeader.putInt(4, (int) filePosition_);
-      fileChannelWrite(offsetHeader, 16);
+      format_.putOffset(offsetHeader, 4, filePosition_);
+      fileChannelWrite(offsetHeader, format_.displaySettingsOffsetHeaderPosition());
       filePosition_ += numReservedBytes + 8;
    }
   
    private void writeBlankIFD() throws IOException {
-//      boolean blankPixelsAlreadyWritten = blankPixelsOffset_ != -1;
-      boolean blankPixelsAlreadyWritten = false;
-
-      char numEntries = (char) ((firstIFD_ ? ENTRIES_PER_IFD + 2 : ENTRIES_PER_IFD)
-              + (firstIFD_ ? 2 : 0));
-     
-      byte[] mdBytes = getBytesFromString("NULL ");
-
-      //2 bytes for number of directory entries, 12 bytes per directory entry, 4 byte offset of next IFD
-     //6 bytes for bits per sample if RGB, 16 bytes for x and y resolution, 1 byte per character of MD string
-     //number of bytes for pixels
-     int totalBytes = 2 + numEntries*12 + 4 + (rgb_?6:0) + 16 + mdBytes.length
-             + (blankPixelsAlreadyWritten ? 0 : bytesPerImagePixels_);
-     int IFDandBitDepthBytes = 2+ numEntries*12 + 4 + (rgb_?6:0);
-     
-     ByteBuffer ifdBuffer = allocateByteBuffer(IFDandBitDepthBytes);
-     CharBuffer charView = ifdBuffer.asCharBuffer();
-         
-     long tagDataOffset = filePosition_ + 2 + numEntries*12 + 4;
-     nextIFDOffsetLocation_ = filePosition_ + 2 + numEntries*12;
-     
-     bufferPosition_ = 0;
-      charView.put(bufferPosition_,numEntries);
-      bufferPosition_ += 2;
-      writeIFDEntry(ifdBuffer,charView, WIDTH,(char)4,1,imageWidth_);
-      writeIFDEntry(ifdBuffer,charView,HEIGHT,(char)4,1,imageHeight_);
-      writeIFDEntry(ifdBuffer,charView,BITS_PER_SAMPLE,(char)3,rgb_?3:1,  rgb_? tagDataOffset:byteDepth_*8);
-      if (rgb_) {
-         tagDataOffset += 6;
-      }
-      writeIFDEntry(ifdBuffer,charView,COMPRESSION,(char)3,1,1);
-      writeIFDEntry(ifdBuffer,charView,PHOTOMETRIC_INTERPRETATION,(char)3,1,rgb_?2:1);
-      
-      if (firstIFD_) {
-                  omeDescriptionTagPosition_ = filePosition_ + bufferPosition_;
-         writeIFDEntry(ifdBuffer, charView, IMAGE_DESCRIPTION, (char) 2, 0, 0);
-      }     
-      if (firstIFD_) {
-         ijDescriptionTagPosition_ = filePosition_ + bufferPosition_;
-         writeIFDEntry(ifdBuffer, charView, IMAGE_DESCRIPTION, (char) 2, 0, 0);
-      }
-           
-      if (!blankPixelsAlreadyWritten) { //Write blank pixels
-         writeIFDEntry(ifdBuffer, charView, STRIP_OFFSETS, (char) 4, 1, tagDataOffset);
-         blankPixelsOffset_ = tagDataOffset;
-         tagDataOffset += bytesPerImagePixels_;
-      } else {
-         writeIFDEntry(ifdBuffer, charView, STRIP_OFFSETS, (char) 4, 1, blankPixelsOffset_);
-      }
-      
-      writeIFDEntry(ifdBuffer,charView,SAMPLES_PER_PIXEL,(char)3,1,(rgb_?3:1));
-      writeIFDEntry(ifdBuffer,charView,ROWS_PER_STRIP, (char) 3, 1, imageHeight_);
-      writeIFDEntry(ifdBuffer,charView,STRIP_BYTE_COUNTS, (char) 4, 1, bytesPerImagePixels_ );
-      writeIFDEntry(ifdBuffer,charView,X_RESOLUTION, (char)5, 1, tagDataOffset);
-      tagDataOffset += 8;
-      writeIFDEntry(ifdBuffer,charView,Y_RESOLUTION, (char)5, 1, tagDataOffset);
-      tagDataOffset += 8;
-      writeIFDEntry(ifdBuffer,charView,RESOLUTION_UNIT, (char) 3,1,3);
-      if (firstIFD_) {         
-         ijMetadataCountsTagPosition_ = filePosition_ + bufferPosition_;
-         writeIFDEntry(ifdBuffer,charView,IJ_METADATA_BYTE_COUNTS,(char)4,0,0);
-         ijMetadataTagPosition_ = filePosition_ + bufferPosition_;
-         writeIFDEntry(ifdBuffer,charView,IJ_METADATA,(char)1,0,0);
-      }
-      writeIFDEntry(ifdBuffer,charView,MM_METADATA,(char)2,mdBytes.length,tagDataOffset);
-      tagDataOffset += mdBytes.length;
-      //NextIFDOffset
-      ifdBuffer.putInt(bufferPosition_, (int)tagDataOffset);
-      bufferPosition_ += 4;
-      
-      if (rgb_) {
-         charView.put(bufferPosition_/2,(char) (byteDepth_*8));
-         charView.put(bufferPosition_/2+1,(char) (byteDepth_*8));
-         charView.put(bufferPosition_/2+2,(char) (byteDepth_*8));
-      }
-      buffers_.add(ifdBuffer);
-      if (!blankPixelsAlreadyWritten) {
-         buffers_.add(ByteBuffer.wrap(new byte[bytesPerImagePixels_]));
+      // Long enough to be stored outside the IFD entry, as is the metadata
+      // of real images, in BigTIFF files too
+      byte[] mdBytes = getBytesFromString("NULL     ");
+      buffers_.add(makeIFD(mdBytes.length));
+      buffers_.add(ByteBuffer.wrap(new byte[bytesPerImagePixels_]));
+      if (format_ != TiffFormat.BIG) {
+         buffers_.add(getResolutionValuesBuffer());
       }
-      buffers_.add(getResolutionValuesBuffer());   
       buffers_.add(ByteBuffer.wrap(mdBytes));
-      
-      filePosition_ += totalBytes;
-      firstIFD_ = false;
    }
 }
@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -37,7 +38,6 @@ import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.swing.JOptionPane;
@@ -51,6 +51,7 @@ import org.micromanager.data.internal.DefaultCoords;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
+import org.micromanager.data.internal.ImageCoordsIndex;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.utils.MMException;
@@ -76,6 +77,13 @@ public final class StorageMultipageTiff implements Storage {
            "generate a metadata file when saving datasets as multipage TIFF files";
    private static final String SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS = 
            "generate a separate multipage TIFF file for each stage position";
+   private static final String SHOULD_WRITE_BIGTIFF =
+           "write multipage TIFF files in BigTIFF format";
+   private static final String SHOULD_MEMORY_MAP_FILES =
+           "use memory mapping to read multipage TIFF files";
+   private static final String MAX_PENDING_WRITE_MB =
+           "maximum megabytes of image data waiting to be written to multipage TIFF files";
+   private static final int DEFAULT_MAX_PENDING_WRITE_MB = 512;
    private static final HashSet<String> ALLOWED_AXES = new HashSet<String>(
          Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
             Coords.STAGE_POSITION));
@@ -90,13 +98,20 @@ public final class StorageMultipageTiff implements Storage {
    private String directory_;
    final private boolean separateMetadataFile_;
    private boolean splitByXYPosition_ = true;
+   private TiffFormat tiffFormat_ = TiffFormat.CLASSIC;
    private volatile boolean finished_ = false;
    private OMEMetadata omeMetadata_;
    private int lastFrame_ = 0;
    private int lastAcquiredPosition_ = 0;
-   private ThreadPoolExecutor writingExecutor_;
    private Image firstImage_;
 
+   // Bytes handed to the writing threads of all file sets that have not
+   // been written yet. Guarded by pendingWriteLock_.
+   private final Object pendingWriteLock_ = new Object();
+   private long pendingWriteBytes_ = 0;
+   private long maxPendingWriteBytes_ =
+         DEFAULT_MAX_PENDING_WRITE_MB * 1024L * 1024L;
+
    // Images that are currently being written. We keep them around until
    // writing completes, so that calls to getImage() mid-write can access
    // complete data rather than risking a call to
@@ -109,6 +124,11 @@ public final class StorageMultipageTiff implements Storage {
    
    //Map of image labels to file 
    private Map<Coords, MultipageTiffReader> coordsToReader_;
+   // Sidecar index of the images written so far; null if it could not be
+   // created, or once it has been finished
+   private volatile CoordsIndexFile coordsIndex_;
+   // For getImagesMatching(); holds the keys of coordsToReader_
+   private final ImageCoordsIndex imageCoordsIndex_ = new ImageCoordsIndex();
    // Keeps track of our maximum extent along each axis.
    private Coords maxIndices_;
   
@@ -117,6 +137,13 @@ public final class StorageMultipageTiff implements Storage {
          throws IOException {
       this(parent, store, dir, amInWriteMode, getShouldGenerateMetadataFile(),
             getShouldSplitPositions());
+      setMaxPendingWriteBytes(getMaxPendingWriteMB() * 1024L * 1024L);
+      if (amInWriteMode) {
+         setWriteBigTiff(getShouldWriteBigTiff());
+      }
+      else {
+         setMemoryMapped(getShouldMemoryMapFiles());
+      }
    }
    
    /**
@@ -163,6 +190,13 @@ public final class StorageMultipageTiff implements Storage {
          if (!dirFile.canWrite()) {
             throw new IOException("Insufficient permission to write to " + dirFile);
          }
+         try {
+            coordsIndex_ = CoordsIndexFile.create(dirFile);
+         }
+         catch (IOException e) {
+            // The dataset can still be opened without it, only more slowly
+            ReportingUtils.logError(e, "Unable to create coords index file");
+         }
       }
       else {
          openExistingDataSet();
@@ -179,8 +213,93 @@ public final class StorageMultipageTiff implements Storage {
       }
    }
    
-   public ThreadPoolExecutor getWritingExecutor() {
-      return writingExecutor_;
+   /**
+    * Choose between classic TIFF files, which are limited to 4 GB, and
+    * BigTIFF files, which use 64-bit offsets and so can hold much more data
+    * before a new file is started. BigTIFF files can be read by
+    * Micro-Manager and Bio-Formats, but not by all other TIFF readers.
+    * Must be called before the first image is written.
+    */
+   public void setWriteBigTiff(boolean bigTiff) {
+      if (positionToFileSet_ != null && !positionToFileSet_.isEmpty()) {
+         throw new IllegalStateException(
+               "Cannot change TIFF format after writing has started");
+      }
+      tiffFormat_ = bigTiff ? TiffFormat.BIG : TiffFormat.CLASSIC;
+   }
+
+   TiffFormat getTiffFormat() {
+      return tiffFormat_;
+   }
+
+   /**
+    * Read images from files opened from disk through memory-mapped windows
+    * of the files, rather than with a read into a new buffer for each
+    * image. This is faster when browsing large datasets, but the mappings
+    * are only released when the images read through them have been garbage
+    * collected, which on Windows keeps the files from being deleted.
+    */
+   public void setMemoryMapped(boolean mapped) {
+      for (MultipageTiffReader reader : new HashSet<MultipageTiffReader>(
+               coordsToReader_.values())) {
+         try {
+            reader.setMemoryMapped(mapped);
+         }
+         catch (IOException e) {
+            ReportingUtils.logError(e, "Unable to memory map file; reading it directly");
+         }
+      }
+   }
+
+   /**
+    * Set the maximum number of bytes that may be waiting to be written, over
+    * all files. When the limit is reached, calls to putImage() block until
+    * the writing threads have caught up.
+    */
+   public void setMaxPendingWriteBytes(long maxBytes) {
+      synchronized (pendingWriteLock_) {
+         maxPendingWriteBytes_ = maxBytes;
+         pendingWriteLock_.notifyAll();
+      }
+   }
+
+   /**
+    * Called by the writers before handing a buffer to a writing thread.
+    * Waits while the buffer would take the pending bytes over the limit;
+    * a buffer is always accepted when nothing else is pending, so that a
+    * single buffer larger than the limit cannot block forever.
+    */
+   void reservePendingWriteBytes(long numBytes) {
+      synchronized (pendingWriteLock_) {
+         boolean warned = false;
+         while (pendingWriteBytes_ > 0 &&
+               pendingWriteBytes_ + numBytes > maxPendingWriteBytes_) {
+            if (!warned) {
+               ReportingUtils.logMessage("Warning: writing queue behind by " +
+                     (pendingWriteBytes_ / 1024 / 1024) + " MB.");
+               warned = true;
+            }
+            try {
+               pendingWriteLock_.wait();
+            }
+            catch (InterruptedException e) {
+               ReportingUtils.logError(e, "Interrupted while waiting for image writing");
+               Thread.currentThread().interrupt();
+               break;
+            }
+         }
+         pendingWriteBytes_ += numBytes;
+      }
+   }
+
+   /**
+    * Called on the writing threads once a buffer has been written.
+    */
+   void releasePendingWriteBytes(long numBytes) {
+      synchronized (pendingWriteLock_) {
+         pendingWriteBytes_ -= numBytes;
+         pendingWriteLock_.notifyAll();
+      }
    }
 
    /**
@@ -226,6 +345,21 @@ public final class StorageMultipageTiff implements Storage {
       MultipageTiffReader reader = null;
       File dir = new File(directory_);
 
+      Map<String, HashMap<Coords, Long>> index = readCoordsIndex(dir);
+      if (index != null) {
+         for (Map.Entry<String, HashMap<Coords, Long>> entry : index.entrySet()) {
+            MultipageTiffReader fileReader = loadFile(
+                  new File(dir, entry.getKey()), entry.getValue());
+            if (fileReader != null) {
+               reader = fileReader;
+            }
+         }
+         if (reader != null) {
+            setSummaryMetadata((DefaultSummaryMetadata) reader.getSummaryMetadata(), false);
+         }
+         return;
+      }
+
       ProgressBar progressBar = null;
       // Allow operation in headless mode.
       if (!GraphicsEnvironment.isHeadless()) {
@@ -265,13 +399,82 @@ public final class StorageMultipageTiff implements Storage {
          progressBar.setProgress(1);
          progressBar.setVisible(false);
       }
+
+      writeCoordsIndex(dir);
+   }
+
+   /**
+    * Read the dataset's coords index, if it is there and describes the TIFF
+    * files that are in the directory now.
+    * @return the index map of each file, or null if the files must be
+    * opened without the index
+    */
+   private Map<String, HashMap<Coords, Long>> readCoordsIndex(File dir) {
+      Map<String, HashMap<Coords, Long>> index;
+      try {
+         index = CoordsIndexFile.read(dir);
+      }
+      catch (IOException e) {
+         ReportingUtils.logError(e, "Unable to read coords index file");
+         return null;
+      }
+      if (index == null) {
+         return null;
+      }
+      // Files that were added or modified after the index was written (for
+      // example when an index map was repaired) mean that it is out of date
+      long indexModified = new File(dir, CoordsIndexFile.FILE_NAME).lastModified();
+      int numTiffs = 0;
+      for (File f : dir.listFiles()) {
+         String fileName = f.getName();
+         if ((fileName.endsWith(".tif") || fileName.endsWith(".TIF")) &&
+               !fileName.startsWith("._")) {
+            if (!index.containsKey(fileName) ||
+                  f.lastModified() > indexModified) {
+               return null;
+            }
+            numTiffs++;
+         }
+      }
+      if (numTiffs != index.size()) {
+         return null;
+      }
+      return index;
+   }
+
+   /**
+    * Write a coords index for a dataset that was opened without one, so that
+    * it opens faster next time. Datasets on read-only media are left alone.
+    */
+   private void writeCoordsIndex(File dir) {
+      if (coordsToReader_.isEmpty() || !dir.canWrite()) {
+         return;
+      }
+      Map<String, HashMap<Coords, Long>> index = new HashMap<>();
+      for (MultipageTiffReader reader : new HashSet<>(coordsToReader_.values())) {
+         index.put(reader.getFile().getName(), reader.getIndexMap());
+      }
+      try {
+         CoordsIndexFile.write(dir, index);
+      }
+      catch (IOException e) {
+         ReportingUtils.logError(e, "Unable to write coords index file");
+      }
    }
 
    private MultipageTiffReader loadFile(File f) {
+      return loadFile(f, null);
+   }
+
+   /**
+    * @param indexMap the file's index map from the coords index, or null to
+    * read it from the file
+    */
+   private MultipageTiffReader loadFile(File f, HashMap<Coords, Long> indexMap) {
       MultipageTiffReader reader = null;
       try {
          try {
-            reader = new MultipageTiffReader(this, f);
+            reader = new MultipageTiffReader(this, f, indexMap);
          }
          catch (InvalidIndexMapException e) {
             // Prompt to repair it.
@@ -294,6 +497,7 @@ public final class StorageMultipageTiff implements Storage {
          Set<Coords> readerCoords = reader.getIndexKeys();
          for (Coords coords : readerCoords) {
             coordsToReader_.put(coords, reader);
+            imageCoordsIndex_.add(coords);
             lastFrameOpenedDataSet_ = Math.max(coords.getTime(),
                   lastFrameOpenedDataSet_);
             if (firstImage_ == null) {
@@ -334,13 +538,8 @@ public final class StorageMultipageTiff implements Storage {
 
    private void writeImage(DefaultImage image, boolean waitForWritingToFinish) 
            throws MMException, InterruptedException, ExecutionException, IOException {
-      writeImage(image);
+      Future f = writeImage(image);
       if (waitForWritingToFinish) {
-         Future f = writingExecutor_.submit(new Runnable() {
-            @Override
-            public void run() {
-            }
-         });
          f.get();
       }
    }
@@ -352,8 +551,9 @@ public final class StorageMultipageTiff implements Storage {
     * MultipageTiffReader.readImage() returning a coherent (i.e.
     * finished-writing) image if our getImage() method is called before writing
     * is completed.
+    * @return Future that completes once the image has been written
     */
-   private void writeImage(DefaultImage image) throws MMException, IOException {
+   private Future writeImage(DefaultImage image) throws MMException, IOException {
       if (!amInWriteMode_) {
          ReportingUtils.showError("Tried to write image to a finished data set");
          throw new MMException("This ImageFileManager is read-only.");
@@ -364,9 +564,9 @@ public final class StorageMultipageTiff implements Storage {
          coordsToPendingImage_.put(coords, image);
       }
 
-      startWritingTask(image);
+      FileSet set = startWritingTask(image);
 
-      writingExecutor_.submit(new Runnable() {
+      return set.getWritingExecutor().submit(new Runnable() {
          @Override
          public void run() {
             synchronized(coordsToPendingImage_) {
@@ -378,9 +578,11 @@ public final class StorageMultipageTiff implements Storage {
 
    /**
     * This method handles starting the process of writing images (which means
-    * that it ultimately submits a task to writingExecutor_).
+    * that it ultimately submits tasks to the writing executor of the file
+    * set for the image's position).
+    * @return the file set the image is written to
     */
-   private void startWritingTask(DefaultImage image) throws MMException, IOException {
+   private FileSet startWritingTask(DefaultImage image) throws MMException, IOException {
       // Update maxIndices_
       if (maxIndices_ == null) {
          maxIndices_ = image.getCoords().copy().build();
@@ -394,12 +596,6 @@ public final class StorageMultipageTiff implements Storage {
          }
       }
 
-      // initialize writing executor
-      if (writingExecutor_ == null) {
-         writingExecutor_ = new ThreadPoolExecutor(1, 1, 0,
-               TimeUnit.NANOSECONDS,
-               new LinkedBlockingQueue<java.lang.Runnable>());
-      }
       int fileSetIndex = 0;
       if (splitByXYPosition_) {
          fileSetIndex = image.getCoords().getStagePosition();
@@ -424,12 +620,33 @@ public final class StorageMultipageTiff implements Storage {
          set.writeImage(image);
          Coords coords = image.getCoords();
          coordsToReader_.put(coords, set.getCurrentReader());
+         imageCoordsIndex_.add(coords);
       } catch (IOException ex) {
         ReportingUtils.showError(ex, "Failed to write image to file.");
       }
 
       int frame = image.getCoords().getTimePoint();
       lastFrameOpenedDataSet_ = Math.max(frame, lastFrameOpenedDataSet_);
+      return set;
+   }
+
+   /**
+    * Called by MultipageTiffWriter for each image added to a file's index
+    * map.
+    */
+   void addToCoordsIndex(String fileName, Coords coords, long offset) {
+      CoordsIndexFile index = coordsIndex_;
+      if (index == null) {
+         return;
+      }
+      try {
+         index.add(fileName, coords, offset);
+      }
+      catch (IOException e) {
+         ReportingUtils.logError(e, "Unable to write to coords index file; giving up on it");
+         index.abandon();
+         coordsIndex_ = null;
+      }
    }
 
    public Set<Coords> imageKeys() {
@@ -525,25 +742,35 @@ public final class StorageMultipageTiff implements Storage {
                progressBar.setProgress(count);
             }
          }
-         //shut down writing executor--pause here until all tasks have finished
-         //writing so that no attempt is made to close the dataset (and thus
-         //the FileChannel) before everything has finished writing mkae sure
-         //all images have finished writing if they are on seperate thread
-         if (writingExecutor_ != null && !writingExecutor_.isShutdown()) {
-            writingExecutor_.shutdown();
-            try {
-               // Wait for tasks to finish.
-               int i = 0;
-               while (!writingExecutor_.awaitTermination(4, TimeUnit.SECONDS)) {
+         //shut down writing executors--pause here until all tasks have
+         //finished writing so that no attempt is made to close the dataset
+         //(and thus the FileChannel) before everything has finished writing
+         //mkae sure all images have finished writing if they are on seperate
+         //thread
+         for (FileSet p : positionToFileSet_.values()) {
+            p.getWritingExecutor().shutdown();
+         }
+         try {
+            // Wait for tasks to finish.
+            int i = 0;
+            for (FileSet p : positionToFileSet_.values()) {
+               ThreadPoolExecutor executor = p.getWritingExecutor();
+               while (!executor.awaitTermination(4, TimeUnit.SECONDS)) {
                   ReportingUtils.logMessage("Waiting for image stack to finish writing (" + i + ")...");
                   i++;
                }
             }
-            catch (InterruptedException e) {
-               ReportingUtils.logError("File finishing thread interrupted");
-               Thread.interrupted();
+            // Only now that every image is on disk can the index be trusted
+            if (coordsIndex_ != null) {
+               CoordsIndexFile index = coordsIndex_;
+               coordsIndex_ = null;
+               index.finish();
             }
          }
+         catch (InterruptedException e) {
+            ReportingUtils.logError("File finishing thread interrupted");
+            Thread.interrupted();
+         }
       } catch (IOException ex) {
          ReportingUtils.logError(ex);
       }
@@ -876,25 +1103,28 @@ public final class StorageMultipageTiff implements Storage {
 
    @Override
    public List<Image> getImagesMatching(Coords coords) {
-      HashSet<Image> result = new HashSet<>();
+      // Pending images take precedence over what may not be on disk yet
+      LinkedHashMap<Coords, Image> result = new LinkedHashMap<>();
       synchronized(coordsToPendingImage_) {
          for (Coords imageCoords : coordsToPendingImage_.keySet()) {
             if (imageCoords.matches(coords)) {
-               result.add(coordsToPendingImage_.get(imageCoords));
+               result.put(imageCoords, coordsToPendingImage_.get(imageCoords));
             }
          }
       }
-      for (Coords imageCoords : coordsToReader_.keySet()) {
-         if (imageCoords.matches(coords)) {
-            try {
-               result.add(coordsToReader_.get(imageCoords).readImage(imageCoords));
-            }
-            catch (IOException ex) {
-               ReportingUtils.logError(ex, "Failed to read image at " + imageCoords);
-            }
+      for (Coords imageCoords : imageCoordsIndex_.getMatching(coords)) {
+         if (result.containsKey(imageCoords)) {
+            continue;
+         }
+         try {
+            result.put(imageCoords,
+                  coordsToReader_.get(imageCoords).readImage(imageCoords));
+         }
+         catch (IOException ex) {
+            ReportingUtils.logError(ex, "Failed to read image at " + imageCoords);
          }
       }
-      return new ArrayList<>(result);
+      return new ArrayList<>(result.values());
    }
 
    @Override
@@ -938,6 +1168,10 @@ public final class StorageMultipageTiff implements Storage {
     */
    @Override
    public void close() {
+      if (coordsIndex_ != null) {
+         coordsIndex_.abandon();
+         coordsIndex_ = null;
+      }
       // For files we wrote ourselves.
       if (positionToFileSet_ != null) {
          for (FileSet fileset : positionToFileSet_.values()) {
@@ -965,6 +1199,36 @@ public final class StorageMultipageTiff implements Storage {
               putBoolean(SHOULD_GENERATE_METADATA_FILE, shouldGen);
    }
 
+   public static boolean getShouldWriteBigTiff() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              getBoolean(SHOULD_WRITE_BIGTIFF, false);
+   }
+
+   public static void setShouldWriteBigTiff(boolean shouldWrite) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              putBoolean(SHOULD_WRITE_BIGTIFF, shouldWrite);
+   }
+
+   public static boolean getShouldMemoryMapFiles() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              getBoolean(SHOULD_MEMORY_MAP_FILES, false);
+   }
+
+   public static void setShouldMemoryMapFiles(boolean shouldMap) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              putBoolean(SHOULD_MEMORY_MAP_FILES, shouldMap);
+   }
+
+   public static int getMaxPendingWriteMB() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              getInteger(MAX_PENDING_WRITE_MB, DEFAULT_MAX_PENDING_WRITE_MB);
+   }
+
+   public static void setMaxPendingWriteMB(int megabytes) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              putInteger(MAX_PENDING_WRITE_MB, megabytes);
+   }
+
    public static boolean getShouldSplitPositions() {
       return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
               getBoolean(SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS, true);
@@ -0,0 +1,130 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Multipage TIFF
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.data.internal.multipagetiff;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The two flavors of TIFF file that MultipageTiffWriter produces: classic
+ * TIFF, with 32-bit offsets and a 4 GB size limit, and BigTIFF, with 64-bit
+ * offsets.
+ * <p>
+ * Both use the same layout. The TIFF header is followed by the Micro-Manager
+ * headers (index map, display settings and comments offsets, and the summary
+ * metadata length), then the summary metadata, the index map, and the IFDs.
+ * Every file offset, including those in the Micro-Manager headers and the
+ * index map, is stored in {@link #offsetBytes} bytes.
+ */
+enum TiffFormat {
+   CLASSIC((char) 42, 4, 2, 12, 4L * 1073741824L, Integer.MAX_VALUE),
+   // Files are limited so that FileSet still splits extremely long
+   // acquisitions, and so that the preallocated index map stays reasonable
+   BIG((char) 43, 8, 8, 20, 256L * 1073741824L, 1 << 20);
+
+   // TIFF field types used for offsets
+   private static final char LONG = 4;
+   private static final char LONG8 = 16;
+
+   /** The value following the byte order mark in the TIFF header. */
+   final char versionCode;
+   /** The size of offsets, and of IFD entry counts and values. */
+   final int offsetBytes;
+   /** The size of the number of entries at the start of an IFD. */
+   final int entryCountBytes;
+   /** The size of an IFD entry. */
+   final int ifdEntryBytes;
+   final long maxFileSize;
+   final int maxImagesPerFile;
+
+   TiffFormat(char versionCode, int offsetBytes, int entryCountBytes,
+         int ifdEntryBytes, long maxFileSize, int maxImagesPerFile) {
+      this.versionCode = versionCode;
+      this.offsetBytes = offsetBytes;
+      this.entryCountBytes = entryCountBytes;
+      this.ifdEntryBytes = ifdEntryBytes;
+      this.maxFileSize = maxFileSize;
+      this.maxImagesPerFile = maxImagesPerFile;
+   }
+
+   /**
+    * @return the format with the given TIFF version code, or null
+    */
+   static TiffFormat fromVersionCode(int code) {
+      for (TiffFormat format : values()) {
+         if (format.versionCode == code) {
+            return format;
+         }
+      }
+      return null;
+   }
+
+   /** The TIFF field type for strip offsets. */
+   char offsetType() {
+      return this == BIG ? LONG8 : LONG;
+   }
+
+   int headerBytes() {
+      return this == BIG ? 16 : 8;
+   }
+
+   long indexMapOffsetHeaderPosition() {
+      return headerBytes();
+   }
+
+   long displaySettingsOffsetHeaderPosition() {
+      return headerBytes() + (4 + offsetBytes);
+   }
+
+   long commentsOffsetHeaderPosition() {
+      return headerBytes() + 2 * (4 + offsetBytes);
+   }
+
+   long summaryMDHeaderPosition() {
+      return headerBytes() + 3 * (4 + offsetBytes);
+   }
+
+   /** The position of the summary metadata JSON. */
+   long summaryMDPosition() {
+      return summaryMDHeaderPosition() + 8;
+   }
+
+   /** Four axis indices followed by the offset of the IFD. */
+   int indexMapEntryBytes() {
+      return 16 + offsetBytes;
+   }
+
+   /** The size of an IFD, excluding any out-of-line values. */
+   int ifdBytes(int numEntries) {
+      return entryCountBytes + numEntries * ifdEntryBytes + offsetBytes;
+   }
+
+   void putOffset(ByteBuffer buffer, int index, long offset) {
+      if (this == BIG) {
+         buffer.putLong(index, offset);
+      }
+      else {
+         buffer.putInt(index, (int) offset);
+      }
+   }
+
+   long getOffset(ByteBuffer buffer, int index) {
+      if (this == BIG) {
+         return buffer.getLong(index);
+      }
+      return buffer.getInt(index) & 0xffffffffL;
+   }
+}
@@ -21,19 +21,31 @@
 package org.micromanager.data.internal.pipeline;
 
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Processor;
 import org.micromanager.internal.utils.ReportingUtils;
 
+/**
+ * Context that runs its Processor on a dedicated thread, fed through a
+ * bounded queue. A full queue blocks the upstream stage, so that a slow
+ * Processor applies back-pressure rather than accumulating images.
+ */
 public final class AsynchronousContext extends BaseContext {
-   private boolean isFlushed_ = false;
-   private LinkedBlockingQueue<ImageWrapper> inputQueue_ = null;
+   private final LinkedBlockingQueue<ImageWrapper> inputQueue_;
 
    public AsynchronousContext(Processor processor,
          Datastore store, DefaultPipeline parent) {
+      this(processor, store, parent, 1);
+   }
+
+   /**
+    * @param queueDepth number of images that may wait for the processor
+    */
+   public AsynchronousContext(Processor processor,
+         Datastore store, DefaultPipeline parent, int queueDepth) {
       super(processor, store, parent);
-      inputQueue_ = new LinkedBlockingQueue<ImageWrapper>(1);
+      inputQueue_ = new LinkedBlockingQueue<ImageWrapper>(
+            Math.max(1, queueDepth));
       // Create a new thread to do processing in.
       new Thread(new Runnable() {
          @Override
@@ -47,28 +59,19 @@ public final class AsynchronousContext extends BaseContext {
     * This method runs in a separate thread, and pulls images from the
     * input queue, to feed into the processor. It only runs when the pipeline
     * is in asynchronous mode; in synchronous mode, the processor is invoked
-    * directly by insertImage().
+    * directly by insertImage(). The thread exits once the pipeline has been
+    * flushed, as a flushed (halted) pipeline receives no further images.
     */
    private void monitorQueue() {
       while (true) {
-         ImageWrapper wrapper = null;
+         ImageWrapper wrapper;
          try {
-            wrapper = inputQueue_.poll(1000, TimeUnit.MILLISECONDS);
+            wrapper = inputQueue_.take();
          }
          catch (InterruptedException e) {
-            // Ignore it.
+            ReportingUtils.logError(e, "Processor thread interrupted");
             Thread.currentThread().interrupt();
-         }
-         if (wrapper == null) {
-            // Queue is empty.
-            if (isFlushed_) {
-               // All done.
-               return;
-            }
-            else {
-               // Go back to polling.
-               continue;
-            }
+            return;
          }
          if (wrapper.getImage() == null) {
             // Flushing the queue; cleanup the processor and pass the empty
@@ -77,30 +80,23 @@ public final class AsynchronousContext extends BaseContext {
             if (sink_ != null) {
                sink_.insertImage(wrapper);
             }
-            isFlushed_ = true;
             if (flushLatch_ != null) {
                flushLatch_.countDown();
             }
+            return;
          }
-         else {
-            // Non-null image: process it.
-            isFlushed_ = false;
-            try {
-               processor_.processImage(wrapper.getImage(), this);
-            }
-            catch (Exception e) {
-               ReportingUtils.logError(e, "Processor failed to process image");
-               // Pass the exception to our parent.
-               parent_.exceptionOccurred(e);
-            }
-         }
+         // Non-null image: process it.
+         processImage(wrapper, this);
+         sampleLatency(wrapper);
       }
    }
 
    /**
     * Process an image. If the input ImageWrapper has a null image, then we
     * flush the pipeline instead, passing the null along to the next context.
+    * Blocks while the input queue is full.
     */
+   @Override
    public void insertImage(ImageWrapper wrapper) {
       try {
          inputQueue_.put(wrapper);
@@ -108,5 +104,6 @@ public final class AsynchronousContext extends BaseContext {
       catch (InterruptedException e) {
          ReportingUtils.logError(e, "Interrupted while passing image along pipeline");
       }
+      sampleQueueOccupancy(inputQueue_.size());
    }
 }
@@ -30,6 +30,7 @@ import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
 public abstract class BaseContext implements ProcessorContext {
    protected BaseContext sink_ = null;
@@ -37,6 +38,9 @@ public abstract class BaseContext implements ProcessorContext {
    protected Datastore store_;
    protected DefaultPipeline parent_;
    protected CountDownLatch flushLatch_;
+   protected PerformanceMonitor perfMon_;
+   protected String latencyStatLabel_;
+   protected String queueStatLabel_;
 
    public BaseContext(Processor processor, Datastore store,
          DefaultPipeline parent) {
@@ -75,6 +79,59 @@ public abstract class BaseContext implements ProcessorContext {
       sink_ = sink;
    }
 
+   /**
+    * Set the PerformanceMonitor to which per-stage latency and queue
+    * occupancy are reported.
+    * @param perfMon the monitor, or null to stop reporting
+    * @param stageLabel prefix for the statistic labels of this stage
+    */
+   public void setPerformanceMonitor(PerformanceMonitor perfMon,
+         String stageLabel) {
+      latencyStatLabel_ = stageLabel + " latency (ms)";
+      queueStatLabel_ = stageLabel + " queued images";
+      perfMon_ = perfMon;
+   }
+
+   /**
+    * Hand an image to our processor, reporting any exception to our parent.
+    * @param wrapper the image to process
+    * @param context the context the processor should output images to
+    */
+   protected void processImage(ImageWrapper wrapper,
+         ProcessorContext context) {
+      try {
+         processor_.processImage(wrapper.getImage(), context);
+      }
+      catch (Exception e) {
+         ReportingUtils.logError(e, "Processor failed to process image");
+         // Pass the exception to our parent.
+         parent_.exceptionOccurred(e);
+      }
+   }
+
+   /**
+    * Record the time taken for an image to pass through this stage, from
+    * being inserted to its outputs (if any) having been handed on.
+    */
+   protected void sampleLatency(ImageWrapper wrapper) {
+      PerformanceMonitor perfMon = perfMon_;
+      if (perfMon != null) {
+         perfMon.sample(latencyStatLabel_,
+               (System.nanoTime() - wrapper.getCreationTimeNs()) / 1e6);
+      }
+   }
+
+   /**
+    * Record the number of images waiting for (or undergoing) processing in
+    * this stage.
+    */
+   protected void sampleQueueOccupancy(int numImages) {
+      PerformanceMonitor perfMon = perfMon_;
+      if (perfMon != null) {
+         perfMon.sample(queueStatLabel_, numImages);
+      }
+   }
+
    /**
     * Set the CountDownLatch to count down when we flush ourselves.
     */
@@ -23,6 +23,7 @@ package org.micromanager.data.internal.pipeline;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
@@ -32,9 +33,13 @@ import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.Processor;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
 public final class DefaultPipeline implements Pipeline {
-   
+   public static final int DEFAULT_QUEUE_DEPTH = 1;
+   public static final int DEFAULT_WORKER_THREADS = Math.max(1,
+         Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
    private final List<Processor> processors_;
    private final List<BaseContext> contexts_;
    private final Datastore store_;
@@ -42,21 +47,46 @@ public final class DefaultPipeline implements Pipeline {
    private boolean haveInsertedImages_ = false;
    private boolean amHalting_ = false;
    private boolean isHalted_ = false;
-   private final ArrayList<Exception> exceptions_;
+   // Written by processor threads
+   private final List<Exception> exceptions_;
 
-   @SuppressWarnings("LeakingThisInConstructor")
    public DefaultPipeline(List<Processor> processors, Datastore store,
          boolean isSynchronous) {
+      this(processors, store, isSynchronous, DEFAULT_QUEUE_DEPTH,
+            DEFAULT_WORKER_THREADS);
+   }
+
+   /**
+    * Create a pipeline.
+    * @param processors the processors, in order
+    * @param store the datastore receiving the processed images
+    * @param isSynchronous whether to run each processor on the thread that
+    *        inserts images into it
+    * @param queueDepth for asynchronous pipelines, the number of images that
+    *        may wait for each processor before insertion blocks
+    * @param workerThreads for asynchronous pipelines, the number of threads
+    *        to run each parallel-safe processor (see
+    *        {@link Processor#isParallelSafe()}) on; other processors always
+    *        get a single thread
+    */
+   @SuppressWarnings("LeakingThisInConstructor")
+   public DefaultPipeline(List<Processor> processors, Datastore store,
+         boolean isSynchronous, int queueDepth, int workerThreads) {
       processors_ = processors;
       store_ = store;
       contexts_ = new ArrayList<BaseContext>();
-      exceptions_ = new ArrayList<Exception>();
+      exceptions_ = new CopyOnWriteArrayList<Exception>();
       for (Processor processor : processors_) {
          if (isSynchronous) {
             contexts_.add(new SynchronousContext(processor, store_, this));
          }
+         else if (workerThreads > 1 && processor.isParallelSafe()) {
+            contexts_.add(new ParallelContext(processor, store_, this,
+                  workerThreads, queueDepth));
+         }
          else {
-            contexts_.add(new AsynchronousContext(processor, store_, this));
+            contexts_.add(new AsynchronousContext(processor, store_, this,
+                  queueDepth));
          }
       }
       // Chain the contexts together. The last one goes to the Datastore by
@@ -172,4 +202,16 @@ public final class DefaultPipeline implements Pipeline {
    public void exceptionOccurred(Exception e) {
       exceptions_.add(e);
    }
+
+   /**
+    * Report the latency and queue occupancy of each stage of the pipeline.
+    * @param perfMon the monitor, or null to stop reporting
+    */
+   public void setPerformanceMonitor(PerformanceMonitor perfMon) {
+      for (int i = 0; i < contexts_.size(); ++i) {
+         contexts_.get(i).setPerformanceMonitor(perfMon,
+               String.format("Pipeline stage %d (%s)", i,
+                     processors_.get(i).getClass().getSimpleName()));
+      }
+   }
 }
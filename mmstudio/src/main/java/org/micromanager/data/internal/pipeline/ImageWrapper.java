@@ -29,12 +29,22 @@ import org.micromanager.data.Image;
  */
 public final class ImageWrapper {
    private Image image_;
+   private final long creationTimeNs_;
 
    public ImageWrapper(Image image) {
       image_ = image;
+      creationTimeNs_ = System.nanoTime();
    }
 
    public Image getImage() {
       return image_;
    }
+
+   /**
+    * Time (from System.nanoTime()) at which the image was handed to the
+    * context that is to process it; used to measure per-stage latency.
+    */
+   public long getCreationTimeNs() {
+      return creationTimeNs_;
+   }
 }
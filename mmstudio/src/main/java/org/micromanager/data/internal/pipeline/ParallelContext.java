@@ -0,0 +1,185 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Context that runs a parallel-safe Processor (see
+ * {@link Processor#isParallelSafe()}) on a pool of worker threads.
+ * <p>
+ * Each input image is numbered as it arrives and processed with its own
+ * ProcessorContext that collects the output images. Once an image has been
+ * processed, its outputs are held until those of all earlier images have
+ * been handed on, so that the next stage sees the same order as with a
+ * single thread. At most {@code numThreads + queueDepth} images are in the
+ * context at a time; further calls to insertImage() block until the oldest
+ * image has been handed on.
+ */
+public final class ParallelContext extends BaseContext {
+   private final ExecutorService executor_;
+   private final int maxInFlight_;
+   private final Semaphore inFlightPermits_;
+
+   // Only accessed from the (single) upstream thread calling insertImage()
+   private long nextSequenceNumber_ = 0;
+
+   private final ConcurrentHashMap<Long, Invocation> processed_ =
+         new ConcurrentHashMap<Long, Invocation>();
+   // Held while handing outputs on; guards nextToOutput_ writes
+   private final ReentrantLock outputLock_ = new ReentrantLock();
+   private volatile long nextToOutput_ = 0;
+
+   /**
+    * @param numThreads number of worker threads
+    * @param queueDepth number of images that may wait for a worker
+    */
+   public ParallelContext(Processor processor, Datastore store,
+         DefaultPipeline parent, int numThreads, int queueDepth) {
+      super(processor, store, parent);
+      maxInFlight_ = numThreads + Math.max(1, queueDepth);
+      inFlightPermits_ = new Semaphore(maxInFlight_);
+      executor_ = Executors.newFixedThreadPool(numThreads,
+            ThreadFactoryFactory.createThreadFactory(
+                  "Processor context for " + processor));
+   }
+
+   /**
+    * Process an image. If the input ImageWrapper has a null image, then we
+    * wait for all images to be handed on and flush the pipeline, passing
+    * the null along to the next context.
+    */
+   @Override
+   public void insertImage(ImageWrapper wrapper) {
+      if (wrapper.getImage() == null) {
+         flush(wrapper);
+         return;
+      }
+      try {
+         inFlightPermits_.acquire();
+      }
+      catch (InterruptedException e) {
+         ReportingUtils.logError(e, "Interrupted while passing image along pipeline");
+         return;
+      }
+      sampleQueueOccupancy(maxInFlight_ - inFlightPermits_.availablePermits());
+      executor_.execute(new Invocation(nextSequenceNumber_++, wrapper));
+   }
+
+   private void flush(ImageWrapper wrapper) {
+      // Acquiring all permits waits for every image to be handed on
+      inFlightPermits_.acquireUninterruptibly(maxInFlight_);
+      executor_.shutdown();
+      processor_.cleanup(this);
+      if (sink_ != null) {
+         sink_.insertImage(wrapper);
+      }
+      if (flushLatch_ != null) {
+         flushLatch_.countDown();
+      }
+   }
+
+   private void processed(Invocation invocation) {
+      processed_.put(invocation.sequenceNumber_, invocation);
+      // Whichever worker holds the lock hands on all consecutive outputs
+      // that are ready; the others return to processing. After releasing
+      // the lock, check again in case an invocation that is next in line
+      // was added while we held it.
+      while (outputLock_.tryLock()) {
+         try {
+            Invocation next;
+            while ((next = processed_.remove(nextToOutput_)) != null) {
+               for (Image image : next.outputs_) {
+                  outputImage(image);
+               }
+               sampleLatency(next.wrapper_);
+               nextToOutput_ = nextToOutput_ + 1;
+               inFlightPermits_.release();
+            }
+         }
+         finally {
+            outputLock_.unlock();
+         }
+         if (!processed_.containsKey(nextToOutput_)) {
+            break;
+         }
+      }
+   }
+
+   /**
+    * The processing of a single image, and the context through which the
+    * processor outputs its results for that image.
+    */
+   private final class Invocation implements Runnable, ProcessorContext {
+      private final long sequenceNumber_;
+      private final ImageWrapper wrapper_;
+      private final List<Image> outputs_ = new ArrayList<Image>(1);
+      private volatile boolean isDone_ = false;
+
+      Invocation(long sequenceNumber, ImageWrapper wrapper) {
+         sequenceNumber_ = sequenceNumber;
+         wrapper_ = wrapper;
+      }
+
+      @Override
+      public void run() {
+         try {
+            processImage(wrapper_, this);
+         }
+         catch (Throwable e) {
+            // processImage() reports exceptions but not Errors (e.g.
+            // OutOfMemoryError). Report those too, so that the pipeline
+            // fails instead of waiting forever for this image.
+            ReportingUtils.logError(e, "Processor failed to process image");
+            if (parent_ != null) {
+               parent_.exceptionOccurred(new RuntimeException(e));
+            }
+         }
+         finally {
+            isDone_ = true;
+            processed(this);
+         }
+      }
+
+      @Override
+      public void outputImage(Image image) {
+         if (isDone_) {
+            throw new IllegalStateException(
+                  "Images must be output from within processImage()");
+         }
+         outputs_.add(image);
+      }
+
+      @Override
+      public SummaryMetadata getSummaryMetadata() {
+         return ParallelContext.this.getSummaryMetadata();
+      }
+   }
+}
@@ -53,6 +53,7 @@ public class IntensityInspectorPanelController
       extends AbstractInspectorPanelController
 {
    public static final String HISTOGRAM_UPDATE_FREQUENCY = "HistogramUpdateFrequency";
+   public static final String FAST_HISTOGRAMS = "FastApproximateHistograms";
    public static final String COLOR_PALETTE = "ColorPalette";
    private static final String COLOR_BLIND_FRIENDLY = "Colorblind-friendly";
    private static final String RGBCMYW = "RGBCMYW";
@@ -86,6 +87,8 @@ public class IntensityInspectorPanelController
          new JCheckBoxMenuItem("Logarithmic Y Axis");
    private final JCheckBoxMenuItem gearMenuUseROIItem_ =
          new JCheckBoxMenuItem("Use ROI for Histograms and Autostretch");
+   private final JCheckBoxMenuItem gearMenuFastHistogramsItem_ =
+         new JCheckBoxMenuItem("Fast Approximate Histograms While Images Arrive");
 
    private final JPanel generalControlPanel_ = new JPanel();
    private final JComboBox colorModeComboBox_ = new JComboBox();
@@ -190,6 +193,10 @@ public class IntensityInspectorPanelController
       }
 
       gearMenu_.add(gearMenuUseROIItem_);
+      gearMenu_.add(gearMenuFastHistogramsItem_);
+      gearMenuFastHistogramsItem_.setSelected(studio_.profile().getSettings(
+              IntensityInspectorPanelController.class).getBoolean(
+                      FAST_HISTOGRAMS, false));
 
       gearMenuLogYAxisItem_.addActionListener((ActionEvent e) -> {
          handleHistogramLogYAxis(gearMenuLogYAxisItem_.isSelected());
@@ -197,6 +204,12 @@ public class IntensityInspectorPanelController
       gearMenuUseROIItem_.addActionListener((ActionEvent e) -> {
          handleHistogramUseROI(gearMenuUseROIItem_.isSelected());
       });
+      gearMenuFastHistogramsItem_.addActionListener((ActionEvent e) -> {
+         handleFastHistograms(gearMenuFastHistogramsItem_.isSelected());
+         studio_.profile().getSettings(
+                 IntensityInspectorPanelController.class).putBoolean(
+                         FAST_HISTOGRAMS, gearMenuFastHistogramsItem_.isSelected());
+      });
    }
 
    private void setUpGeneralControlPanel() {
@@ -314,6 +327,14 @@ public class IntensityInspectorPanelController
       }
    }
 
+   private void handleFastHistograms(boolean enabled) {
+      // Histograms are sampled while images keep arriving, and recomputed
+      // exactly once they stop
+      if (viewer_ instanceof DisplayController) {
+         ((DisplayController) viewer_).setFastStatsEnabled(enabled);
+      }
+   }
+
    private void handleHistogramUseROI(boolean useROI) {
       DisplaySettings oldSettings, newSettings;
       do {
@@ -473,6 +494,7 @@ public class IntensityInspectorPanelController
          if (histogramMenuMap_.get(updateRate) != null) {
             handleHistogramUpdateRate(histogramMenuMap_.get(updateRate));
          }
+         handleFastHistograms(gearMenuFastHistogramsItem_.isSelected());
       });
    }
 
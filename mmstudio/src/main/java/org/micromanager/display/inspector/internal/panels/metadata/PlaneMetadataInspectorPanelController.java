@@ -57,6 +57,14 @@ public final class PlaneMetadataInspectorPanelController extends AbstractInspect
    
    private static boolean expanded_;
 
+   // Access: from EDT only. The section starts out expanded (without a
+   // call to setExpanded()) if initiallyExpand() says so.
+   private boolean sectionExpanded_ = expanded_;
+   private boolean showing_;
+   // Number of panels expanded and attached to a viewer; guarded by monitor
+   // on the class
+   private static int showingCount_;
+
    // Access: from background executor only; list must not be modified once set
    private TreeMap<String, String> data_ = new TreeMap<String, String>();
 
@@ -167,6 +175,7 @@ public final class PlaneMetadataInspectorPanelController extends AbstractInspect
       detachDataViewer();
       viewer_ = viewer;
       viewer_.registerForEvents(this);
+      updateShowing();
       final List<Image> images;
       try {
           images = viewer_.getDisplayedImages();
@@ -200,6 +209,7 @@ public final class PlaneMetadataInspectorPanelController extends AbstractInspect
       }
       viewer_.unregisterForEvents(this);
       viewer_ = null;
+      updateShowing();
       background_.submit(new Runnable() {
          @Override
          public void run() {
@@ -216,11 +226,36 @@ public final class PlaneMetadataInspectorPanelController extends AbstractInspect
    @Override
    public void setExpanded(boolean state) {
       expanded_ = state;
+      sectionExpanded_ = state;
+      updateShowing();
+   }
+
+   private void updateShowing() {
+      boolean showing = viewer_ != null && sectionExpanded_;
+      if (showing == showing_) {
+         return;
+      }
+      showing_ = showing;
+      synchronized (PlaneMetadataInspectorPanelController.class) {
+         showingCount_ += showing ? 1 : -1;
+      }
+   }
+
+   /**
+    * Whether any inspector is showing image plane metadata, so that sources
+    * of images that skip collecting full metadata to save time (such as live
+    * mode) should collect it.
+    * @return true if a plane metadata panel is expanded and has a viewer
+    */
+   public static synchronized boolean isShowingMetadata() {
+      return showingCount_ > 0;
    }
    
    @Override
    public boolean initiallyExpand() {
-      return expanded_;
+      sectionExpanded_ = expanded_;
+      updateShowing();
+      return sectionExpanded_;
    }
    
    private void updateMetadata(Metadata metadata, boolean evenIfUnchanged) {
@@ -0,0 +1,259 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.micromanager.internal.MMStudio;
+
+/**
+ * Renders 8- or 16-bit images, one or more channels composited additively,
+ * into an RGB raster without going through ImageJ.
+ * <p>
+ * Each channel has a lookup table from raw sample value straight to the
+ * packed RGB color it contributes, built from the channel's 256-entry color
+ * table and min/max only when those change. Rendering then takes one table
+ * lookup and one add per channel per pixel, done a row and a channel at a
+ * time, and a clamp per pixel, writing into a reused {@code int[]} raster.
+ * ImageJ instead converts each channel to 8 bits and rebuilds its color
+ * model on every repaint.
+ * <p>
+ * The raster pixels are picked from the source by a column and a row index
+ * per raster pixel, so that only the part of the image visible in the
+ * canvas, at the canvas's resolution (or that of an {@link ImagePyramid}
+ * level), is rendered. Rows are split into stripes rendered in parallel.
+ * <p>
+ * Not thread-safe; meant to be used on the EDT.
+ */
+public final class CompositeRenderer {
+   private static final String SHOULD_USE_FAST_RENDERING =
+         "render images in the canvas without ImageJ";
+
+   // Stripes are split no smaller than this many rendered pixels
+   private static final int MIN_PIXELS_PER_TASK = 1 << 16;
+
+   // The lookup tables hold red, green and blue in 10-bit lanes, so that up
+   // to 4 channels can be summed with one add before clamping to 255
+   private static final int LANE_BITS = 10;
+   private static final int LANE_MASK = (1 << LANE_BITS) - 1;
+
+   private static final class ChannelLUT {
+      byte[] reds;
+      byte[] greens;
+      byte[] blues;
+      int min;
+      int max;
+      int[] lanes;
+   }
+
+   private final List<ChannelLUT> luts_ = new ArrayList<ChannelLUT>();
+
+   public static CompositeRenderer create() {
+      return new CompositeRenderer();
+   }
+
+   private CompositeRenderer() {
+   }
+
+   /**
+    * Set the color table and scaling of a channel. The lookup table is
+    * rebuilt only if any of these differ from the last call.
+    * @param reds 256 entries; likewise for greens and blues
+    * @param min raw value mapped to entry 0
+    * @param max raw value mapped to entry 255
+    */
+   public void setChannel(int channel, byte[] reds, byte[] greens,
+         byte[] blues, int min, int max)
+   {
+      while (luts_.size() <= channel) {
+         luts_.add(new ChannelLUT());
+      }
+      ChannelLUT lut = luts_.get(channel);
+      if (lut.lanes != null && lut.min == min && lut.max == max &&
+            Arrays.equals(lut.reds, reds) &&
+            Arrays.equals(lut.greens, greens) &&
+            Arrays.equals(lut.blues, blues)) {
+         return;
+      }
+      lut.reds = reds.clone();
+      lut.greens = greens.clone();
+      lut.blues = blues.clone();
+      lut.min = min;
+      lut.max = max;
+      if (lut.lanes == null) {
+         // Covers 8- and 16-bit samples, so no bounds check when rendering
+         lut.lanes = new int[65536];
+      }
+      // Same scaling as ImageJ's ShortProcessor.create8BitImage()
+      double scale = 256.0 / (max - min + 1);
+      for (int value = 0; value < lut.lanes.length; ++value) {
+         int index = (int) (Math.max(0, value - min) * scale + 0.5);
+         index = Math.min(255, index);
+         lut.lanes[value] = (reds[index] & 0xff) << (2 * LANE_BITS) |
+               (greens[index] & 0xff) << LANE_BITS | (blues[index] & 0xff);
+      }
+   }
+
+   /**
+    * Render the visible channels into the raster.
+    * @param channelPixels byte[] or short[] pixels of each channel, or null
+    * for channels that are not to be drawn
+    * @param sourceWidth width of the channel pixel arrays
+    * @param columns the source column of each raster column
+    * @param rows the source row of each raster row
+    * @param raster the RGB raster, columns.length wide and rows.length high
+    * @param pool pool to render stripes on, or null for the calling thread
+    */
+   public void render(Object[] channelPixels, int sourceWidth, int[] columns,
+         int[] rows, int[] raster, ForkJoinPool pool)
+   {
+      List<Object> pixels = new ArrayList<Object>();
+      List<int[]> luts = new ArrayList<int[]>();
+      for (int channel = 0; channel < channelPixels.length; ++channel) {
+         if (channelPixels[channel] == null || channel >= luts_.size() ||
+               luts_.get(channel).lanes == null) {
+            continue;
+         }
+         pixels.add(channelPixels[channel]);
+         luts.add(luts_.get(channel).lanes);
+      }
+      StripeTask task = new StripeTask(pixels.toArray(),
+            luts.toArray(new int[luts.size()][]), sourceWidth, columns, rows,
+            raster, 0, rows.length);
+      if (pool == null) {
+         task.renderStripe();
+      }
+      else {
+         pool.invoke(task);
+      }
+   }
+
+   private static final class StripeTask extends RecursiveAction {
+      private final Object[] pixels_;
+      private final int[][] luts_;
+      private final int sourceWidth_;
+      private final int[] columns_;
+      private final int[] rows_;
+      private final int[] raster_;
+      // Range of raster rows to render
+      private final int row0_;
+      private final int row1_;
+
+      StripeTask(Object[] pixels, int[][] luts, int sourceWidth,
+            int[] columns, int[] rows, int[] raster, int row0, int row1)
+      {
+         pixels_ = pixels;
+         luts_ = luts;
+         sourceWidth_ = sourceWidth;
+         columns_ = columns;
+         rows_ = rows;
+         raster_ = raster;
+         row0_ = row0;
+         row1_ = row1;
+      }
+
+      @Override
+      protected void compute() {
+         if ((long) (row1_ - row0_) * columns_.length <
+               2 * MIN_PIXELS_PER_TASK || row1_ - row0_ < 2) {
+            renderStripe();
+            return;
+         }
+         int mid = (row0_ + row1_) >>> 1;
+         invokeAll(new StripeTask(pixels_, luts_, sourceWidth_, columns_,
+                     rows_, raster_, row0_, mid),
+               new StripeTask(pixels_, luts_, sourceWidth_, columns_,
+                     rows_, raster_, mid, row1_));
+      }
+
+      void renderStripe() {
+         int[] sums = new int[columns_.length];
+         for (int row = row0_; row < row1_; ++row) {
+            int rowStart = rows_[row] * sourceWidth_;
+            if (luts_.length == 0) {
+               Arrays.fill(sums, 0);
+            }
+            for (int channel = 0; channel < luts_.length; ++channel) {
+               if (channel >= 4 && (channel - 4) % 3 == 0) {
+                  // Keep the lanes from overflowing into each other
+                  for (int k = 0; k < sums.length; ++k) {
+                     sums[k] = saturate(sums[k]);
+                  }
+               }
+               accumulate(channel, rowStart, sums, channel == 0);
+            }
+
+            int rasterStart = row * columns_.length;
+            for (int k = 0; k < sums.length; ++k) {
+               int lanes = saturate(sums[k]);
+               raster_[rasterStart + k] = (lanes >>> 4) & 0xff0000 |
+                     (lanes >>> 2) & 0xff00 | lanes & 0xff;
+            }
+         }
+      }
+
+      private void accumulate(int channel, int rowStart, int[] sums,
+            boolean first)
+      {
+         int[] lut = luts_[channel];
+         int[] columns = columns_;
+         int n = sums.length;
+         if (pixels_[channel] instanceof short[]) {
+            short[] pixels = (short[]) pixels_[channel];
+            if (first) {
+               for (int k = 0; k < n; ++k) {
+                  sums[k] = lut[pixels[rowStart + columns[k]] & 0xffff];
+               }
+            }
+            else {
+               for (int k = 0; k < n; ++k) {
+                  sums[k] += lut[pixels[rowStart + columns[k]] & 0xffff];
+               }
+            }
+         }
+         else {
+            byte[] pixels = (byte[]) pixels_[channel];
+            if (first) {
+               for (int k = 0; k < n; ++k) {
+                  sums[k] = lut[pixels[rowStart + columns[k]] & 0xff];
+               }
+            }
+            else {
+               for (int k = 0; k < n; ++k) {
+                  sums[k] += lut[pixels[rowStart + columns[k]] & 0xff];
+               }
+            }
+         }
+      }
+   }
+   // Clamp each lane to 255
+   private static int saturate(int lanes) {
+      int r = Math.min(255, lanes >>> (2 * LANE_BITS));
+      int g = Math.min(255, (lanes >>> LANE_BITS) & LANE_MASK);
+      int b = Math.min(255, lanes & LANE_MASK);
+      return r << (2 * LANE_BITS) | g << LANE_BITS | b;
+   }
+
+   public static boolean getShouldUseFastRendering() {
+      return MMStudio.getInstance().profile().
+            getSettings(CompositeRenderer.class).
+            getBoolean(SHOULD_USE_FAST_RENDERING, false);
+   }
+
+   public static void setShouldUseFastRendering(boolean shouldUse) {
+      MMStudio.getInstance().profile().getSettings(CompositeRenderer.class).
+            putBoolean(SHOULD_USE_FAST_RENDERING, shouldUse);
+   }
+}
@@ -772,6 +772,18 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       return 1e9 / intervalNs;
    }
 
+   /**
+    * Compute histograms and autostretch from a sample of the pixels while
+    * images are arriving, refining to exact statistics once they stop.
+    */
+   public void setFastStatsEnabled(boolean enabled) {
+      computeQueue_.setFastStatsEnabled(enabled);
+   }
+
+   public boolean isFastStatsEnabled() {
+      return computeQueue_.isFastStatsEnabled();
+   }
+
    public void setPlaybackAnimationAxes(String... axes) {
       synchronized (this) {
          playbackAxes_.clear();
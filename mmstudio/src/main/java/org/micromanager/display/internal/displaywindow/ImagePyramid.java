@@ -0,0 +1,190 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reduced-resolution copies of a single-component 8- or 16-bit plane, for
+ * drawing it zoomed out.
+ * <p>
+ * Level 0 is the plane itself; each further level halves the width and
+ * height (rounding up), each pixel being the average of the (up to) 2x2
+ * pixels it covers. Levels are built when first requested, each from the
+ * one below, so a level costs a quarter of the memory and time of the one
+ * below and showing a plane at 1/4 zoom reads the full plane only once.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class ImagePyramid {
+   // Bands are split no smaller than this many output pixels
+   private static final int MIN_PIXELS_PER_TASK = 1 << 16;
+
+   private final int width_;
+   private final int height_;
+   // Guarded by monitor on this
+   private final List<Object> levels_ = new ArrayList<Object>();
+
+   /**
+    * @param pixels byte[] or short[] pixels of the plane, which must not be
+    * modified afterwards
+    */
+   public static ImagePyramid create(Object pixels, int width, int height) {
+      if (!(pixels instanceof byte[] || pixels instanceof short[])) {
+         throw new IllegalArgumentException("Unsupported pixel array type");
+      }
+      return new ImagePyramid(pixels, width, height);
+   }
+
+   private ImagePyramid(Object pixels, int width, int height) {
+      width_ = width;
+      height_ = height;
+      levels_.add(pixels);
+   }
+
+   /**
+    * The coarsest level that still has at least one pixel per screen pixel
+    * at the given zoom ratio.
+    */
+   public static int levelForZoom(double zoom) {
+      int level = 0;
+      while (zoom * (2 << level) <= 1.0 && level < 30) {
+         ++level;
+      }
+      return level;
+   }
+
+   public static int levelSize(int size, int level) {
+      return ((size - 1) >> level) + 1;
+   }
+
+   public int getWidth(int level) {
+      return levelSize(width_, level);
+   }
+
+   public int getHeight(int level) {
+      return levelSize(height_, level);
+   }
+
+   /**
+    * @return the byte[] or short[] pixels of the level, building it (and
+    * the levels below it) if necessary
+    */
+   public synchronized Object getPixels(int level) {
+      while (levels_.size() <= level) {
+         int below = levels_.size() - 1;
+         levels_.add(downsample(levels_.get(below), getWidth(below),
+               getHeight(below)));
+      }
+      return levels_.get(level);
+   }
+
+   /**
+    * @return the memory taken by the levels built so far, including the
+    * original plane
+    */
+   public synchronized long getByteCount() {
+      long bytes = 0;
+      for (int level = 0; level < levels_.size(); ++level) {
+         long pixels = (long) getWidth(level) * getHeight(level);
+         bytes += levels_.get(level) instanceof short[] ? 2 * pixels : pixels;
+      }
+      return bytes;
+   }
+
+   private static Object downsample(Object pixels, int width, int height) {
+      int outWidth = levelSize(width, 1);
+      int outHeight = levelSize(height, 1);
+      Object out = pixels instanceof short[] ?
+            new short[outWidth * outHeight] : new byte[outWidth * outHeight];
+      DownsampleTask task = new DownsampleTask(pixels, width, height, out,
+            0, outHeight);
+      if ((long) outWidth * outHeight < 2 * MIN_PIXELS_PER_TASK) {
+         task.downsampleRows();
+      }
+      else {
+         ForkJoinPool.commonPool().invoke(task);
+      }
+      return out;
+   }
+
+   private static final class DownsampleTask extends RecursiveAction {
+      private final Object in_;
+      private final int width_;
+      private final int height_;
+      private final Object out_;
+      // Range of output rows
+      private final int row0_;
+      private final int row1_;
+
+      DownsampleTask(Object in, int width, int height, Object out,
+            int row0, int row1)
+      {
+         in_ = in;
+         width_ = width;
+         height_ = height;
+         out_ = out;
+         row0_ = row0;
+         row1_ = row1;
+      }
+
+      @Override
+      protected void compute() {
+         if ((long) (row1_ - row0_) * levelSize(width_, 1) <
+               2 * MIN_PIXELS_PER_TASK || row1_ - row0_ < 2) {
+            downsampleRows();
+            return;
+         }
+         int mid = (row0_ + row1_) >>> 1;
+         invokeAll(new DownsampleTask(in_, width_, height_, out_, row0_, mid),
+               new DownsampleTask(in_, width_, height_, out_, mid, row1_));
+      }
+
+      void downsampleRows() {
+         int outWidth = levelSize(width_, 1);
+         // At odd edges the last row or column is counted twice
+         for (int outY = row0_; outY < row1_; ++outY) {
+            int top = 2 * outY * width_;
+            int bottom = Math.min(2 * outY + 1, height_ - 1) * width_;
+            int outRow = outY * outWidth;
+            if (in_ instanceof short[]) {
+               short[] in = (short[]) in_;
+               short[] out = (short[]) out_;
+               for (int outX = 0; outX < outWidth; ++outX) {
+                  int left = 2 * outX;
+                  int right = Math.min(left + 1, width_ - 1);
+                  int sum = (in[top + left] & 0xffff) +
+                        (in[top + right] & 0xffff) +
+                        (in[bottom + left] & 0xffff) +
+                        (in[bottom + right] & 0xffff);
+                  out[outRow + outX] = (short) ((sum + 2) >> 2);
+               }
+            }
+            else {
+               byte[] in = (byte[]) in_;
+               byte[] out = (byte[]) out_;
+               for (int outX = 0; outX < outWidth; ++outX) {
+                  int left = 2 * outX;
+                  int right = Math.min(left + 1, width_ - 1);
+                  int sum = (in[top + left] & 0xff) + (in[top + right] & 0xff) +
+                        (in[bottom + left] & 0xff) +
+                        (in[bottom + right] & 0xff);
+                  out[outRow + outX] = (byte) ((sum + 2) >> 2);
+               }
+            }
+         }
+      }
+   }
+}
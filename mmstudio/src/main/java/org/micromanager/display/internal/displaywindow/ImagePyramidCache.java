@@ -0,0 +1,139 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.micromanager.data.Image;
+
+/**
+ * The pyramids of the planes most recently drawn zoomed out, shared by all
+ * display windows, so that panning and zooming do not reprocess full
+ * planes.
+ * <p>
+ * Pyramids are looked up by image identity (images are immutable) and
+ * evicted least recently used first once they take more than the byte
+ * limit, or there are more than {@code MAX_PLANES} of them. The byte count
+ * includes each pyramid's full-resolution level, which for images not
+ * backed by a Java array is a copy held only by the pyramid.
+ * <p>
+ * Images are referenced weakly: once an image is no longer reachable
+ * otherwise (its datastore and displays have been closed), its pyramid is
+ * dropped on the next lookup.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class ImagePyramidCache {
+   private static final long DEFAULT_MAX_BYTES = 256L << 20;
+   private static final int MAX_PLANES = 64;
+
+   private static final ImagePyramidCache INSTANCE =
+         new ImagePyramidCache(DEFAULT_MAX_BYTES);
+
+   private static final class IdentityKey extends WeakReference<Image> {
+      private final int hashCode_;
+
+      IdentityKey(Image image, ReferenceQueue<Image> queue) {
+         super(image, queue);
+         hashCode_ = System.identityHashCode(image);
+      }
+
+      // Keys whose image has been collected are only equal to themselves
+      @Override
+      public boolean equals(Object other) {
+         if (other == this) {
+            return true;
+         }
+         if (!(other instanceof IdentityKey)) {
+            return false;
+         }
+         Image image = get();
+         return image != null && ((IdentityKey) other).get() == image;
+      }
+
+      @Override
+      public int hashCode() {
+         return hashCode_;
+      }
+   }
+
+   private final long maxBytes_;
+   // Guarded by monitor on this
+   private final LinkedHashMap<IdentityKey, ImagePyramid> pyramids_ =
+         new LinkedHashMap<IdentityKey, ImagePyramid>(16, 0.75f, true);
+   private final ReferenceQueue<Image> collected_ =
+         new ReferenceQueue<Image>();
+
+   public static ImagePyramidCache getInstance() {
+      return INSTANCE;
+   }
+
+   ImagePyramidCache(long maxBytes) {
+      maxBytes_ = maxBytes;
+   }
+
+   /**
+    * @param image a single-component 8- or 16-bit image
+    * @return the pyramid of the image, created if not cached
+    */
+   public synchronized ImagePyramid get(Image image) {
+      expungeCollected();
+      ImagePyramid pyramid = pyramids_.get(new IdentityKey(image, null));
+      if (pyramid == null) {
+         pyramid = ImagePyramid.create(image.getRawPixels(),
+               image.getWidth(), image.getHeight());
+         pyramids_.put(new IdentityKey(image, collected_), pyramid);
+      }
+      trim();
+      return pyramid;
+   }
+
+   public synchronized void clear() {
+      pyramids_.clear();
+   }
+
+   synchronized int size() {
+      expungeCollected();
+      return pyramids_.size();
+   }
+
+   synchronized long getByteCount() {
+      long bytes = 0;
+      for (ImagePyramid pyramid : pyramids_.values()) {
+         bytes += pyramid.getByteCount();
+      }
+      return bytes;
+   }
+
+   private void expungeCollected() {
+      for (Object key; (key = collected_.poll()) != null; ) {
+         pyramids_.remove(key);
+      }
+   }
+
+   // Levels are built after the pyramid is handed out, so the byte count is
+   // checked again on each lookup
+   private void trim() {
+      long bytes = getByteCount();
+      Iterator<Map.Entry<IdentityKey, ImagePyramid>> it =
+            pyramids_.entrySet().iterator();
+      // Never evict the most recently used pyramid
+      while (pyramids_.size() > 1 &&
+            (bytes > maxBytes_ || pyramids_.size() > MAX_PLANES)) {
+         bytes -= it.next().getValue().getByteCount();
+         it.remove();
+      }
+   }
+}
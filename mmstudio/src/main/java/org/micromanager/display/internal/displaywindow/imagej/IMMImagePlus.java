@@ -14,6 +14,9 @@
 
 package org.micromanager.display.internal.displaywindow.imagej;
 
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
 /**
  * Common interface of {@code MMImagePlus} and {@code MMCompositeImage},
  * providing access to protected members of {@code ij.ImagePlus}.
@@ -74,4 +77,27 @@ interface IMMImagePlus {
     * see ij.ImagePlus.getNFrames
     */
    public int getNFramesWithoutSideEffect();
-}
\ No newline at end of file
+
+   /**
+    * Render the part of the image shown in the canvas without ImageJ.
+    *
+    * @param srcRect the region of the image shown in the canvas
+    * @param zoom the canvas magnification
+    * @return the rendered region, at the canvas resolution when zoomed out
+    * and at the image resolution when zoomed in, or null if ImageJ should
+    * render the image
+    */
+   public BufferedImage renderViewport(Rectangle srcRect, double zoom);
+
+   /**
+    * Tell this {@code ImagePlus} that the canvas is painting.
+    *
+    * While the canvas paints, {@code getImage} returns null, so that ImageJ
+    * only draws the ROI, overlays and zoom indicator over the image rendered
+    * by {@code renderViewport}, and {@code updateImage} is deferred until
+    * another caller asks for the image.
+    *
+    * @param painting whether the canvas is about to paint or has finished
+    */
+   public void setCanvasPainting(boolean painting);
+}
@@ -16,9 +16,18 @@ package org.micromanager.display.internal.displaywindow.imagej;
 
 import ij.CompositeImage;
 import ij.ImagePlus;
+import ij.process.LUT;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import org.micromanager.data.Image;
+import org.micromanager.display.internal.displaywindow.CompositeRenderer;
 
 /**
  * Wrapped version of ImageJ's {@code CompositeImage}.
+ * <p>
+ * If enabled in the preferences, 8- and 16-bit images are drawn in the
+ * canvas from the region rendered by {@link ViewportRendering} rather than
+ * by ImageJ, compositing the visible channels in composite mode.
  *
  * @see MMImagePlus
  * @author Mark A. Tsuchida, based on older version by Chris Weisiger
@@ -26,13 +35,82 @@ import ij.ImagePlus;
 public final class MMCompositeImage extends CompositeImage
       implements IMMImagePlus
 {
+   private final ImageJBridge parent_;
+   // Null unless rendering without ImageJ
+   private final ViewportRendering viewport_;
+
    static MMCompositeImage create(ImageJBridge parent, ImagePlus predecessor) {
       return new MMCompositeImage(parent, predecessor);
    }
 
    private MMCompositeImage(ImageJBridge parent, ImagePlus predecessor) {
       super(predecessor, COMPOSITE);
-      // So far we don't use parent reference
+      parent_ = parent;
+      viewport_ = CompositeRenderer.getShouldUseFastRendering() ?
+            new ViewportRendering() : null;
+   }
+
+   private boolean isViewportRendering() {
+      return viewport_ != null && (getBitDepth() == 8 || getBitDepth() == 16);
+   }
+
+   @Override
+   public BufferedImage renderViewport(Rectangle srcRect, double zoom) {
+      if (!isViewportRendering()) {
+         return null;
+      }
+      int nChannels = getNChannelsWithoutSideEffect();
+      Image[] images = new Image[nChannels];
+      LUT[] luts = new LUT[nChannels];
+      boolean[] active = getActiveChannels();
+      for (int channel = 0; channel < nChannels; ++channel) {
+         boolean visible = getMode() == COMPOSITE ?
+               active == null || channel >= active.length || active[channel] :
+               channel == getChannel() - 1;
+         if (!visible) {
+            continue;
+         }
+         LUT lut = getChannelLut(channel + 1);
+         if (lut == null) {
+            return null; // Not set up by ImageJ yet
+         }
+         luts[channel] = lut;
+         int flatIndex = getStackIndex(channel + 1, getSlice(), getFrame());
+         images[channel] = parent_.getMMImage(
+               parent_.getMMCoordsForIJFlatIndex(flatIndex));
+      }
+      return viewport_.render(images, luts, srcRect, zoom);
+   }
+
+   @Override
+   public void setCanvasPainting(boolean painting) {
+      if (viewport_ != null) {
+         viewport_.setCanvasPainting(painting);
+      }
+   }
+
+   @Override
+   public synchronized void updateImage() {
+      if (!isViewportRendering()) {
+         super.updateImage();
+         return;
+      }
+      // Rendered by ImageJ only when someone other than the canvas asks
+      viewport_.markIJImageStale();
+   }
+
+   @Override
+   public java.awt.Image getImage() {
+      if (!isViewportRendering()) {
+         return super.getImage();
+      }
+      if (viewport_.isCanvasPainting()) {
+         return null;
+      }
+      if (viewport_.takeIJImageStale()) {
+         super.updateImage();
+      }
+      return super.getImage();
    }
 
    @Override
@@ -19,6 +19,7 @@ import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Image;
 import java.awt.Rectangle;
 import java.awt.Window;
 import java.awt.event.ComponentAdapter;
@@ -30,6 +31,7 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.awt.image.BufferedImage;
 import javax.swing.SwingUtilities;
 import org.micromanager.internal.utils.MustCallOnEDT;
 
@@ -45,6 +47,11 @@ public final class MMImageCanvas extends ImageCanvas
 
    private Dimension preferredSize_;
 
+   // The image ImageJ paints into when double buffering, and the viewport
+   // rendering to fill it with if ImageJ creates a new one while painting
+   private Image offScreenImage_;
+   private BufferedImage viewport_;
+
    @MustCallOnEDT
    static MMImageCanvas create(ImageJBridge parent) {
       final MMImageCanvas instance = new MMImageCanvas(parent);
@@ -85,12 +92,56 @@ public final class MMImageCanvas extends ImageCanvas
       // ij.gui.ImageCanvas is not written in a way that allows us to easily
       // override paint() without reimplementing a whole bunch of stuff.
 
-      // Let ImageJ draw the image, selection, zoom indicator, etc.
-      super.paint(g);
+      IMMImagePlus imagePlus = getImage() instanceof IMMImagePlus ?
+            (IMMImagePlus) getImage() : null;
+      viewport_ = imagePlus == null ? null :
+            imagePlus.renderViewport(srcRect, getMagnification());
+      if (viewport_ == null) {
+         // Let ImageJ draw the image, selection, zoom indicator, etc.
+         super.paint(g);
+      }
+      else {
+         // Draw the image ourselves, then let ImageJ draw the selection,
+         // zoom indicator, etc. (ImageJ either draws directly or into its
+         // off-screen image, so the image goes to both)
+         drawViewport(g);
+         if (offScreenImage_ != null) {
+            Graphics offScreenGraphics = offScreenImage_.getGraphics();
+            drawViewport(offScreenGraphics);
+            offScreenGraphics.dispose();
+         }
+         imagePlus.setCanvasPainting(true);
+         try {
+            super.paint(g);
+         }
+         finally {
+            imagePlus.setCanvasPainting(false);
+            viewport_ = null;
+         }
+      }
       parent_.paintMMOverlays((Graphics2D) g, getWidth(), getHeight(), srcRect);
       parent_.ijPaintDidFinish();
    }
 
+   private void drawViewport(Graphics g) {
+      // Same destination size as ImageJ
+      g.drawImage(viewport_, 0, 0,
+            (int) (srcRect.width * getMagnification() + 0.5),
+            (int) (srcRect.height * getMagnification() + 0.5), null);
+   }
+
+   @Override
+   public Image createImage(int width, int height) {
+      // Only called by ImageJ, to create its off-screen image
+      offScreenImage_ = super.createImage(width, height);
+      if (offScreenImage_ != null && viewport_ != null) {
+         Graphics offScreenGraphics = offScreenImage_.getGraphics();
+         drawViewport(offScreenGraphics);
+         offScreenGraphics.dispose();
+      }
+      return offScreenImage_;
+   }
+
    @Override
    public Dimension getPreferredSize() {
       // ImageJ overrides this method, but we prefer the standard method of
@@ -15,9 +15,19 @@
 package org.micromanager.display.internal.displaywindow.imagej;
 
 import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import org.micromanager.data.Image;
+import org.micromanager.display.internal.displaywindow.CompositeRenderer;
 
 /**
  * Wrapped version of ImageJ's {@code ImagePlus}.
+ * <p>
+ * If enabled in the preferences, 8- and 16-bit images are drawn in the
+ * canvas from the region rendered by {@link ViewportRendering} rather than
+ * by ImageJ.
  *
  * @see MMCompositeImage
  * @author Mark A. Tsuchida, based on older version by Chris Weisiger
@@ -27,8 +37,64 @@ public final class MMImagePlus extends ImagePlus implements IMMImagePlus {
       return new MMImagePlus(parent);
    }
 
+   private final ImageJBridge parent_;
+   // Null unless rendering without ImageJ
+   private final ViewportRendering viewport_;
+
    private MMImagePlus(ImageJBridge parent) {
-      // So far we don't use parent reference
+      parent_ = parent;
+      viewport_ = CompositeRenderer.getShouldUseFastRendering() ?
+            new ViewportRendering() : null;
+   }
+
+   private boolean isViewportRendering() {
+      return viewport_ != null && (getBitDepth() == 8 || getBitDepth() == 16);
+   }
+
+   @Override
+   public BufferedImage renderViewport(Rectangle srcRect, double zoom) {
+      ImageProcessor proc = getProcessor();
+      if (!isViewportRendering() || proc == null) {
+         return null;
+      }
+      LUT lut = proc.getLut();
+      lut.min = proc.getMin();
+      lut.max = proc.getMax();
+      Image image = parent_.getMMImage(
+            parent_.getMMCoordsForIJFlatIndex(getCurrentSlice()));
+      return viewport_.render(new Image[] { image }, new LUT[] { lut },
+            srcRect, zoom);
+   }
+
+   @Override
+   public void setCanvasPainting(boolean painting) {
+      if (viewport_ != null) {
+         viewport_.setCanvasPainting(painting);
+      }
+   }
+
+   @Override
+   public void updateImage() {
+      if (!isViewportRendering()) {
+         super.updateImage();
+         return;
+      }
+      // Rendered by ImageJ only when someone other than the canvas asks
+      viewport_.markIJImageStale();
+   }
+
+   @Override
+   public java.awt.Image getImage() {
+      if (!isViewportRendering()) {
+         return super.getImage();
+      }
+      if (viewport_.isCanvasPainting()) {
+         return null;
+      }
+      if (viewport_.takeIJImageStale()) {
+         super.updateImage();
+      }
+      return super.getImage();
    }
 
    @Override
@@ -128,7 +128,8 @@ public final class MMVirtualStack extends VirtualStack {
    public ImageProcessor getProcessor(int flatIndex) {
       Coords coords = parent_.getMMCoordsForIJFlatIndex(flatIndex);
       Image image = parent_.getMMImage(coords);
-      return DefaultImageJConverter.createProcessor(image, false);
+      // ImageJ may modify the processor's pixels; don't let it touch ours
+      return DefaultImageJConverter.createProcessor(image, true);
    }
 
    @Override
@@ -0,0 +1,143 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow.imagej;
+
+import ij.process.LUT;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import org.micromanager.data.Image;
+import org.micromanager.display.internal.displaywindow.CompositeRenderer;
+import org.micromanager.display.internal.displaywindow.ImagePyramid;
+import org.micromanager.display.internal.displaywindow.ImagePyramidCache;
+
+/**
+ * Renders the part of the displayed images visible in the canvas, for
+ * {@code MMImagePlus} and {@code MMCompositeImage}.
+ * <p>
+ * When zoomed out, the output has one pixel per screen pixel, sampled from
+ * the {@link ImagePyramid} level just finer than the screen, so that the
+ * cost depends on the canvas size rather than the image size. When zoomed
+ * in, the visible source pixels are rendered and the canvas scales them up.
+ * <p>
+ * Also keeps track of whether ImageJ's own rendering (still used by code
+ * other than the canvas that calls {@code getImage()}) is stale: while the
+ * canvas paints, the image plus defers ImageJ's rendering and reports no
+ * image, so that ImageJ draws only the ROI, overlays and zoom indicator.
+ */
+final class ViewportRendering {
+   private final CompositeRenderer renderer_ = CompositeRenderer.create();
+   private BufferedImage image_;
+   private int[] raster_;
+   private final byte[] reds_ = new byte[256];
+   private final byte[] greens_ = new byte[256];
+   private final byte[] blues_ = new byte[256];
+
+   private boolean canvasPainting_;
+   private boolean ijImageStale_ = true;
+
+   void setCanvasPainting(boolean painting) {
+      canvasPainting_ = painting;
+   }
+
+   boolean isCanvasPainting() {
+      return canvasPainting_;
+   }
+
+   void markIJImageStale() {
+      ijImageStale_ = true;
+   }
+
+   /**
+    * @return whether ImageJ's rendering needs to be updated; clears the flag
+    */
+   boolean takeIJImageStale() {
+      boolean stale = ijImageStale_;
+      ijImageStale_ = false;
+      return stale;
+   }
+
+   /**
+    * Render the visible region of the channels.
+    * @param images the image of each channel, or null for hidden channels
+    * @param luts the color table and display range of each channel
+    * @param srcRect the region of the image shown in the canvas
+    * @param zoom the canvas magnification
+    * @return the rendered region, to be drawn scaled to the canvas; reused
+    * on the next call
+    */
+   BufferedImage render(Image[] images, LUT[] luts, Rectangle srcRect,
+         double zoom)
+   {
+      int level = zoom < 1.0 ? ImagePyramid.levelForZoom(zoom) : 0;
+      Object[] channelPixels = new Object[images.length];
+      int sourceWidth = 0;
+      int sourceHeight = 0;
+      for (int channel = 0; channel < images.length; ++channel) {
+         Image image = images[channel];
+         if (image == null) {
+            continue;
+         }
+         LUT lut = luts[channel];
+         lut.getReds(reds_);
+         lut.getGreens(greens_);
+         lut.getBlues(blues_);
+         renderer_.setChannel(channel, reds_, greens_, blues_,
+               (int) lut.min, (int) lut.max);
+         if (level == 0) {
+            channelPixels[channel] = image.getRawPixels();
+         }
+         else {
+            channelPixels[channel] = ImagePyramidCache.getInstance().
+                  get(image).getPixels(level);
+         }
+         sourceWidth = ImagePyramid.levelSize(image.getWidth(), level);
+         sourceHeight = ImagePyramid.levelSize(image.getHeight(), level);
+      }
+
+      int width = srcRect.width;
+      int height = srcRect.height;
+      if (zoom < 1.0) {
+         width = Math.max(1, (int) Math.round(srcRect.width * zoom));
+         height = Math.max(1, (int) Math.round(srcRect.height * zoom));
+      }
+      int[] columns = sampleIndices(srcRect.x, width, zoom, level,
+            sourceWidth);
+      int[] rows = sampleIndices(srcRect.y, height, zoom, level,
+            sourceHeight);
+
+      if (image_ == null || image_.getWidth() != width ||
+            image_.getHeight() != height) {
+         image_ = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+         raster_ = ((DataBufferInt) image_.getRaster().getDataBuffer()).
+               getData();
+      }
+      renderer_.render(channelPixels, sourceWidth, columns, rows, raster_,
+            ForkJoinPool.commonPool());
+      return image_;
+   }
+
+   // The level pixel under the center of each output pixel
+   private static int[] sampleIndices(int start, int count, double zoom,
+         int level, int levelSize)
+   {
+      int[] indices = new int[count];
+      int last = Math.max(0, levelSize - 1);
+      for (int i = 0; i < count; ++i) {
+         int source = zoom < 1.0 ?
+               (int) Math.floor(start + (i + 0.5) / zoom) : start + i;
+         indices[i] = Math.max(0, Math.min(last, source >> level));
+      }
+      return indices;
+   }
+}
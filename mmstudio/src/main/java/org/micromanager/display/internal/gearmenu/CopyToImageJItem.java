@@ -54,7 +54,8 @@ public final class CopyToImageJItem implements DisplayGearMenuPlugin, SciJavaPlu
 
    @Override
    public void onPluginSelected(DisplayWindow display) {
-      final boolean copy = false;
+      // The ImageJ copy is editable, so it must not share our pixel arrays
+      final boolean copy = true;
       final boolean setProps = true;
       // TODO: UI to set copy, give option to only do partial data, and multiple positions
       
@@ -13,32 +13,17 @@
 
 package org.micromanager.display.internal.imagestats;
 
-import com.google.common.base.Preconditions;
 import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import net.imglib2.Cursor;
-import net.imglib2.IterableInterval;
-import net.imglib2.histogram.BinMapper1d;
-import net.imglib2.histogram.Histogram1d;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgs;
-import net.imglib2.transform.integer.MixedTransform;
-import net.imglib2.type.numeric.IntegerType;
-import net.imglib2.type.numeric.integer.UnsignedByteType;
-import net.imglib2.type.numeric.integer.UnsignedShortType;
-import net.imglib2.util.ConstantUtils;
-import net.imglib2.util.Intervals;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.MixedTransformView;
-import net.imglib2.view.Views;
 import org.micromanager.data.Image;
 import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.internal.utils.performance.CPUTimer;
@@ -50,9 +35,17 @@ import org.micromanager.internal.utils.performance.WallTimer;
  * @author Mark A. Tsuchida
  */
 public final class ImageStatsProcessor {
-   private static final int MASK_THRESH = 128;
+   // Approximate statistics sample about this many pixels per image. By the
+   // Dvoretzky-Kiefer-Wolfowitz inequality, the sampled cumulative histogram
+   // (and hence any percentile used for autostretch) is then within 0.4% of
+   // rank of the full image's with 99.9% confidence, regardless of image size.
+   // Strided sampling of camera noise behaves as a random sample unless the
+   // image has structure at the stride's period.
+   private static final long APPROXIMATE_SAMPLE_COUNT = 1L << 18;
 
    private final ExecutorService executor_;
+   // Splits large images into bands of rows (see IntegerStatsKernel)
+   private final ForkJoinPool tilePool_;
 
    private PerformanceMonitor perfMon_;
 
@@ -66,10 +59,12 @@ public final class ImageStatsProcessor {
       executor_ = new ThreadPoolExecutor(1, Integer.MAX_VALUE,
             60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
             ThreadFactoryFactory.createThreadFactory("ImageStatsProcessor"));
+      tilePool_ = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
    }
 
    public void shutdown() {
       executor_.shutdown();
+      tilePool_.shutdown();
    }
 
    void setPerformanceMonitor(PerformanceMonitor perfMon) {
@@ -80,6 +75,20 @@ public final class ImageStatsProcessor {
          final ImageStatsRequest request,
          boolean interruptible)
          throws InterruptedException
+   {
+      return process(sequenceNumber, request, interruptible, false);
+   }
+
+   /**
+    * @param approximate if true, compute the statistics from a strided
+    * sample of about {@code APPROXIMATE_SAMPLE_COUNT} pixels of each image;
+    * the histogram shape and percentiles are close to exact, but the pixel
+    * count, minimum and maximum are those of the sample
+    */
+   public ImagesAndStats process(final long sequenceNumber,
+         final ImageStatsRequest request,
+         boolean interruptible, final boolean approximate)
+         throws InterruptedException
    {
       WallTimer timer = WallTimer.createStarted();
 
@@ -91,7 +100,7 @@ public final class ImageStatsProcessor {
          futures.add(executor_.submit(new Callable<ImageStats>() {
             @Override
             public ImageStats call() throws Exception {
-               return computeStats(image, request, ii);
+               return computeStats(image, request, ii, approximate);
             }
          }));
       }
@@ -115,7 +124,8 @@ public final class ImageStatsProcessor {
       }
 
       if (perfMon_ != null) {
-         perfMon_.sample("Process wall time (ms)", timer.getMs());
+         perfMon_.sample(approximate ? "Approximate process wall time (ms)" :
+               "Process wall time (ms)", timer.getMs());
          perfMon_.sampleTimeInterval("Process");
       }
 
@@ -123,7 +133,7 @@ public final class ImageStatsProcessor {
    }
 
    private ImageStats computeStats(Image image,
-         ImageStatsRequest request, int index)
+         ImageStatsRequest request, int index, boolean approximate)
          throws ClassCastException
    {
       CPUTimer cpuTimer = CPUTimer.createStarted();
@@ -165,40 +175,36 @@ public final class ImageStatsProcessor {
       }
 
       // If (the used part of) the mask has no pixels, revert to full image
-      IterableInterval<UnsignedByteType> mask = wrapROIMask(maskBytes, nComponents, maskBounds, statsBounds);
-      boolean maskEmpty = true;
-      for (Cursor<UnsignedByteType> c = mask.cursor(); c.hasNext(); c.fwd()) {
-         if (c.get().getInteger() >= MASK_THRESH) {
-            maskEmpty = false;
-            break;
-         }
-      }
-      if (maskEmpty) {
+      if (maskBytes != null &&
+            !IntegerStatsKernel.maskSelectsAny(maskBytes, maskBounds, statsBounds)) {
          statsBounds = imageBounds;
-         mask = wrapROIMask(null, nComponents, imageBounds, statsBounds);
+         maskBytes = null;
          useROI = false;
       }
 
       ImageStats result = null;
-      if (bytesPerSample == 1) {
-         Img<UnsignedByteType> img =
-               ArrayImgs.unsignedBytes((byte[]) image.getRawPixels(),
-                     nComponents, image.getWidth(), image.getHeight());
-         result = compute(
-               clipToRect(img, nComponents, statsBounds),
-               mask,
-               nComponents, bitDepth, binCountPowerOf2,
-               useROI, index);
-      }
-      else if (bytesPerSample == 2) {
-         Img<UnsignedShortType> img =
-               ArrayImgs.unsignedShorts((short[]) image.getRawPixels(),
-                     nComponents, image.getWidth(), image.getHeight());
-         result = compute(
-               clipToRect(img, nComponents, statsBounds),
-               mask,
-               nComponents, bitDepth, binCountPowerOf2,
-               useROI, index);
+      if (bytesPerSample == 1 || bytesPerSample == 2) {
+         int stride = approximate ? IntegerStatsKernel.strideForSampleCount(
+               statsBounds, APPROXIMATE_SAMPLE_COUNT) : 1;
+         IntegerStatsKernel.Result stats = new IntegerStatsKernel(
+               image.getRawPixels(), image.getWidth(), nComponents,
+               statsBounds, maskBytes, maskBounds,
+               bitDepth, binCountPowerOf2, stride).compute(tilePool_);
+         IntegerComponentStats[] componentStats =
+               new IntegerComponentStats[nComponents];
+         for (int component = 0; component < nComponents; ++component) {
+            componentStats[component] = IntegerComponentStats.builder().
+                  histogram(stats.histograms[component],
+                        Math.max(0, bitDepth - binCountPowerOf2)).
+                  pixelCount(stats.counts[component]).
+                  usedROI(useROI).
+                  minimum(stats.minima[component]).
+                  maximum(stats.maxima[component]).
+                  sum(stats.sums[component]).
+                  sumOfSquares(stats.sumsOfSquares[component]).
+                  build();
+         }
+         result = ImageStats.create(index, componentStats);
       }
 
       if (perfMon_ != null) {
@@ -207,130 +213,4 @@ public final class ImageStatsProcessor {
 
       return result; // null if we don't know how to compute (TODO FIX)
    }
-
-   private <T extends IntegerType<T>> ImageStats compute(
-         IterableInterval<T> img, IterableInterval<UnsignedByteType> mask,
-         int nComponents, int sampleBitDepth, int binCountPowerOf2,
-         boolean isROI, int index)
-   {
-      // It's easier to debug if we check first...
-      Preconditions.checkArgument(img.numDimensions() == 3);
-      Preconditions.checkArgument(img.dimension(0) == nComponents);
-      for (int d = 0; d < 3; ++d) {
-         Preconditions.checkArgument(img.dimension(d) == mask.dimension(d));
-      }
-
-      BinMapper1d<T> binMapper =
-            PowerOf2BinMapper.create(sampleBitDepth, binCountPowerOf2);
-
-      // Some ugliness to allow us to compute stats for multiple components in
-      // a single interation over the pixels.
-      List<Histogram1d<T>> histograms = new ArrayList<Histogram1d<T>>();
-      long[] counts = new long[nComponents];
-      long[] minima = new long[nComponents];
-      long[] maxima = new long[nComponents];
-      long[] sums = new long[nComponents];
-      long[] sumsOfSquares = new long[nComponents];
-      for (int component = 0; component < nComponents; ++component) {
-         histograms.add(new Histogram1d<T>(binMapper));
-         counts[component] = 0;
-         minima[component] = Long.MAX_VALUE;
-         maxima[component] = Long.MIN_VALUE;
-         sums[component] = 0;
-         sumsOfSquares[component] = 0;
-      }
-
-      // Note: sums of squares could overflow with a huge image (65k by 65k or
-      // greater). If we ever deal with such images, we should split the image
-      // before computing partial statistics.
-      // The reason for computing sums of squares, rather than a running stdev,
-      // is to make it easy to parallelize these computations within a single
-      // image.
-
-      // Perform the actual computations:
-      Cursor<T> dataCursor = img.localizingCursor();
-      Cursor<UnsignedByteType> maskCursor = mask.cursor();
-      for (int i = 0; dataCursor.hasNext(); ++i) {
-         int component = i % nComponents;
-         T dataSample = dataCursor.next();
-         UnsignedByteType maskSample = maskCursor.next();
-
-         if (maskSample.getInteger() < MASK_THRESH) {
-            continue;
-         }
-
-         long dataValue = dataSample.getIntegerLong();
-
-         histograms.get(component).increment(dataSample);
-         counts[component]++;
-         if (dataValue < minima[component]) {
-            minima[component] = dataValue;
-         }
-         if (dataValue > maxima[component]) {
-            maxima[component] = dataValue;
-         }
-         sums[component] += dataValue;
-         sumsOfSquares[component] += dataValue * dataValue;
-      }
-
-      IntegerComponentStats[] componentStats =
-            new IntegerComponentStats[nComponents];
-      for (int component = 0; component < nComponents; ++component) {
-         componentStats[component] = IntegerComponentStats.builder().
-               histogram(histograms.get(component).toLongArray(),
-                     Math.max(0, sampleBitDepth - binCountPowerOf2)).
-               pixelCount(counts[component]).
-               usedROI(isROI).
-               minimum(minima[component]).
-               maximum(maxima[component]).
-               sum(sums[component]).
-               sumOfSquares(sumsOfSquares[component]).
-               build();
-      }
-
-      return ImageStats.create(index, componentStats);
-   }
-
-   private <T extends IntegerType<T>> IterableInterval<T> clipToRect(
-         Img<T> fullImg, int nComponents, Rectangle statsBounds)
-   {
-      Preconditions.checkNotNull(statsBounds);
-      return Views.interval(fullImg,
-            Intervals.createMinSize(
-                  0, statsBounds.x, statsBounds.y,
-                  nComponents, statsBounds.width, statsBounds.height)
-      );
-   }
-
-   private IterableInterval<UnsignedByteType> wrapROIMask(
-         byte[] rawMask, int nComponents, Rectangle maskBounds, Rectangle statsBounds)
-   {
-      Preconditions.checkNotNull(maskBounds);
-      Preconditions.checkNotNull(statsBounds);
-      if (rawMask == null) {
-         return Views.iterable(
-               ConstantUtils.constantRandomAccessibleInterval(
-                     new UnsignedByteType(255),
-                     3,
-                     Intervals.createMinSize(0, statsBounds.x, statsBounds.y,
-                           nComponents, statsBounds.width, statsBounds.height)));
-      }
-
-      // The 2D mask, positioned in the image's coordinate system
-      IntervalView<UnsignedByteType> mask = Views.translate(
-            ArrayImgs.unsignedBytes(rawMask,
-                  maskBounds.width, maskBounds.height),
-            maskBounds.x, maskBounds.y);
-
-      // Add the component dimension and clip to the intersection with the image
-      long[] min = { 0, statsBounds.x, statsBounds.y };
-      long[] max = { nComponents - 1, statsBounds.x + statsBounds.width - 1,
-         statsBounds.y + statsBounds.height - 1 };
-      MixedTransform t = new MixedTransform(3, 2);
-      t.setComponentMapping(new int[] { 1, 2 });
-      return Views.iterable(Views.interval(
-            new MixedTransformView<UnsignedByteType>(mask, t),
-            min, max
-      ));
-   }
-}
\ No newline at end of file
+}
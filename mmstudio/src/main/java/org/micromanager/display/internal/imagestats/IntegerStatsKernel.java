@@ -0,0 +1,324 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.imagestats;
+
+import java.awt.Rectangle;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Histogram, min, max, sum and sum of squares of the unsigned 8- or 16-bit
+ * samples in a rectangle of an image, computed directly on the pixel array.
+ * <p>
+ * Pixels are stored row by row with the components of each pixel adjacent,
+ * as in {@code Image.getRawPixels()}. Samples are binned as by
+ * {@link PowerOf2BinMapper}, so the results are identical to iterating the
+ * image with a {@code Histogram1d}. An optional mask (one byte per pixel,
+ * covering its own bounds) selects the pixels whose mask value is at least
+ * {@code MASK_THRESH}; without a mask every pixel in the rectangle is used.
+ * <p>
+ * Large rectangles are split into bands of rows that are processed on a
+ * ForkJoinPool, and the partial results are merged. The results are
+ * integers, so they do not depend on the split.
+ * <p>
+ * For fast, approximate statistics, only every {@code sampleStride}-th
+ * pixel of every {@code sampleStride}-th row can be used. The counts are
+ * then those of the sampled pixels.
+ */
+final class IntegerStatsKernel {
+   static final int MASK_THRESH = 128;
+   // Bands are split no smaller than this many pixels
+   static final int MIN_PIXELS_PER_TASK = 1 << 18;
+
+   /** Per-component results. */
+   static final class Result {
+      final long[][] histograms;
+      final long[] counts;
+      final long[] minima;
+      final long[] maxima;
+      final long[] sums;
+      final long[] sumsOfSquares;
+
+      Result(int nComponents, int binCount) {
+         histograms = new long[nComponents][binCount];
+         counts = new long[nComponents];
+         minima = new long[nComponents];
+         maxima = new long[nComponents];
+         sums = new long[nComponents];
+         sumsOfSquares = new long[nComponents];
+         for (int component = 0; component < nComponents; ++component) {
+            minima[component] = Long.MAX_VALUE;
+            maxima[component] = Long.MIN_VALUE;
+         }
+      }
+
+      void merge(Result other) {
+         for (int component = 0; component < counts.length; ++component) {
+            long[] histogram = histograms[component];
+            long[] otherHistogram = other.histograms[component];
+            for (int bin = 0; bin < histogram.length; ++bin) {
+               histogram[bin] += otherHistogram[bin];
+            }
+            counts[component] += other.counts[component];
+            minima[component] = Math.min(minima[component],
+                  other.minima[component]);
+            maxima[component] = Math.max(maxima[component],
+                  other.maxima[component]);
+            sums[component] += other.sums[component];
+            sumsOfSquares[component] += other.sumsOfSquares[component];
+         }
+      }
+   }
+
+   private final Object pixels_;
+   private final int imageWidth_;
+   private final int nComponents_;
+   private final Rectangle bounds_;
+   private final byte[] mask_;
+   private final Rectangle maskBounds_;
+   private final int shift_;
+   private final long endOfRange_;
+   private final int binCount_;
+   private final int stride_;
+
+   /**
+    * @param pixels byte[] or short[] pixels
+    * @param bounds the rectangle to compute over; must lie in the image
+    * @param mask null, or a mask covering maskBounds, which must contain
+    * bounds
+    */
+   IntegerStatsKernel(Object pixels, int imageWidth, int nComponents,
+         Rectangle bounds, byte[] mask, Rectangle maskBounds,
+         int sampleBitDepth, int binCountPowerOf2)
+   {
+      this(pixels, imageWidth, nComponents, bounds, mask, maskBounds,
+            sampleBitDepth, binCountPowerOf2, 1);
+   }
+
+   /**
+    * @param sampleStride use only every sampleStride-th pixel along each
+    * axis, starting from the corner of bounds
+    */
+   IntegerStatsKernel(Object pixels, int imageWidth, int nComponents,
+         Rectangle bounds, byte[] mask, Rectangle maskBounds,
+         int sampleBitDepth, int binCountPowerOf2, int sampleStride)
+   {
+      if (!(pixels instanceof byte[] || pixels instanceof short[])) {
+         throw new IllegalArgumentException("Unsupported pixel array type");
+      }
+      pixels_ = pixels;
+      imageWidth_ = imageWidth;
+      nComponents_ = nComponents;
+      bounds_ = bounds;
+      mask_ = mask;
+      maskBounds_ = maskBounds;
+      shift_ = Math.max(0, sampleBitDepth - binCountPowerOf2);
+      endOfRange_ = (1L << sampleBitDepth) - 1;
+      binCount_ = (1 << binCountPowerOf2) + 2;
+      stride_ = Math.max(1, sampleStride);
+   }
+
+   /**
+    * The stride at which about {@code targetSamples} pixels of the rectangle
+    * are sampled.
+    */
+   static int strideForSampleCount(Rectangle bounds, long targetSamples) {
+      double ratio = (double) bounds.width * bounds.height / targetSamples;
+      return Math.max(1, (int) Math.floor(Math.sqrt(ratio)));
+   }
+
+   /**
+    * Compute the statistics, using the pool for large rectangles.
+    * @param pool the pool to split the work across, or null to compute on
+    * the calling thread
+    */
+   Result compute(ForkJoinPool pool) {
+      if (pool == null || (long) bounds_.width * bounds_.height <
+            2L * MIN_PIXELS_PER_TASK * stride_ * stride_) {
+         return computeRows(bounds_.y, bounds_.y + bounds_.height);
+      }
+      return pool.invoke(new BandTask(bounds_.y, bounds_.y + bounds_.height));
+   }
+
+   private final class BandTask extends RecursiveTask<Result> {
+      private final int y0_;
+      private final int y1_;
+
+      BandTask(int y0, int y1) {
+         y0_ = y0;
+         y1_ = y1;
+      }
+
+      @Override
+      protected Result compute() {
+         if ((long) (y1_ - y0_) * bounds_.width <
+               2L * MIN_PIXELS_PER_TASK * stride_ * stride_ ||
+               y1_ - y0_ < 2 * stride_) {
+            return computeRows(y0_, y1_);
+         }
+         int mid = (y0_ + y1_) >>> 1;
+         BandTask top = new BandTask(y0_, mid);
+         top.fork();
+         Result result = new BandTask(mid, y1_).compute();
+         result.merge(top.join());
+         return result;
+      }
+   }
+
+   /**
+    * @param y0 first row of the band; bands split at any row
+    */
+   private Result computeRows(int y0, int y1) {
+      Result result = new Result(nComponents_, binCount_);
+      // First sampled row in the band
+      int offset = (y0 - bounds_.y) % stride_;
+      if (offset != 0) {
+         y0 += stride_ - offset;
+      }
+      if (nComponents_ == 1 && mask_ == null) {
+         if (pixels_ instanceof short[]) {
+            accumulateShorts(result, y0, y1);
+         }
+         else {
+            accumulateBytes(result, y0, y1);
+         }
+      }
+      else {
+         accumulateGeneral(result, y0, y1);
+      }
+      return result;
+   }
+
+   // Single component, no mask: the live-mode case, kept as tight as possible
+   private void accumulateShorts(Result result, int y0, int y1) {
+      short[] pixels = (short[]) pixels_;
+      long[] histogram = result.histograms[0];
+      int shift = shift_;
+      long endOfRange = endOfRange_;
+      int overflowBin = binCount_ - 1;
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      long sum = 0;
+      long sumOfSquares = 0;
+      int stride = stride_;
+      long count = 0;
+      for (int y = y0; y < y1; y += stride) {
+         int start = y * imageWidth_ + bounds_.x;
+         int end = start + bounds_.width;
+         for (int i = start; i < end; i += stride) {
+            int value = pixels[i] & 0xffff;
+            histogram[value > endOfRange ? overflowBin : (value >> shift) + 1]++;
+            if (value < min) {
+               min = value;
+            }
+            if (value > max) {
+               max = value;
+            }
+            sum += value;
+            sumOfSquares += (long) value * value;
+            ++count;
+         }
+      }
+      result.counts[0] = count;
+      result.minima[0] = min;
+      result.maxima[0] = max;
+      result.sums[0] = sum;
+      result.sumsOfSquares[0] = sumOfSquares;
+   }
+
+   private void accumulateBytes(Result result, int y0, int y1) {
+      byte[] pixels = (byte[]) pixels_;
+      long[] histogram = result.histograms[0];
+      int shift = shift_;
+      long endOfRange = endOfRange_;
+      int overflowBin = binCount_ - 1;
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      long sum = 0;
+      long sumOfSquares = 0;
+      int stride = stride_;
+      long count = 0;
+      for (int y = y0; y < y1; y += stride) {
+         int start = y * imageWidth_ + bounds_.x;
+         int end = start + bounds_.width;
+         for (int i = start; i < end; i += stride) {
+            int value = pixels[i] & 0xff;
+            histogram[value > endOfRange ? overflowBin : (value >> shift) + 1]++;
+            if (value < min) {
+               min = value;
+            }
+            if (value > max) {
+               max = value;
+            }
+            sum += value;
+            sumOfSquares += value * value;
+            ++count;
+         }
+      }
+      result.counts[0] = count;
+      result.minima[0] = min;
+      result.maxima[0] = max;
+      result.sums[0] = sum;
+      result.sumsOfSquares[0] = sumOfSquares;
+   }
+
+   // Any number of components, with or without a mask
+   private void accumulateGeneral(Result result, int y0, int y1) {
+      short[] shorts = pixels_ instanceof short[] ? (short[]) pixels_ : null;
+      byte[] bytes = pixels_ instanceof byte[] ? (byte[]) pixels_ : null;
+      int overflowBin = binCount_ - 1;
+      for (int y = y0; y < y1; y += stride_) {
+         int maskIndex = mask_ == null ? -1 :
+               (y - maskBounds_.y) * maskBounds_.width +
+               (bounds_.x - maskBounds_.x);
+         int pixelStart = (y * imageWidth_ + bounds_.x) * nComponents_;
+         for (int x = 0; x < bounds_.width; x += stride_) {
+            if (mask_ != null && (mask_[maskIndex + x] & 0xff) < MASK_THRESH) {
+               continue;
+            }
+            int i = pixelStart + x * nComponents_;
+            for (int component = 0; component < nComponents_; ++component) {
+               long value = shorts != null ? shorts[i] & 0xffff : bytes[i] & 0xff;
+               ++i;
+               result.histograms[component][value > endOfRange_ ?
+                     overflowBin : (int) (value >> shift_) + 1]++;
+               result.counts[component]++;
+               if (value < result.minima[component]) {
+                  result.minima[component] = value;
+               }
+               if (value > result.maxima[component]) {
+                  result.maxima[component] = value;
+               }
+               result.sums[component] += value;
+               result.sumsOfSquares[component] += value * value;
+            }
+         }
+      }
+   }
+
+   /**
+    * @return whether any pixel of the mask within bounds is selected
+    */
+   static boolean maskSelectsAny(byte[] mask, Rectangle maskBounds,
+         Rectangle bounds) {
+      for (int y = bounds.y; y < bounds.y + bounds.height; ++y) {
+         int start = (y - maskBounds.y) * maskBounds.width +
+               (bounds.x - maskBounds.x);
+         for (int i = start; i < start + bounds.width; ++i) {
+            if ((mask[i] & 0xff) >= MASK_THRESH) {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+}
@@ -26,6 +26,14 @@ import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
 /**
  * Facade to manage background, rate-limited image stats computation.
+ * <p>
+ * In fast stats mode, stats are computed from a sample of the pixels (see
+ * {@link ImageStatsProcessor#process(long, ImageStatsRequest, boolean,
+ * boolean)}), which keeps the histogram and autostretch responsive to large
+ * images arriving at live-mode rates. Once requests stop arriving for
+ * {@code EXACT_STATS_DELAY_MS} (live mode stopped or paused, acquisition
+ * finished, or the user stopped scrolling), the stats of the last request are
+ * recomputed exactly and delivered again.
  * @author Mark A. Tsuchida
  */
 public final class StatsComputeQueue {
@@ -70,6 +78,8 @@ public final class StatsComputeQueue {
          new ArrayList<Deque<Future<?>>>();
    private static final int RESULT_BUFFER_SIZE = 2;
 
+   private static final long EXACT_STATS_DELAY_MS = 500;
+
    // Serial number for each request received
    private long nextRequestSequenceNumber_ = 0;
    private long lastResultSequenceNumber_ = -1;
@@ -86,6 +96,9 @@ public final class StatsComputeQueue {
    // Guarded by monitor on this
    private long nextStatsReadyCallAllowedNs_ = 0;
 
+   // Guarded by monitor on this
+   private boolean fastStatsEnabled_ = false;
+
    private PerformanceMonitor perfMon_;
 
 
@@ -142,6 +155,7 @@ public final class StatsComputeQueue {
    private void submitCompute(final long sequenceNumber, final int priority,
          final ImageStatsRequest request, final long waitTargetNs)
    {
+      final boolean approximate = fastStatsEnabled_;
       while (computeFutures_.size() <= priority) {
          computeFutures_.add(null);
       }
@@ -173,7 +187,8 @@ public final class StatsComputeQueue {
 
             final ImagesAndStats result;
             try {
-               result = processor_.process(sequenceNumber, request, false);
+               result = processor_.process(sequenceNumber, request, false,
+                     approximate);
             }
             catch (InterruptedException shouldNotHappen) {
                Thread.currentThread().interrupt();
@@ -187,19 +202,66 @@ public final class StatsComputeQueue {
             }
             synchronized (StatsComputeQueue.this) {
                submitResult(sequenceNumber, priority, result);
+               storeStats(priority, result);
+
+               // Unless superseded, follow up with exact stats
+               if (approximate &&
+                     sequenceNumber == nextRequestSequenceNumber_ - 1) {
+                  submitExactCompute(sequenceNumber, priority, request);
+               }
+            }
+         }
+      }));
+   }
 
-               while (storedStats_.size() <= priority) {
-                  storedStats_.add(null);
+   /**
+    * Recompute exact stats for a request whose stats were approximate, once
+    * no new request has arrived for a while. Like other compute tasks, this
+    * is cancelled by the next request.
+    */
+   private void submitExactCompute(final long sequenceNumber,
+         final int priority, final ImageStatsRequest request)
+   {
+      computeFutures_.set(priority, computeExecutor_.submit(new Runnable() {
+         @Override
+         public void run() {
+            final ImagesAndStats result;
+            try {
+               Thread.sleep(EXACT_STATS_DELAY_MS);
+               result = processor_.process(sequenceNumber, request, true,
+                     false);
+            }
+            catch (InterruptedException cancel) {
+               if (perfMon_ != null) {
+                  perfMon_.sampleTimeInterval("Exact compute cancelled");
                }
-               for (int p = priority; p >= 0; --p) {
-                  storedStats_.set(p, null);
+               return;
+            }
+            if (perfMon_ != null) {
+               perfMon_.sampleTimeInterval("Compute submitting exact result");
+            }
+            synchronized (StatsComputeQueue.this) {
+               if (sequenceNumber != nextRequestSequenceNumber_ - 1) {
+                  return; // Superseded while computing
                }
-               storedStats_.set(priority, result);
+               submitResult(sequenceNumber, priority, result);
+               storeStats(priority, result);
             }
          }
       }));
    }
 
+   // Must be called with monitor on this held
+   private void storeStats(int priority, ImagesAndStats result) {
+      while (storedStats_.size() <= priority) {
+         storedStats_.add(null);
+      }
+      for (int p = priority; p >= 0; --p) {
+         storedStats_.set(p, null);
+      }
+      storedStats_.set(priority, result);
+   }
+
    private void submitBypass(final long sequenceNumber, final int priority,
          final ImageStatsRequest request)
    {
@@ -316,4 +378,16 @@ public final class StatsComputeQueue {
    public synchronized long getProcessIntervalNs() {
       return updateIntervalNs_;
    }
+
+   /**
+    * Enable or disable fast (sampled) stats. Takes effect from the next
+    * request.
+    */
+   public synchronized void setFastStatsEnabled(boolean enabled) {
+      fastStatsEnabled_ = enabled;
+   }
+
+   public synchronized boolean isFastStatsEnabled() {
+      return fastStatsEnabled_;
+   }
 }
\ No newline at end of file
@@ -22,14 +22,12 @@ import java.awt.Dimension;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CancellationException;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -51,6 +49,7 @@ import org.micromanager.data.NewPipelineEvent;
 import org.micromanager.data.Pipeline;
 import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultRewritableDatastore;
 import org.micromanager.data.internal.PropertyKey;
 import org.micromanager.data.internal.StorageRAM;
@@ -60,9 +59,12 @@ import org.micromanager.display.DataViewerListener;
 import org.micromanager.display.DisplaySettings;
 import org.micromanager.display.DisplayWindow;
 import org.micromanager.display.internal.DefaultDisplaySettings;
+import org.micromanager.display.inspector.internal.panels.metadata.PlaneMetadataInspectorPanelController;
 import org.micromanager.display.internal.displaywindow.DisplayController;
 import org.micromanager.events.internal.DefaultLiveModeEvent;
 import org.micromanager.events.internal.InternalShutdownCommencingEvent;
+import org.micromanager.internal.utils.CoalescentEDTRunnablePool;
+import org.micromanager.internal.utils.CoalescentEDTRunnablePool.CoalescentRunnable;
 import org.micromanager.internal.utils.GUIUtils;
 import org.micromanager.internal.utils.MustCallOnEDT;
 import org.micromanager.internal.utils.ReportingUtils;
@@ -109,6 +111,11 @@ public final class SnapLiveManager extends DataViewerListener
 
    private final List<DefaultImage> lastImageForEachChannel_ = new ArrayList<>();
 
+   // Hands the newest grabbed image of each channel to the EDT without
+   // blocking the grabber; images the EDT has not taken yet are replaced
+   private final CoalescentEDTRunnablePool edtRunnablePool_ =
+         CoalescentEDTRunnablePool.create();
+
    private final ScheduledExecutorService scheduler_ =
          Executors.newSingleThreadScheduledExecutor(
                ThreadFactoryFactory.createThreadFactory("SnapLiveManager"));
@@ -118,6 +125,9 @@ public final class SnapLiveManager extends DataViewerListener
    // a stopped and rapidly restarted run of live mode.
    // Guarded by monitor on this
    private long liveModeStartCount_ = 0;
+   // Live mode run in which a failure to parse image tags was last logged.
+   // Access: from the grabber thread only
+   private long tagParseFailureLiveModeCount_ = -1;
 
    // As a (significant) convenience to our clients, we allow live mode to be
    // "suspended" and unsuspended, which amounts to briefly turning live mode
@@ -260,7 +270,8 @@ public final class SnapLiveManager extends DataViewerListener
          return;
       }
       final String camName = core_.getCameraDevice();
-      
+      final LiveImageFormat format = LiveImageFormat.fromCore(core_);
+
       synchronized (displayInfoLock_) {
          if (displayInfo_ != null) {
              for (int c = 0; c < numCameraChannels_; c++) {
@@ -287,7 +298,7 @@ public final class SnapLiveManager extends DataViewerListener
                      return;
                   }
                }
-               grabAndAddImages(camName, liveModeCount);
+               grabAndAddImages(camName, format, liveModeCount);
 
                // Choose an interval within the absolute bounds, and at least as
                // long as the exposure. Within that range, try to match the
@@ -374,79 +385,222 @@ public final class SnapLiveManager extends DataViewerListener
    }
 
    /**
-    * This method takes images out of the Core and inserts them into our
-    * pipeline.
+    * The format of the images of a live mode run, as reported by the Core
+    * when it started, so that images can be built without their tags.
+    */
+   private static final class LiveImageFormat {
+      final int width;
+      final int height;
+      final int bytesPerPixel;
+      final int numComponents;
+
+      private LiveImageFormat(int width, int height, int bytesPerPixel,
+            int numComponents) {
+         this.width = width;
+         this.height = height;
+         this.bytesPerPixel = bytesPerPixel;
+         this.numComponents = numComponents;
+      }
+
+      static LiveImageFormat fromCore(CMMCore core) {
+         return new LiveImageFormat((int) core.getImageWidth(),
+               (int) core.getImageHeight(), (int) core.getBytesPerPixel(),
+               (int) core.getNumberOfComponents());
+      }
+
+      boolean matches(Object pixels) {
+         int length;
+         if (pixels instanceof byte[]) {
+            length = ((byte[]) pixels).length;
+         }
+         else if (pixels instanceof short[]) {
+            length = ((short[]) pixels).length;
+         }
+         else {
+            return false;
+         }
+         // Multi-component pixels are left to the tagged path
+         return numComponents == 1 &&
+               length * (pixels instanceof short[] ? 2 : 1) ==
+               width * height * bytesPerPixel;
+      }
+   }
+
+   /**
+    * This method takes images out of the Core and hands the newest image of
+    * each camera channel to the EDT, which inserts them into our pipeline.
+    *
+    * Unless an inspector is showing image metadata, images are built from
+    * the pixels and a few per-image tags only, skipping the conversion of
+    * the full tags (which include the whole system state cache), and the
+    * hardware state is not added to their metadata.
     */
-   private void grabAndAddImages(String camName, final long liveModeCount) {
+   private void grabAndAddImages(String camName, LiveImageFormat format,
+         final long liveModeCount) {
+      final boolean fullMetadata =
+            PlaneMetadataInspectorPanelController.isShowingMetadata();
+      Map<Integer, Image> newestImages = new TreeMap<>();
       try {
-         // We scan over 2*numCameraChannels here because, in multi-camera
-         // setups, one camera could be generating images faster than the
-         // other(s). Of course, 2x isn't guaranteed to be enough here, either,
-         // but it's what we've historically used.
-         HashSet<Integer> channelsSet = new HashSet<>();
-         for (int c = 0; c < 6 * numCameraChannels_; ++c) {
-            TaggedImage tagged;
+         // We scan over several images per camera channel here because, in
+         // multi-camera setups, one camera could be generating images faster
+         // than the other(s). We stop as soon as every channel has an image,
+         // which for a single camera is the first (most recent) one.
+         for (int n = 0; n < 6 * numCameraChannels_ &&
+               newestImages.size() < numCameraChannels_; ++n) {
+            Image image = null;
             try {
-               tagged = core_.getNBeforeLastTaggedImage(c);
-               perfMon_.sampleTimeInterval("getNBeforeLastTaggedImage");
+               if (!fullMetadata) {
+                  try {
+                     image = grabImageWithoutTags(n, camName, format);
+                  }
+                  catch (NumberFormatException e) {
+                     // The tagged path copes with (or reports) bad tags
+                     if (tagParseFailureLiveModeCount_ != liveModeCount) {
+                        tagParseFailureLiveModeCount_ = liveModeCount;
+                        ReportingUtils.logError(e, "Failed to parse live mode image tags; using full metadata instead");
+                     }
+                  }
+               }
+               if (image == null) {
+                  image = grabTaggedImage(n, camName);
+               }
+               perfMon_.sampleTimeInterval("Image taken from sequence buffer");
                perfMon_.sample("No image in sequence buffer (%)", 0.0);
             }
+            catch (JSONException e) {
+               throw e;
+            }
             catch (Exception e) {
-               // No image in the sequence buffer.
+               // No (further) image in the sequence buffer.
                perfMon_.sample("No image in sequence buffer (%)", 100.0);
-               continue;
-            }
-            JSONObject tags = tagged.tags;
-            int imageChannel = c;
-            if (tags.has(camName + "-CameraChannelIndex")) {
-               imageChannel = tags.getInt(camName + "-CameraChannelIndex");
+               break;
             }
-            if (channelsSet.contains(imageChannel)) {
-               // Already provided a more recent version of this channel.
+            int imageChannel = image.getCoords().getChannel();
+            if (newestImages.containsKey(imageChannel)) {
+               // Already have a more recent version of this channel.
                continue;
             }
-            DefaultImage image = new DefaultImage(tagged);
-            final Long seqNr = image.getMetadata().getImageNumber();
             perfMon_.sample("Image missing ImageNumber (%)",
-                  seqNr == null ? 100.0 : 0.0);
-            Coords newCoords = image.getCoords().copyBuilder()
-               .t(0)
-               .c(imageChannel).build();
-              // Generate a new UUID for the image, so that our histogram
-              // update code realizes this is a new image.
-              Metadata newMetadata = image.getMetadata().copyBuilderWithNewUUID()
-                      .build();
-              final Image newImage = image.copyWith(newCoords, newMetadata);
-
-              try {
-                  SwingUtilities.invokeAndWait(() -> {
-                     synchronized (SnapLiveManager.this) {
-                        if (scheduledGrab_ == null
-                                || liveModeStartCount_ != liveModeCount) {
-                           throw new CancellationException();
-                        }
-                     }
-                     displayImage(newImage);
-                  });
-
-              } catch (InterruptedException unexpected) {
-                  Thread.currentThread().interrupt();
-              } catch (InvocationTargetException e) {
-                  if (e.getCause() instanceof CancellationException) {
-                      return;
-                  }
-                  throw new RuntimeException(e.getCause());
-              }
-              channelsSet.add(imageChannel);
-              if (channelsSet.size() == numCameraChannels_) {
-                  // Got every channel.
-                  break;
-              }
-          }
+                  image.getMetadata().getImageNumber() == null ? 100.0 : 0.0);
+            newestImages.put(imageChannel, image);
+         }
       }
       catch (JSONException e) {
          ReportingUtils.logError(e, "Exception in image grabber thread.");
       }
+      if (!newestImages.isEmpty()) {
+         edtRunnablePool_.invokeLaterWithCoalescence(new LiveImagesRunnable(
+               newestImages, liveModeCount, fullMetadata));
+      }
+   }
+
+   /**
+    * @return the image, or null if it doesn't match the live mode format
+    * @throws NumberFormatException if a tag that is needed cannot be parsed
+    * @throws Exception if the sequence buffer has no such image
+    */
+   private Image grabImageWithoutTags(int n, String camName,
+         LiveImageFormat format) throws Exception {
+      mmcorej.Metadata md = new mmcorej.Metadata();
+      Object pixels = core_.getNBeforeLastImageMD(n, md);
+      if (!format.matches(pixels)) {
+         return null;
+      }
+      int imageChannel = n;
+      String channelTag = getTag(md, camName + "-CameraChannelIndex");
+      if (channelTag != null) {
+         imageChannel = Integer.parseInt(channelTag);
+      }
+      DefaultMetadata.Builder metadata = new DefaultMetadata.Builder();
+      String imageNumber = getTag(md, "ImageNumber");
+      if (imageNumber != null) {
+         metadata.imageNumber(Long.parseLong(imageNumber));
+      }
+      String elapsedTime = getTag(md, "ElapsedTime-ms");
+      if (elapsedTime != null) {
+         metadata.elapsedTimeMs(Double.parseDouble(elapsedTime));
+      }
+      String camera = getTag(md, "Camera");
+      if (camera != null) {
+         metadata.camera(camera);
+      }
+      Coords coords = Coordinates.builder().t(0).p(0).z(0).
+            c(imageChannel).build();
+      return new DefaultImage(pixels, format.width, format.height,
+            format.bytesPerPixel, format.numComponents, coords,
+            metadata.build());
+   }
+
+   private static String getTag(mmcorej.Metadata md, String key) {
+      if (!md.HasTag(key)) {
+         return null;
+      }
+      try {
+         return md.GetSingleTag(key).GetValue();
+      }
+      catch (Exception e) {
+         return null;
+      }
+   }
+
+   private Image grabTaggedImage(int n, String camName) throws Exception {
+      TaggedImage tagged = core_.getNBeforeLastTaggedImage(n);
+      JSONObject tags = tagged.tags;
+      int imageChannel = n;
+      if (tags.has(camName + "-CameraChannelIndex")) {
+         imageChannel = tags.getInt(camName + "-CameraChannelIndex");
+      }
+      DefaultImage image = new DefaultImage(tagged);
+      return image.copyAtCoords(image.getCoords().copyBuilder().t(0).
+            c(imageChannel).build());
+   }
+
+   /**
+    * The newest grabbed images, keyed by channel, waiting to be displayed.
+    * Coalescing keeps the newest image of each channel, so the EDT only ever
+    * displays the latest frames, however far it falls behind the camera.
+    */
+   private final class LiveImagesRunnable implements CoalescentRunnable {
+      private final Map<Integer, Image> images_;
+      private final long liveModeCount_;
+      private final boolean fullMetadata_;
+
+      LiveImagesRunnable(Map<Integer, Image> images, long liveModeCount,
+            boolean fullMetadata) {
+         images_ = images;
+         liveModeCount_ = liveModeCount;
+         fullMetadata_ = fullMetadata;
+      }
+
+      @Override
+      public Class<?> getCoalescenceClass() {
+         return LiveImagesRunnable.class;
+      }
+
+      @Override
+      public CoalescentRunnable coalesceWith(CoalescentRunnable later) {
+         LiveImagesRunnable laterImages = (LiveImagesRunnable) later;
+         if (laterImages.liveModeCount_ != liveModeCount_) {
+            return later;
+         }
+         Map<Integer, Image> images = new TreeMap<>(images_);
+         images.putAll(laterImages.images_);
+         return new LiveImagesRunnable(images, liveModeCount_,
+               laterImages.fullMetadata_);
+      }
+
+      @Override
+      public void run() {
+         synchronized (SnapLiveManager.this) {
+            if (scheduledGrab_ == null ||
+                  liveModeStartCount_ != liveModeCount_) {
+               return;
+            }
+         }
+         for (Image image : images_.values()) {
+            displayImage(image, fullMetadata_);
+         }
+      }
    }
 
    @Override
@@ -594,10 +748,19 @@ public final class SnapLiveManager extends DataViewerListener
     */
    @Override
    public void displayImage(final Image image) {
+      displayImage(image, true);
+   }
+
+   /**
+    * @param includeHardwareState whether to add the hardware state to the
+    * metadata of the image
+    */
+   private void displayImage(final Image image,
+         final boolean includeHardwareState) {
 
       if (!SwingUtilities.isEventDispatchThread()) {
          SwingUtilities.invokeLater(() -> {
-            displayImage(image);
+            displayImage(image, includeHardwareState);
          });
          return;
       }
@@ -640,7 +803,8 @@ public final class SnapLiveManager extends DataViewerListener
 
       try {
          DefaultImage newImage = new DefaultImage(image, image.getCoords(),
-               mmStudio_.acquisitions().generateMetadata(image, true));
+               mmStudio_.acquisitions().generateMetadata(image,
+                     includeHardwareState));
 
          int newImageChannel = newImage.getCoords().getChannel();
 
@@ -727,7 +891,7 @@ public final class SnapLiveManager extends DataViewerListener
          // Datastore has been frozen (presumably the user saved a snapped
          // image); replace it.
          createOrResetDatastoreAndDisplay();
-         displayImage(image);
+         displayImage(image, includeHardwareState);
       }
       catch (Exception e) {
          // Error getting metadata from the system state cache.
@@ -798,9 +962,28 @@ public final class SnapLiveManager extends DataViewerListener
       if (isLiveOn_ && suspendCount_ == 0) {
          // Just return the most recent images.
          // BUG: In theory this could transiently contain nulls
+         List<Image> images;
          synchronized (lastImageForEachChannel_) {
-            return new ArrayList<>(lastImageForEachChannel_);
+            images = new ArrayList<>(lastImageForEachChannel_);
+         }
+         // Live images may have been displayed without the hardware state
+         List<Image> result = new ArrayList<>(images.size());
+         for (Image image : images) {
+            if (image == null ||
+                  !image.getMetadata().getScopeData().isEmpty()) {
+               result.add(image);
+               continue;
+            }
+            try {
+               result.add(image.copyWithMetadata(
+                     mmStudio_.acquisitions().generateMetadata(image, true)));
+            }
+            catch (Exception e) {
+               ReportingUtils.logError(e, "Error getting hardware state");
+               result.add(image);
+            }
          }
+         return result;
       }
       try {
          List<Image> images = mmStudio_.acquisitions().snap();
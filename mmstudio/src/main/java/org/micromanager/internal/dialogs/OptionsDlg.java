@@ -39,6 +39,7 @@ import org.micromanager.ApplicationSkin.SkinMode;
 import org.micromanager.Studio;
 import org.micromanager.UserProfile;
 import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
+import org.micromanager.display.internal.displaywindow.CompositeRenderer;
 import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.StartupSettings;
 import org.micromanager.internal.logging.LogFileManager;
@@ -258,6 +259,40 @@ public final class OptionsDlg extends MMDialog {
             StorageMultipageTiff.setShouldSplitPositions(separateFilesForPositionsMPTiffCheckBox.isSelected());
          }
       });
+
+      final JCheckBox bigTiffCheckBox = new JCheckBox();
+      bigTiffCheckBox.setText("Save Image Stack Files as BigTIFF (no 4 GB file size limit)");
+      bigTiffCheckBox.setSelected(
+            StorageMultipageTiff.getShouldWriteBigTiff());
+      bigTiffCheckBox.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent arg0) {
+            StorageMultipageTiff.setShouldWriteBigTiff(bigTiffCheckBox.isSelected());
+         }
+      });
+
+      final JCheckBox memoryMapCheckBox = new JCheckBox();
+      memoryMapCheckBox.setText("Use memory mapping to read Image Stack Files");
+      memoryMapCheckBox.setSelected(
+            StorageMultipageTiff.getShouldMemoryMapFiles());
+      memoryMapCheckBox.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent arg0) {
+            StorageMultipageTiff.setShouldMemoryMapFiles(memoryMapCheckBox.isSelected());
+         }
+      });
+
+      final JCheckBox fastRenderingCheckBox = new JCheckBox();
+      fastRenderingCheckBox.setText("Fast image display, drawing only the visible part (applies to new windows)");
+      fastRenderingCheckBox.setSelected(
+            CompositeRenderer.getShouldUseFastRendering());
+      fastRenderingCheckBox.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent arg0) {
+            CompositeRenderer.setShouldUseFastRendering(
+                  fastRenderingCheckBox.isSelected());
+         }
+      });
   
       final JCheckBox syncExposureMainAndMDA = new JCheckBox();
       syncExposureMainAndMDA.setText("Sync exposure between Main and MDA windows");
@@ -295,6 +330,7 @@ public final class OptionsDlg extends MMDialog {
 
       super.add(new JLabel("Display Background:"), "split 2, gapright push");
       super.add(comboDisplayBackground_, "wrap");
+      super.add(fastRenderingCheckBox, "wrap");
 
       super.add(new JSeparator(), "wrap");
 
@@ -306,6 +342,8 @@ public final class OptionsDlg extends MMDialog {
 
       super.add(metadataFileWithMultipageTiffCheckBox, "wrap");
       super.add(separateFilesForPositionsMPTiffCheckBox, "wrap");
+      super.add(bigTiffCheckBox, "wrap");
+      super.add(memoryMapCheckBox, "wrap");
 
       super.add(new JSeparator(), "wrap");
 
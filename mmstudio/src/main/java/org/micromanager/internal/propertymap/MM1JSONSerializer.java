@@ -10,6 +10,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
@@ -18,8 +19,12 @@ import com.google.gson.stream.JsonReader;
 import java.io.IOException;
 import java.io.StringReader;
 import java.math.BigDecimal;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
 
@@ -209,6 +214,123 @@ public final class MM1JSONSerializer {
       return builder.build();
    }
 
+   /**
+    * Convert a json.org object (as attached to {@code TaggedImage} by
+    * MMCoreJ) to the equivalent Gson tree.
+    * <p>
+    * This walks the object directly, so that image tags do not need to be
+    * serialized to a string and parsed again before being handed to
+    * {@link NonPropertyMapJSONFormats#fromGson}. The result is identical to
+    * what parsing {@code jo.toString()} would produce (including json.org's
+    * formatting of numbers), so the downstream readers see no difference.
+    *
+    * @param jo the json.org object
+    * @return the Gson object with the same keys (in the same order) and values
+    * @throws JsonParseException if {@code jo} contains an invalid number
+    */
+   public static JsonObject fromJSONObject(JSONObject jo) {
+      JsonObject ret = new JsonObject();
+      Iterator<String> keys = jo.keys();
+      while (keys.hasNext()) {
+         String key = keys.next();
+         ret.add(key, fromJSONValue(jo.opt(key)));
+      }
+      return ret;
+   }
+
+   private static JsonArray fromJSONArray(JSONArray ja) {
+      JsonArray ret = new JsonArray();
+      for (int i = 0; i < ja.length(); ++i) {
+         ret.add(fromJSONValue(ja.opt(i)));
+      }
+      return ret;
+   }
+
+   private static JsonElement fromJSONValue(Object value) {
+      if (value == null || JSONObject.NULL.equals(value)) {
+         return JsonNull.INSTANCE;
+      }
+      if (value instanceof JSONObject) {
+         return fromJSONObject((JSONObject) value);
+      }
+      if (value instanceof JSONArray) {
+         return fromJSONArray((JSONArray) value);
+      }
+      if (value instanceof Boolean) {
+         return new JsonPrimitive((Boolean) value);
+      }
+      if (value instanceof Number) {
+         try {
+            return new JsonPrimitive(new JSONNumber(
+                  JSONObject.numberToString((Number) value)));
+         }
+         catch (JSONException e) {
+            throw new JsonParseException("Invalid number in JSON object", e);
+         }
+      }
+      // json.org writes everything else as a quoted string
+      return new JsonPrimitive(value.toString());
+   }
+
+   /**
+    * A number held as the text json.org writes for it, so that it prints
+    * (and compares) just like the number Gson reads back from that text.
+    * BigDecimal would not do: it prints 1.0E-5 as 0.000010.
+    */
+   private static final class JSONNumber extends Number {
+      private final String text_;
+
+      JSONNumber(String text) {
+         text_ = text;
+      }
+
+      @Override
+      public int intValue() {
+         try {
+            return Integer.parseInt(text_);
+         }
+         catch (NumberFormatException e) {
+            return (int) longValue();
+         }
+      }
+
+      @Override
+      public long longValue() {
+         try {
+            return Long.parseLong(text_);
+         }
+         catch (NumberFormatException e) {
+            return new BigDecimal(text_).longValue();
+         }
+      }
+
+      @Override
+      public float floatValue() {
+         return Float.parseFloat(text_);
+      }
+
+      @Override
+      public double doubleValue() {
+         return Double.parseDouble(text_);
+      }
+
+      @Override
+      public String toString() {
+         return text_;
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         return other instanceof JSONNumber &&
+               text_.equals(((JSONNumber) other).text_);
+      }
+
+      @Override
+      public int hashCode() {
+         return text_.hashCode();
+      }
+   }
+
    /**
     * @param map
     * @return
@@ -106,10 +106,9 @@ public abstract class NonPropertyMapJSONFormats {
    }
 
    private static final class MetadataFormat extends NonPropertyMapJSONFormats {
-      @Override
-      public PropertyMap fromGson(JsonElement je) {
-         PropertyMap.Builder builder = PropertyMaps.builder();
-         for (PropertyKey key : ImmutableList.of(
+      // Hoisted out of fromGson()/addToGson(), which run once per image
+      private static final ImmutableList<PropertyKey> READ_KEYS =
+            ImmutableList.of(
                PropertyKey.UUID,
                CAMERA,
                BINNING,
@@ -129,16 +128,9 @@ public abstract class NonPropertyMapJSONFormats {
                PIXEL_TYPE, // Needed due to MultipageTiffReader design
                SCOPE_DATA,
                USER_DATA,
-               FILE_NAME))
-         {
-            key.extractFromGsonObject(je.getAsJsonObject(), builder);
-         }
-         return builder.build();
-      }
-
-      @Override
-      public void addToGson(JsonObject jo, PropertyMap pmap) {
-         for (PropertyKey key : ImmutableList.of(
+               FILE_NAME);
+      private static final ImmutableList<PropertyKey> WRITE_KEYS =
+            ImmutableList.of(
                PropertyKey.UUID,
                CAMERA,
                BINNING,
@@ -158,8 +150,21 @@ public abstract class NonPropertyMapJSONFormats {
                SCOPE_DATA,
                SCOPE_DATA_KEYS,
                USER_DATA,
-               FILE_NAME))
-         {
+               FILE_NAME);
+
+      @Override
+      public PropertyMap fromGson(JsonElement je) {
+         PropertyMap.Builder builder = PropertyMaps.builder();
+         JsonObject jo = je.getAsJsonObject();
+         for (PropertyKey key : READ_KEYS) {
+            key.extractFromGsonObject(jo, builder);
+         }
+         return builder.build();
+      }
+
+      @Override
+      public void addToGson(JsonObject jo, PropertyMap pmap) {
+         for (PropertyKey key : WRITE_KEYS) {
             try {
             key.storeInGsonObject(pmap, jo);
             } catch (NullPointerException npe) {
@@ -349,6 +354,14 @@ public abstract class NonPropertyMapJSONFormats {
    }
 
    private static final class CoordsFormat extends NonPropertyMapJSONFormats {
+      private static final ImmutableList<PropertyKey> WRITE_KEYS =
+            ImmutableList.of(
+               COMPLETE_COORDS,
+               FRAME_INDEX,
+               POSITION_INDEX,
+               SLICE_INDEX,
+               CHANNEL_INDEX);
+
       @Override
       public PropertyMap fromGson(JsonElement je) {
          // Note that the property map format for Coords uses axis names as
@@ -360,39 +373,32 @@ public abstract class NonPropertyMapJSONFormats {
 
       @Override
       public void addToGson(JsonObject jo, PropertyMap pmap) {
-         for (PropertyKey key : ImmutableList.of(
-               COMPLETE_COORDS,
-               FRAME_INDEX,
-               POSITION_INDEX,
-               SLICE_INDEX,
-               CHANNEL_INDEX))
-         {
+         for (PropertyKey key : WRITE_KEYS) {
             key.storeInGsonObject(pmap, jo);
          }
       }
    }
 
    private static final class ImageFormat extends NonPropertyMapJSONFormats {
+      private static final ImmutableList<PropertyKey> KEYS =
+            ImmutableList.of(
+               WIDTH,
+               HEIGHT,
+               PIXEL_TYPE);
+
       @Override
       public PropertyMap fromGson(JsonElement je) {
          PropertyMap.Builder builder = PropertyMaps.builder();
-         for (PropertyKey key : ImmutableList.of(
-               WIDTH,
-               HEIGHT,
-               PIXEL_TYPE))
-         {
-            key.extractFromGsonObject(je.getAsJsonObject(), builder);
+         JsonObject jo = je.getAsJsonObject();
+         for (PropertyKey key : KEYS) {
+            key.extractFromGsonObject(jo, builder);
          }
          return builder.build();
       }
 
       @Override
       public void addToGson(JsonObject jo, PropertyMap pmap) {
-         for (PropertyKey key : ImmutableList.of(
-               WIDTH,
-               HEIGHT,
-               PIXEL_TYPE))
-         {
+         for (PropertyKey key : KEYS) {
             key.storeInGsonObject(pmap, jo);
          }
       }
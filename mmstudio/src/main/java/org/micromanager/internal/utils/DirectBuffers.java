@@ -1,7 +1,8 @@
 
 package org.micromanager.internal.utils;
 
-import java.io.UnsupportedEncodingException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -79,6 +80,62 @@ public final class DirectBuffers {
       return null;
    }
    
+   /**
+    * Wrap a primitive array in a heap buffer, without copying.
+    * The buffer shares its storage with the array.
+    * @param primitiveArray a byte[], short[], or int[] array
+    * @return a ByteBuffer, ShortBuffer, or IntBuffer backed by the array, or
+    * null if the array is of another type
+    */
+   public static Buffer wrapArray(Object primitiveArray) {
+      if (primitiveArray instanceof byte[]) {
+         return ByteBuffer.wrap((byte[]) primitiveArray);
+      } else if (primitiveArray instanceof short[]) {
+         return ShortBuffer.wrap((short[]) primitiveArray);
+      } else if (primitiveArray instanceof int[]) {
+         return IntBuffer.wrap((int[]) primitiveArray);
+      }
+      return null;
+   }
+
+   /**
+    * Return the array backing a heap buffer, if the buffer spans exactly the
+    * whole array.
+    * @param buffer a ByteBuffer, ShortBuffer, or IntBuffer
+    * @return the backing array, or null if the buffer is direct, read-only,
+    * or only covers part of its array
+    */
+   public static Object backingArray(Buffer buffer) {
+      if (!buffer.hasArray() || buffer.arrayOffset() != 0) {
+         return null;
+      }
+      Object array = buffer.array();
+      if (Array.getLength(array) != buffer.capacity()) {
+         return null;
+      }
+      return array;
+   }
+
+   /**
+    * Return a direct buffer with the contents of the given buffer, copying
+    * only if the buffer is not already direct. Needed when handing pixel data
+    * to native code (e.g. OpenCL) that cannot access the Java heap.
+    * @param buffer a ByteBuffer, ShortBuffer, or IntBuffer
+    * @return {@code buffer} itself if direct; otherwise a direct copy
+    */
+   public static Buffer directBufferFor(Buffer buffer) {
+      if (buffer.isDirect()) {
+         return buffer;
+      }
+      Object array = backingArray(buffer);
+      if (array == null) {
+         array = arrayFromBuffer(buffer);
+      }
+      Buffer direct = bufferFromArray(array);
+      direct.rewind();
+      return direct;
+   }
+
    public static ByteBuffer bufferFromString(String string) {
       try {
          return bufferFromBytes(string.getBytes("UTF-8"));
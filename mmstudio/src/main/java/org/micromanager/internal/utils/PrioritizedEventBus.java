@@ -1,25 +1,195 @@
 package org.micromanager.internal.utils;
 
 import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
 /**
  * The PrioritizedEventBus allows registrants to provide a priority value; when
  * dispatching events to registrants, those with lower priority numbers are
- * notified first.
+ * notified first. Registrants with equal priority are notified in the order
+ * they registered.
+ * <p>
+ * The dispatch order is computed when registrants are added or removed, so
+ * that posting an event only walks an array, skipping registrants that have
+ * no handler for the event's type. Events posted from within a handler are
+ * dispatched after the current event has reached every registrant.
+ * <p>
+ * Registrants may instead ask to receive events on a separate thread
+ * (see {@link #registerAsync}), so that slow handlers do not hold up the
+ * posting thread. Each such registrant receives events in the order they
+ * were posted, optionally dropping events of a given type that were
+ * superseded before they could be delivered.
+ * <p>
+ * If a {@link PerformanceMonitor} is set, the time taken by each
+ * registrant's handlers is recorded.
  */
 public final class PrioritizedEventBus {
    // Priority at which to register objects when no priority is specified.
    public static final int DEFAULT_PRIORITY = 100;
+
+   private static final ExecutorService ASYNC_EXECUTOR =
+         Executors.newCachedThreadPool(ThreadFactoryFactory.
+               createThreadFactory("PrioritizedEventBus Async"));
+
+   /**
+    * Each registrant has its own EventBus instance, so that it can be
+    * timed and skipped separately.
+    */
+   private final class Registrant {
+      final Object object_;
+      final int priority_;
+      final long sequence_;
+      final EventBus bus_;
+      final String statLabel_;
+      final Set<Class<?>> handledTypes_;
+      final ConcurrentHashMap<Class<?>, Boolean> handlesEvent_ =
+            new ConcurrentHashMap<Class<?>, Boolean>();
+      // Null for registrants notified on the posting thread
+      final AsyncDelivery async_;
+
+      Registrant(Object object, int priority, long sequence,
+            Class<?> coalescedEventType, boolean async)
+      {
+         object_ = object;
+         priority_ = priority;
+         sequence_ = sequence;
+         bus_ = new EventBus(EventBusExceptionLogger.getInstance());
+         bus_.register(object);
+         statLabel_ = "Event dispatch to " +
+               object.getClass().getSimpleName() + " (ms)";
+         handledTypes_ = findHandledTypes(object.getClass());
+         async_ = async ? new AsyncDelivery(this, coalescedEventType) : null;
+      }
+
+      boolean handles(Class<?> eventType) {
+         Boolean handles = handlesEvent_.get(eventType);
+         if (handles == null) {
+            handles = false;
+            for (Class<?> type : handledTypes_) {
+               if (type.isAssignableFrom(eventType)) {
+                  handles = true;
+                  break;
+               }
+            }
+            handlesEvent_.put(eventType, handles);
+         }
+         return handles;
+      }
+
+      void dispatch(Object event) {
+         PerformanceMonitor perfMon = perfMon_;
+         if (perfMon == null) {
+            bus_.post(event);
+            return;
+         }
+         long start = System.nanoTime();
+         bus_.post(event);
+         perfMon.sample(statLabel_, (System.nanoTime() - start) / 1e6);
+      }
+   }
+
    /**
-    * Each priority level corresponds to a different EventBus instance.
+    * Queue of events for a registrant that is notified on the async
+    * executor. At most one task drains the queue at a time, so events are
+    * delivered in order.
     */
-   private HashMap<Integer, EventBus> prioritizedBuses_;
+   private static final class AsyncDelivery implements Runnable {
+      private final Registrant registrant_;
+      private final Class<?> coalescedEventType_;
+      // Guarded by monitor on this
+      private final ArrayDeque<Object> queue_ = new ArrayDeque<Object>();
+      private boolean scheduled_ = false;
+      private boolean cancelled_ = false;
+
+      AsyncDelivery(Registrant registrant, Class<?> coalescedEventType) {
+         registrant_ = registrant;
+         coalescedEventType_ = coalescedEventType;
+      }
+
+      void enqueue(Object event) {
+         synchronized (this) {
+            if (cancelled_) {
+               return;
+            }
+            // Only an event immediately preceding this one is replaced, so
+            // that the order relative to other events is kept
+            if (coalescedEventType_ != null &&
+                  coalescedEventType_.isInstance(event) &&
+                  coalescedEventType_.isInstance(queue_.peekLast())) {
+               queue_.pollLast();
+            }
+            queue_.addLast(event);
+            if (scheduled_) {
+               return;
+            }
+            scheduled_ = true;
+         }
+         ASYNC_EXECUTOR.execute(this);
+      }
+
+      synchronized void cancel() {
+         cancelled_ = true;
+         queue_.clear();
+      }
+
+      @Override
+      public void run() {
+         for (;;) {
+            Object event;
+            synchronized (this) {
+               event = queue_.pollFirst();
+               if (event == null) {
+                  scheduled_ = false;
+                  return;
+               }
+            }
+            registrant_.dispatch(event);
+         }
+      }
+   }
+
+   private static final Comparator<Registrant> DISPATCH_ORDER =
+         new Comparator<Registrant>() {
+      @Override
+      public int compare(Registrant a, Registrant b) {
+         if (a.priority_ != b.priority_) {
+            return a.priority_ < b.priority_ ? -1 : 1;
+         }
+         return a.sequence_ < b.sequence_ ? -1 :
+               (a.sequence_ == b.sequence_ ? 0 : 1);
+      }
+   };
+
+   // Guarded by monitor on this
+   private final List<Registrant> registrants_ = new ArrayList<Registrant>();
+   private long nextSequence_ = 0;
+   // Rebuilt whenever registrants_ changes
+   private volatile Registrant[] dispatchOrder_ = new Registrant[0];
+   private volatile PerformanceMonitor perfMon_;
+
+   // Events posted from within a handler, waiting for the current event to
+   // be dispatched; null when not dispatching on this thread
+   private final ThreadLocal<ArrayDeque<Object>> pendingEvents_ =
+         new ThreadLocal<ArrayDeque<Object>>();
 
    public PrioritizedEventBus() {
-      prioritizedBuses_ = new HashMap<Integer, EventBus>();
+   }
+
+   public void setPerformanceMonitor(PerformanceMonitor perfMon) {
+      perfMon_ = perfMon;
    }
 
    public void register(Object o) {
@@ -27,40 +197,110 @@ public final class PrioritizedEventBus {
    }
 
    public void register(Object o, Integer priority) {
-      EventBus subBus;
-      if (!prioritizedBuses_.containsKey(priority)) {
-         subBus = new EventBus(EventBusExceptionLogger.getInstance());
-         prioritizedBuses_.put(priority, subBus);
+      addRegistrant(o, priority, null, false);
+   }
+
+   /**
+    * Register an object to be notified on a separate thread. The object's
+    * handlers are called one event at a time, in the order the events were
+    * posted.
+    * @param o the object whose {@code @Subscribe} methods are to be called
+    * @param coalescedEventType if not null, an event of this type that is
+    * still waiting to be delivered when another event of this type is
+    * posted right after it is dropped, so that the object only sees the
+    * latest one
+    */
+   public void registerAsync(Object o, Class<?> coalescedEventType) {
+      addRegistrant(o, DEFAULT_PRIORITY, coalescedEventType, true);
+   }
+
+   private synchronized void addRegistrant(Object o, int priority,
+         Class<?> coalescedEventType, boolean async)
+   {
+      for (Registrant registrant : registrants_) {
+         // As with EventBus, registering again has no effect
+         if (registrant.object_ == o && registrant.priority_ == priority &&
+               (registrant.async_ != null) == async) {
+            return;
+         }
       }
-      else {
-         subBus = prioritizedBuses_.get(priority);
+      registrants_.add(new Registrant(o, priority, nextSequence_++,
+            coalescedEventType, async));
+      updateDispatchOrder();
+   }
+
+   public synchronized void unregister(Object o) {
+      for (Iterator<Registrant> it = registrants_.iterator(); it.hasNext(); ) {
+         Registrant registrant = it.next();
+         if (registrant.object_ == o) {
+            if (registrant.async_ != null) {
+               registrant.async_.cancel();
+            }
+            it.remove();
+         }
       }
-      subBus.register(o);
+      updateDispatchOrder();
+   }
+
+   private void updateDispatchOrder() {
+      List<Registrant> ordered = new ArrayList<Registrant>(registrants_);
+      Collections.sort(ordered, DISPATCH_ORDER);
+      dispatchOrder_ = ordered.toArray(new Registrant[ordered.size()]);
    }
 
-   public void unregister(Object o) {
-      for (Integer priority : prioritizedBuses_.keySet()) {
-         EventBus subBus = prioritizedBuses_.get(priority);
-         // TODO: I can't find any way to test if a given EventBus has a given
-         // object subscribed to it, hence the try/catch logic here, which is
-         // unpleasant. However, objects should not be frequently unregistering
-         // so I don't think it's a huge issue.
-         // Similarly I'm not too fussed that we may have empty
-         // SubscriberRegistries lying around after unregister is called.
-         try {
-            subBus.unregister(o);
+   public void post(Object event) {
+      ArrayDeque<Object> pending = pendingEvents_.get();
+      if (pending != null) {
+         pending.addLast(event);
+         return;
+      }
+      pending = new ArrayDeque<Object>();
+      pendingEvents_.set(pending);
+      try {
+         do {
+            dispatch(event);
+            event = pending.pollFirst();
+         } while (event != null);
+      }
+      finally {
+         pendingEvents_.remove();
+      }
+   }
+
+   private void dispatch(Object event) {
+      Class<?> eventType = event.getClass();
+      for (Registrant registrant : dispatchOrder_) {
+         if (!registrant.handles(eventType)) {
+            continue;
+         }
+         if (registrant.async_ != null) {
+            registrant.async_.enqueue(event);
          }
-         catch (IllegalArgumentException e) {
+         else {
+            registrant.dispatch(event);
          }
       }
    }
 
-   public void post(Object event) {
-      ArrayList<Integer> priorities = new ArrayList<Integer>(prioritizedBuses_.keySet());
-      Collections.sort(priorities);
-      for (Integer priority : priorities) {
-         EventBus subBus = prioritizedBuses_.get(priority);
-         subBus.post(event);
+   // The parameter types of the @Subscribe methods that the EventBus will
+   // find (the public methods of the class and its supertypes)
+   private static Set<Class<?>> findHandledTypes(Class<?> cls) {
+      Set<Class<?>> types = new HashSet<Class<?>>();
+      List<Class<?>> supertypes = new ArrayList<Class<?>>();
+      supertypes.add(cls);
+      for (int i = 0; i < supertypes.size(); ++i) {
+         Class<?> type = supertypes.get(i);
+         for (Method method : type.getMethods()) {
+            if (method.isAnnotationPresent(Subscribe.class) &&
+                  method.getParameterTypes().length == 1) {
+               types.add(method.getParameterTypes()[0]);
+            }
+         }
+         if (type.getSuperclass() != null) {
+            supertypes.add(type.getSuperclass());
+         }
+         Collections.addAll(supertypes, type.getInterfaces());
       }
+      return types;
    }
 }
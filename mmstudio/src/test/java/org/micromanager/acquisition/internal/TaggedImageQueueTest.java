@@ -0,0 +1,175 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.acquisition.internal;
+
+import java.util.concurrent.TimeUnit;
+import mmcorej.TaggedImage;
+import org.json.JSONObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TaggedImageQueueTest {
+   private static final int IMAGE_BYTES = 1000;
+   private static final int NUM_IMAGES = 5000;
+
+   private static TaggedImage makeImage(int i) throws Exception {
+      JSONObject tags = new JSONObject();
+      tags.put("Index", i);
+      short[] pix = new short[IMAGE_BYTES / 2];
+      pix[0] = (short) i;
+      return new TaggedImage(pix, tags);
+   }
+
+   private static void produce(final TaggedImageQueue queue) {
+      new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               for (int i = 0; i < NUM_IMAGES; ++i) {
+                  queue.put(makeImage(i));
+               }
+               queue.put(TaggedImageQueue.POISON);
+            }
+            catch (Exception e) {
+               throw new RuntimeException(e);
+            }
+         }
+      }).start();
+   }
+
+   /**
+    * Consume until the poison, checking order and pixel/tag integrity.
+    * @return the number of images received
+    */
+   private static int consume(TaggedImageQueue queue, boolean expectAll)
+         throws Exception
+   {
+      int last = -1;
+      int count = 0;
+      while (true) {
+         TaggedImage tagged = queue.poll(10, TimeUnit.SECONDS);
+         assertNotNull(tagged);
+         if (TaggedImageQueue.isPoison(tagged)) {
+            break;
+         }
+         int index = tagged.tags.getInt("Index");
+         assertEquals((short) index, ((short[]) tagged.pix)[0]);
+         assertTrue(index > last);
+         if (expectAll) {
+            assertEquals(last + 1, index);
+         }
+         last = index;
+         ++count;
+         if (count % 100 == 0) {
+            Thread.sleep(1); // Let the producer get ahead
+         }
+      }
+      assertEquals(NUM_IMAGES - 1, last);
+      assertEquals(0, queue.size());
+      return count;
+   }
+
+   @Test
+   public void testBlockDeliversAllInOrder() throws Exception {
+      TaggedImageQueue queue = new TaggedImageQueue(10 * IMAGE_BYTES,
+            IMAGE_BYTES, TaggedImageQueue.OverflowPolicy.BLOCK);
+      produce(queue);
+      assertEquals(NUM_IMAGES, consume(queue, true));
+      assertTrue(queue.getHighWaterMarkBytes() <= 10 * IMAGE_BYTES);
+      assertEquals(0, queue.getDroppedCount());
+   }
+
+   @Test
+   public void testDropOldestKeepsNewest() throws Exception {
+      TaggedImageQueue queue = new TaggedImageQueue(10 * IMAGE_BYTES,
+            IMAGE_BYTES, TaggedImageQueue.OverflowPolicy.DROP_OLDEST);
+      produce(queue);
+      int received = consume(queue, false);
+      assertEquals(NUM_IMAGES, received + queue.getDroppedCount());
+      assertEquals(0, queue.getStallCount());
+   }
+
+   @Test
+   public void testSpillDeliversAllInOrder() throws Exception {
+      TaggedImageQueue queue = new TaggedImageQueue(10 * IMAGE_BYTES,
+            IMAGE_BYTES, TaggedImageQueue.OverflowPolicy.SPILL_TO_DISK);
+      produce(queue);
+      assertEquals(NUM_IMAGES, consume(queue, true));
+      assertEquals(0, queue.getStallCount());
+   }
+
+   /**
+    * Producer and consumer at similar speeds, with a ring of two images, so
+    * that the queue goes back and forth between the ring and the spill file
+    * many times while both threads are running.
+    */
+   @Test
+   public void testSpillStressKeepsOrder() throws Exception {
+      final int numImages = 50000;
+      final TaggedImageQueue queue = new TaggedImageQueue(2 * IMAGE_BYTES,
+            IMAGE_BYTES, TaggedImageQueue.OverflowPolicy.SPILL_TO_DISK);
+      final JSONObject tags = new JSONObject();
+      Thread producer = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               for (int i = 0; i < numImages; ++i) {
+                  short[] pix = new short[2];
+                  pix[0] = (short) i;
+                  pix[1] = (short) (i >> 16);
+                  queue.put(new TaggedImage(pix, tags));
+                  if (i % 7 == 0) {
+                     Thread.yield();
+                  }
+               }
+               queue.put(TaggedImageQueue.POISON);
+            }
+            catch (InterruptedException e) {
+               throw new RuntimeException(e);
+            }
+         }
+      });
+      producer.start();
+      int expected = 0;
+      while (true) {
+         TaggedImage tagged = queue.poll(10, TimeUnit.SECONDS);
+         assertNotNull(tagged);
+         if (TaggedImageQueue.isPoison(tagged)) {
+            break;
+         }
+         short[] pix = (short[]) tagged.pix;
+         assertEquals(expected, (pix[0] & 0xffff) | (pix[1] << 16));
+         ++expected;
+         if (expected % 5 == 0) {
+            Thread.yield();
+         }
+      }
+      producer.join();
+      assertEquals(numImages, expected);
+      assertTrue(queue.getSpilledCount() > 0);
+   }
+
+   @Test
+   public void testByteCapacity() throws Exception {
+      TaggedImageQueue queue = new TaggedImageQueue(3 * IMAGE_BYTES,
+            IMAGE_BYTES, TaggedImageQueue.OverflowPolicy.BLOCK);
+      for (int i = 0; i < 3; ++i) {
+         assertTrue(queue.offer(makeImage(i)));
+      }
+      assertFalse(queue.offer(makeImage(3)));
+      // The end-of-stream marker has no pixels and still fits
+      assertTrue(queue.offer(TaggedImageQueue.POISON));
+      assertEquals(0, queue.take().tags.getInt("Index"));
+      assertTrue(queue.offer(makeImage(3)));
+      assertEquals(4, queue.size());
+   }
+}
@@ -0,0 +1,117 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.data.Coords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Coords-keyed map operations of the storage classes, for a dataset of
+ * the given number of time points with 3 channels, 20 slices and 4
+ * positions: filling the map as images arrive (putImage), looking up images
+ * by newly built Coords (getImage), and scanning the keys for those
+ * matching a partial Coords (getImagesMatching).
+ * <p>
+ * Run with {@code ant -f mmstudio/build.xml benchmark
+ * -Dbenchmark.include=CoordsMapBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordsMapBenchmark {
+   private static final int CHANNELS = 3;
+   private static final int SLICES = 20;
+   private static final int POSITIONS = 4;
+
+   @Param({"10", "100"})
+   public int timePoints;
+
+   private List<Coords> coords_;
+   private HashMap<Coords, Object> map_;
+   private Coords partial_;
+
+   @Setup
+   public void setUp() {
+      coords_ = new ArrayList<Coords>();
+      map_ = new HashMap<Coords, Object>();
+      for (int t = 0; t < timePoints; ++t) {
+         for (int p = 0; p < POSITIONS; ++p) {
+            for (int z = 0; z < SLICES; ++z) {
+               for (int c = 0; c < CHANNELS; ++c) {
+                  Coords coords = new DefaultCoords.Builder().
+                        t(t).p(p).z(z).c(c).build();
+                  coords_.add(coords);
+                  map_.put(coords, coords);
+               }
+            }
+         }
+      }
+      partial_ = new DefaultCoords.Builder().t(timePoints / 2).c(1).build();
+   }
+
+   @Benchmark
+   public Object put() {
+      HashMap<Coords, Object> map = new HashMap<Coords, Object>();
+      for (Coords coords : coords_) {
+         map.put(coords, coords);
+      }
+      return map;
+   }
+
+   @Benchmark
+   public int get() {
+      int found = 0;
+      for (int t = 0; t < timePoints; ++t) {
+         for (int p = 0; p < POSITIONS; ++p) {
+            for (int z = 0; z < SLICES; ++z) {
+               for (int c = 0; c < CHANNELS; ++c) {
+                  // Built in another axis order than the keys
+                  Coords coords = new DefaultCoords.Builder().
+                        c(c).z(z).t(t).p(p).build();
+                  if (map_.get(coords) != null) {
+                     found++;
+                  }
+               }
+            }
+         }
+      }
+      return found;
+   }
+
+   @Benchmark
+   public int matching() {
+      int found = 0;
+      for (Coords coords : map_.keySet()) {
+         if (partial_.isSuperspaceCoordsOf(coords)) {
+            found++;
+         }
+      }
+      return found;
+   }
+}
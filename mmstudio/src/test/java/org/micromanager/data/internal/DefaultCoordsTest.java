@@ -0,0 +1,73 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import java.util.Arrays;
+import org.micromanager.data.Coords;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DefaultCoordsTest {
+   @Test
+   public void testAxisOrderIsKeptButIgnoredForEquality() {
+      Coords a = new DefaultCoords.Builder().t(1).c(2).z(3).build();
+      Coords b = new DefaultCoords.Builder().z(3).t(1).c(2).build();
+      assertEquals(Arrays.asList(Coords.T, Coords.C, Coords.Z), a.getAxes());
+      assertEquals(Arrays.asList(Coords.Z, Coords.T, Coords.C), b.getAxes());
+      assertEquals(a, b);
+      assertEquals(a.hashCode(), b.hashCode());
+      assertEquals("<time=1 channel=2 z=3>", a.toString());
+
+      assertFalse(a.equals(new DefaultCoords.Builder().t(1).c(2).build()));
+      assertFalse(a.equals(new DefaultCoords.Builder().t(1).c(2).z(4).build()));
+      assertFalse(a.equals(
+            new DefaultCoords.Builder().t(1).c(2).p(3).build()));
+   }
+
+   @Test
+   public void testBuilder() {
+      Coords coords = new DefaultCoords.Builder().t(1).c(2).z(3).
+            t(4).index("custom", 5).build();
+      // Setting an axis again moves it to the end
+      assertEquals(Arrays.asList(Coords.C, Coords.Z, Coords.T, "custom"),
+            coords.getAxes());
+      assertEquals(4, coords.getT());
+      assertEquals(5, coords.getIndex(new String("custom")));
+      assertEquals(-1, coords.getP());
+      assertEquals(-1, coords.getIndex("neverUsedAxis"));
+
+      Coords copy = coords.copyBuilder().z(-1).offset(Coords.C, 1).
+            removeAxis("custom").build();
+      assertEquals(new DefaultCoords.Builder().t(4).c(3).build(), copy);
+      assertEquals(3, coords.getZ()); // Unchanged
+
+      try {
+         new DefaultCoords.Builder().index("bad axis", 1);
+         fail("Invalid axis name accepted");
+      }
+      catch (IllegalArgumentException expected) {
+      }
+   }
+
+   @Test
+   public void testSubspace() {
+      Coords tc = new DefaultCoords.Builder().t(1).c(2).build();
+      Coords tcz = new DefaultCoords.Builder().z(0).c(2).t(1).build();
+      // Fewer axes is a larger space
+      assertTrue(tc.isSuperspaceCoordsOf(tcz));
+      assertTrue(tcz.isSubspaceCoordsOf(tc));
+      assertFalse(tcz.isSuperspaceCoordsOf(tc));
+      assertFalse(tc.isSuperspaceCoordsOf(
+            new DefaultCoords.Builder().t(1).c(3).z(0).build()));
+      assertTrue(new DefaultCoords.Builder().build().isSuperspaceCoordsOf(tc));
+   }
+}
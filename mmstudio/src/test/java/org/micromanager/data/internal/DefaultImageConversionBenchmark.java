@@ -0,0 +1,106 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import java.util.concurrent.TimeUnit;
+import mmcorej.TaggedImage;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Metadata;
+import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Images/sec for TaggedImage to DefaultImage conversion, comparing the
+ * previous string round trip of the tags with the direct conversion now used
+ * by {@link DefaultImage#DefaultImage(TaggedImage)}.
+ * <p>
+ * Run with {@code ant -f mmstudio/build.xml benchmark
+ * -Dbenchmark.include=DefaultImageConversionBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DefaultImageConversionBenchmark {
+   // Number of device properties in the system state cache
+   @Param({"50", "300"})
+   public int stateTags;
+
+   private TaggedImage tagged_;
+
+   @Setup
+   public void setUp() throws Exception {
+      JSONObject tags = new JSONObject();
+      JSONArray stateKeys = new JSONArray();
+      for (int i = 0; i < stateTags; ++i) {
+         String key = "Device" + (i / 10) + "-Property" + (i % 10);
+         tags.put(key, "Value " + i);
+         stateKeys.put(key);
+      }
+      tags.put("ScopeDataKeys", stateKeys);
+      tags.put("Camera", "Camera");
+      tags.put("Width", 512);
+      tags.put("Height", 512);
+      tags.put("PixelType", "GRAY16");
+      tags.put("BitDepth", 16);
+      tags.put("Binning", "1");
+      tags.put("ROI", "0-0-512-512");
+      tags.put("Exposure-ms", 10.0);
+      tags.put("ElapsedTime-ms", 12345.678);
+      tags.put("ImageNumber", "42");
+      tags.put("PixelSizeUm", 0.65);
+      tags.put("XPositionUm", 100.5);
+      tags.put("YPositionUm", -200.25);
+      tags.put("ZPositionUm", 3.0);
+      tags.put("FrameIndex", 42);
+      tags.put("SliceIndex", 0);
+      tags.put("ChannelIndex", 0);
+      tags.put("PositionIndex", 0);
+      tagged_ = new TaggedImage(new short[512 * 512], tags);
+   }
+
+   /**
+    * The conversion as it was done before tags were converted directly.
+    */
+   @Benchmark
+   public Object stringRoundTrip() throws Exception {
+      JsonElement je = new JsonParser().parse(tagged_.tags.toString());
+      Metadata metadata = DefaultMetadata.fromPropertyMap(
+            NonPropertyMapJSONFormats.metadata().fromGson(je));
+      Coords coords = Coordinates.fromPropertyMap(
+            NonPropertyMapJSONFormats.coords().fromGson(je));
+      NonPropertyMapJSONFormats.imageFormat().fromGson(je);
+      return new DefaultImage(tagged_.pix, 512, 512, 2, 1, coords, metadata);
+   }
+
+   @Benchmark
+   public Object direct() {
+      return new DefaultImage(tagged_);
+   }
+}
@@ -0,0 +1,75 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import org.micromanager.data.Coords;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ImageCoordsIndexTest {
+   private static HashSet<Coords> scan(List<Coords> all, Coords query) {
+      HashSet<Coords> result = new HashSet<Coords>();
+      for (Coords coords : all) {
+         if (coords.isSubspaceCoordsOf(query)) {
+            result.add(coords);
+         }
+      }
+      return result;
+   }
+
+   @Test
+   public void testMatchesLinearScan() {
+      ImageCoordsIndex index = new ImageCoordsIndex();
+      List<Coords> all = new ArrayList<Coords>();
+      for (int t = 0; t < 4; ++t) {
+         for (int z = 0; z < 3; ++z) {
+            for (int c = 0; c < 2; ++c) {
+               Coords coords = new DefaultCoords.Builder().t(t).z(z).c(c).build();
+               all.add(coords);
+               index.add(coords);
+            }
+         }
+      }
+      // An image without a z axis
+      Coords noZ = new DefaultCoords.Builder().t(1).c(0).build();
+      all.add(noZ);
+      index.add(noZ);
+
+      Coords[] queries = {
+         new DefaultCoords.Builder().build(),
+         new DefaultCoords.Builder().t(1).build(),
+         new DefaultCoords.Builder().t(1).z(2).build(),
+         new DefaultCoords.Builder().z(2).t(1).build(),
+         new DefaultCoords.Builder().t(1).c(0).build(),
+         new DefaultCoords.Builder().t(9).build(),
+         new DefaultCoords.Builder().p(0).build(),
+      };
+      for (Coords query : queries) {
+         assertEquals(query.toString(), scan(all, query),
+               new HashSet<Coords>(index.getMatching(query)));
+      }
+
+      // The indices built by the queries are kept up to date
+      Coords extra = new DefaultCoords.Builder().t(1).z(2).c(5).build();
+      all.add(extra);
+      index.add(extra);
+      all.remove(noZ);
+      index.remove(noZ);
+      for (Coords query : queries) {
+         assertEquals(query.toString(), scan(all, query),
+               new HashSet<Coords>(index.getMatching(query)));
+      }
+   }
+}
@@ -0,0 +1,127 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to mirror and rotate a 16-bit frame by 90 degrees (as ImageFlipper
+ * does), to split it left-right in two (as SplitView does), and to do both,
+ * comparing ImageJ ImageProcessors, as the processors used before, with
+ * {@link PixelTransforms}.
+ * <p>
+ * Run with {@code ant -f mmstudio/build.xml benchmark
+ * -Dbenchmark.include=PixelTransformsBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelTransformsBenchmark {
+   @Param({"2048", "4096"})
+   public int size;
+
+   private short[] pixels_;
+
+   @Setup
+   public void setUp() {
+      Random random = new Random(1);
+      pixels_ = new short[size * size];
+      for (int i = 0; i < pixels_.length; ++i) {
+         pixels_[i] = (short) (100 + random.nextInt(4000));
+      }
+   }
+
+   // ImageJ wraps the array; as DataManager.ij().createProcessor() does for
+   // an Image, the processor gets its own copy to flip
+   private ImageProcessor imageJFlipRotate() {
+      ImageProcessor proc = new ShortProcessor(size, size, pixels_.clone(),
+            null);
+      proc.flipHorizontal();
+      return proc.rotateRight();
+   }
+
+   private static Object[] imageJSplit(ImageProcessor proc) {
+      int width = proc.getWidth() / 2;
+      Object[] result = new Object[2];
+      for (int i = 0; i < 2; ++i) {
+         proc.setRoi(i * width, 0, width, proc.getHeight());
+         result[i] = proc.crop().getPixels();
+      }
+      return result;
+   }
+
+   @Benchmark
+   public Object flipRotateImageJ() {
+      return imageJFlipRotate().getPixels();
+   }
+
+   @Benchmark
+   public Object flipRotate() {
+      return PixelTransforms.transform(pixels_, size, size, true, 90);
+   }
+
+   @Benchmark
+   public Object[] splitImageJ() {
+      return imageJSplit(new ShortProcessor(size, size, pixels_.clone(),
+            null));
+   }
+
+   @Benchmark
+   public Object[] split() {
+      int width = size / 2;
+      return new Object[] {
+         PixelTransforms.crop(pixels_, size, size, 0, 0, width, size),
+         PixelTransforms.crop(pixels_, size, size, width, 0, width, size)};
+   }
+
+   @Benchmark
+   public Object[] flipRotateSplitImageJ() {
+      return imageJSplit(imageJFlipRotate());
+   }
+
+   @Benchmark
+   public Object[] flipRotateSplitTwoPasses() {
+      short[] rotated = (short[]) PixelTransforms.transform(pixels_, size,
+            size, true, 90);
+      int width = size / 2;
+      return new Object[] {
+         PixelTransforms.crop(rotated, size, size, 0, 0, width, size),
+         PixelTransforms.crop(rotated, size, size, width, 0, width, size)};
+   }
+
+   @Benchmark
+   public Object[] flipRotateSplitFused() {
+      int width = size / 2;
+      return new Object[] {
+         PixelTransforms.transform(pixels_, size, size, true, 90,
+               0, 0, width, size),
+         PixelTransforms.transform(pixels_, size, size, true, 90,
+               width, 0, width, size)};
+   }
+}
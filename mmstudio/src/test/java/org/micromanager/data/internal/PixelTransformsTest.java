@@ -0,0 +1,133 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PixelTransformsTest {
+   private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+   // What ImageFlipper did before: flip and rotate an ImageProcessor
+   private static ImageProcessor imageJTransform(ImageProcessor proc,
+         boolean mirror, int rotation) {
+      proc = proc.duplicate();
+      if (mirror) {
+         proc.flipHorizontal();
+      }
+      if (rotation == 90) {
+         proc = proc.rotateRight();
+      }
+      if (rotation == 180) {
+         proc = proc.rotateRight();
+         proc = proc.rotateRight();
+      }
+      if (rotation == 270) {
+         proc = proc.rotateLeft();
+      }
+      return proc;
+   }
+
+   private static short[] randomShorts(Random random, int n) {
+      short[] pixels = new short[n];
+      for (int i = 0; i < n; ++i) {
+         pixels[i] = (short) random.nextInt(65536);
+      }
+      return pixels;
+   }
+
+   @Test
+   public void testShortsMatchImageJ() {
+      Random random = new Random(1);
+      // Sizes that are and are not multiples of the tile size
+      int[][] sizes = {{1, 1}, {5, 3}, {64, 64}, {130, 67}, {67, 200}};
+      for (int[] size : sizes) {
+         short[] pixels = randomShorts(random, size[0] * size[1]);
+         ShortProcessor proc = new ShortProcessor(size[0], size[1], pixels,
+               null);
+         for (boolean mirror : new boolean[] {false, true}) {
+            for (int rotation : ROTATIONS) {
+               ImageProcessor expected = imageJTransform(proc, mirror,
+                     rotation);
+               Object result = PixelTransforms.transform(pixels, size[0],
+                     size[1], mirror, rotation);
+               assertEquals(expected.getWidth(), PixelTransforms.rotatedWidth(
+                     size[0], size[1], rotation));
+               assertArrayEquals(size[0] + "x" + size[1] + " mirror " +
+                     mirror + " rotation " + rotation,
+                     (short[]) expected.getPixels(), (short[]) result);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testBytesMatchImageJ() {
+      Random random = new Random(2);
+      byte[] pixels = new byte[97 * 71];
+      random.nextBytes(pixels);
+      ByteProcessor proc = new ByteProcessor(97, 71, pixels, null);
+      for (boolean mirror : new boolean[] {false, true}) {
+         for (int rotation : ROTATIONS) {
+            assertArrayEquals((byte[]) imageJTransform(proc, mirror,
+                  rotation).getPixels(),
+                  (byte[]) PixelTransforms.transform(pixels, 97, 71, mirror,
+                        rotation));
+         }
+      }
+   }
+
+   @Test
+   public void testCropOfTransformMatchesImageJ() {
+      Random random = new Random(3);
+      short[] pixels = randomShorts(random, 150 * 90);
+      ShortProcessor proc = new ShortProcessor(150, 90, pixels, null);
+      for (boolean mirror : new boolean[] {false, true}) {
+         for (int rotation : ROTATIONS) {
+            ImageProcessor rotated = imageJTransform(proc, mirror, rotation);
+            int x = 7;
+            int y = 11;
+            int width = rotated.getWidth() / 2;
+            int height = rotated.getHeight() - 20;
+            rotated.setRoi(x, y, width, height);
+            assertArrayEquals("mirror " + mirror + " rotation " + rotation,
+                  (short[]) rotated.crop().getPixels(),
+                  (short[]) PixelTransforms.transform(pixels, 150, 90,
+                        mirror, rotation, x, y, width, height));
+         }
+      }
+   }
+
+   @Test
+   public void testCrop() {
+      short[] pixels = new short[] {
+         0, 1, 2, 3,
+         4, 5, 6, 7,
+         8, 9, 10, 11};
+      assertArrayEquals(new short[] {5, 6, 9, 10},
+            (short[]) PixelTransforms.crop(pixels, 4, 3, 1, 1, 2, 2));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testCropOutsideImage() {
+      PixelTransforms.crop(new short[12], 4, 3, 3, 0, 2, 1);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testInvalidRotation() {
+      PixelTransforms.transform(new short[12], 4, 3, false, 45);
+   }
+}
@@ -0,0 +1,89 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import com.google.common.io.Files;
+import ij.ImagePlus;
+import ij.io.Opener;
+import java.io.File;
+import org.junit.Test;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Image;
+import static org.junit.Assert.*;
+
+public class SinglePlaneTiffWriterTest {
+   private static Image makeImage(Object pixels, int width, int height,
+         int bytesPerPixel, int numComponents)
+   {
+      return new DefaultImage(pixels, width, height, bytesPerPixel,
+            numComponents, Coordinates.builder().t(0).build(),
+            new DefaultMetadata.Builder().build());
+   }
+
+   // The files must read back through ImageJ, as getImage() does
+   private static ImagePlus roundTrip(Image image, String info,
+         Double pixelSizeUm, Double zStepUm, Double frameIntervalS)
+         throws Exception
+   {
+      File dir = Files.createTempDir();
+      File file = new File(dir, "img.tif");
+      try {
+         SinglePlaneTiffWriter.write(file, image, info, pixelSizeUm,
+               zStepUm, frameIntervalS);
+         return new Opener().openImage(file.getPath());
+      }
+      finally {
+         file.delete();
+         dir.delete();
+      }
+   }
+
+   @Test
+   public void testShort() throws Exception {
+      short[] pixels = new short[7 * 5];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) (i * 2000);
+      }
+      String info = "{\n  \"Name\": \"\u00b5\"\n}";
+      ImagePlus imp = roundTrip(makeImage(pixels, 7, 5, 2, 1), info,
+            0.065, 0.5, 2.0);
+      assertEquals(7, imp.getWidth());
+      assertEquals(5, imp.getHeight());
+      assertArrayEquals(pixels, (short[]) imp.getProcessor().getPixels());
+      assertEquals(info, imp.getProperty("Info"));
+      assertEquals(0.065, imp.getCalibration().pixelWidth, 1e-6);
+      assertEquals(0.5, imp.getCalibration().pixelDepth, 1e-9);
+      assertEquals(2.0, imp.getCalibration().frameInterval, 1e-9);
+      assertEquals("\u00b5m", imp.getCalibration().getUnit());
+   }
+
+   @Test
+   public void testByteUncalibrated() throws Exception {
+      byte[] pixels = new byte[] { 0, 1, (byte) 200, (byte) 255, 5, 6 };
+      ImagePlus imp = roundTrip(makeImage(pixels, 3, 2, 1, 1), "{}",
+            null, null, null);
+      assertArrayEquals(pixels, (byte[]) imp.getProcessor().getPixels());
+      assertEquals("{}", imp.getProperty("Info"));
+      assertFalse(imp.getCalibration().scaled());
+   }
+
+   @Test
+   public void testRGB() throws Exception {
+      // Stored as BGRA
+      byte[] pixels = new byte[] { 1, 2, 3, 0, 4, 5, 6, 0 };
+      ImagePlus imp = roundTrip(makeImage(pixels, 2, 1, 4, 3), "{}",
+            null, null, null);
+      int[] rgb = (int[]) imp.getProcessor().getPixels();
+      assertEquals(0x030201, rgb[0] & 0xffffff);
+      assertEquals(0x060504, rgb[1] & 0xffffff);
+   }
+}
@@ -0,0 +1,67 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.multipagetiff;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import org.micromanager.data.Coords;
+import org.micromanager.data.internal.DefaultCoords;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CoordsIndexFileTest {
+   private static Coords coords(int channel, int z, int time, int position) {
+      return new DefaultCoords.Builder().channel(channel).z(z).time(time).
+            stagePosition(position).build();
+   }
+
+   @Test
+   public void testRoundTrip() throws Exception {
+      File dir = Files.createTempDirectory("CoordsIndexFileTest").toFile();
+      CoordsIndexFile index = CoordsIndexFile.create(dir);
+      index.add("a_MMStack_Pos0.ome.tif", coords(0, 0, 0, 0), 1000L);
+      index.add("a_MMStack_Pos1.ome.tif", coords(1, 2, 3, 1), 5000000000L);
+      // Overwritten images keep the latest offset
+      index.add("a_MMStack_Pos0.ome.tif", coords(0, 0, 0, 0), 2000L);
+      index.add("a_MMStack_Pos0.ome.tif", coords(0, 1, 0, 0), 3000L);
+
+      // Not usable until it is finished
+      assertNull(CoordsIndexFile.read(dir));
+      index.finish();
+
+      Map<String, HashMap<Coords, Long>> read = CoordsIndexFile.read(dir);
+      assertEquals(2, read.size());
+      HashMap<Coords, Long> pos0 = read.get("a_MMStack_Pos0.ome.tif");
+      assertEquals(2, pos0.size());
+      assertEquals(Long.valueOf(2000L), pos0.get(coords(0, 0, 0, 0)));
+      assertEquals(Long.valueOf(3000L), pos0.get(coords(0, 1, 0, 0)));
+      assertEquals(Long.valueOf(5000000000L),
+            read.get("a_MMStack_Pos1.ome.tif").get(coords(1, 2, 3, 1)));
+
+      // Rewriting what was read gives the same index
+      CoordsIndexFile.write(dir, read);
+      assertEquals(read, CoordsIndexFile.read(dir));
+
+      File file = new File(dir, CoordsIndexFile.FILE_NAME);
+      RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+      raFile.setLength(raFile.length() - 1);
+      raFile.close();
+      assertNull(CoordsIndexFile.read(dir));
+
+      file.delete();
+      assertNull(CoordsIndexFile.read(dir));
+      dir.delete();
+   }
+}
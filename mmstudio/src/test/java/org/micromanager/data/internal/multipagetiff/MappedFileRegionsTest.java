@@ -0,0 +1,65 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.multipagetiff;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MappedFileRegionsTest {
+   private static final int FILE_SIZE = 10000;
+
+   @Test
+   public void testReadsMatchFileContents() throws Exception {
+      File file = File.createTempFile("MappedFileRegionsTest", ".bin");
+      file.deleteOnExit();
+      RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+      byte[] contents = new byte[FILE_SIZE];
+      for (int i = 0; i < contents.length; ++i) {
+         contents[i] = (byte) (i * 31);
+      }
+      raFile.write(contents);
+      FileChannel channel = raFile.getChannel();
+      try {
+         // Windows of 1000 bytes, overlapping by 100
+         MappedFileRegions regions = new MappedFileRegions(channel,
+               ByteOrder.LITTLE_ENDIAN, 1000, 100);
+         int[][] reads = {
+            {0, 10},     // Start of file
+            {990, 100},  // Crosses a boundary, within the overlap
+            {990, 200},  // Crosses a boundary, longer than the overlap
+            {9950, 50},  // Last (short) window
+            {2500, 1},
+         };
+         for (int[] read : reads) {
+            ByteBuffer buffer = regions.read(read[0], read[1]);
+            assertEquals(read[1], buffer.capacity());
+            assertEquals(0, buffer.position());
+            assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+            for (int i = 0; i < read[1]; ++i) {
+               assertEquals(contents[read[0] + i], buffer.get(i));
+            }
+         }
+         assertTrue(regions.read(0, 10).isDirect());
+         assertFalse(regions.read(990, 200).isDirect());
+         regions.close();
+      }
+      finally {
+         channel.close();
+         raFile.close();
+      }
+   }
+}
@@ -0,0 +1,131 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.multipagetiff;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Planes/sec read from a file laid out like a multipage TIFF (an IFD followed
+ * by the pixels of each plane), comparing a positional read into a new
+ * buffer for each block, as MultipageTiffReader does by default, with slices
+ * of memory-mapped windows (MappedFileRegions). Both produce a GRAY16 pixel
+ * buffer ready to be wrapped in an image; the file is in the page cache.
+ * <p>
+ * Run with {@code ant -f mmstudio/build.xml benchmark
+ * -Dbenchmark.include=MultipageTiffReadBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultipageTiffReadBenchmark {
+   private static final int WIDTH = 512;
+   private static final int HEIGHT = 512;
+   private static final int IFD_BYTES = 2 + 13 * 12 + 4;
+   private static final int PLANE_BYTES = IFD_BYTES + WIDTH * HEIGHT * 2;
+   private static final int NUM_PLANES = 512;
+
+   // Playback order: "sequential" or "random"
+   @Param({"sequential", "random"})
+   public String access;
+
+   private File file_;
+   private RandomAccessFile raFile_;
+   private FileChannel channel_;
+   private MappedFileRegions regions_;
+   private int[] order_;
+   private int next_ = 0;
+
+   @Setup
+   public void setUp() throws Exception {
+      file_ = File.createTempFile("MultipageTiffReadBenchmark", ".tif");
+      raFile_ = new RandomAccessFile(file_, "rw");
+      byte[] plane = new byte[PLANE_BYTES];
+      new Random(1).nextBytes(plane);
+      for (int i = 0; i < NUM_PLANES; ++i) {
+         raFile_.write(plane);
+      }
+      channel_ = raFile_.getChannel();
+      regions_ = new MappedFileRegions(channel_, ByteOrder.nativeOrder());
+
+      order_ = new int[NUM_PLANES];
+      for (int i = 0; i < NUM_PLANES; ++i) {
+         order_[i] = i;
+      }
+      if (access.equals("random")) {
+         Random random = new Random(2);
+         for (int i = NUM_PLANES - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            int tmp = order_[i];
+            order_[i] = order_[j];
+            order_[j] = tmp;
+         }
+      }
+   }
+
+   @TearDown
+   public void tearDown() throws Exception {
+      regions_.close();
+      channel_.close();
+      raFile_.close();
+      file_.delete();
+   }
+
+   private long nextPlaneOffset() {
+      long offset = (long) order_[next_] * PLANE_BYTES;
+      next_ = (next_ + 1) % NUM_PLANES;
+      return offset;
+   }
+
+   @Benchmark
+   public Object channelRead() throws Exception {
+      long offset = nextPlaneOffset();
+      ByteBuffer ifd = ByteBuffer.allocate(IFD_BYTES).order(ByteOrder.nativeOrder());
+      channel_.read(ifd, offset);
+      ByteBuffer pixels = ByteBuffer.allocate(WIDTH * HEIGHT * 2).order(ByteOrder.nativeOrder());
+      channel_.read(pixels, offset + IFD_BYTES);
+      pixels.rewind();
+      short[] shorts = new short[WIDTH * HEIGHT];
+      pixels.asShortBuffer().get(shorts);
+      return ifd.getChar(0) + shorts.length;
+   }
+
+   @Benchmark
+   public Object mapped() throws Exception {
+      long offset = nextPlaneOffset();
+      ByteBuffer ifd = regions_.read(offset, IFD_BYTES);
+      ShortBuffer shorts = regions_.read(offset + IFD_BYTES, WIDTH * HEIGHT * 2).
+            asShortBuffer();
+      return ifd.getChar(0) + shorts.capacity();
+   }
+}
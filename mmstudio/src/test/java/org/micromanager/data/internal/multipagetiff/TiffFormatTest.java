@@ -0,0 +1,61 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.multipagetiff;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TiffFormatTest {
+   @Test
+   public void testClassicLayoutIsUnchanged() {
+      // Files written before BigTIFF support must still be readable
+      TiffFormat format = TiffFormat.CLASSIC;
+      assertEquals(8, format.indexMapOffsetHeaderPosition());
+      assertEquals(16, format.displaySettingsOffsetHeaderPosition());
+      assertEquals(24, format.commentsOffsetHeaderPosition());
+      assertEquals(32, format.summaryMDHeaderPosition());
+      assertEquals(40, format.summaryMDPosition());
+      assertEquals(20, format.indexMapEntryBytes());
+      assertEquals(2 + 13 * 12 + 4, format.ifdBytes(13));
+   }
+
+   @Test
+   public void testBigTiffLayout() {
+      TiffFormat format = TiffFormat.BIG;
+      assertEquals(16, format.indexMapOffsetHeaderPosition());
+      assertEquals(60, format.summaryMDPosition());
+      assertEquals(24, format.indexMapEntryBytes());
+      assertEquals(8 + 13 * 20 + 8, format.ifdBytes(13));
+   }
+
+   @Test
+   public void testVersionCodes() {
+      assertSame(TiffFormat.CLASSIC, TiffFormat.fromVersionCode(42));
+      assertSame(TiffFormat.BIG, TiffFormat.fromVersionCode(43));
+      assertNull(TiffFormat.fromVersionCode(44));
+   }
+
+   @Test
+   public void testOffsets() {
+      for (ByteOrder order : new ByteOrder[] {
+            ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+         ByteBuffer buffer = ByteBuffer.allocate(16).order(order);
+         // Offsets past 2 GB must not come back negative
+         TiffFormat.CLASSIC.putOffset(buffer, 4, 3000000000L);
+         assertEquals(3000000000L, TiffFormat.CLASSIC.getOffset(buffer, 4));
+         TiffFormat.BIG.putOffset(buffer, 4, 300000000000L);
+         assertEquals(300000000000L, TiffFormat.BIG.getOffset(buffer, 4));
+      }
+   }
+}
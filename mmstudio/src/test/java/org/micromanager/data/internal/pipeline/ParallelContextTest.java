@@ -0,0 +1,151 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+
+public class ParallelContextTest {
+   private static final int NUM_IMAGES = 200;
+
+   /**
+    * Records what reaches the end of the pipeline.
+    */
+   private static final class RecordingContext extends BaseContext {
+      final List<Image> received =
+            Collections.synchronizedList(new ArrayList<Image>());
+
+      RecordingContext() {
+         super(null, null, null);
+      }
+
+      @Override
+      public void insertImage(ImageWrapper wrapper) {
+         received.add(wrapper.getImage());
+      }
+   }
+
+   /**
+    * Passes each image on after a random delay, and every third image twice.
+    */
+   private static final class JitteryProcessor extends Processor {
+      @Override
+      public void processImage(Image image, ProcessorContext context) {
+         try {
+            Thread.sleep(new Random().nextInt(3));
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         context.outputImage(image);
+         if (image.getCoords().getT() % 3 == 0) {
+            context.outputImage(image);
+         }
+      }
+
+      @Override
+      public boolean isParallelSafe() {
+         return true;
+      }
+   }
+
+   /**
+    * Throws an Error (which processImage() does not catch) for one image.
+    */
+   private static final class FailingProcessor extends Processor {
+      @Override
+      public void processImage(Image image, ProcessorContext context) {
+         if (image.getCoords().getT() == 5) {
+            throw new OutOfMemoryError("Test");
+         }
+         context.outputImage(image);
+      }
+
+      @Override
+      public boolean isParallelSafe() {
+         return true;
+      }
+   }
+
+   private static Image makeImage(int t) {
+      return new DefaultImage(new byte[4], 2, 2, 1, 1,
+            Coordinates.builder().t(t).build(),
+            new DefaultMetadata.Builder().build());
+   }
+
+   @Test
+   public void testOutputsAreInInputOrder() throws Exception {
+      ParallelContext context = new ParallelContext(new JitteryProcessor(),
+            null, null, 4, 2);
+      RecordingContext sink = new RecordingContext();
+      context.setSink(sink);
+      CountDownLatch latch = new CountDownLatch(1);
+      context.setFlushLatch(latch);
+
+      for (int t = 0; t < NUM_IMAGES; ++t) {
+         context.insertImage(new ImageWrapper(makeImage(t)));
+      }
+      context.insertImage(new ImageWrapper(null));
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int t = 0; t < NUM_IMAGES; ++t) {
+         expected.add(t);
+         if (t % 3 == 0) {
+            expected.add(t);
+         }
+      }
+      List<Image> received = sink.received;
+      assertEquals(expected.size() + 1, received.size());
+      for (int i = 0; i < expected.size(); ++i) {
+         assertEquals((int) expected.get(i), received.get(i).getCoords().getT());
+      }
+      // The flush is passed on last
+      assertNull(received.get(received.size() - 1));
+   }
+
+   // Before the fix, the flush waited forever for the failed image
+   @Test(timeout = 10000)
+   public void testErrorDoesNotStallPipeline() throws Exception {
+      ParallelContext context = new ParallelContext(new FailingProcessor(),
+            null, null, 4, 2);
+      RecordingContext sink = new RecordingContext();
+      context.setSink(sink);
+      CountDownLatch latch = new CountDownLatch(1);
+      context.setFlushLatch(latch);
+
+      for (int t = 0; t < 20; ++t) {
+         context.insertImage(new ImageWrapper(makeImage(t)));
+      }
+      context.insertImage(new ImageWrapper(null));
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+      List<Image> received = sink.received;
+      assertEquals(19 + 1, received.size());
+      for (int i = 0; i < 19; ++i) {
+         assertEquals(i < 5 ? i : i + 1, received.get(i).getCoords().getT());
+      }
+      assertNull(received.get(received.size() - 1));
+   }
+}
@@ -0,0 +1,140 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow;
+
+import ij.CompositeImage;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.LUT;
+import ij.process.ShortProcessor;
+import java.awt.Color;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to render one repaint of a 4-channel 16-bit 2048x2048 composite,
+ * comparing ImageJ's CompositeImage with CompositeRenderer at 100% zoom and
+ * zoomed out to 25% (from the second ImagePyramid level, as the canvas does
+ * once the pyramids are cached).
+ * <p>
+ * Run with {@code ant -f mmstudio/build.xml benchmark
+ * -Dbenchmark.include=CompositeRendererBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompositeRendererBenchmark {
+   private static final Color[] COLORS = {
+      Color.RED, Color.GREEN, Color.BLUE, Color.MAGENTA };
+
+   @Param({"2048"})
+   public int size;
+
+   private short[][] pixels_;
+   private CompositeImage ijComposite_;
+   private CompositeRenderer renderer_;
+   private int[] raster_;
+   private int[] columns_;
+   private Object[] zoomedOutPixels_;
+   private int[] zoomedOutColumns_;
+   private int[] zoomedOutRaster_;
+
+   @Setup
+   public void setUp() {
+      System.setProperty("java.awt.headless", "true");
+      Random random = new Random(1);
+      pixels_ = new short[COLORS.length][size * size];
+      ImageStack stack = new ImageStack(size, size);
+      for (int channel = 0; channel < COLORS.length; ++channel) {
+         for (int i = 0; i < size * size; ++i) {
+            pixels_[channel][i] = (short) (100 + random.nextInt(4000));
+         }
+         stack.addSlice(new ShortProcessor(size, size, pixels_[channel], null));
+      }
+      ImagePlus imp = new ImagePlus("benchmark", stack);
+      imp.setDimensions(COLORS.length, 1, 1);
+      ijComposite_ = new CompositeImage(imp, CompositeImage.COMPOSITE);
+
+      renderer_ = CompositeRenderer.create();
+      for (int channel = 0; channel < COLORS.length; ++channel) {
+         LUT lut = LUT.createLutFromColor(COLORS[channel]);
+         lut.min = 100;
+         lut.max = 4100;
+         ijComposite_.setChannelLut(lut, channel + 1);
+         byte[] reds = new byte[256];
+         byte[] greens = new byte[256];
+         byte[] blues = new byte[256];
+         lut.getReds(reds);
+         lut.getGreens(greens);
+         lut.getBlues(blues);
+         renderer_.setChannel(channel, reds, greens, blues, 100, 4100);
+      }
+      // ImageJ allocates the per-channel processors when first rendering
+      ijComposite_.updateImage();
+      for (int channel = 0; channel < COLORS.length; ++channel) {
+         ijComposite_.getProcessor(channel + 1).setMinAndMax(100, 4100);
+      }
+      raster_ = new int[size * size];
+      columns_ = new int[size];
+      for (int i = 0; i < size; ++i) {
+         columns_[i] = i;
+      }
+
+      zoomedOutPixels_ = new Object[COLORS.length];
+      for (int channel = 0; channel < COLORS.length; ++channel) {
+         zoomedOutPixels_[channel] = ImagePyramid.create(pixels_[channel],
+               size, size).getPixels(2);
+      }
+      zoomedOutColumns_ = new int[ImagePyramid.levelSize(size, 2)];
+      for (int i = 0; i < zoomedOutColumns_.length; ++i) {
+         zoomedOutColumns_[i] = i;
+      }
+      zoomedOutRaster_ =
+            new int[zoomedOutColumns_.length * zoomedOutColumns_.length];
+   }
+
+   @Benchmark
+   public Object imageJComposite() {
+      ijComposite_.updateImage();
+      return ijComposite_.getImage();
+   }
+
+   @Benchmark
+   public int[] renderer() {
+      renderer_.render(pixels_, size, columns_, columns_, raster_,
+            ForkJoinPool.commonPool());
+      return raster_;
+   }
+
+   @Benchmark
+   public int[] rendererZoomedOut() {
+      renderer_.render(zoomedOutPixels_, zoomedOutColumns_.length,
+            zoomedOutColumns_, zoomedOutColumns_, zoomedOutRaster_,
+            ForkJoinPool.commonPool());
+      return zoomedOutRaster_;
+   }
+}
@@ -0,0 +1,139 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompositeRendererTest {
+   private static final int WIDTH = 700;
+   private static final int HEIGHT = 600;
+
+   private static byte[] ramp(double scale) {
+      byte[] table = new byte[256];
+      for (int i = 0; i < 256; ++i) {
+         table[i] = (byte) Math.round(i * scale);
+      }
+      return table;
+   }
+
+   private static short[] randomShorts(Random random) {
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) random.nextInt(65536);
+      }
+      return pixels;
+   }
+
+   private static int[] identity(int count) {
+      int[] indices = new int[count];
+      for (int i = 0; i < count; ++i) {
+         indices[i] = i;
+      }
+      return indices;
+   }
+
+   // ImageJ's 16-to-8-bit scaling, then the color table
+   private static int expectedComponent(int value, int min, int max,
+         byte[] table) {
+      double scale = 256.0 / (max - min + 1);
+      int index = (int) (Math.max(0, value - min) * scale + 0.5);
+      return table[Math.min(255, index)] & 0xff;
+   }
+
+   @Test
+   public void testAdditiveComposite() {
+      Random random = new Random(1);
+      short[] red = randomShorts(random);
+      short[] cyan = randomShorts(random);
+      byte[] zeros = new byte[256];
+      CompositeRenderer renderer = CompositeRenderer.create();
+      renderer.setChannel(0, ramp(1.0), zeros, zeros, 1000, 40000);
+      renderer.setChannel(1, zeros, ramp(1.0), ramp(0.5), 0, 65535);
+
+      int[] raster = new int[WIDTH * HEIGHT];
+      int[] columns = identity(WIDTH);
+      int[] rows = identity(HEIGHT);
+      renderer.render(new Object[] { red, cyan }, WIDTH, columns, rows, raster,
+            ForkJoinPool.commonPool());
+      for (int i = 0; i < raster.length; i += 97) {
+         int r = expectedComponent(red[i] & 0xffff, 1000, 40000, ramp(1.0));
+         int g = expectedComponent(cyan[i] & 0xffff, 0, 65535, ramp(1.0));
+         int b = expectedComponent(cyan[i] & 0xffff, 0, 65535, ramp(0.5));
+         assertEquals(r << 16 | g << 8 | b, raster[i]);
+      }
+
+      // Hidden channel not drawn
+      renderer.render(new Object[] { red, null }, WIDTH, columns, rows, raster,
+            null);
+      assertEquals(expectedComponent(red[5] & 0xffff, 1000, 40000, ramp(1.0))
+            << 16, raster[5]);
+   }
+
+   @Test
+   public void testSaturatingAdd() {
+      byte[] full = ramp(1.0);
+      CompositeRenderer renderer = CompositeRenderer.create();
+      renderer.setChannel(0, full, full, full, 0, 255);
+      renderer.setChannel(1, full, full, full, 0, 255);
+      byte[] pixels = new byte[] { (byte) 200, 10 };
+      int[] raster = new int[2];
+      renderer.render(new Object[] { pixels, pixels }, 2, identity(2),
+            identity(1), raster, null);
+      assertEquals(0xffffff, raster[0]);
+      assertEquals(0x141414, raster[1]);
+
+      // More channels than fit in the lanes without clamping
+      Object[] sixChannels = new Object[6];
+      for (int channel = 0; channel < 6; ++channel) {
+         renderer.setChannel(channel, full, full, full, 0, 255);
+         sixChannels[channel] = pixels;
+      }
+      renderer.render(sixChannels, 2, identity(2), identity(1), raster, null);
+      assertEquals(0xffffff, raster[0]);
+      assertEquals(0x3c3c3c, raster[1]);
+   }
+
+   @Test
+   public void testSampledRegion() {
+      Random random = new Random(2);
+      short[] pixels = randomShorts(random);
+      byte[] full = ramp(1.0);
+      CompositeRenderer renderer = CompositeRenderer.create();
+      renderer.setChannel(0, full, full, full, 0, 65535);
+
+      int[] exact = new int[WIDTH * HEIGHT];
+      renderer.render(new Object[] { pixels }, WIDTH, identity(WIDTH),
+            identity(HEIGHT), exact, null);
+
+      // Every third pixel of a region, as when zoomed out to 1/3
+      int[] columns = new int[111];
+      for (int k = 0; k < columns.length; ++k) {
+         columns[k] = 101 + 3 * k;
+      }
+      int[] rows = new int[134];
+      for (int k = 0; k < rows.length; ++k) {
+         rows[k] = 53 + 3 * k;
+      }
+      int[] raster = new int[columns.length * rows.length];
+      renderer.render(new Object[] { pixels }, WIDTH, columns, rows, raster,
+            ForkJoinPool.commonPool());
+      for (int v = 0; v < rows.length; ++v) {
+         for (int u = 0; u < columns.length; ++u) {
+            assertEquals(exact[rows[v] * WIDTH + columns[u]],
+                  raster[v * columns.length + u]);
+         }
+      }
+   }
+}
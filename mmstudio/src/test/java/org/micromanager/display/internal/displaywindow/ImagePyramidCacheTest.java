@@ -0,0 +1,69 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow;
+
+import org.junit.Test;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import static org.junit.Assert.*;
+
+public class ImagePyramidCacheTest {
+   private static Image makeImage(int width, int height) {
+      return new DefaultImage(new short[width * height], width, height, 2, 1,
+            Coordinates.builder().build(),
+            new DefaultMetadata.Builder().build());
+   }
+
+   @Test
+   public void testSameImageSamePyramid() {
+      ImagePyramidCache cache = new ImagePyramidCache(1L << 20);
+      Image image = makeImage(16, 16);
+      assertSame(cache.get(image), cache.get(image));
+      assertNotSame(cache.get(image), cache.get(makeImage(16, 16)));
+   }
+
+   @Test
+   public void testFullResolutionCountsTowardsLimit() {
+      // Each plane is 100 * 100 * 2 bytes at level 0 alone
+      ImagePyramidCache cache = new ImagePyramidCache(3 * 100 * 100 * 2);
+      Image[] images = new Image[5];
+      for (int i = 0; i < images.length; ++i) {
+         images[i] = makeImage(100, 100);
+         cache.get(images[i]);
+      }
+      assertEquals(3, cache.size());
+      assertTrue(cache.getByteCount() <= 3 * 100 * 100 * 2);
+
+      // Building a level makes room for fewer planes
+      cache.get(images[4]).getPixels(1);
+      cache.get(images[4]);
+      assertEquals(2, cache.size());
+   }
+
+   @Test
+   public void testDropsCollectedImages() throws InterruptedException {
+      ImagePyramidCache cache = new ImagePyramidCache(1L << 20);
+      Image kept = makeImage(16, 16);
+      cache.get(kept);
+      for (int i = 0; i < 10; ++i) {
+         cache.get(makeImage(16, 16));
+      }
+      for (int i = 0; i < 100 && cache.size() > 1; ++i) {
+         System.gc();
+         Thread.sleep(10);
+      }
+      assertEquals(1, cache.size());
+      assertSame(cache.get(kept), cache.get(kept));
+   }
+}
@@ -0,0 +1,75 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ImagePyramidTest {
+   @Test
+   public void testLevelForZoom() {
+      assertEquals(0, ImagePyramid.levelForZoom(2.0));
+      assertEquals(0, ImagePyramid.levelForZoom(1.0));
+      assertEquals(0, ImagePyramid.levelForZoom(0.75));
+      assertEquals(1, ImagePyramid.levelForZoom(0.5));
+      assertEquals(1, ImagePyramid.levelForZoom(0.33));
+      assertEquals(2, ImagePyramid.levelForZoom(0.25));
+      assertEquals(3, ImagePyramid.levelForZoom(0.1));
+   }
+
+   @Test
+   public void testBoxAverage() {
+      short[] pixels = new short[] {
+         0, 4, 8,
+         4, 8, -1, // 65535
+      };
+      ImagePyramid pyramid = ImagePyramid.create(pixels, 3, 2);
+      assertEquals(2, pyramid.getWidth(1));
+      assertEquals(1, pyramid.getHeight(1));
+      short[] level1 = (short[]) pyramid.getPixels(1);
+      assertEquals(4, level1[0]);
+      // Odd edge: the last column is counted twice
+      assertEquals((8 + 8 + 65535 + 65535 + 2) / 4, level1[1] & 0xffff);
+
+      short[] level2 = (short[]) pyramid.getPixels(2);
+      assertEquals(1, level2.length);
+      assertEquals((4 + 4 + 32772 + 32772 + 2) / 4, level2[0] & 0xffff);
+      // Levels 0, 1 and 2, 2 bytes per pixel
+      assertEquals(3 * 2 * 2 + 2 * 2 + 1 * 2, pyramid.getByteCount());
+   }
+
+   @Test
+   public void testLargeBytes() {
+      // Large enough to be split across tasks
+      int width = 1001;
+      int height = 777;
+      byte[] pixels = new byte[width * height];
+      new Random(3).nextBytes(pixels);
+      ImagePyramid pyramid = ImagePyramid.create(pixels, width, height);
+      byte[] level1 = (byte[]) pyramid.getPixels(1);
+      int outWidth = pyramid.getWidth(1);
+      assertEquals(501, outWidth);
+      assertEquals(389, pyramid.getHeight(1));
+      for (int y = 0; y < pyramid.getHeight(1); y += 7) {
+         for (int x = 0; x < outWidth; x += 5) {
+            int x1 = Math.min(2 * x + 1, width - 1);
+            int y1 = Math.min(2 * y + 1, height - 1);
+            int sum = (pixels[2 * y * width + 2 * x] & 0xff) +
+                  (pixels[2 * y * width + x1] & 0xff) +
+                  (pixels[y1 * width + 2 * x] & 0xff) +
+                  (pixels[y1 * width + x1] & 0xff);
+            assertEquals((sum + 2) >> 2, level1[y * outWidth + x] & 0xff);
+         }
+      }
+   }
+}
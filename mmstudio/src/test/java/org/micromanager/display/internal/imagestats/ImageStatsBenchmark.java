@@ -0,0 +1,136 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.imagestats;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.histogram.Histogram1d;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.ConstantUtils;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to compute the display statistics (256-bin histogram, min, max, sum
+ * and sum of squares) of a 16-bit image from a 2304x2304 camera, comparing
+ * iteration with imglib2 cursors into a Histogram1d, as ImageStatsProcessor
+ * used to do, with IntegerStatsKernel on one thread and split across a
+ * ForkJoinPool.
+ * <p>
+ * Run with {@code ant -f mmstudio/build.xml benchmark
+ * -Dbenchmark.include=ImageStatsBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageStatsBenchmark {
+   private static final int BIT_DEPTH = 16;
+   private static final int BIN_COUNT_POWER_OF_2 = 8;
+
+   @Param({"2304"})
+   public int size;
+
+   private short[] pixels_;
+   private Rectangle bounds_;
+   private ForkJoinPool pool_;
+
+   @Setup
+   public void setUp() {
+      pixels_ = new short[size * size];
+      Random random = new Random(1);
+      for (int i = 0; i < pixels_.length; ++i) {
+         // Roughly camera-like: offset plus noise
+         pixels_[i] = (short) (100 + random.nextInt(4000));
+      }
+      bounds_ = new Rectangle(0, 0, size, size);
+      pool_ = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+   }
+
+   @TearDown
+   public void tearDown() {
+      pool_.shutdown();
+   }
+
+   @Benchmark
+   public long imglibCursors() {
+      IterableInterval<UnsignedShortType> img = Views.interval(
+            ArrayImgs.unsignedShorts(pixels_, 1, size, size),
+            Intervals.createMinSize(0, 0, 0, 1, size, size));
+      IterableInterval<UnsignedByteType> mask = Views.iterable(
+            ConstantUtils.constantRandomAccessibleInterval(
+                  new UnsignedByteType(255), 3,
+                  Intervals.createMinSize(0, 0, 0, 1, size, size)));
+      Histogram1d<UnsignedShortType> histogram =
+            new Histogram1d<UnsignedShortType>(PowerOf2BinMapper.
+                  <UnsignedShortType>create(BIT_DEPTH, BIN_COUNT_POWER_OF_2));
+      long count = 0;
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      long sum = 0;
+      long sumOfSquares = 0;
+      Cursor<UnsignedShortType> dataCursor = img.localizingCursor();
+      Cursor<UnsignedByteType> maskCursor = mask.cursor();
+      while (dataCursor.hasNext()) {
+         UnsignedShortType sample = dataCursor.next();
+         if (maskCursor.next().getInteger() < IntegerStatsKernel.MASK_THRESH) {
+            continue;
+         }
+         long value = sample.getIntegerLong();
+         histogram.increment(sample);
+         count++;
+         min = Math.min(min, value);
+         max = Math.max(max, value);
+         sum += value;
+         sumOfSquares += value * value;
+      }
+      return histogram.toLongArray()[1] + count + min + max + sum +
+            sumOfSquares;
+   }
+
+   @Benchmark
+   public long kernel() {
+      return sumUp(new IntegerStatsKernel(pixels_, size, 1, bounds_, null,
+            bounds_, BIT_DEPTH, BIN_COUNT_POWER_OF_2).compute(null));
+   }
+
+   @Benchmark
+   public long kernelTiled() {
+      return sumUp(new IntegerStatsKernel(pixels_, size, 1, bounds_, null,
+            bounds_, BIT_DEPTH, BIN_COUNT_POWER_OF_2).compute(pool_));
+   }
+
+   private static long sumUp(IntegerStatsKernel.Result result) {
+      return result.histograms[0][1] + result.counts[0] + result.minima[0] +
+            result.maxima[0] + result.sums[0] + result.sumsOfSquares[0];
+   }
+}
@@ -0,0 +1,198 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.imagestats;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.junit.AfterClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IntegerStatsKernelTest {
+   private static final ForkJoinPool pool_ = new ForkJoinPool(4);
+
+   @AfterClass
+   public static void tearDownClass() {
+      pool_.shutdown();
+   }
+
+   /**
+    * Straightforward per-sample computation, binning with PowerOf2BinMapper
+    * as the Histogram1d-based implementation did.
+    */
+   private static IntegerStatsKernel.Result reference(Object pixels,
+         int width, int nComponents, Rectangle bounds,
+         byte[] mask, Rectangle maskBounds, int bitDepth, int binPowerOf2) {
+      PowerOf2BinMapper<UnsignedShortType> mapper =
+            PowerOf2BinMapper.create(bitDepth, binPowerOf2);
+      IntegerStatsKernel.Result result = new IntegerStatsKernel.Result(
+            nComponents, (int) mapper.getBinCount());
+      UnsignedShortType sample = new UnsignedShortType();
+      for (int y = bounds.y; y < bounds.y + bounds.height; ++y) {
+         for (int x = bounds.x; x < bounds.x + bounds.width; ++x) {
+            if (mask != null && (mask[(y - maskBounds.y) * maskBounds.width +
+                  x - maskBounds.x] & 0xff) < IntegerStatsKernel.MASK_THRESH) {
+               continue;
+            }
+            for (int c = 0; c < nComponents; ++c) {
+               int i = (y * width + x) * nComponents + c;
+               long value = pixels instanceof short[] ?
+                     ((short[]) pixels)[i] & 0xffff :
+                     ((byte[]) pixels)[i] & 0xff;
+               sample.setInteger(value);
+               result.histograms[c][(int) mapper.map(sample)]++;
+               result.counts[c]++;
+               result.minima[c] = Math.min(result.minima[c], value);
+               result.maxima[c] = Math.max(result.maxima[c], value);
+               result.sums[c] += value;
+               result.sumsOfSquares[c] += value * value;
+            }
+         }
+      }
+      return result;
+   }
+
+   private static void assertSameResult(IntegerStatsKernel.Result expected,
+         IntegerStatsKernel.Result actual) {
+      for (int c = 0; c < expected.counts.length; ++c) {
+         assertArrayEquals(expected.histograms[c], actual.histograms[c]);
+         assertEquals(expected.counts[c], actual.counts[c]);
+         assertEquals(expected.minima[c], actual.minima[c]);
+         assertEquals(expected.maxima[c], actual.maxima[c]);
+         assertEquals(expected.sums[c], actual.sums[c]);
+         assertEquals(expected.sumsOfSquares[c], actual.sumsOfSquares[c]);
+      }
+   }
+
+   private static void check(Object pixels, int width, int nComponents,
+         Rectangle bounds, byte[] mask, Rectangle maskBounds,
+         int bitDepth, int binPowerOf2) {
+      IntegerStatsKernel.Result expected = reference(pixels, width,
+            nComponents, bounds, mask, maskBounds, bitDepth, binPowerOf2);
+      IntegerStatsKernel kernel = new IntegerStatsKernel(pixels, width,
+            nComponents, bounds, mask, maskBounds, bitDepth, binPowerOf2);
+      assertSameResult(expected, kernel.compute(null));
+      assertSameResult(expected, kernel.compute(pool_));
+   }
+
+   @Test
+   public void testShortsMatchReference() {
+      // Large enough to be split into several bands
+      int width = 1024;
+      int height = 1500;
+      short[] pixels = new short[width * height];
+      Random random = new Random(1);
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) random.nextInt(65536);
+      }
+      Rectangle all = new Rectangle(0, 0, width, height);
+      check(pixels, width, 1, all, null, all, 16, 8);
+      // 12-bit depth, so that some samples are above the range
+      check(pixels, width, 1, all, null, all, 12, 8);
+      check(pixels, width, 1, all, null, all, 12, 12);
+      // Rectangular ROI
+      check(pixels, width, 1, new Rectangle(17, 300, 900, 1000), null, all,
+            16, 10);
+   }
+
+   @Test
+   public void testMaskedMultiComponentBytesMatchReference() {
+      int width = 200;
+      int height = 100;
+      byte[] pixels = new byte[width * height * 3];
+      Random random = new Random(2);
+      random.nextBytes(pixels);
+      Rectangle maskBounds = new Rectangle(10, 20, 50, 40);
+      byte[] mask = new byte[maskBounds.width * maskBounds.height];
+      for (int i = 0; i < mask.length; ++i) {
+         mask[i] = (byte) (random.nextBoolean() ? 255 : 0);
+      }
+      Rectangle bounds = new Rectangle(10, 20, 50, 40);
+      check(pixels, width, 3, bounds, mask, maskBounds, 8, 8);
+      check(pixels, width, 3, bounds, mask, maskBounds, 8, 4);
+      check(pixels, width, 3, bounds, null, maskBounds, 8, 8);
+      // Part of the mask
+      check(pixels, width, 3, new Rectangle(30, 30, 10, 10), mask, maskBounds,
+            8, 8);
+
+      assertTrue(IntegerStatsKernel.maskSelectsAny(mask, maskBounds, bounds));
+      assertFalse(IntegerStatsKernel.maskSelectsAny(
+            new byte[mask.length], maskBounds, bounds));
+   }
+
+   @Test
+   public void testStridedSampling() {
+      int width = 1000;
+      int height = 1100;
+      short[] pixels = new short[width * height];
+      Random random = new Random(3);
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) (100 + random.nextInt(4000));
+      }
+      Rectangle all = new Rectangle(0, 0, width, height);
+      int stride = IntegerStatsKernel.strideForSampleCount(all, 1 << 16);
+      assertEquals(4, stride);
+
+      // Same as the exact stats of the sampled pixels, however split
+      short[] sampled = new short[((width + stride - 1) / stride) *
+            ((height + stride - 1) / stride)];
+      int n = 0;
+      for (int y = 0; y < height; y += stride) {
+         for (int x = 0; x < width; x += stride) {
+            sampled[n++] = pixels[y * width + x];
+         }
+      }
+      Rectangle sampledBounds = new Rectangle(0, 0,
+            (width + stride - 1) / stride, n / ((width + stride - 1) / stride));
+      IntegerStatsKernel.Result expected = new IntegerStatsKernel(sampled,
+            sampledBounds.width, 1, sampledBounds, null, sampledBounds,
+            16, 8).compute(null);
+      IntegerStatsKernel kernel = new IntegerStatsKernel(pixels, width, 1,
+            all, null, all, 16, 8, stride);
+      assertSameResult(expected, kernel.compute(null));
+      assertSameResult(expected, kernel.compute(pool_));
+
+      // The median of the sample is close to that of the whole image
+      IntegerStatsKernel.Result exact = new IntegerStatsKernel(pixels, width,
+            1, all, null, all, 16, 8).compute(null);
+      assertEquals(median(exact.histograms[0]),
+            median(expected.histograms[0]), 1);
+   }
+
+   private static int median(long[] histogram) {
+      long total = 0;
+      for (long count : histogram) {
+         total += count;
+      }
+      long cumulative = 0;
+      for (int bin = 0; bin < histogram.length; ++bin) {
+         cumulative += histogram[bin];
+         if (2 * cumulative >= total) {
+            return bin;
+         }
+      }
+      return histogram.length - 1;
+   }
+
+   @Test
+   public void testEmptySelection() {
+      Rectangle bounds = new Rectangle(0, 0, 4, 4);
+      IntegerStatsKernel.Result result = new IntegerStatsKernel(
+            new short[16], 4, 1, bounds, new byte[16], bounds, 16, 8).
+            compute(null);
+      assertEquals(0, result.counts[0]);
+      assertEquals(Long.MAX_VALUE, result.minima[0]);
+      assertEquals(Long.MIN_VALUE, result.maxima[0]);
+   }
+}
@@ -0,0 +1,75 @@
+package org.micromanager.internal.propertymap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that converting json.org objects directly yields the same Gson tree
+ * as the string round trip it replaces.
+ */
+public class MM1JSONSerializerTest {
+   private static void assertSameAsRoundTrip(JSONObject jo) {
+      JsonElement expected = new JsonParser().parse(jo.toString());
+      JsonElement actual = MM1JSONSerializer.fromJSONObject(jo);
+      assertEquals(expected, actual);
+      assertEquals(expected.toString(), actual.toString());
+   }
+
+   @Test
+   public void testFlatTags() throws Exception {
+      JSONObject jo = new JSONObject();
+      jo.put("Camera", "HamamatsuHam_DCAM");
+      jo.put("Width", 2048);
+      jo.put("Height", 2048);
+      jo.put("PixelType", "GRAY16");
+      jo.put("ElapsedTime-ms", 1234.0);
+      jo.put("Exposure-ms", 10.5);
+      jo.put("ImageNumber", "17");
+      jo.put("XPositionUm", -1.25e-7);
+      jo.put("Big", 2L * Integer.MAX_VALUE);
+      jo.put("Flag", true);
+      jo.put("Nothing", JSONObject.NULL);
+      assertSameAsRoundTrip(jo);
+   }
+
+   // json.org writes these in forms that BigDecimal would print differently
+   @Test
+   public void testNumberText() throws Exception {
+      JSONObject jo = new JSONObject();
+      jo.put("Small", 1e-5);
+      jo.put("Large", 1e20);
+      jo.put("Huge", -3.5e300);
+      jo.put("LongMax", Long.MAX_VALUE);
+      jo.put("LongMin", Long.MIN_VALUE);
+      jo.put("IntegralDouble", 3.0);
+      jo.put("LargeIntegralDouble", 4096.0 * 4096.0);
+      jo.put("NegativeZero", -0.0);
+      jo.put("Float", 0.1f);
+      JSONArray values = new JSONArray();
+      values.put(1e-5);
+      values.put(2.0);
+      values.put(Long.MAX_VALUE);
+      jo.put("Values", values);
+      assertSameAsRoundTrip(jo);
+   }
+
+   @Test
+   public void testNested() throws Exception {
+      JSONObject inner = new JSONObject();
+      inner.put("PropType", "STRING");
+      inner.put("PropVal", "Open");
+      JSONArray keys = new JSONArray();
+      keys.put("Shutter-State");
+      keys.put(3);
+      keys.put(0.5);
+      JSONObject jo = new JSONObject();
+      jo.put("Shutter-State", inner);
+      jo.put("ScopeDataKeys", keys);
+      jo.put("Empty", new JSONArray());
+      assertSameAsRoundTrip(jo);
+   }
+}
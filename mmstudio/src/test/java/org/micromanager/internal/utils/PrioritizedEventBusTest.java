@@ -0,0 +1,119 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.internal.utils;
+
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PrioritizedEventBusTest {
+   private static final class Recorder {
+      final String name_;
+      final List<String> log_;
+
+      Recorder(String name, List<String> log) {
+         name_ = name;
+         log_ = log;
+      }
+
+      @Subscribe
+      public void onEvent(String event) {
+         log_.add(name_ + ":" + event);
+      }
+   }
+
+   @Test
+   public void testPriorityThenRegistrationOrder() {
+      List<String> log = new ArrayList<String>();
+      PrioritizedEventBus bus = new PrioritizedEventBus();
+      bus.register(new Recorder("c", log), 200);
+      bus.register(new Recorder("a", log));
+      bus.register(new Recorder("b", log));
+      bus.register(new Recorder("first", log), 0);
+      bus.post("x");
+      // Has no handler for Integer
+      bus.post(Integer.valueOf(1));
+      assertEquals(Arrays.asList("first:x", "a:x", "b:x", "c:x"), log);
+   }
+
+   @Test
+   public void testUnregister() {
+      List<String> log = new ArrayList<String>();
+      PrioritizedEventBus bus = new PrioritizedEventBus();
+      Recorder a = new Recorder("a", log);
+      bus.register(a, 0);
+      bus.register(a, 0); // No effect
+      bus.register(new Recorder("b", log), 1);
+      bus.post("x");
+      bus.unregister(a);
+      bus.post("y");
+      assertEquals(Arrays.asList("a:x", "b:x", "b:y"), log);
+   }
+
+   @Test
+   public void testPostFromHandlerIsQueued() {
+      final List<String> log = new ArrayList<String>();
+      final PrioritizedEventBus bus = new PrioritizedEventBus();
+      bus.register(new Object() {
+         @Subscribe
+         public void onEvent(String event) {
+            log.add("a:" + event);
+            if (event.equals("x")) {
+               bus.post("y");
+            }
+         }
+      }, 0);
+      bus.register(new Recorder("b", log), 1);
+      bus.post("x");
+      assertEquals(Arrays.asList("a:x", "b:x", "a:y", "b:y"), log);
+   }
+
+   @Test
+   public void testAsyncCoalescing() throws Exception {
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(1);
+      final List<Object> received =
+            Collections.synchronizedList(new ArrayList<Object>());
+      PrioritizedEventBus bus = new PrioritizedEventBus();
+      bus.registerAsync(new Object() {
+         @Subscribe
+         public void onEvent(Object event) throws InterruptedException {
+            release.await();
+            received.add(event);
+            if ("end".equals(event)) {
+               done.countDown();
+            }
+         }
+      }, Integer.class);
+
+      // The handler blocks on the first event while the others queue up
+      bus.post("start");
+      bus.post(Integer.valueOf(1));
+      bus.post(Integer.valueOf(2));
+      bus.post("middle");
+      bus.post(Integer.valueOf(3));
+      bus.post(Integer.valueOf(4));
+      bus.post(Integer.valueOf(5));
+      bus.post("end");
+      release.countDown();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+
+      assertEquals(Arrays.<Object>asList("start", 2, "middle", 5, "end"),
+            received);
+   }
+}
@@ -31,7 +31,9 @@ import org.micromanager.asidispim.data.MyStrings;
 import org.micromanager.asidispim.data.Positions;
 import org.micromanager.asidispim.data.Prefs;
 import org.micromanager.asidispim.data.Properties;
+import org.micromanager.asidispim.deskew.DeskewFactory;
 import org.micromanager.asidispim.utils.DevicesListenerInterface;
+import org.micromanager.asidispim.utils.ImageDrain;
 import org.micromanager.asidispim.utils.ListeningJPanel;
 import org.micromanager.asidispim.utils.MyDialogUtils;
 import org.micromanager.asidispim.utils.MyNumberUtils;
@@ -48,6 +50,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.text.ParseException;
+import java.util.Collections;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JCheckBox;
@@ -104,6 +107,8 @@ import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.DatastoreRewriteException;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
+import org.micromanager.data.Pipeline;
+import org.micromanager.data.ProcessorFactory;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.display.DisplayWindow;
 import org.micromanager.display.ChannelDisplaySettings;
@@ -1699,7 +1704,8 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                     || spimMode == AcquisitionModes.Keys.STAGE_SCAN_INTERLEAVED
                     || spimMode == AcquisitionModes.Keys.STAGE_SCAN_UNIDIRECTIONAL) {
                 if (prefs_.getBoolean(MyStrings.PanelNames.DATAANALYSIS.toString(),
-                        Properties.Keys.PLUGIN_DESKEW_AUTO_TEST, false)) {
+                        Properties.Keys.PLUGIN_DESKEW_AUTO_TEST, false)
+                        && !isDeskewDuringAcquisition()) {
                     ASIdiSPIM.getFrame().getDataAnalysisPanel().runDeskew(acquisitionPanel_);
                 }
             }
@@ -2354,6 +2360,8 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
             }
 
             Datastore store = null;
+            // when set, images go through this to the store to be deskewed
+            Pipeline deskewPipeline = null;
 
             long extraStageScanTimeout = 0;
             if (acqSettings.isStageScanning) {
@@ -2377,6 +2385,19 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                 } else {
                     store = gui_.data().createRAMDatastore();
                 }
+                if (acqSettings.isStageScanning && isDeskewDuringAcquisition()) {
+                    // each slice is deskewed by itself, so this needs only
+                    // one slice of memory however large the stack
+                    ProcessorFactory deskew = new DeskewFactory(gui_,
+                            prefs_.getFloat(MyStrings.PanelNames.DATAANALYSIS.toString(),
+                                    Properties.Keys.PLUGIN_DESKEW_FACTOR, 1.0f),
+                            prefs_.getBoolean(MyStrings.PanelNames.DATAANALYSIS.toString(),
+                                    Properties.Keys.PLUGIN_DESKEW_INVERT, false),
+                            prefs_.getBoolean(MyStrings.PanelNames.DATAANALYSIS.toString(),
+                                    Properties.Keys.PLUGIN_DESKEW_INTERPOLATE, false));
+                    deskewPipeline = gui_.data().createPipeline(
+                            Collections.singletonList(deskew), store, true);
+                }
                 DisplayWindow display = gui_.displays().createDisplay(store);
                 gui_.displays().manage(store);
 
@@ -2509,7 +2530,11 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                 pmb.putString("MVRotationAxis", "0_1_0");
                 pmb.putString("MVRotations", viewString);
 
-                store.setSummaryMetadata(smb.userData(pmb.build()).build());
+                if (deskewPipeline != null) {
+                    deskewPipeline.insertSummaryMetadata(smb.userData(pmb.build()).build());
+                } else {
+                    store.setSummaryMetadata(smb.userData(pmb.build()).build());
+                }
 
                 // note that these SequenceSettings are quite incomplete
                 SequenceSettings settings = acqSettings.getSequenceSettings();
@@ -2724,16 +2749,21 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                     }
                                 }
 
+                                // a separate high-priority thread empties the circular buffer as images arrive,
+                                //   so that stalls while sorting images into the acquisition (e.g. waiting
+                                //   for the disk) don't make the circular buffer overflow
+                                final ImageDrain drain = new ImageDrain(core_,
+                                        twoSided ? new String[]{firstCamera, secondCamera} : new String[]{firstCamera},
+                                        ImageDrain.capacityFor(core_.getImageBufferSize()));
+                                drain.start();
+
                                 start = System.currentTimeMillis();
                                 long last = start;
                                 try {
-                                    while ((core_.getRemainingImageCount() > 0
-                                            || core_.isSequenceRunning(firstCamera)
-                                            || (twoSided && core_.isSequenceRunning(secondCamera)))
-                                            && !done) {
+                                    while (!drain.isFinished() && !done) {
+                                        TaggedImage timg = drain.poll(1);
                                         now = System.currentTimeMillis();
-                                        if (core_.getRemainingImageCount() > 0) {  // we have an image to grab
-                                            TaggedImage timg = core_.popNextTaggedImage();
+                                        if (timg != null) {  // we have an image to grab
 
                                             if (checkForSkips && imagesToSkip != 0) {
                                                 imagesToSkip--;
@@ -2785,11 +2815,12 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                             if (spimMode == AcquisitionModes.Keys.NO_SCAN && !acqSettings.separateTimepoints) {
                                                 // create time series for no scan
 
-                                                addImageToAcquisition(store,
+                                                addImageToAcquisition(store, deskewPipeline,
                                                         frNumber[channelIndex], channelIndex, timePoint,
                                                         positionNum, now - acqStart, timg);
                                             } else { // standard, create Z-stacks
-                                                addImageToAcquisition(store, timePoint, channelIndex,
+                                                addImageToAcquisition(store, deskewPipeline,
+                                                        timePoint, channelIndex,
                                                         frNumber[channelIndex], positionNum,
                                                         now - acqStart, timg);
                                             }
@@ -2829,7 +2860,6 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
 
                                         } else {  // no image ready yet
                                             done = cancelAcquisition_.get();
-                                            Thread.sleep(1);
                                             if (now - last >= timeout2) {
                                                 ReportingUtils.logError("Camera did not send all expected images within"
                                                         + " a reasonable period for timepoint " + (timePoint + 1) + ".  Continuing anyway.");
@@ -2856,6 +2886,9 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
 
                                 } catch (InterruptedException iex) {
                                     MyDialogUtils.showError(iex);
+                                } finally {
+                                    drain.stop();
+                                    drain.logStatistics("time point " + (timePoint + 1));
                                 }
 
                                 if (acqSettings.hardwareTimepoints) {
@@ -2943,6 +2976,9 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
             } finally {  // end of this acquisition (could be about to restart if separate viewers)
                 try {
 
+                    if (deskewPipeline != null) {
+                        deskewPipeline.halt();
+                    }
                     if (store != null) {
                         store.freeze();
                     }
@@ -3151,6 +3187,15 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
         }
     }
 
+    /**
+     * @return true if stage scanning acquisitions should be deskewed as the
+     *         images arrive, as set on the Data Analysis tab
+     */
+    private boolean isDeskewDuringAcquisition() {
+        return prefs_.getBoolean(MyStrings.PanelNames.DATAANALYSIS.toString(),
+                Properties.Keys.PLUGIN_DESKEW_DURING_ACQ, false);
+    }
+
     /**
      * The basic method for adding images to an existing data set. If the
      * acquisition was not previously initialized, it will attempt to initialize
@@ -3160,6 +3205,7 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
      * version of the same.
      *
      * @param store - Datastore in which the image will be inserted
+     * @param pipeline - if not null, the image goes through this to the store
      * @param frame - frame nr at which to insert the image
      * @param channel - channel at which to insert image
      * @param slice - (z) slice at which to insert image
@@ -3170,7 +3216,8 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
      * @throws org.micromanager.data.DatastoreFrozenException
      * @throws org.micromanager.data.DatastoreRewriteException
      */
-    private void addImageToAcquisition(Datastore store, int frame, int channel,
+    private void addImageToAcquisition(Datastore store, Pipeline pipeline,
+            int frame, int channel,
             int slice, int position, long ms, TaggedImage taggedImg) throws
             JSONException, DatastoreFrozenException,
             DatastoreRewriteException, Exception {
@@ -3197,7 +3244,11 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
         md = mdb.positionName(posName).userData(ud).build();
         img = img.copyWith(coord, md);
 
-        store.putImage(img);
+        if (pipeline != null) {
+            pipeline.insertImage(img);
+        } else {
+            store.putImage(img);
+        }
 
         /*
       // create required coordinate tags
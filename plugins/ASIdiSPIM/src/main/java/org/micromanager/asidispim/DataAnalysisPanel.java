@@ -78,6 +78,7 @@ public class DataAnalysisPanel extends ListeningJPanel {
    private final JCheckBox deskewInvert_; 
  	private final JCheckBox deskewInterpolate_; 
    private final JCheckBox deskewAutoTest_; 
+   private final JCheckBox deskewDuringAcq_;
    private final JButton exportButton_; 
    
    public static final String[] TRANSFORMOPTIONS = 
@@ -308,6 +309,10 @@ public class DataAnalysisPanel extends ListeningJPanel {
       deskewAutoTest_ = pu.makeCheckBox("Auto-deskew test acquisitions", 
  		        Properties.Keys.PLUGIN_DESKEW_AUTO_TEST, panelName_, false); 
  		deskewPanel_.add(deskewAutoTest_, "left, span 2, wrap"); 
+
+      deskewDuringAcq_ = pu.makeCheckBox("Deskew stage scanning acquisitions as they run",
+              Properties.Keys.PLUGIN_DESKEW_DURING_ACQ, panelName_, false);
+      deskewPanel_.add(deskewDuringAcq_, "left, span 2, wrap");
             
       JButton deskewButton = new JButton("Deskew Open Dataset");
       deskewButton.addActionListener(new ActionListener() {
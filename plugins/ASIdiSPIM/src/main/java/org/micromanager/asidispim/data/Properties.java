@@ -259,6 +259,7 @@ public class Properties {
       PLUGIN_DESKEW_INVERT("DeskewInvert"), 
       PLUGIN_DESKEW_INTERPOLATE("DeskewInterpolate"),
       PLUGIN_DESKEW_AUTO_TEST("DeskewAutoTest"),
+      PLUGIN_DESKEW_DURING_ACQ("DeskewDuringAcquisition"),
       PLUGIN_STAGESCAN_ACCEL_FACTOR("StageScanAccelerationFactor"),
       PLUGIN_LS_SCAN_RESET("LightSheetScanReset"),
       PLUGIN_LS_SCAN_SETTLE("LightSheetScanSettle"),
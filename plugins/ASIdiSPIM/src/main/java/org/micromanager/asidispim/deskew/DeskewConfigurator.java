@@ -0,0 +1,132 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          DeskewConfigurator.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.deskew;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import net.miginfocom.swing.MigLayout;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.internal.utils.MMFrame;
+
+/**
+ * Settings of the on-the-fly deskew processor; the same settings as the
+ * deskew on the Data Analysis tab of the diSPIM plugin.
+ */
+public class DeskewConfigurator extends MMFrame implements ProcessorConfigurator {
+   private static final int DEFAULT_WIN_X = 100;
+   private static final int DEFAULT_WIN_Y = 100;
+
+   private final Studio studio_;
+   private final JSpinner factorSpinner_;
+   private final JCheckBox invertCheckBox_;
+   private final JCheckBox interpolateCheckBox_;
+
+   public DeskewConfigurator(PropertyMap settings, Studio studio) {
+      studio_ = studio;
+
+      double factor = settings.getDouble(DeskewFactory.FACTOR,
+            studio_.profile().getSettings(DeskewConfigurator.class).getDouble(
+                  DeskewFactory.FACTOR, 1.0));
+      boolean invert = settings.getBoolean(DeskewFactory.INVERT,
+            studio_.profile().getSettings(DeskewConfigurator.class).getBoolean(
+                  DeskewFactory.INVERT, false));
+      boolean interpolate = settings.getBoolean(DeskewFactory.INTERPOLATE,
+            studio_.profile().getSettings(DeskewConfigurator.class).getBoolean(
+                  DeskewFactory.INTERPOLATE, false));
+
+      setTitle(DeskewPlugin.MENU_NAME);
+      setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
+      setLayout(new MigLayout("flowx"));
+
+      factorSpinner_ = new JSpinner(new SpinnerNumberModel(factor, 0.0, 10.0, 0.01));
+      factorSpinner_.setToolTipText("Multiplied by the slice spacing in pixels "
+            + "to get the shift between consecutive slices");
+      factorSpinner_.addChangeListener(new ChangeListener() {
+         @Override
+         public void stateChanged(ChangeEvent e) {
+            updateSettings();
+         }
+      });
+      add(new JLabel("Deskew fudge factor:"));
+      add(factorSpinner_, "wrap");
+
+      ActionListener listener = new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            updateSettings();
+         }
+      };
+      invertCheckBox_ = new JCheckBox("Invert direction", invert);
+      invertCheckBox_.addActionListener(listener);
+      add(invertCheckBox_, "span, wrap");
+      interpolateCheckBox_ = new JCheckBox("Interpolate", interpolate);
+      interpolateCheckBox_.addActionListener(listener);
+      add(interpolateCheckBox_, "span, wrap");
+      add(new JLabel("<html>Only stage scanning data acquired with the<br>"
+            + "diSPIM plugin is deskewed; other images pass unchanged.</html>"),
+            "span, wrap");
+      pack();
+
+      super.loadAndRestorePosition(DEFAULT_WIN_X, DEFAULT_WIN_Y);
+   }
+
+   @Override
+   public PropertyMap getSettings() {
+      PropertyMap.Builder builder = PropertyMaps.builder();
+      builder.putDouble(DeskewFactory.FACTOR, getFactor());
+      builder.putBoolean(DeskewFactory.INVERT, invertCheckBox_.isSelected());
+      builder.putBoolean(DeskewFactory.INTERPOLATE, interpolateCheckBox_.isSelected());
+      return builder.build();
+   }
+
+   @Override
+   public void showGUI() {
+      setVisible(true);
+   }
+
+   @Override
+   public void cleanup() {
+      dispose();
+   }
+
+   private double getFactor() {
+      return ((Number) factorSpinner_.getValue()).doubleValue();
+   }
+
+   private void updateSettings() {
+      studio_.profile().getSettings(DeskewConfigurator.class).putDouble(
+            DeskewFactory.FACTOR, getFactor());
+      studio_.profile().getSettings(DeskewConfigurator.class).putBoolean(
+            DeskewFactory.INVERT, invertCheckBox_.isSelected());
+      studio_.profile().getSettings(DeskewConfigurator.class).putBoolean(
+            DeskewFactory.INTERPOLATE, interpolateCheckBox_.isSelected());
+      studio_.data().notifyPipelineChanged();
+   }
+}
@@ -0,0 +1,57 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          DeskewFactory.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.deskew;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorFactory;
+
+public class DeskewFactory implements ProcessorFactory {
+   public static final String FACTOR = "deskewFactor";
+   public static final String INVERT = "invert";
+   public static final String INTERPOLATE = "interpolate";
+
+   private final Studio studio_;
+   private final double factor_;
+   private final boolean invert_;
+   private final boolean interpolate_;
+
+   public DeskewFactory(Studio studio, PropertyMap settings) {
+      this(studio, settings.getDouble(FACTOR, 1.0),
+            settings.getBoolean(INVERT, false),
+            settings.getBoolean(INTERPOLATE, false));
+   }
+
+   /**
+    * Used by the acquisition to deskew without going through the
+    * application pipeline; settings as on the Data Analysis tab.
+    */
+   public DeskewFactory(Studio studio, double factor, boolean invert,
+         boolean interpolate) {
+      studio_ = studio;
+      factor_ = factor;
+      invert_ = invert;
+      interpolate_ = interpolate;
+   }
+
+   @Override
+   public Processor createProcessor() {
+      return new DeskewProcessor(studio_, factor_, invert_, interpolate_);
+   }
+}
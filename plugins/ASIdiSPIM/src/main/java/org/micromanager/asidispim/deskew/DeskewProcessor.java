@@ -0,0 +1,216 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          DeskewProcessor.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.deskew;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.asidispim.data.AcquisitionModes;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+
+/**
+ * Deskews stage scanning data as the images arrive.
+ *
+ * This does what DataAnalysisPanel.runDeskew() does to an open dataset:
+ * each slice is moved along x, into a canvas wide enough for the whole
+ * stack, by the slice index times the interplane spacing in pixels (times
+ * the fudge factor), in a direction that depends on the acquisition mode
+ * and on the side each channel was imaged from.  Since the shift of a
+ * slice depends only on its own index, every output slice is made from
+ * the one input slice and nothing else is kept, so memory does not depend
+ * on the number of slices.
+ *
+ * The acquisition mode, sides, and slice spacing are read from the summary
+ * metadata written by the diSPIM acquisition; images from data that is not
+ * stage scanning, and images that are not 8- or 16-bit grayscale, are passed
+ * on unchanged.
+ */
+public class DeskewProcessor extends Processor {
+   private final Studio studio_;
+   private final double factor_;
+   private final boolean invert_;
+   private final boolean interpolate_;
+
+   // From the summary metadata
+   private boolean isStageScan_ = true;
+   private AcquisitionModes.Keys acqMode_ = AcquisitionModes.Keys.STAGE_SCAN;
+   private boolean firstSideIsA_ = true;
+   private boolean twoSided_ = true;
+   private int numSlices_ = 0;
+   private Double zStepUm_ = null;
+
+   private boolean loggedPassThrough_ = false;
+
+   public DeskewProcessor(Studio studio, double factor, boolean invert,
+         boolean interpolate) {
+      studio_ = studio;
+      factor_ = factor;
+      invert_ = invert;
+      interpolate_ = interpolate;
+   }
+
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata summary) {
+      PropertyMap userData = summary.getUserData();
+      if (userData != null && userData.containsString("SPIMmode")) {
+         acqMode_ = AcquisitionModes.getKeyFromString(userData.getString("SPIMmode", ""));
+         isStageScan_ = acqMode_ == AcquisitionModes.Keys.STAGE_SCAN
+               || acqMode_ == AcquisitionModes.Keys.STAGE_SCAN_INTERLEAVED
+               || acqMode_ == AcquisitionModes.Keys.STAGE_SCAN_UNIDIRECTIONAL;
+         firstSideIsA_ = !"B".equals(userData.getString("FirstSide", "A"));
+         if (userData.containsInteger("NumberOfSides")) {
+            twoSided_ = userData.getInteger("NumberOfSides", 2) == 2;
+         } else {
+            twoSided_ = "2".equals(userData.getString("NumberOfSides", "2"));
+         }
+      }
+      // as in runDeskew(), prefer the slice spacing written by the plugin
+      if (userData != null && userData.containsDouble("z-step_um")) {
+         zStepUm_ = userData.getDouble("z-step_um", 0.0);
+      } else {
+         zStepUm_ = summary.getZStepUm();
+      }
+      if (summary.getIntendedDimensions() != null) {
+         numSlices_ = summary.getIntendedDimensions().getZ();
+      }
+      return summary;
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      Double pixelSizeUm = image.getMetadata().getPixelSizeUm();
+      if (!isStageScan_ || numSlices_ < 1 || zStepUm_ == null
+            || pixelSizeUm == null || pixelSizeUm < 1e-6
+            || image.getNumComponents() != 1 || image.getBytesPerPixel() > 2) {
+         if (!loggedPassThrough_) {
+            studio_.logs().logMessage("Deskew: not deskewing " + (isStageScan_ ?
+                  "images without slice count, slice spacing, pixel size, or grayscale pixels"
+                  : "data that is not stage scanning"));
+            loggedPassThrough_ = true;
+         }
+         context.outputImage(image);
+         return;
+      }
+
+      // for 45 degrees we shift the same amount as the interplane spacing
+      final double dx = zStepUm_ / pixelSizeUm * factor_;
+      final int width = image.getWidth();
+      final int height = image.getHeight();
+      final int newWidth = width + (int) Math.ceil(Math.abs(dx * numSlices_));
+      final Coords coords = image.getCoords();
+      final int dir = getDirection(coords.getChannel());
+      // output x = input x + shift; with dir < 0 the input starts at the right
+      double shift = dx * coords.getZ() * dir;
+      if (dir < 0) {
+         shift += newWidth - width;
+      }
+
+      Object pixels = image.getRawPixels();
+      Object result = pixels instanceof byte[] ?
+            new byte[newWidth * height] : new short[newWidth * height];
+      shiftRows(pixels, width, height, result, newWidth, shift, interpolate_);
+      context.outputImage(studio_.data().createImage(result, newWidth, height,
+            image.getBytesPerPixel(), 1, coords, image.getMetadata()));
+   }
+
+   // -1 or 1; same rules as runDeskew()
+   private int getDirection(int channel) {
+      int dir;
+      if (acqMode_ == AcquisitionModes.Keys.STAGE_SCAN) {
+         if (twoSided_) {
+            dir = (channel % 2) * 2 - 1;  // -1 for path A which are even channels, 1 for path B
+         } else {
+            dir = -1;  // single-sided is path A for all channels
+         }
+         if (!firstSideIsA_) {
+            dir *= -1;
+         }
+      } else {
+         dir = -1;  // interleaved and unidirectional always go the same way
+      }
+      if (invert_) {
+         dir *= -1;
+      }
+      return dir;
+   }
+
+   /**
+    * Copies each row of in (width x height) into out (outWidth x height),
+    * shifted right by shift pixels; out(x) = in(x - shift).  Parts of out
+    * with no input are 0.  If interpolate is false, the shift is rounded to
+    * whole pixels; otherwise neighboring input pixels are interpolated
+    * linearly.
+    *
+    * @param in byte[] or short[]
+    * @param out array of the same type as in
+    */
+   static void shiftRows(Object in, int width, int height, Object out,
+         int outWidth, double shift, boolean interpolate) {
+      int whole = (int) Math.floor(shift);
+      double frac = shift - whole;
+      if (!interpolate || frac == 0.0) {
+         int s = (int) Math.round(shift);
+         // out x in [x0, x1) comes from in x - s
+         int x0 = Math.max(0, s);
+         int x1 = Math.min(outWidth, width + s);
+         if (x1 <= x0) {
+            return;
+         }
+         for (int y = 0; y < height; ++y) {
+            System.arraycopy(in, y * width + x0 - s, out, y * outWidth + x0,
+                  x1 - x0);
+         }
+         return;
+      }
+
+      // out(x) = frac * in(x - whole - 1) + (1 - frac) * in(x - whole);
+      // out x in [x0, x1) has at least one of the two inputs
+      int x0 = Math.max(0, whole);
+      int x1 = Math.min(outWidth, width + whole + 1);
+      boolean isByte = in instanceof byte[];
+      byte[] inBytes = isByte ? (byte[]) in : null;
+      short[] inShorts = isByte ? null : (short[]) in;
+      byte[] outBytes = isByte ? (byte[]) out : null;
+      short[] outShorts = isByte ? null : (short[]) out;
+      int mask = isByte ? 0xff : 0xffff;
+      for (int y = 0; y < height; ++y) {
+         int inRow = y * width;
+         int outRow = y * outWidth;
+         for (int x = x0; x < x1; ++x) {
+            int xi = x - whole;
+            int left = 0;
+            int right = 0;
+            if (xi - 1 >= 0) {
+               left = (isByte ? inBytes[inRow + xi - 1] : inShorts[inRow + xi - 1]) & mask;
+            }
+            if (xi < width) {
+               right = (isByte ? inBytes[inRow + xi] : inShorts[inRow + xi]) & mask;
+            }
+            int value = (int) (frac * left + (1.0 - frac) * right + 0.5);
+            if (isByte) {
+               outBytes[outRow + x] = (byte) value;
+            } else {
+               outShorts[outRow + x] = (short) value;
+            }
+         }
+      }
+   }
+}
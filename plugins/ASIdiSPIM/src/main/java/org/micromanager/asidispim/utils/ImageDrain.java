@@ -0,0 +1,307 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ImageDrain.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import mmcorej.CMMCore;
+import mmcorej.TaggedImage;
+
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Moves images out of the core's circular buffer as fast as they arrive,
+ * on a dedicated high-priority thread, into a ring of fixed capacity from
+ * which the acquisition thread takes them at its own pace.
+ *
+ * Sorting images into channels and adding them to the datastore can stall
+ * (e.g. while the disk catches up); with the drain in between, the core's
+ * buffer keeps being emptied meanwhile, until the ring itself is full.
+ *
+ * The drain stops once none of the cameras is running a sequence and the
+ * core's buffer is empty, or when stop() is called.
+ *
+ * Backlog depth, the number of times the drain had to wait for room in the
+ * ring, circular buffer overflows (in which the core drops images), and
+ * images dropped because stop() was called while the ring was full are
+ * recorded and logged by logStatistics().
+ */
+public class ImageDrain {
+   // How long the drain sleeps when the core has no image for it
+   private static final long IDLE_PARK_NS = 100000;
+   // Fraction of the Java heap that the ring may fill with images
+   private static final double HEAP_FRACTION = 0.25;
+   private static final int MIN_CAPACITY = 16;
+   private static final int MAX_CAPACITY = 8192;
+
+   private final CMMCore core_;
+   private final String[] cameras_;
+   private final Thread thread_;
+
+   // The ring, guarded by lock_
+   private final ReentrantLock lock_ = new ReentrantLock();
+   private final Condition notEmpty_ = lock_.newCondition();
+   private final Condition notFull_ = lock_.newCondition();
+   private final TaggedImage[] ring_;
+   private int head_ = 0;
+   private int size_ = 0;
+   private boolean finished_ = false;
+   private Exception error_ = null;
+
+   private volatile boolean stopRequested_ = false;
+
+   // Statistics; written by the drain thread only
+   private volatile long numImages_ = 0;
+   private volatile int maxBacklog_ = 0;
+   private volatile long backlogSum_ = 0;
+   private volatile long numStalls_ = 0;
+   private volatile long stallNs_ = 0;
+   private volatile int numOverflows_ = 0;
+   private volatile long numDropped_ = 0;
+
+   /**
+    * @param core
+    * @param cameras the cameras whose sequence acquisitions feed the core's
+    *        circular buffer
+    * @param capacity the number of images the ring can hold; see capacityFor()
+    */
+   public ImageDrain(CMMCore core, String[] cameras, int capacity) {
+      core_ = core;
+      cameras_ = cameras.clone();
+      ring_ = new TaggedImage[Math.max(1, capacity)];
+      thread_ = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            drain();
+         }
+      }, "diSPIM image drain");
+      thread_.setDaemon(true);
+      thread_.setPriority(Thread.MAX_PRIORITY);
+   }
+
+   /**
+    * @param imageBytes size of one image
+    * @return a ring capacity that keeps the images in the ring to a quarter
+    *         of the maximum Java heap
+    */
+   public static int capacityFor(long imageBytes) {
+      long capacity = (long) (Runtime.getRuntime().maxMemory() * HEAP_FRACTION)
+            / Math.max(1, imageBytes);
+      return (int) Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, capacity));
+   }
+
+   public void start() {
+      thread_.start();
+   }
+
+   /**
+    * Stops the drain thread and waits for it to exit.  Images still in the
+    * ring remain available from poll().
+    */
+   public void stop() {
+      stopRequested_ = true;
+      try {
+         thread_.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Takes the oldest image from the ring.
+    * @param timeoutMs how long to wait for an image
+    * @return the image, or null if there was none within the timeout
+    * @throws Exception if the drain failed to get an image from the core,
+    *         or if interrupted
+    */
+   public TaggedImage poll(long timeoutMs) throws Exception {
+      long remainingNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+      lock_.lock();
+      try {
+         while (size_ == 0) {
+            if (error_ != null) {
+               throw error_;
+            }
+            if (finished_ || remainingNs <= 0) {
+               return null;
+            }
+            remainingNs = notEmpty_.awaitNanos(remainingNs);
+         }
+         TaggedImage image = ring_[head_];
+         ring_[head_] = null;
+         head_ = (head_ + 1) % ring_.length;
+         size_--;
+         notFull_.signal();
+         return image;
+      } finally {
+         lock_.unlock();
+      }
+   }
+
+   /**
+    * @return true once the drain has stopped and all the images it drained
+    *         have been taken
+    */
+   public boolean isFinished() {
+      lock_.lock();
+      try {
+         return finished_ && size_ == 0 && error_ == null;
+      } finally {
+         lock_.unlock();
+      }
+   }
+
+   /** Number of images currently waiting in the ring. */
+   public int getBacklog() {
+      lock_.lock();
+      try {
+         return size_;
+      } finally {
+         lock_.unlock();
+      }
+   }
+
+   public long getNumImages() {
+      return numImages_;
+   }
+
+   public int getMaxBacklog() {
+      return maxBacklog_;
+   }
+
+   /** Number of times the drain waited for room in the ring. */
+   public long getNumStalls() {
+      return numStalls_;
+   }
+
+   /** Number of times the core's circular buffer overflowed, dropping images. */
+   public int getNumOverflows() {
+      return numOverflows_;
+   }
+
+   /**
+    * Number of images taken from the core but discarded, because stop() was
+    * called while waiting for room in the ring.
+    */
+   public long getNumDropped() {
+      return numDropped_;
+   }
+
+   public void logStatistics(String context) {
+      long numImages = numImages_;
+      long numDropped = numDropped_;
+      if (numDropped > 0) {
+         ReportingUtils.logError("Image drain (" + context + "): "
+               + numDropped + " images dropped when stopped with a full ring");
+      }
+      ReportingUtils.logMessage("Image drain (" + context + "): "
+            + numImages + " images, ring capacity " + ring_.length
+            + ", backlog mean " + (numImages == 0 ? 0 : backlogSum_ / numImages)
+            + " max " + maxBacklog_
+            + ", " + numStalls_ + " stalls on full ring ("
+            + TimeUnit.NANOSECONDS.toMillis(stallNs_) + " ms)"
+            + ", " + numOverflows_ + " circular buffer overflows"
+            + ", " + numDropped + " dropped on stop");
+   }
+
+   private void drain() {
+      boolean overflowed = false;
+      try {
+         while (!stopRequested_) {
+            if (core_.getRemainingImageCount() > 0) {
+               put(core_.popNextTaggedImage());
+               continue;
+            }
+            // The core drops images while its buffer is overflowed; count
+            // each time that happens
+            if (core_.isBufferOverflowed()) {
+               if (!overflowed) {
+                  overflowed = true;
+                  numOverflows_++;
+                  ReportingUtils.logError("Circular buffer overflowed after "
+                        + numImages_ + " images; images were lost");
+               }
+            } else {
+               overflowed = false;
+            }
+            if (!isAnySequenceRunning() && core_.getRemainingImageCount() == 0) {
+               break;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NS);
+         }
+      } catch (Exception e) {
+         lock_.lock();
+         try {
+            error_ = e;
+         } finally {
+            lock_.unlock();
+         }
+      } finally {
+         lock_.lock();
+         try {
+            finished_ = true;
+            notEmpty_.signalAll();
+         } finally {
+            lock_.unlock();
+         }
+      }
+   }
+
+   private boolean isAnySequenceRunning() throws Exception {
+      for (String camera : cameras_) {
+         if (core_.isSequenceRunning(camera)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private void put(TaggedImage image) throws InterruptedException {
+      int backlog;
+      lock_.lock();
+      try {
+         if (size_ == ring_.length) {
+            numStalls_++;
+            long stallStart = System.nanoTime();
+            while (size_ == ring_.length && !stopRequested_) {
+               notFull_.await(10, TimeUnit.MILLISECONDS);
+            }
+            stallNs_ += System.nanoTime() - stallStart;
+            if (size_ == ring_.length) {
+               // Stopped while waiting; the image is lost
+               numDropped_++;
+               return;
+            }
+         }
+         ring_[(head_ + size_) % ring_.length] = image;
+         size_++;
+         backlog = size_;
+         notEmpty_.signal();
+      } finally {
+         lock_.unlock();
+      }
+      numImages_++;
+      backlogSum_ += backlog;
+      if (backlog > maxBacklog_) {
+         maxBacklog_ = backlog;
+      }
+   }
+}
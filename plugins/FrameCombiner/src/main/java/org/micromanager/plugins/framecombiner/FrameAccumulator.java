@@ -0,0 +1,437 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.plugins.framecombiner;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Combines a batch of 8- or 16-bit single-component frames into one, folding
+ * each frame in as it arrives instead of buffering the whole batch.
+ * <p>
+ * Mean, sum, max and min keep one integer accumulator per pixel, reused
+ * from batch to batch, so their memory does not grow with the batch size.
+ * <p>
+ * Median and percentile are exact, so they need every sample of a pixel:
+ * the raw samples are copied, at the images' own bit depth, into a store of
+ * numFrames frames that is allocated once; the images themselves are not
+ * kept. This memory does grow with the batch size, so batches whose store
+ * would exceed maxSampleBytes are refused. (A 256-bin histogram per pixel
+ * would only be smaller than 8-bit samples for batches of more than 512
+ * frames.) The result is the sample of nearest rank, found by selection
+ * rather than sorting.
+ * <p>
+ * Frames larger than a few rows are split into horizontal bands that are
+ * processed in parallel.
+ * <p>
+ * Not thread-safe: images must be added from one thread at a time.
+ */
+final class FrameAccumulator {
+   private static final int NUM_THREADS =
+         Runtime.getRuntime().availableProcessors();
+   // Bands smaller than this are not worth handing to another thread
+   private static final int MIN_PIXELS_PER_BAND = 64 * 1024;
+   // Pixels whose samples are gathered at a time for PERCENTILE, so that
+   // each frame is read in runs rather than one sample at a time
+   private static final int PIXELS_PER_TILE = 256;
+
+   private static final ExecutorService EXECUTOR =
+         Executors.newFixedThreadPool(NUM_THREADS,
+               ThreadFactoryFactory.createThreadFactory("FrameCombiner"));
+
+   private enum Operation { SUM, MAX, MIN, PERCENTILE }
+
+   private final Operation operation_;
+   private final boolean divideByCount_;
+   private final double percentile_;
+   private final int numFrames_;
+   private final long maxSampleBytes_;
+
+   private int width_;
+   private int height_;
+   private int bytesPerPixel_;
+   private int count_ = 0;
+   // For SUM, MAX and MIN
+   private long[] accumulators_;
+   // For PERCENTILE: numFrames_ frames, one after the other; which array
+   // is used depends on the pixel type
+   private byte[] byteSamples_;
+   private short[] shortSamples_;
+   // Band b covers pixels [bandStarts_[b], bandStarts_[b + 1])
+   private int[] bandStarts_;
+   // Per-band scratch space: a band's worth of samples, and for PERCENTILE
+   // the samples of a tile of pixels
+   private int[][] rows_;
+   private int[][] values_;
+
+   /**
+    * @param algorithm one of the FrameCombinerPlugin.PROCESSOR_ALGO_*
+    * constants
+    * @param percentile for PROCESSOR_ALGO_PERCENTILE, between 0 and 100
+    * @param numFrames the number of frames in a batch
+    * @param maxSampleBytes the largest sample store that median and
+    * percentile may allocate
+    */
+   FrameAccumulator(String algorithm, double percentile, int numFrames,
+         long maxSampleBytes) {
+      if (algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)
+            || algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
+         operation_ = Operation.SUM;
+      } else if (algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)) {
+         operation_ = Operation.MAX;
+      } else if (algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
+         operation_ = Operation.MIN;
+      } else if (algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEDIAN)) {
+         operation_ = Operation.PERCENTILE;
+         percentile = 50.0;
+      } else if (algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_PERCENTILE)) {
+         operation_ = Operation.PERCENTILE;
+      } else {
+         throw new IllegalArgumentException("FrameCombiner : Algorithm called "
+               + algorithm + " is not implemented or not found.");
+      }
+      if (percentile < 0.0 || percentile > 100.0) {
+         throw new IllegalArgumentException(
+               "FrameCombiner : Percentile must be between 0 and 100: " + percentile);
+      }
+      divideByCount_ = algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN);
+      percentile_ = percentile;
+      numFrames_ = numFrames;
+      maxSampleBytes_ = maxSampleBytes;
+   }
+
+   /** The number of frames added since the last call to getResult(). */
+   int getCount() {
+      return count_;
+   }
+
+   /**
+    * Fold in one frame. All frames of a batch must have the same size and
+    * pixel type; there can be no more than numFrames of them.
+    */
+   void add(Image image) {
+      if (count_ == 0) {
+         start(image);
+      } else if (image.getWidth() != width_ || image.getHeight() != height_
+            || image.getBytesPerPixel() != bytesPerPixel_) {
+         throw new IllegalArgumentException(
+               "FrameCombiner : Image size or type changed during a batch");
+      }
+      if (count_ >= numFrames_) {
+         throw new IllegalStateException("FrameCombiner : Batch is full");
+      }
+      final Buffer pixels = readOnlyPixels(image);
+      final int frame = count_;
+      forEachBand(new Band() {
+         @Override
+         public void run(int band, int start, int end) {
+            int[] row = rows_[band];
+            readSamples(pixels, start, end, row);
+            foldSamples(frame, start, end, row);
+         }
+      });
+      ++count_;
+   }
+
+   /**
+    * Compute the combined frame and start a new batch.
+    * @return a byte[] or short[] with the pixels of the combined frame
+    */
+   Object getResult() {
+      if (count_ == 0) {
+         throw new IllegalStateException("FrameCombiner : No frames added");
+      }
+      final Object result = bytesPerPixel_ == 1 ?
+            new byte[width_ * height_] : new short[width_ * height_];
+      forEachBand(new Band() {
+         @Override
+         public void run(int band, int start, int end) {
+            int[] row = rows_[band];
+            combine(start, end, row, values_[band]);
+            writeSamples(result, start, end, row);
+         }
+      });
+      count_ = 0;
+      return result;
+   }
+
+   /** Discard the frames added so far. */
+   void reset() {
+      count_ = 0;
+   }
+
+   private void start(Image image) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int bytesPerPixel = image.getBytesPerPixel();
+      if ((bytesPerPixel != 1 && bytesPerPixel != 2)
+            || image.getNumComponents() != 1) {
+         throw new IllegalArgumentException(
+               "FrameCombiner : Only 8- and 16-bit grayscale images can be combined");
+      }
+      int numPixels = width * height;
+      if (operation_ == Operation.PERCENTILE) {
+         long numSamples = (long) numPixels * numFrames_;
+         long sampleBytes = numSamples * bytesPerPixel;
+         if (sampleBytes > maxSampleBytes_) {
+            throw new IllegalArgumentException("FrameCombiner : Combining "
+                  + numFrames_ + " " + width + "x" + height
+                  + " images by percentile needs " + (sampleBytes >> 20)
+                  + " MB, more than the limit of " + (maxSampleBytes_ >> 20)
+                  + " MB");
+         }
+         if (numSamples > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("FrameCombiner : Too many "
+                  + width + "x" + height + " images to combine by percentile: "
+                  + numFrames_);
+         }
+         if (bytesPerPixel == 1) {
+            shortSamples_ = null;
+            if (byteSamples_ == null || byteSamples_.length != numSamples) {
+               byteSamples_ = new byte[(int) numSamples];
+            }
+         } else {
+            byteSamples_ = null;
+            if (shortSamples_ == null || shortSamples_.length != numSamples) {
+               shortSamples_ = new short[(int) numSamples];
+            }
+         }
+      } else if (accumulators_ == null || accumulators_.length != numPixels) {
+         accumulators_ = new long[numPixels];
+      }
+      if (width != width_ || height != height_) {
+         int numBands = Math.max(1, Math.min(Math.min(NUM_THREADS, height),
+               numPixels / MIN_PIXELS_PER_BAND));
+         bandStarts_ = new int[numBands + 1];
+         rows_ = new int[numBands][];
+         values_ = new int[numBands][];
+         for (int b = 0; b < numBands; ++b) {
+            bandStarts_[b + 1] = (int) ((long) height * (b + 1) / numBands) * width;
+            rows_[b] = new int[bandStarts_[b + 1] - bandStarts_[b]];
+         }
+      }
+      if (operation_ == Operation.PERCENTILE) {
+         for (int b = 0; b < values_.length; ++b) {
+            if (values_[b] == null) {
+               values_[b] = new int[PIXELS_PER_TILE * numFrames_];
+            }
+         }
+      }
+      width_ = width;
+      height_ = height;
+      bytesPerPixel_ = bytesPerPixel;
+   }
+
+   private static Buffer readOnlyPixels(Image image) {
+      if (image instanceof DefaultImage) {
+         return ((DefaultImage) image).getReadOnlyPixelBuffer();
+      }
+      Object pixels = image.getRawPixels();
+      if (pixels instanceof byte[]) {
+         return ByteBuffer.wrap((byte[]) pixels).asReadOnlyBuffer();
+      }
+      return ShortBuffer.wrap((short[]) pixels).asReadOnlyBuffer();
+   }
+
+   // Unsigned samples [start, end) of pixels into row
+   private static void readSamples(Buffer pixels, int start, int end,
+         int[] row) {
+      if (pixels instanceof ByteBuffer) {
+         ByteBuffer bytes = (ByteBuffer) pixels;
+         for (int i = start; i < end; ++i) {
+            row[i - start] = bytes.get(i) & 0xff;
+         }
+      } else {
+         ShortBuffer shorts = (ShortBuffer) pixels;
+         for (int i = start; i < end; ++i) {
+            row[i - start] = shorts.get(i) & 0xffff;
+         }
+      }
+   }
+
+   private static void writeSamples(Object result, int start, int end, int[] row) {
+      if (result instanceof byte[]) {
+         byte[] bytes = (byte[]) result;
+         for (int i = start; i < end; ++i) {
+            bytes[i] = (byte) row[i - start];
+         }
+      } else {
+         short[] shorts = (short[]) result;
+         for (int i = start; i < end; ++i) {
+            shorts[i] = (short) row[i - start];
+         }
+      }
+   }
+
+   private void foldSamples(int frame, int start, int end, int[] row) {
+      int n = end - start;
+      switch (operation_) {
+         case SUM:
+            if (frame == 0) {
+               for (int i = 0; i < n; ++i) {
+                  accumulators_[start + i] = row[i];
+               }
+            } else {
+               for (int i = 0; i < n; ++i) {
+                  accumulators_[start + i] += row[i];
+               }
+            }
+            break;
+         case MAX:
+            for (int i = 0; i < n; ++i) {
+               if (frame == 0 || row[i] > accumulators_[start + i]) {
+                  accumulators_[start + i] = row[i];
+               }
+            }
+            break;
+         case MIN:
+            for (int i = 0; i < n; ++i) {
+               if (frame == 0 || row[i] < accumulators_[start + i]) {
+                  accumulators_[start + i] = row[i];
+               }
+            }
+            break;
+         case PERCENTILE:
+            int offset = frame * width_ * height_ + start;
+            if (byteSamples_ != null) {
+               for (int i = 0; i < n; ++i) {
+                  byteSamples_[offset + i] = (byte) row[i];
+               }
+            } else {
+               for (int i = 0; i < n; ++i) {
+                  shortSamples_[offset + i] = (short) row[i];
+               }
+            }
+            break;
+      }
+   }
+
+   // Combined values of pixels [start, end) into row
+   private void combine(int start, int end, int[] row, int[] values) {
+      int n = end - start;
+      if (operation_ != Operation.PERCENTILE) {
+         long max = bytesPerPixel_ == 1 ? 0xff : 0xffff;
+         for (int i = 0; i < n; ++i) {
+            long value = accumulators_[start + i];
+            if (divideByCount_) {
+               value /= count_;
+            }
+            row[i] = (int) Math.min(value, max);
+         }
+         return;
+      }
+
+      int numPixels = width_ * height_;
+      int rank = (int) Math.round(percentile_ / 100.0 * (count_ - 1));
+      for (int tile = 0; tile < n; tile += PIXELS_PER_TILE) {
+         int tileSize = Math.min(PIXELS_PER_TILE, n - tile);
+         // values holds the samples of pixel i at [i * count_, (i + 1) * count_)
+         for (int f = 0; f < count_; ++f) {
+            int in = f * numPixels + start + tile;
+            if (byteSamples_ != null) {
+               for (int i = 0, out = f; i < tileSize; ++i, out += count_) {
+                  values[out] = byteSamples_[in + i] & 0xff;
+               }
+            } else {
+               for (int i = 0, out = f; i < tileSize; ++i, out += count_) {
+                  values[out] = shortSamples_[in + i] & 0xffff;
+               }
+            }
+         }
+         for (int i = 0; i < tileSize; ++i) {
+            row[tile + i] = select(values, i * count_, count_, rank);
+         }
+      }
+   }
+
+   /**
+    * The k-th smallest of values[from] to values[from + n - 1] (which are
+    * reordered), by quickselect.
+    */
+   static int select(int[] values, int from, int n, int k) {
+      int lo = from;
+      int hi = from + n - 1;
+      k += from;
+      while (hi > lo) {
+         int pivot = values[(lo + hi) >>> 1];
+         int i = lo;
+         int j = hi;
+         while (i <= j) {
+            while (values[i] < pivot) {
+               ++i;
+            }
+            while (values[j] > pivot) {
+               --j;
+            }
+            if (i <= j) {
+               int tmp = values[i];
+               values[i] = values[j];
+               values[j] = tmp;
+               ++i;
+               --j;
+            }
+         }
+         if (k <= j) {
+            hi = j;
+         } else if (k >= i) {
+            lo = i;
+         } else {
+            break;
+         }
+      }
+      return values[k];
+   }
+
+   private interface Band {
+      /** Process pixels [start, end), which make up band number band. */
+      void run(int band, int start, int end);
+   }
+
+   // Run task on each band; the last band is done on the calling thread
+   private void forEachBand(final Band task) {
+      int numBands = bandStarts_.length - 1;
+      List<Future<?>> futures = new ArrayList<Future<?>>(numBands - 1);
+      for (int b = 0; b < numBands - 1; ++b) {
+         final int band = b;
+         futures.add(EXECUTOR.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+               task.run(band, bandStarts_[band], bandStarts_[band + 1]);
+               return null;
+            }
+         }));
+      }
+      task.run(numBands - 1, bandStarts_[numBands - 1], bandStarts_[numBands]);
+      try {
+         for (Future<?> future : futures) {
+            future.get();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      }
+   }
+}
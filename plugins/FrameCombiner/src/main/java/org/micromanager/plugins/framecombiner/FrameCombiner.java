@@ -19,12 +19,18 @@ import org.micromanager.data.SummaryMetadata;
 
 public class FrameCombiner extends Processor {
 
+   private static final String MAX_SAMPLE_MB =
+           "maximum megabytes of samples kept per batch for median and percentile";
+   private static final int DEFAULT_MAX_SAMPLE_MB = 1024;
+
    private final Studio studio_;
    private final LogManager log_;
 
    private final String processorAlgo_;
    private final String processorDimension_;
    private final int numerOfImagesToProcess_;
+   private final double percentile_;
+   private final long maxSampleBytes_;
    private final List<Integer> channelsToAvoid_;
 
    private boolean imageNotProcessedFirstTime_ = true;
@@ -33,7 +39,7 @@ public class FrameCombiner extends Processor {
    private HashMap<Coords, SingleCombinationProcessor> singleAquisitions_;
 
    public FrameCombiner(Studio studio, String processorDimension, String processorAlgo,
-           int numerOfImagesToProcess, String channelsToAvoidString) {
+           int numerOfImagesToProcess, double percentile, String channelsToAvoidString) {
 
       studio_ = studio;
       log_ = studio_.logs();
@@ -41,6 +47,8 @@ public class FrameCombiner extends Processor {
       processorAlgo_ = processorAlgo;
       processorDimension_ = processorDimension;
       numerOfImagesToProcess_ = numerOfImagesToProcess;
+      percentile_ = percentile;
+      maxSampleBytes_ = getMaxSampleMB(studio_) * 1024L * 1024L;
 
       // Check whether channelsToAvoidString is correctly formated
       if (!channelsToAvoidString.isEmpty() && !isValidIntRangeInput(channelsToAvoidString)) {
@@ -101,8 +109,9 @@ public class FrameCombiner extends Processor {
          }
 
          singleAcquProc = new SingleCombinationProcessor(coords, studio_, 
-                 processorAlgo_, processorDimension_, numerOfImagesToProcess_, 
-                 processCombinations, !channelsToAvoid_.isEmpty());
+                 processorAlgo_, processorDimension_, numerOfImagesToProcess_,
+                 percentile_, maxSampleBytes_, processCombinations,
+                 !channelsToAvoid_.isEmpty());
          singleAquisitions_.put(coords, singleAcquProc);
       } else {
          singleAcquProc = singleAquisitions_.get(coords);
@@ -221,4 +230,18 @@ public class FrameCombiner extends Processor {
       return channelsToAvoid;
    }
 
+   /**
+    * The largest sample store, per combination of Z, channel and stage
+    * position, that median and percentile may use; larger batches are
+    * refused.
+    */
+   public static int getMaxSampleMB(Studio studio) {
+      return studio.profile().getSettings(FrameCombiner.class).
+              getInteger(MAX_SAMPLE_MB, DEFAULT_MAX_SAMPLE_MB);
+   }
+
+   public static void setMaxSampleMB(Studio studio, int megabytes) {
+      studio.profile().getSettings(FrameCombiner.class).
+              putInteger(MAX_SAMPLE_MB, megabytes);
+   }
 }
@@ -16,6 +16,7 @@ public class FrameCombinerConfigurator extends MMFrame implements ProcessorConfi
    private static final String PROCESSOR_ALGO = "Algorithm to apply on stack images";
    private static final String NUMBER_TO_PROCESS = "Number of images to process";
    private static final String CHANNEL_TO_AVOID = "Avoid Channel(s) (eg. 1,2 or 1-5)";
+   private static final String PERCENTILE = "Percentile";
 
    private final Studio studio_;
    private final PropertyMap settings_;
@@ -48,6 +49,13 @@ public class FrameCombinerConfigurator extends MMFrame implements ProcessorConfi
       numerOfImagesToProcessField_ = new javax.swing.JFormattedTextField(formatter);
       jLabel2 = new javax.swing.JLabel();
       processorAlgoBox_ = new javax.swing.JComboBox();
+      jLabel5 = new javax.swing.JLabel();
+      NumberFormatter percentileFormatter = new NumberFormatter(NumberFormat.getInstance());
+      percentileFormatter.setValueClass(Double.class);
+      percentileFormatter.setMinimum(0.0);
+      percentileFormatter.setMaximum(100.0);
+      percentileFormatter.setCommitsOnValidEdit(true);
+      percentileField_ = new javax.swing.JFormattedTextField(percentileFormatter);
       jLabel3 = new javax.swing.JLabel();
       channelsToAvoidField_ = new javax.swing.JFormattedTextField();
 
@@ -55,7 +63,7 @@ public class FrameCombinerConfigurator extends MMFrame implements ProcessorConfi
       setTitle("FrameCombiner Processor Configuration");
 
       jPanel1.setAutoscrolls(true);
-      jPanel1.setLayout(new java.awt.GridLayout(4, 2, 10, 10));
+      jPanel1.setLayout(new java.awt.GridLayout(5, 2, 10, 10));
 
       jLabel4.setText("Dimension to process");
       jPanel1.add(jLabel4);
@@ -79,12 +87,19 @@ public class FrameCombinerConfigurator extends MMFrame implements ProcessorConfi
       jPanel1.add(jLabel2);
 
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN);
-      //processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_MEDIAN);
+      processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_MEDIAN);
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_SUM);
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_MAX);
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_MIN);
+      processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_PERCENTILE);
       jPanel1.add(processorAlgoBox_);
 
+      jLabel5.setText("Percentile (0-100)");
+      jPanel1.add(jLabel5);
+
+      percentileField_.setName("_"); // NOI18N
+      jPanel1.add(percentileField_);
+
       jLabel3.setText("<html>Avoid Channel(s) (zero-based)<br/><p style=\"text-align: center;\">eg. 1,2 or 1-5 (no space)</p></html>");
       jPanel1.add(jLabel3);
 
@@ -124,6 +139,8 @@ public class FrameCombinerConfigurator extends MMFrame implements ProcessorConfi
               "numerOfImagesToProcess", getNumerOfImagesToProcess())));
       channelsToAvoidField_.setText(settings_.getString(
               "channelsToAvoidField", getChannelsToAvoid()));
+      percentileField_.setValue(settings_.getDouble(
+              "percentile", getPercentile()));
    }
 
    @Override
@@ -145,12 +162,14 @@ public class FrameCombinerConfigurator extends MMFrame implements ProcessorConfi
       setProcessorDimension((String) processorDimensionBox_.getSelectedItem());
       setNumerOfImagesToProcess(Integer.parseInt(numerOfImagesToProcessField_.getText()));
       setChannelsToAvoid(channelsToAvoidField_.getText());
+      setPercentile(((Number) percentileField_.getValue()).doubleValue());
 
       PropertyMap.Builder builder = PropertyMaps.builder();
       builder.putString("processorDimension", (String) processorDimensionBox_.getSelectedItem());
       builder.putString("processorAlgo", (String) processorAlgoBox_.getSelectedItem());
       builder.putInteger("numerOfImagesToProcess", Integer.parseInt(numerOfImagesToProcessField_.getText()));
       builder.putString("channelsToAvoid", channelsToAvoidField_.getText());
+      builder.putDouble("percentile", ((Number) percentileField_.getValue()).doubleValue());
       return builder.build();
    }
 
@@ -195,14 +214,26 @@ public class FrameCombinerConfigurator extends MMFrame implements ProcessorConfi
               putString(CHANNEL_TO_AVOID, channelsToAvoid);
    }
 
+   private double getPercentile() {
+      return studio_.profile().getSettings(FrameCombinerConfigurator.class).
+              getDouble(PERCENTILE, 50.0);
+   }
+
+   private void setPercentile(double percentile) {
+      studio_.profile().getSettings(FrameCombinerConfigurator.class).
+              putDouble(PERCENTILE, percentile);
+   }
+
    // Variables declaration - do not modify//GEN-BEGIN:variables
    private javax.swing.JFormattedTextField channelsToAvoidField_;
    private javax.swing.JLabel jLabel1;
    private javax.swing.JLabel jLabel2;
    private javax.swing.JLabel jLabel3;
    private javax.swing.JLabel jLabel4;
+   private javax.swing.JLabel jLabel5;
    private javax.swing.JPanel jPanel1;
    private javax.swing.JFormattedTextField numerOfImagesToProcessField_;
+   private javax.swing.JFormattedTextField percentileField_;
    private javax.swing.JComboBox processorAlgoBox_;
    private javax.swing.JComboBox processorDimensionBox_;
    // End of variables declaration//GEN-END:variables
@@ -25,6 +25,7 @@ public class FrameCombinerFactory implements ProcessorFactory {
               settings_.getString("processorDimension", FrameCombinerPlugin.PROCESSOR_DIMENSION_TIME),
               settings_.getString("processorAlgo", FrameCombinerPlugin.PROCESSOR_ALGO_MEAN),
               settings_.getInteger("numerOfImagesToProcess", 10),
+              settings_.getDouble("percentile", 50.0),
               settings_.getString("channelsToAvoid", ""));
    }
 }
@@ -13,7 +13,7 @@ import org.scijava.plugin.Plugin;
 public class FrameCombinerPlugin implements ProcessorPlugin, SciJavaPlugin {
 
    public final static String MENU_NAME = "Frame Combiner";
-   public final static String TOOL_TIP_DESCRIPTION = "Combine multiple images into a single output image (mean/sum/max/min)";
+   public final static String TOOL_TIP_DESCRIPTION = "Combine multiple images into a single output image (mean/sum/max/min/median/percentile)";
    public final static String VERSION_NUMBER = "1.0";
    public final static String COPYRIGHT = "Hadrien Mary";
 
@@ -21,6 +21,8 @@ public class FrameCombinerPlugin implements ProcessorPlugin, SciJavaPlugin {
    public final static String PROCESSOR_ALGO_SUM = "Sum";
    public final static String PROCESSOR_ALGO_MAX = "Max";
    public final static String PROCESSOR_ALGO_MIN = "Min";
+   public final static String PROCESSOR_ALGO_MEDIAN = "Median";
+   public final static String PROCESSOR_ALGO_PERCENTILE = "Percentile";
    public final static String PROCESSOR_DIMENSION_TIME = "Time";
    public final static String PROCESSOR_DIMENSION_Z = "Z";
 
@@ -0,0 +1,229 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.plugins.framecombiner;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import static org.junit.Assert.*;
+
+public class FrameAccumulatorTest {
+   private static final String[] ALGORITHMS = new String[] {
+      FrameCombinerPlugin.PROCESSOR_ALGO_MEAN,
+      FrameCombinerPlugin.PROCESSOR_ALGO_SUM,
+      FrameCombinerPlugin.PROCESSOR_ALGO_MAX,
+      FrameCombinerPlugin.PROCESSOR_ALGO_MIN,
+      FrameCombinerPlugin.PROCESSOR_ALGO_MEDIAN,
+      FrameCombinerPlugin.PROCESSOR_ALGO_PERCENTILE,
+   };
+   private static final double PERCENTILE = 90.0;
+   private static final long NO_LIMIT = Long.MAX_VALUE;
+
+   private static Image makeImage(int[] values, int width, int height,
+         int bytesPerPixel) {
+      Object pixels;
+      if (bytesPerPixel == 1) {
+         byte[] bytes = new byte[values.length];
+         for (int i = 0; i < values.length; ++i) {
+            bytes[i] = (byte) values[i];
+         }
+         pixels = bytes;
+      } else {
+         short[] shorts = new short[values.length];
+         for (int i = 0; i < values.length; ++i) {
+            shorts[i] = (short) values[i];
+         }
+         pixels = shorts;
+      }
+      return new DefaultImage(pixels, width, height, bytesPerPixel, 1,
+            Coordinates.builder().t(0).build(),
+            new DefaultMetadata.Builder().build());
+   }
+
+   private static int[] unsigned(Object pixels) {
+      if (pixels instanceof byte[]) {
+         byte[] bytes = (byte[]) pixels;
+         int[] values = new int[bytes.length];
+         for (int i = 0; i < bytes.length; ++i) {
+            values[i] = bytes[i] & 0xff;
+         }
+         return values;
+      }
+      short[] shorts = (short[]) pixels;
+      int[] values = new int[shorts.length];
+      for (int i = 0; i < shorts.length; ++i) {
+         values[i] = shorts[i] & 0xffff;
+      }
+      return values;
+   }
+
+   // Combine the samples of one pixel in the most obvious way
+   private static int reference(String algorithm, int[] samples, int max) {
+      long sum = 0;
+      int lowest = Integer.MAX_VALUE;
+      int highest = Integer.MIN_VALUE;
+      for (int sample : samples) {
+         sum += sample;
+         lowest = Math.min(lowest, sample);
+         highest = Math.max(highest, sample);
+      }
+      int[] sorted = samples.clone();
+      Arrays.sort(sorted);
+      if (algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)) {
+         return (int) (sum / samples.length);
+      } else if (algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
+         return (int) Math.min(sum, max);
+      } else if (algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)) {
+         return highest;
+      } else if (algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
+         return lowest;
+      } else if (algorithm.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEDIAN)) {
+         return sorted[(int) Math.round(0.5 * (samples.length - 1))];
+      }
+      return sorted[(int) Math.round(PERCENTILE / 100.0 * (samples.length - 1))];
+   }
+
+   private static void checkAgainstReference(int width, int height,
+         int bytesPerPixel, int numFrames) {
+      int max = bytesPerPixel == 1 ? 0xff : 0xffff;
+      Random random = new Random(20);
+      for (String algorithm : ALGORITHMS) {
+         FrameAccumulator accumulator = new FrameAccumulator(algorithm,
+               PERCENTILE, numFrames, NO_LIMIT);
+         // Two batches, so that reusing the buffers is covered too
+         for (int batch = 0; batch < 2; ++batch) {
+            int[][] frames = new int[numFrames][width * height];
+            for (int f = 0; f < numFrames; ++f) {
+               for (int i = 0; i < width * height; ++i) {
+                  frames[f][i] = random.nextInt(max + 1);
+               }
+               accumulator.add(makeImage(frames[f], width, height,
+                     bytesPerPixel));
+            }
+            assertEquals(numFrames, accumulator.getCount());
+            int[] result = unsigned(accumulator.getResult());
+            assertEquals(0, accumulator.getCount());
+            int[] samples = new int[numFrames];
+            for (int i = 0; i < width * height; ++i) {
+               for (int f = 0; f < numFrames; ++f) {
+                  samples[f] = frames[f][i];
+               }
+               assertEquals(algorithm + " pixel " + i,
+                     reference(algorithm, samples, max), result[i]);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testSmall8Bit() {
+      checkAgainstReference(5, 3, 1, 7);
+   }
+
+   @Test
+   public void testSmall16Bit() {
+      checkAgainstReference(5, 3, 2, 7);
+   }
+
+   @Test
+   public void testSingleFrame() {
+      checkAgainstReference(4, 4, 2, 1);
+   }
+
+   // Large enough to be split into bands on a multi-core machine
+   @Test
+   public void testBands8Bit() {
+      checkAgainstReference(640, 410, 1, 4);
+   }
+
+   @Test
+   public void testBands16Bit() {
+      checkAgainstReference(640, 410, 2, 4);
+   }
+
+   @Test
+   public void testSelectMatchesSort() {
+      Random random = new Random(20);
+      for (int n = 1; n <= 40; ++n) {
+         for (int trial = 0; trial < 20; ++trial) {
+            // A small range of values, so that there are many duplicates
+            int[] values = new int[n + 3];
+            for (int i = 0; i < values.length; ++i) {
+               values[i] = random.nextInt(trial % 2 == 0 ? 4 : 1000);
+            }
+            int[] sorted = Arrays.copyOfRange(values, 2, 2 + n);
+            Arrays.sort(sorted);
+            for (int k : new int[] {0, n - 1, n / 2, random.nextInt(n)}) {
+               int[] copy = values.clone();
+               assertEquals("n " + n + " k " + k, sorted[k],
+                     FrameAccumulator.select(copy, 2, n, k));
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testSelectAllEqual() {
+      int[] values = new int[17];
+      Arrays.fill(values, 9);
+      assertEquals(9, FrameAccumulator.select(values, 0, 17, 0));
+      assertEquals(9, FrameAccumulator.select(values, 0, 17, 16));
+   }
+
+   @Test
+   public void testSumSaturates() {
+      FrameAccumulator accumulator = new FrameAccumulator(
+            FrameCombinerPlugin.PROCESSOR_ALGO_SUM, 0.0, 2, NO_LIMIT);
+      accumulator.add(makeImage(new int[] {200, 1}, 2, 1, 1));
+      accumulator.add(makeImage(new int[] {200, 2}, 2, 1, 1));
+      assertArrayEquals(new int[] {255, 3}, unsigned(accumulator.getResult()));
+
+      accumulator.add(makeImage(new int[] {60000, 1}, 2, 1, 2));
+      accumulator.add(makeImage(new int[] {60000, 2}, 2, 1, 2));
+      assertArrayEquals(new int[] {65535, 3},
+            unsigned(accumulator.getResult()));
+   }
+
+   @Test
+   public void testMinOfBrightPixels() {
+      // Min used to start from 127, so bright pixels came out as 127
+      FrameAccumulator accumulator = new FrameAccumulator(
+            FrameCombinerPlugin.PROCESSOR_ALGO_MIN, 0.0, 2, NO_LIMIT);
+      accumulator.add(makeImage(new int[] {200, 250}, 2, 1, 1));
+      accumulator.add(makeImage(new int[] {230, 240}, 2, 1, 1));
+      assertArrayEquals(new int[] {200, 240},
+            unsigned(accumulator.getResult()));
+
+      accumulator.add(makeImage(new int[] {40000, 300}, 2, 1, 2));
+      accumulator.add(makeImage(new int[] {50000, 200}, 2, 1, 2));
+      assertArrayEquals(new int[] {40000, 200},
+            unsigned(accumulator.getResult()));
+   }
+
+   @Test
+   public void testSampleLimit() {
+      // 8-bit samples take one byte each
+      FrameAccumulator accumulator = new FrameAccumulator(
+            FrameCombinerPlugin.PROCESSOR_ALGO_MEDIAN, 0.0, 3, 4 * 3);
+      accumulator.add(makeImage(new int[] {1, 2, 3, 4}, 2, 2, 1));
+      accumulator.reset();
+      try {
+         accumulator.add(makeImage(new int[] {1, 2, 3, 4}, 2, 2, 2));
+         fail("16-bit samples should exceed the limit");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+}
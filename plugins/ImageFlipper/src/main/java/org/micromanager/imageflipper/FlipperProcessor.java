@@ -27,6 +27,7 @@ import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.internal.PixelTransforms;
 
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
@@ -78,10 +79,22 @@ public class FlipperProcessor extends Processor {
               transformImage(studio_, image, isMirrored_, rotation_));
    }
 
+   /**
+    * Each image is transformed independently, so images may be processed
+    * in parallel.
+    */
+   @Override
+   public boolean isParallelSafe() {
+      return true;
+   }
+
    /**
     * Executes image transformation
     * First mirror the image if requested, than rotate as requested
     * 
+    * 8- and 16-bit grayscale images are transformed directly on their pixel
+    * arrays in a single pass; other images go through ImageJ.
+    * 
     * @param studio
     * @param image Image to be transformed.
     * @param isMirrored Whether or not to mirror the image.
@@ -91,6 +104,35 @@ public class FlipperProcessor extends Processor {
    public static Image transformImage(Studio studio, Image image,
          boolean isMirrored, int rotation) {
       
+      // Insert some metadata to indicate what we did to the image.
+      PropertyMap.Builder builder;
+      PropertyMap userData = image.getMetadata().getUserData();
+      if (userData != null) {
+         builder = userData.copyBuilder();
+      }
+      else {
+         builder = PropertyMaps.builder();
+      }
+      builder.putInteger("ImageFlipper-Rotation", rotation);
+      builder.putString("ImageFlipper-Mirror", isMirrored ? "On" : "Off");
+      Metadata newMetadata = image.getMetadata().copyBuilderPreservingUUID().userData(builder.build()).build();
+
+      Object pixels = image.getRawPixels();
+      if (PixelTransforms.isSupported(pixels, image.getNumComponents())) {
+         if (!isMirrored && rotation == R0) {
+            // Images are immutable, so the pixels can be shared
+            return image.copyWithMetadata(newMetadata);
+         }
+         int width = image.getWidth();
+         int height = image.getHeight();
+         return studio.data().createImage(
+               PixelTransforms.transform(pixels, width, height, isMirrored,
+                     rotation),
+               PixelTransforms.rotatedWidth(width, height, rotation),
+               PixelTransforms.rotatedHeight(width, height, rotation),
+               image.getBytesPerPixel(), 1, image.getCoords(), newMetadata);
+      }
+
       ImageProcessor proc = studio.data().ij().createProcessor(image);
 
       if (isMirrored) {
@@ -106,18 +148,6 @@ public class FlipperProcessor extends Processor {
       if (rotation == R270) {
          proc = proc.rotateLeft();
       }
-      // Insert some metadata to indicate what we did to the image.
-      PropertyMap.Builder builder;
-      PropertyMap userData = image.getMetadata().getUserData();
-      if (userData != null) {
-         builder = userData.copyBuilder();
-      }
-      else {
-         builder = PropertyMaps.builder();
-      }
-      builder.putInteger("ImageFlipper-Rotation", rotation);
-      builder.putString("ImageFlipper-Mirror", isMirrored ? "On" : "Off");
-      Metadata newMetadata = image.getMetadata().copyBuilderPreservingUUID().userData(builder.build()).build();
       Image result = studio.data().ij().createImage(proc, image.getCoords(),
             newMetadata);
       return result;
@@ -80,6 +80,7 @@ import org.micromanager.display.internal.imagestats.ImagesAndStats;
 import org.micromanager.display.internal.imagestats.ImageStatsProcessor;
 import org.micromanager.display.internal.imagestats.IntegerComponentStats;
 import org.micromanager.events.ShutdownCommencingEvent;
+import org.micromanager.internal.utils.DirectBuffers;
 import org.micromanager.internal.utils.MMFrame;
 
 
@@ -608,7 +609,9 @@ public class CVViewer implements DataViewer, ImageStatsPublisher {
 
             // add the contiguous memory as fragment:
             if (image != null) {
-               fragmentedMemory.add(image.getPixelBuffer());
+               // ClearVolume needs direct memory; images are usually heap-backed
+               fragmentedMemory.add(
+                       DirectBuffers.directBufferFor(image.getPixelBuffer()));
             } else {
                 // if the image is missing, replace with pixels initialized to 0
                 fragmentedMemory.add(ByteBuffer.allocateDirect(
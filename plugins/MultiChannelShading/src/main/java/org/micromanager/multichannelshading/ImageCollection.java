@@ -36,6 +36,9 @@ import org.micromanager.Studio;
  * Images should be provided as full frame, unbinned images.  When binned 
  * images, and/or ROIs of (binned) images are requested, these are provided
  * on the fly, and a copy is cached for later use.
+ * The pixel arrays used to correct images (see ShadingKernel) are computed
+ * along with each cached image, so that they are ready before images of
+ * that binning and ROI need them.
  * @author nico
  */
 public class ImageCollection {
@@ -63,6 +66,7 @@ public class ImageCollection {
             throw new ShadingException("Failed to open file: " + file);
          }
          ImagePlusInfo bg = new ImagePlusInfo(ip); 
+         bg.getBackgroundPixels();
          background_.put(BASEIMAGE, bg);
          background_.put(makeKey(1, bg.getOriginalRoi()), bg);
          backgroundFilePath_ = file;
@@ -90,6 +94,7 @@ public class ImageCollection {
       }
       
       ImagePlusInfo derivedBg = makeDerivedImage(bg, binning, roi); 
+      derivedBg.getBackgroundPixels();
       // put it in our cache
       background_.put(makeKey(binning, roi), derivedBg);
       return derivedBg;
@@ -169,6 +174,7 @@ public class ImageCollection {
          FloatProcessor fp = new FloatProcessor (width, height, fPixels);
 
          flatField = new ImagePlusInfo(fp);
+         flatField.getFlatFieldPixels();
 
          HashMap<String, ImagePlusInfo> newFlatField =
                  new HashMap<String, ImagePlusInfo>();
@@ -213,6 +219,7 @@ public class ImageCollection {
          return null;
       }
       ImagePlusInfo derivedIp = makeDerivedImage(ff, binning, roi);
+      derivedIp.getFlatFieldPixels();
       // add derived image into our cache
       HashMap<String, ImagePlusInfo> tmp = flatFields_.get(preset);
       tmp.put(makeKey(binning, roi), derivedIp);
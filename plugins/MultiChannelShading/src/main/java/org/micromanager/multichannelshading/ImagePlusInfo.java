@@ -48,6 +48,9 @@ public class ImagePlusInfo extends ImagePlus{
    private final int binning_;
    private final Rectangle roi_;
    private final Map<ClearCLContext, ClearCLBuffer> clBuffers_;
+   // Pixels for ShadingKernel, computed on first use
+   private volatile int[] backgroundPixels_;
+   private volatile float[] flatFieldPixels_;
     
    
    public ImagePlusInfo(ImagePlus ip, int binning, Rectangle roi) {
@@ -112,4 +115,55 @@ public class ImagePlusInfo extends ImagePlus{
       }
       return clBuffers_.get(cclContext);
    }
+
+   /**
+    * Pixel values of this image as a background to subtract, for
+    * ShadingKernel; computed once and cached.
+    * @return unsigned pixel values
+    */
+   public int[] getBackgroundPixels() {
+      int[] pixels = backgroundPixels_;
+      if (pixels == null) {
+         ImageProcessor proc = super.getProcessor();
+         int length = proc.getWidth() * proc.getHeight();
+         pixels = new int[length];
+         if (proc instanceof FloatProcessor) {
+            // as ImageUtils.subtractPixelArrays(short[], float[])
+            float[] floats = (float[]) proc.getPixels();
+            for (int i = 0; i < length; i++) {
+               pixels[i] = ImageUtils.unsignedValue((short) floats[i]);
+            }
+         } else {
+            // get() returns unsigned values for 8- and 16-bit images
+            for (int i = 0; i < length; i++) {
+               pixels[i] = proc.get(i);
+            }
+         }
+         backgroundPixels_ = pixels;
+      }
+      return pixels;
+   }
+
+   /**
+    * Pixel values of this (normalized) flat-field image as multipliers, for
+    * ShadingKernel; computed once and cached.
+    * @return the multiplier of each pixel
+    */
+   public float[] getFlatFieldPixels() {
+      float[] pixels = flatFieldPixels_;
+      if (pixels == null) {
+         ImageProcessor proc = super.getProcessor();
+         if (proc instanceof FloatProcessor) {
+            pixels = (float[]) proc.getPixels();
+         } else {
+            int length = proc.getWidth() * proc.getHeight();
+            pixels = new float[length];
+            for (int i = 0; i < length; i++) {
+               pixels[i] = proc.getf(i);
+            }
+         }
+         flatFieldPixels_ = pixels;
+      }
+      return pixels;
+   }
 }
@@ -0,0 +1,145 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ShadingKernel.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     MultiChannelShading plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.multichannelshading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Background subtraction and flat-field correction of 8- and 16-bit pixel
+ * arrays in plain Java, for when OpenCL is not used.
+ *
+ * Each output pixel is (input - background) * flatField + 0.5, clamped to
+ * the range of the pixel type, where flatField holds the normalized
+ * reciprocal of the flat-field image (see ImageCollection.addFlatField()).
+ * Background and flat field come as arrays that ImagePlusInfo computes once
+ * per binning and ROI, and the caller provides the output array, so no
+ * pixel arrays are allocated here.  The pixels are processed in bands on a
+ * shared pool of threads, one per core.
+ */
+final class ShadingKernel {
+   private static final int NUM_THREADS =
+         Runtime.getRuntime().availableProcessors();
+   // Bands smaller than this are not worth handing to another thread
+   private static final int MIN_PIXELS_PER_BAND = 64 * 1024;
+
+   private static final ExecutorService EXECUTOR =
+         Executors.newFixedThreadPool(NUM_THREADS,
+               ThreadFactoryFactory.createThreadFactory("MultiChannelShading"));
+
+   private ShadingKernel() {
+   }
+
+   /**
+    * @param input byte[] or short[]
+    * @param output array of the same type and length as input
+    * @param background unsigned background values, same length as input,
+    *        or null for no background subtraction
+    * @param flatField flat-field multipliers, same length as input, or null
+    *        for no flat-field correction
+    */
+   static void correct(final Object input, final Object output,
+         final int[] background, final float[] flatField) {
+      final int length;
+      if (input instanceof byte[]) {
+         length = ((byte[]) input).length;
+      }
+      else if (input instanceof short[]) {
+         length = ((short[]) input).length;
+      }
+      else {
+         throw new IllegalArgumentException("Unsupported pixel type");
+      }
+      int numBands = Math.max(1,
+            Math.min(NUM_THREADS, length / MIN_PIXELS_PER_BAND));
+      List<Future<?>> futures = new ArrayList<Future<?>>(numBands - 1);
+      for (int b = 0; b < numBands - 1; ++b) {
+         final int start = (int) ((long) length * b / numBands);
+         final int end = (int) ((long) length * (b + 1) / numBands);
+         futures.add(EXECUTOR.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+               correctRange(input, output, background, flatField, start, end);
+               return null;
+            }
+         }));
+      }
+      // last band on the calling thread
+      correctRange(input, output, background, flatField,
+            (int) ((long) length * (numBands - 1) / numBands), length);
+      try {
+         for (Future<?> future : futures) {
+            future.get();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      }
+   }
+
+   private static void correctRange(Object input, Object output,
+         int[] background, float[] flatField, int start, int end) {
+      if (input instanceof byte[]) {
+         correctBytes((byte[]) input, (byte[]) output, background, flatField,
+               start, end);
+      }
+      else {
+         correctShorts((short[]) input, (short[]) output, background,
+               flatField, start, end);
+      }
+   }
+
+   private static void correctBytes(byte[] input, byte[] output,
+         int[] background, float[] flatField, int start, int end) {
+      for (int i = start; i < end; ++i) {
+         int value = input[i] & 0xff;
+         if (background != null) {
+            value = Math.max(0, value - background[i]);
+         }
+         if (flatField != null) {
+            value = Math.max(0, Math.min(0xff,
+                  (int) (value * flatField[i] + 0.5f)));
+         }
+         output[i] = (byte) value;
+      }
+   }
+
+   private static void correctShorts(short[] input, short[] output,
+         int[] background, float[] flatField, int start, int end) {
+      for (int i = start; i < end; ++i) {
+         int value = input[i] & 0xffff;
+         if (background != null) {
+            value = Math.max(0, value - background[i]);
+         }
+         if (flatField != null) {
+            value = Math.max(0, Math.min(0xffff,
+                  (int) (value * flatField[i] + 0.5f)));
+         }
+         output[i] = (short) value;
+      }
+   }
+}
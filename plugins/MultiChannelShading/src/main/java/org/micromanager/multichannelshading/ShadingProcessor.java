@@ -31,11 +31,13 @@ import clearcl.backend.ClearCLBackends;
 import clearcl.enums.BuildStatus;
 import clearcl.exceptions.OpenCLException;
 import coremem.enums.NativeTypeEnum;
-import ij.process.ImageProcessor;
 
 import java.awt.Rectangle;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import mmcorej.Configuration;
 import mmcorej.PropertySetting;
@@ -48,6 +50,7 @@ import org.micromanager.data.ProcessorContext;
 import org.micromanager.PropertyMap;
 import org.micromanager.Studio;
 import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.internal.utils.DirectBuffers;
 
 /**
  *
@@ -63,6 +66,10 @@ public class ShadingProcessor extends Processor {
    private ClearCL ccl_;
    private ClearCLContext cclContext_;
    private ClearCLProgram cclProgram_;
+   // Reused from image to image; replaced when the image size or type changes
+   private ClearCLBuffer clImage_;
+   private final Map<String, ClearCLKernel> clKernels_ =
+         new HashMap<String, ClearCLKernel>();
 
    public ShadingProcessor(Studio studio, String channelGroup,
            Boolean useOpenCL, String backgroundFile, List<String> presets,
@@ -138,9 +145,6 @@ public class ShadingProcessor extends Processor {
       Metadata metadata = image.getMetadata();
       PropertyMap userData = metadata.getUserData();
 
-      Image bgSubtracted = image;
-      Image result;
-
       // subtract background
       Integer binning = metadata.getBinning();
       if (binning == null) {
@@ -171,45 +175,48 @@ public class ShadingProcessor extends Processor {
             ClearCLBuffer clImg, clBackground, clFlatField;
             String suffix;
             if (image.getBytesPerPixel() == 2) {
-               clImg = cclContext_.createBuffer(NativeTypeEnum.UnsignedShort,
+               clImg = getCLImageBuffer(NativeTypeEnum.UnsignedShort,
                        image.getWidth() * image.getHeight());
                suffix = "US";
             } else { //(image.getBytesPerPixel() == 1) 
-               clImg = cclContext_.createBuffer(NativeTypeEnum.UnsignedByte,
+               clImg = getCLImageBuffer(NativeTypeEnum.UnsignedByte,
                        image.getWidth() * image.getHeight());
                suffix = "UB";
             }
 
-            // copy image to the GPU
-            clImg.readFrom(((DefaultImage) image).getPixelBuffer(), false);
+            // copy image to the GPU. ClearCL needs direct (off-heap) memory,
+            // whereas images are usually backed by Java arrays.
+            Buffer pixels = DirectBuffers.directBufferFor(
+                    ((DefaultImage) image).getPixelBuffer());
+            clImg.readFrom(pixels, false);
             // process with different kernels depending on availability of flatfield
             // and background:
             if (background != null && flatFieldImage == null) {
                clBackground = background.getCLBuffer(cclContext_);
                // need to use different kernels for differe types
-               ClearCLKernel lKernel = cclProgram_.createKernel("subtract" + suffix);
+               ClearCLKernel lKernel = getCLKernel("subtract" + suffix);
                lKernel.setArguments(clImg, clBackground);
                lKernel.setGlobalSizes(clImg);
                lKernel.run();
             } else if (background == null && flatFieldImage != null) {
                clFlatField = flatFieldImage.getCLBuffer(cclContext_);
-               ClearCLKernel lKernel = cclProgram_.createKernel("multiply" + suffix + "F");
+               ClearCLKernel lKernel = getCLKernel("multiply" + suffix + "F");
                lKernel.setArguments(clImg, clFlatField);
                lKernel.setGlobalSizes(clImg);
                lKernel.run();
             } else if (background != null && flatFieldImage != null) {
                clBackground = background.getCLBuffer(cclContext_);
                clFlatField = flatFieldImage.getCLBuffer(cclContext_);
-               ClearCLKernel lKernel = cclProgram_.createKernel("subtractAndMultiply" + suffix + "F");
+               ClearCLKernel lKernel = getCLKernel("subtractAndMultiply" + suffix + "F");
                lKernel.setArguments(clImg, clBackground, clFlatField);
                lKernel.setGlobalSizes(clImg);
                lKernel.run();
             }
             // copy processed image back from the GPU
-            clImg.writeTo(((DefaultImage) image).getPixelBuffer(), true);
-            // release resources.  If more GPU processing is desired, this should change
-            clImg.close();
-            context.outputImage(image);
+            clImg.writeTo(pixels, true);
+            context.outputImage(studio_.data().createImage(
+                    DirectBuffers.arrayFromBuffer(pixels), width, height,
+                    image.getBytesPerPixel(), 1, image.getCoords(), metadata));
             return;
          } catch (OpenCLException ocle) {
             studio_.alerts().postAlert(MultiChannelShading.MENUNAME,
@@ -220,73 +227,81 @@ public class ShadingProcessor extends Processor {
       }
 
 
+      // do not correct if we have neither a background nor a flat field
+      // matching this image
+      if (background == null && flatFieldImage == null) {
+         context.outputImage(image);
+         return;
+      }
+      int[] backgroundPixels = null;
+      float[] flatFieldPixels = null;
       if (background != null) {
-         ImageProcessor ip = studio_.data().ij().createProcessor(image);
-         ImageProcessor ipBackground = background.getProcessor();
-         try {
-            ip = ImageUtils.subtractImageProcessors(ip, ipBackground);
-            if (userData != null) {
-               userData = userData.copy().putBoolean("Background-corrected", true).build();
-            }
-         } catch (ShadingException e) {
-            String msg = "Unable to subtract background: " + e.getMessage();
-            studio_.alerts().postAlert(MultiChannelShading.MENUNAME, 
+         backgroundPixels = background.getBackgroundPixels();
+      }
+      if (flatFieldImage != null) {
+         flatFieldPixels = flatFieldImage.getFlatFieldPixels();
+      }
+      if ((backgroundPixels != null && backgroundPixels.length != width * height)
+              || (flatFieldPixels != null && flatFieldPixels.length != width * height)) {
+         String msg = "Background or flatfield image size differs from image size";
+         studio_.alerts().postAlert(MultiChannelShading.MENUNAME, 
                  ErrorSubtractingClass.class, msg);
-         }
-         bgSubtracted = studio_.data().ij().createImage(ip, image.getCoords(),
-                 metadata.copy().userData(userData).build());
+         context.outputImage(image);
+         return;
       }
 
-
-      // do not calculate flat field if we don't have a matching channel;
-      // just return the background-subtracted image (which is the unmodified
-      // image if we also don't have a background subtraction file).
-      if (flatFieldImage == null) {
-         context.outputImage(bgSubtracted);
-         return;
+      Object newPixels;
+      if (image.getBytesPerPixel() == 1) {
+         newPixels = new byte[width * height];
+      } else {
+         newPixels = new short[width * height];
       }
+      ShadingKernel.correct(image.getRawPixels(), newPixels, backgroundPixels,
+              flatFieldPixels);
 
       if (userData != null) {
-         userData = userData.copy().putBoolean("Flatfield-corrected", true).build();
-         metadata = metadata.copy().userData(userData).build();
-      }
-      
-      
-      
-      if (image.getBytesPerPixel() == 1) {
-         byte[] newPixels = new byte[width * height];
-         byte[] oldPixels = (byte[]) image.getRawPixels();
-         int length = oldPixels.length;
-         float[] flatFieldPixels = (float[]) flatFieldImage.getProcessor().getPixels();
-         for (int index = 0; index < length; index++) {
-            float oldPixel = (float) ((int) (oldPixels[index]) & 0x000000ff);
-            float newValue = oldPixel * flatFieldPixels[index];
-            if (newValue > 2 * Byte.MAX_VALUE) {
-               newValue = 2 * Byte.MAX_VALUE;
-            }
-            newPixels[index] = (byte) (newValue);
+         if (backgroundPixels != null) {
+            userData = userData.copy().putBoolean("Background-corrected", true).build();
          }
-         result = studio_.data().createImage(newPixels, width, height,
-                 1, 1, image.getCoords(), metadata);
-         context.outputImage(result);
-      } else if (image.getBytesPerPixel() == 2) {
-         short[] newPixels = new short[width * height];
-         short[] oldPixels = (short[]) bgSubtracted.getRawPixels();
-         int length = oldPixels.length;
-         for (int index = 0; index < length; index++) {
-            // shorts are signed in java so have to do this conversion to get 
-            // the right value
-            float oldPixel = (float) ((int) (oldPixels[index]) & 0x0000ffff);
-            float newValue = (oldPixel
-                    * flatFieldImage.getProcessor().getf(index)) + 0.5f;
-            if (newValue > 2 * Short.MAX_VALUE) {
-               newValue = 2 * Short.MAX_VALUE;
-            }
-            newPixels[index] = (short) (((int) newValue) & 0x0000ffff);
+         if (flatFieldPixels != null) {
+            userData = userData.copy().putBoolean("Flatfield-corrected", true).build();
          }
-         result = studio_.data().createImage(newPixels, width, height,
-                 2, 1, image.getCoords(), metadata);
-         context.outputImage(result);
+         metadata = metadata.copy().userData(userData).build();
+      }
+      context.outputImage(studio_.data().createImage(newPixels, width, height,
+              image.getBytesPerPixel(), 1, image.getCoords(), metadata));
+   }
+
+   private ClearCLBuffer getCLImageBuffer(NativeTypeEnum type, long length) {
+      if (clImage_ != null && (clImage_.getNativeType() != type
+              || clImage_.getLength() != length)) {
+         clImage_.close();
+         clImage_ = null;
+      }
+      if (clImage_ == null) {
+         clImage_ = cclContext_.createBuffer(type, length);
+      }
+      return clImage_;
+   }
+
+   private ClearCLKernel getCLKernel(String name) {
+      ClearCLKernel kernel = clKernels_.get(name);
+      if (kernel == null) {
+         kernel = cclProgram_.createKernel(name);
+         clKernels_.put(name, kernel);
+      }
+      return kernel;
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      for (ClearCLKernel kernel : clKernels_.values()) {
+         kernel.close();
+      }
+      clKernels_.clear();
+      if (clImage_ != null) {
+         clImage_.close();
+         clImage_ = null;
       }
    }
 
@@ -0,0 +1,170 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ShadingKernelTest.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     MultiChannelShading plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.multichannelshading;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ShadingKernelTest {
+   // Large enough to be split into several bands
+   private static final int LENGTH = 5 * 64 * 1024 + 17;
+
+   // One pixel at a time, in the simplest possible way
+   private static int reference(int value, int max, int[] background,
+         float[] flatField, int i) {
+      if (background != null) {
+         value -= background[i];
+         if (value < 0) {
+            value = 0;
+         }
+      }
+      if (flatField != null) {
+         value = (int) (value * flatField[i] + 0.5f);
+         if (value > max) {
+            value = max;
+         }
+      }
+      return value;
+   }
+
+   // Random values, with the first pixels set to the edge cases
+   private static int[] makeBackground(int max, Random random) {
+      int[] background = new int[LENGTH];
+      for (int i = 0; i < LENGTH; ++i) {
+         background[i] = random.nextInt(max / 8);
+      }
+      background[0] = 0;
+      background[1] = max;  // more than the pixel: clamps to 0
+      background[2] = 10;   // equal to the pixel
+      background[3] = 0;
+      background[4] = 0;
+      background[5] = 0;
+      return background;
+   }
+
+   private static float[] makeFlatField(Random random) {
+      float[] flatField = new float[LENGTH];
+      for (int i = 0; i < LENGTH; ++i) {
+         flatField[i] = 0.5f + 1.5f * random.nextFloat();
+      }
+      flatField[0] = 1.0f;
+      flatField[1] = 1.0f;
+      flatField[2] = 1.0f;
+      flatField[3] = 4.0f;   // saturates
+      flatField[4] = 0.5f;   // 3 * 0.5 + 0.5 rounds up to 2
+      flatField[5] = 1.0f;
+      return flatField;
+   }
+
+   private static void setEdgeCases(int[] values, int max) {
+      values[0] = max;
+      values[1] = 5;
+      values[2] = 10;
+      values[3] = max / 2;
+      values[4] = 3;
+      values[5] = 0;
+   }
+
+   private static void checkBytes(boolean withBackground,
+         boolean withFlatField) {
+      Random random = new Random(25);
+      int[] values = new int[LENGTH];
+      for (int i = 0; i < LENGTH; ++i) {
+         values[i] = random.nextInt(0x100);
+      }
+      setEdgeCases(values, 0xff);
+      byte[] input = new byte[LENGTH];
+      for (int i = 0; i < LENGTH; ++i) {
+         input[i] = (byte) values[i];
+      }
+      int[] background = withBackground ? makeBackground(0xff, random) : null;
+      float[] flatField = withFlatField ? makeFlatField(random) : null;
+
+      byte[] output = new byte[LENGTH];
+      ShadingKernel.correct(input, output, background, flatField);
+      for (int i = 0; i < LENGTH; ++i) {
+         assertEquals("pixel " + i,
+               reference(values[i], 0xff, background, flatField, i),
+               output[i] & 0xff);
+      }
+   }
+
+   private static void checkShorts(boolean withBackground,
+         boolean withFlatField) {
+      Random random = new Random(25);
+      int[] values = new int[LENGTH];
+      for (int i = 0; i < LENGTH; ++i) {
+         values[i] = random.nextInt(0x10000);
+      }
+      setEdgeCases(values, 0xffff);
+      short[] input = new short[LENGTH];
+      for (int i = 0; i < LENGTH; ++i) {
+         input[i] = (short) values[i];
+      }
+      int[] background = withBackground ? makeBackground(0xffff, random) : null;
+      float[] flatField = withFlatField ? makeFlatField(random) : null;
+
+      short[] output = new short[LENGTH];
+      ShadingKernel.correct(input, output, background, flatField);
+      for (int i = 0; i < LENGTH; ++i) {
+         assertEquals("pixel " + i,
+               reference(values[i], 0xffff, background, flatField, i),
+               output[i] & 0xffff);
+      }
+   }
+
+   @Test
+   public void testBytes() {
+      checkBytes(false, false);
+      checkBytes(true, false);
+      checkBytes(false, true);
+      checkBytes(true, true);
+   }
+
+   @Test
+   public void testShorts() {
+      checkShorts(false, false);
+      checkShorts(true, false);
+      checkShorts(false, true);
+      checkShorts(true, true);
+   }
+
+   @Test
+   public void testEdgeCases() {
+      byte[] bytes = new byte[] {(byte) 0xff, 5, 10, (byte) 0x7f, 3, 0};
+      int[] background = new int[] {0, 0xff, 10, 0, 0, 0};
+      float[] flatField = new float[] {1.0f, 1.0f, 1.0f, 4.0f, 0.5f, 1.0f};
+      byte[] out = new byte[bytes.length];
+      ShadingKernel.correct(bytes, out, background, flatField);
+      assertArrayEquals(new byte[] {(byte) 0xff, 0, 0, (byte) 0xff, 2, 0},
+            out);
+
+      short[] shorts = new short[] {(short) 0xffff, 5, 10, 0x7fff, 3, 0};
+      background = new int[] {0, 0xffff, 10, 0, 0, 0};
+      short[] shortOut = new short[shorts.length];
+      ShadingKernel.correct(shorts, shortOut, background, flatField);
+      assertArrayEquals(new short[] {(short) 0xffff, 0, 0, (short) 0xffff,
+            2, 0}, shortOut);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testUnsupportedPixelType() {
+      ShadingKernel.correct(new int[4], new int[4], null, null);
+   }
+}
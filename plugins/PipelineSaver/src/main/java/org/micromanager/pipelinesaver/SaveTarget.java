@@ -0,0 +1,223 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.pipelinesaver;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.micromanager.data.Datastore;
+import org.micromanager.data.DatastoreFrozenException;
+import org.micromanager.data.DatastoreRewriteException;
+import org.micromanager.data.Image;
+import org.micromanager.Studio;
+
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * One datastore that a SaverProcessor writes to.
+ *
+ * Synchronous targets write each image before put() returns. Asynchronous
+ * targets put the image in a bounded queue which a thread of their own
+ * writes out; put() only waits when that queue is full, so a slow target
+ * holds up the pipeline only once its own queue has filled, whatever the
+ * other targets are doing. If the writer thread fails, put() reports the
+ * failure and stops queueing instead of waiting for room that never comes.
+ *
+ * Targets that are being written to are listed by getActiveTargets(), so
+ * that the configurator can show their queue depth and write bandwidth.
+ */
+final class SaveTarget {
+   private static final List<SaveTarget> activeTargets_ =
+         new CopyOnWriteArrayList<SaveTarget>();
+
+   private final Studio studio_;
+   private final Datastore store_;
+   private final String description_;
+   private final BlockingQueue<Image> queue_;
+   private final Thread writer_;
+   private volatile boolean finishing_ = false;
+   // Set by the writer thread when it stops writing for good
+   private volatile Exception writerFailure_ = null;
+   private boolean failureShown_ = false;
+   private long imagesDropped_ = 0;
+
+   private volatile long imagesWritten_ = 0;
+   private volatile long bytesWritten_ = 0;
+
+   /**
+    * @param description shown in the configurator, e.g. the format
+    * @param queueSize number of images that may wait to be written; 0 for
+    *        a synchronous target
+    */
+   SaveTarget(Studio studio, Datastore store, String description,
+         int queueSize) {
+      studio_ = studio;
+      store_ = store;
+      description_ = description;
+      if (queueSize > 0) {
+         queue_ = new ArrayBlockingQueue<Image>(queueSize);
+         writer_ = ThreadFactoryFactory.createThreadFactory(
+               "PipelineSaver " + description).newThread(new Runnable() {
+            @Override
+            public void run() {
+               drain();
+            }
+         });
+         writer_.start();
+      }
+      else {
+         queue_ = null;
+         writer_ = null;
+      }
+      activeTargets_.add(this);
+   }
+
+   static List<SaveTarget> getActiveTargets() {
+      return activeTargets_;
+   }
+
+   /**
+    * Write the image, or queue it for writing.
+    */
+   void put(Image image) {
+      if (queue_ == null) {
+         write(image);
+         return;
+      }
+      try {
+         while (writerFailure_ == null) {
+            if (queue_.offer(image, 100, TimeUnit.MILLISECONDS)) {
+               return;
+            }
+         }
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         studio_.logs().logError(e, "Interrupted; image at " +
+               image.getCoords() + " not saved");
+         return;
+      }
+      imagesDropped_++;
+      if (!failureShown_) {
+         failureShown_ = true;
+         studio_.logs().showError(writerFailure_, "Saving to " +
+               description_ + " failed; no further images will be saved there");
+      }
+   }
+
+   /**
+    * Wait until all queued images have been written.
+    */
+   void finish() {
+      finishing_ = true;
+      if (writer_ != null) {
+         try {
+            writer_.join();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            studio_.logs().logError(e, "Interrupted while saving images");
+         }
+      }
+      int unsaved = queue_ == null ? 0 : queue_.size();
+      if (unsaved > 0 || imagesDropped_ > 0) {
+         queue_.clear();
+         studio_.logs().showError("Saving to " + description_ + ": " +
+               (unsaved + imagesDropped_) + " images were not saved");
+      }
+      activeTargets_.remove(this);
+   }
+
+   Datastore getDatastore() {
+      return store_;
+   }
+
+   String getDescription() {
+      return description_;
+   }
+
+   boolean isAsynchronous() {
+      return queue_ != null;
+   }
+
+   int getQueueDepth() {
+      return queue_ == null ? 0 : queue_.size();
+   }
+
+   int getQueueCapacity() {
+      return queue_ == null ? 0 : queue_.size() + queue_.remainingCapacity();
+   }
+
+   long getImagesWritten() {
+      return imagesWritten_;
+   }
+
+   long getBytesWritten() {
+      return bytesWritten_;
+   }
+
+   private void drain() {
+      while (writerFailure_ == null) {
+         Image image;
+         try {
+            image = queue_.poll(100, TimeUnit.MILLISECONDS);
+         }
+         catch (InterruptedException e) {
+            studio_.logs().logError(e, "PipelineSaver writer interrupted");
+            writerFailure_ = e;
+            return;
+         }
+         if (image != null) {
+            write(image);
+         }
+         else if (finishing_) {
+            // nothing more is put once finishing
+            return;
+         }
+      }
+   }
+
+   private void write(Image image) {
+      try {
+         store_.putImage(image);
+         imagesWritten_++;
+         bytesWritten_ += (long) image.getWidth() * image.getHeight() *
+               image.getBytesPerPixel();
+      }
+      catch (DatastoreFrozenException e) {
+         studio_.logs().logError(e, "Unable to save data: datastore is frozen");
+      }
+      catch (DatastoreRewriteException e) {
+         studio_.logs().logError(e, "Unable to save data: image already exists at " + image.getCoords());
+      }
+      catch (IOException e) {
+         studio_.logs().logError(e, "Unable to save data: IOException");
+      }
+      catch (RuntimeException e) {
+         if (queue_ == null) {
+            // Synchronous: let the pipeline handle it, as it always has
+            throw e;
+         }
+         studio_.logs().logError(e, "Unable to save data to " + description_);
+         writerFailure_ = e;
+      }
+   }
+}
@@ -23,6 +23,9 @@ package org.micromanager.pipelinesaver;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -30,6 +33,7 @@ import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.Timer;
 
 import net.miginfocom.swing.MigLayout;
 
@@ -46,12 +50,30 @@ public class SaverConfigurator extends MMFrame implements ProcessorConfigurator
    private static final String PREFERRED_FORMAT = "preferred format for saving mid-pipeline datasets";
    private static final String SHOULD_DISPLAY_PIPELINE_DATA = "whether or not to display mid-pipeline datasets";
    private static final String SAVE_PATH = "default save path for saving mid-pipeline datasets";
+   private static final String MODE = "whether to save mid-pipeline datasets in the background";
+   private static final String QUEUE_SIZE = "number of images that may wait to be saved in the background";
+   private static final String TEE_FORMAT = "format for a second copy of mid-pipeline datasets";
+   private static final String TEE_SAVE_PATH = "default save path for a second copy of mid-pipeline datasets";
+   // How often the save status is updated
+   private static final int STATUS_INTERVAL_MS = 1000;
 
    private final Studio studio_;
    private final JCheckBox shouldDisplay_;
    private final JComboBox saveFormat_;
    private JTextField savePath_;
    private final JButton browseButton_;
+   private final JComboBox mode_;
+   private final JTextField queueSize_;
+   private final JComboBox teeFormat_;
+   private final JTextField teeSavePath_;
+   private final JButton teeBrowseButton_;
+   private final JLabel status_;
+   private final Timer statusTimer_;
+   // Bytes written by each target when the status was last updated
+   private final Map<SaveTarget, Long> lastBytesWritten_ =
+         new IdentityHashMap<SaveTarget, Long>();
+   private long lastStatusTime_ = System.nanoTime();
+   private int lastNumTargets_ = -1;
 
    public SaverConfigurator(PropertyMap settings, Studio studio) {
       studio_ = studio;
@@ -95,6 +117,65 @@ public class SaverConfigurator extends MMFrame implements ProcessorConfigurator
          }
       });
       panel.add(browseButton_, "wrap");
+
+      panel.add(new JLabel("Also save a copy as: "), "split 2");
+      String[] teeFormats = new String[] {SaverPlugin.NONE, SaverPlugin.RAM,
+         SaverPlugin.MULTIPAGE_TIFF, SaverPlugin.SINGLEPLANE_TIFF_SERIES};
+      teeFormat_ = new JComboBox(teeFormats);
+      teeFormat_.setSelectedItem(
+            settings.getString("teeFormat", getTeeFormat()));
+      teeFormat_.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            updateControls();
+         }
+      });
+      panel.add(teeFormat_, "wrap");
+
+      panel.add(new JLabel("Copy save path: "), "wrap");
+      teeSavePath_ = new JTextField(30);
+      teeSavePath_.setText(settings.getString("teeSavePath", getTeeSavePath()));
+      panel.add(teeSavePath_, "split 2, span");
+      teeBrowseButton_ = new JButton("...");
+      teeBrowseButton_.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            File path = FileDialogs.save(SaverConfigurator.this,
+               "Please choose a directory to save the copy to",
+               FileDialogs.MM_DATA_SET);
+            if (path != null) {
+               teeSavePath_.setText(path.getAbsolutePath());
+            }
+         }
+      });
+      panel.add(teeBrowseButton_, "wrap");
+
+      panel.add(new JLabel("Mode: "), "split 2");
+      mode_ = new JComboBox(new String[] {SaverPlugin.SYNCHRONOUS,
+         SaverPlugin.ASYNCHRONOUS});
+      mode_.setSelectedItem(settings.getString("mode", getMode()));
+      mode_.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            updateControls();
+         }
+      });
+      panel.add(mode_, "wrap");
+      panel.add(new JLabel("Background queue (images per copy): "), "split 2");
+      queueSize_ = new JTextField(
+            Integer.toString(settings.getInteger("queueSize", getQueueSize())), 5);
+      panel.add(queueSize_, "wrap");
+
+      status_ = new JLabel();
+      panel.add(status_, "span, wrap");
+      statusTimer_ = new Timer(STATUS_INTERVAL_MS, new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent e) {
+            updateStatus();
+         }
+      });
+      updateStatus();
+
       super.add(panel);
       updateControls();
 
@@ -111,12 +192,65 @@ public class SaverConfigurator extends MMFrame implements ProcessorConfigurator
       shouldDisplay_.setEnabled(!isRAM);
       savePath_.setEnabled(!isRAM);
       browseButton_.setEnabled(!isRAM);
+      String teeFormat = (String) teeFormat_.getSelectedItem();
+      boolean teeHasPath = !teeFormat.equals(SaverPlugin.NONE) &&
+            !teeFormat.equals(SaverPlugin.RAM);
+      teeSavePath_.setEnabled(teeHasPath);
+      teeBrowseButton_.setEnabled(teeHasPath);
+      queueSize_.setEnabled(mode_.getSelectedItem().equals(
+            SaverPlugin.ASYNCHRONOUS));
+   }
+
+   /**
+    * Show queue depth and write bandwidth of the datastores currently being
+    * saved to.
+    */
+   private void updateStatus() {
+      long now = System.nanoTime();
+      double seconds = Math.max(1e-3, (now - lastStatusTime_) / 1e9);
+      lastStatusTime_ = now;
+      List<SaveTarget> targets = SaveTarget.getActiveTargets();
+      if (targets.isEmpty()) {
+         lastBytesWritten_.clear();
+         status_.setText("<html>Not saving.</html>");
+         resizeForStatus(0);
+         return;
+      }
+      StringBuilder text = new StringBuilder("<html>");
+      Map<SaveTarget, Long> bytesWritten = new IdentityHashMap<SaveTarget, Long>();
+      for (SaveTarget target : targets) {
+         long bytes = target.getBytesWritten();
+         bytesWritten.put(target, bytes);
+         Long lastBytes = lastBytesWritten_.get(target);
+         double megabytesPerSecond = lastBytes == null ? 0.0 :
+               (bytes - lastBytes) / seconds / (1024 * 1024);
+         text.append(target.getDescription()).append(": ");
+         if (target.isAsynchronous()) {
+            text.append(String.format("queue %d/%d, ",
+                  target.getQueueDepth(), target.getQueueCapacity()));
+         }
+         text.append(String.format("%.1f MB/s, %d images<br>",
+               megabytesPerSecond, target.getImagesWritten()));
+      }
+      lastBytesWritten_.clear();
+      lastBytesWritten_.putAll(bytesWritten);
+      status_.setText(text.append("</html>").toString());
+      resizeForStatus(targets.size());
+   }
+
+   // Fit the window to the status once per change in the number of lines
+   private void resizeForStatus(int numTargets) {
+      if (numTargets != lastNumTargets_) {
+         lastNumTargets_ = numTargets;
+         pack();
+      }
    }
 
    @Override
    public void showGUI() {
       pack();
       setVisible(true);
+      statusTimer_.start();
    }
 
    @Override
@@ -126,15 +260,34 @@ public class SaverConfigurator extends MMFrame implements ProcessorConfigurator
       setPreferredSaveFormat(format);
       setShouldDisplay(shouldDisplay_.isSelected());
       setSavePath(savePath_.getText());
+      String mode = (String) mode_.getSelectedItem();
+      setMode(mode);
+      int queueSize = getQueueSize();
+      try {
+         queueSize = Math.max(1, Integer.parseInt(queueSize_.getText().trim()));
+      }
+      catch (NumberFormatException e) {
+         studio_.logs().logError("Invalid queue size " + queueSize_.getText() +
+               "; using " + queueSize);
+      }
+      setQueueSize(queueSize);
+      String teeFormat = (String) teeFormat_.getSelectedItem();
+      setTeeFormat(teeFormat);
+      setTeeSavePath(teeSavePath_.getText());
       PropertyMap.Builder builder = PropertyMaps.builder();
       builder.putString("format", format);
       builder.putBoolean("shouldDisplay", shouldDisplay_.isSelected());
       builder.putString("savePath", savePath_.getText());
+      builder.putString("mode", mode);
+      builder.putInteger("queueSize", queueSize);
+      builder.putString("teeFormat", teeFormat);
+      builder.putString("teeSavePath", teeSavePath_.getText());
       return builder.build();
    }
 
    @Override
    public void cleanup() {
+      statusTimer_.stop();
       dispose();
    }
 
@@ -167,4 +320,44 @@ public class SaverConfigurator extends MMFrame implements ProcessorConfigurator
       studio_.profile().getSettings(SaverConfigurator.class).putString(
               SAVE_PATH, path);
    }
+
+   private String getMode() {
+      return studio_.profile().getSettings(SaverConfigurator.class).getString(
+            MODE, SaverPlugin.SYNCHRONOUS);
+   }
+
+   private void setMode(String mode) {
+      studio_.profile().getSettings(SaverConfigurator.class).putString(
+            MODE, mode);
+   }
+
+   private int getQueueSize() {
+      return studio_.profile().getSettings(SaverConfigurator.class).getInteger(
+            QUEUE_SIZE, SaverProcessor.DEFAULT_QUEUE_SIZE);
+   }
+
+   private void setQueueSize(int queueSize) {
+      studio_.profile().getSettings(SaverConfigurator.class).putInteger(
+            QUEUE_SIZE, queueSize);
+   }
+
+   private String getTeeFormat() {
+      return studio_.profile().getSettings(SaverConfigurator.class).getString(
+            TEE_FORMAT, SaverPlugin.NONE);
+   }
+
+   private void setTeeFormat(String format) {
+      studio_.profile().getSettings(SaverConfigurator.class).putString(
+            TEE_FORMAT, format);
+   }
+
+   private String getTeeSavePath() {
+      return studio_.profile().getSettings(SaverConfigurator.class).getString(
+            TEE_SAVE_PATH, "");
+   }
+
+   private void setTeeSavePath(String path) {
+      studio_.profile().getSettings(SaverConfigurator.class).putString(
+            TEE_SAVE_PATH, path);
+   }
 }
@@ -40,6 +40,11 @@ public class SaverFactory implements ProcessorFactory {
       return new SaverProcessor(studio_,
             settings_.getString("format", SaverPlugin.MULTIPAGE_TIFF),
             settings_.getString("savePath", null),
-            settings_.getBoolean("shouldDisplay", true));
+            settings_.getBoolean("shouldDisplay", true),
+            settings_.getString("teeFormat", SaverPlugin.NONE),
+            settings_.getString("teeSavePath", null),
+            settings_.getString("mode", SaverPlugin.SYNCHRONOUS).equals(
+                  SaverPlugin.ASYNCHRONOUS) ?
+                  settings_.getInteger("queueSize", SaverProcessor.DEFAULT_QUEUE_SIZE) : 0);
    }
 }
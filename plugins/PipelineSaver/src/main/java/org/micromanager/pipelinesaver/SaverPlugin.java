@@ -40,6 +40,12 @@ public class SaverPlugin implements ProcessorPlugin, SciJavaPlugin {
    public static String SINGLEPLANE_TIFF_SERIES = "Separate Image Files";
    public static String MULTIPAGE_TIFF = "Image Stack File";
    public static String RAM = "RAM only";
+   // For the second ("tee") target: none
+   public static String NONE = "None";
+
+   // Write modes
+   public static String SYNCHRONOUS = "Save, then pass on";
+   public static String ASYNCHRONOUS = "Pass on, save in background";
 
    @Override
    public void setContext(Studio studio) {
@@ -22,81 +22,120 @@ package org.micromanager.pipelinesaver;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.micromanager.data.Datastore;
-import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.Image;
-import org.micromanager.data.DatastoreRewriteException;
 import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.Studio;
 
+/**
+ * Saves images as they pass, to one datastore or, in tee mode, to two.
+ *
+ * By default each image is saved before it is passed on. In asynchronous
+ * mode each datastore has a bounded queue, written out by its own thread,
+ * and images are passed on as soon as they are queued.
+ */
 public class SaverProcessor extends Processor {
+   // Images that may wait to be saved, per datastore, in asynchronous mode
+   public static final int DEFAULT_QUEUE_SIZE = 64;
+
    private Studio studio_;
-   private Datastore store_;
-   private final String format_;
-   private final String savePath_;
+   private final List<SaveTarget> targets_ = new ArrayList<SaveTarget>();
+   // Where each target is saved; null for RAM
+   private final List<String> savePaths_ = new ArrayList<String>();
 
    public SaverProcessor(Studio studio, String format, String savePath,
          boolean shouldDisplay) {
+      this(studio, format, savePath, shouldDisplay, SaverPlugin.NONE, null,
+            0);
+   }
+
+   /**
+    * @param teeFormat format of a second copy of the data, or
+    *        SaverPlugin.NONE
+    * @param teeSavePath where to save the second copy
+    * @param queueSize 0 to save each image before passing it on; otherwise
+    *        the number of images that may wait to be saved, per datastore
+    */
+   public SaverProcessor(Studio studio, String format, String savePath,
+         boolean shouldDisplay, String teeFormat, String teeSavePath,
+         int queueSize) {
       studio_ = studio;
-      format_ = format;
+      addTarget(format, savePath, shouldDisplay, queueSize);
+      if (!teeFormat.equals(SaverPlugin.NONE)) {
+         // RAM data can only be reached through its display
+         addTarget(teeFormat, teeSavePath, teeFormat.equals(SaverPlugin.RAM),
+               queueSize);
+      }
+   }
+
+   private void addTarget(String format, String savePath,
+         boolean shouldDisplay, int queueSize) {
       // Update save path to account for duplicates -- append a numerical
       // suffix that's max of all suffices + 1.
-      savePath_ = findUniqueSavePath(savePath);
+      if (savePath != null) {
+         savePath = findUniqueSavePath(savePath);
+      }
+      Datastore store = null;
       try {
          if (format.equals(SaverPlugin.MULTIPAGE_TIFF)) {
             // TODO: hardcoded whether or not to split positions.
-            store_ = studio_.data().createMultipageTIFFDatastore(savePath_,
+            store = studio_.data().createMultipageTIFFDatastore(savePath,
                   true, true);
          }
          else if (format.equals(SaverPlugin.SINGLEPLANE_TIFF_SERIES)) {
-            store_ = studio.data().createSinglePlaneTIFFSeriesDatastore(savePath_);
+            store = studio_.data().createSinglePlaneTIFFSeriesDatastore(savePath);
          }
          else if (format.equals(SaverPlugin.RAM)) {
-            store_ = studio.data().createRAMDatastore();
+            store = studio_.data().createRAMDatastore();
          }
          else {
             studio_.logs().logError("Unrecognized save format " + format);
+            return;
          }
       }
       catch (IOException e) {
-         studio_.logs().showError(e, "Error creating datastore at " + savePath_);
+         studio_.logs().showError(e, "Error creating datastore at " + savePath);
+         return;
       }
 
-      studio_.displays().manage(store_);
+      studio_.displays().manage(store);
 
       if (shouldDisplay) {
-         studio_.displays().createDisplay(store_);
+         studio_.displays().createDisplay(store);
       }
+
+      targets_.add(new SaveTarget(studio_, store,
+            format.equals(SaverPlugin.RAM) ? format : format + " " + savePath,
+            queueSize));
+      savePaths_.add(format.equals(SaverPlugin.RAM) ? null : savePath);
    }
 
    @Override
    public void processImage(Image image, ProcessorContext context) {
-      try {
-         store_.putImage(image);
-      }
-      catch (DatastoreFrozenException e) {
-         studio_.logs().logError(e, "Unable to save data: datastore is frozen");
-      }
-      catch (DatastoreRewriteException e) {
-         studio_.logs().logError(e, "Unable to save data: image already exists at " + image.getCoords());
-      }
-      catch (IOException e) {
-         studio_.logs().logError(e, "Unable to save data: IOException");
+      for (SaveTarget target : targets_) {
+         target.put(image);
       }
       context.outputImage(image);
    }
 
    @Override
    public void cleanup(ProcessorContext context) {
-      try {
-         store_.freeze();
-      } catch (IOException ioe) {
-         studio_.logs().logError(ioe, "SaverProcessor ran into trouble");
-      }
-      if (!format_.equals(SaverPlugin.RAM)) {
-         store_.setSavePath(savePath_);
+      for (int i = 0; i < targets_.size(); ++i) {
+         SaveTarget target = targets_.get(i);
+         target.finish();
+         Datastore store = target.getDatastore();
+         try {
+            store.freeze();
+         } catch (IOException ioe) {
+            studio_.logs().logError(ioe, "SaverProcessor ran into trouble");
+         }
+         if (savePaths_.get(i) != null) {
+            store.setSavePath(savePaths_.get(i));
+         }
       }
    }
 
@@ -34,6 +34,7 @@ import org.micromanager.data.Image;
 import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.PixelTransforms;
 
 import org.micromanager.Studio;
 
@@ -93,9 +94,17 @@ public class SplitViewProcessor extends Processor {
       return summary.copyBuilder().channelNames(newNames).build();
    }
 
+   /**
+    * 8- and 16-bit grayscale images are cropped directly from their pixel
+    * arrays, a row at a time; other images go through ImageJ.
+    */
    @Override
    public void processImage(Image image, ProcessorContext context) {
-      ImageProcessor proc = studio_.data().ij().createProcessor(image);
+      Object pixels = image.getRawPixels();
+      boolean isDirect = PixelTransforms.isSupported(pixels,
+            image.getNumComponents());
+      ImageProcessor proc = isDirect ? null :
+            studio_.data().ij().createProcessor(image);
 
       int width = image.getWidth();
       int height = image.getHeight();
@@ -112,11 +121,19 @@ public class SplitViewProcessor extends Processor {
 
       int channelIndex = image.getCoords().getChannel();
       for (int i = 0; i < numSplits_; ++i) {
-         proc.setRoi(i * xStep, i * yStep, width, height);
+         Object splitPixels;
+         if (isDirect) {
+            splitPixels = PixelTransforms.crop(pixels, image.getWidth(),
+                  image.getHeight(), i * xStep, i * yStep, width, height);
+         }
+         else {
+            proc.setRoi(i * xStep, i * yStep, width, height);
+            splitPixels = proc.crop().getPixels();
+         }
 
          Coords coords = image.getCoords().copy()
             .channel(channelIndex * numSplits_ + i).build();
-         Image output = studio_.data().createImage(proc.crop().getPixels(),
+         Image output = studio_.data().createImage(splitPixels,
                width, height, image.getBytesPerPixel(),
                image.getNumComponents(), coords, image.getMetadata());
          context.outputImage(output);
@@ -0,0 +1,95 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package com.imaging100x.tracker;
+
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+
+/**
+ * The original tracking correlation: for each offset on the search grid,
+ * the normalized product of the ROI of the previous frame with the
+ * shifted ROI of the current frame, summed over all ROI pixels. This costs
+ * O(offsets x pixels) and is kept as the reference for
+ * {@link FftCorrelator}.
+ */
+final class BruteForceCorrelator {
+   private BruteForceCorrelator() {
+   }
+
+   /**
+    * @param pixelsPrev previous frame
+    * @param pixelsCur current frame
+    * @param imWidth width of the frames
+    * @param r the tracked region in the previous frame; the shifted region
+    * must lie within the current frame
+    * @param offsetPix the search range, in pixels, in each direction
+    * @param resolutionPix the step between the offsets tried
+    * @param corrMap if not null, receives the correlation at each offset,
+    * (2 * offsetPix / resolutionPix) square
+    * @return the offset (in whole pixels) of the region in the current
+    * frame with the highest correlation
+    */
+   static Point2D.Double correlate(float[] pixelsPrev, float[] pixelsCur,
+         int imWidth, Rectangle r, int offsetPix, int resolutionPix,
+         float[] corrMap)
+   {
+      int lCount = 2 * offsetPix / resolutionPix;
+      int kCount = 2 * offsetPix / resolutionPix;
+
+      // position of correlation maximum
+      int kMax = 0;
+      int lMax = 0;
+
+      int width = r.width, height = r.height;
+      double corScale = width * height;
+
+      double maxCor = 0;
+      for (int k=-offsetPix; k<offsetPix; k += resolutionPix) {
+         for (int l=-offsetPix; l<offsetPix; l += resolutionPix) {
+
+            // calculate correlation
+            double sum = 0.0;
+            double meanPrev = 0.0;
+            double meanCur = 0.0;
+            for (int i = 0; i < height; i++) {
+               for (int j = 0; j < width; j++) {
+                  int row = r.y + i;
+                  int col = r.x + j;
+                  double pixPrev = pixelsPrev[row * imWidth + col];
+                  double pixCur = pixelsCur[(row + k) * imWidth + (col + l)];
+                  sum += pixPrev * pixCur;
+                  meanPrev += pixPrev;
+                  meanCur += pixCur;
+               }
+            }
+            sum /= corScale;
+            meanPrev /= corScale;
+            meanCur /= corScale;
+            sum /= meanPrev*meanCur;
+
+            int x = (l + offsetPix) / resolutionPix;
+            int y = (k + offsetPix) / resolutionPix;
+            if (corrMap != null && x < lCount && y < kCount) {
+               corrMap[x + lCount * y] = (float) sum;
+            }
+
+            // check for max value
+            if (sum > maxCor) {
+               maxCor = sum;
+               kMax = k;
+               lMax = l;
+            }
+         }
+      }
+      return new Point2D.Double(lMax, kMax);
+   }
+}
@@ -0,0 +1,144 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package com.imaging100x.tracker;
+
+/**
+ * In-place radix-2 complex FFT of a 2D array whose width and height are
+ * powers of two. The bit-reversal permutation and twiddle factors are
+ * computed once, when the plan is created, and the column scratch buffers
+ * are reused, so a plan can be applied repeatedly without allocating.
+ * <p>
+ * Not thread-safe.
+ */
+final class Fft2D {
+   private final int width_;
+   private final int height_;
+   private final Plan rowPlan_;
+   private final Plan columnPlan_;
+   private final float[] columnRe_;
+   private final float[] columnIm_;
+
+   private static final class Plan {
+      final int n_;
+      final int[] bitReverse_;
+      // cos and sin of 2 pi k / n, for k < n / 2
+      final float[] cos_;
+      final float[] sin_;
+
+      Plan(int n) {
+         n_ = n;
+         bitReverse_ = new int[n];
+         int bits = Integer.numberOfTrailingZeros(n);
+         for (int i = 0; i < n; ++i) {
+            bitReverse_[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+         }
+         cos_ = new float[n / 2];
+         sin_ = new float[n / 2];
+         for (int k = 0; k < n / 2; ++k) {
+            cos_[k] = (float) Math.cos(2 * Math.PI * k / n);
+            sin_[k] = (float) Math.sin(2 * Math.PI * k / n);
+         }
+      }
+
+      // Transform n elements of re and im starting at offset
+      void transform(float[] re, float[] im, int offset, boolean inverse) {
+         for (int i = 0; i < n_; ++i) {
+            int j = bitReverse_[i];
+            if (j > i) {
+               float tmp = re[offset + i];
+               re[offset + i] = re[offset + j];
+               re[offset + j] = tmp;
+               tmp = im[offset + i];
+               im[offset + i] = im[offset + j];
+               im[offset + j] = tmp;
+            }
+         }
+         float sign = inverse ? 1.0f : -1.0f;
+         for (int size = 2; size <= n_; size <<= 1) {
+            int half = size >> 1;
+            int step = n_ / size;
+            for (int start = offset; start < offset + n_; start += size) {
+               for (int j = 0; j < half; ++j) {
+                  float wr = cos_[j * step];
+                  float wi = sign * sin_[j * step];
+                  int a = start + j;
+                  int b = a + half;
+                  float tr = wr * re[b] - wi * im[b];
+                  float ti = wr * im[b] + wi * re[b];
+                  re[b] = re[a] - tr;
+                  im[b] = im[a] - ti;
+                  re[a] += tr;
+                  im[a] += ti;
+               }
+            }
+         }
+      }
+   }
+
+   static boolean isPowerOfTwo(int n) {
+      return n > 0 && (n & (n - 1)) == 0;
+   }
+
+   static int nextPowerOfTwo(int n) {
+      return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+   }
+
+   Fft2D(int width, int height) {
+      if (!isPowerOfTwo(width) || !isPowerOfTwo(height)) {
+         throw new IllegalArgumentException(
+               "FFT size must be a power of two: " + width + "x" + height);
+      }
+      width_ = width;
+      height_ = height;
+      rowPlan_ = new Plan(width);
+      columnPlan_ = width == height ? rowPlan_ : new Plan(height);
+      columnRe_ = new float[height];
+      columnIm_ = new float[height];
+   }
+
+   int getWidth() {
+      return width_;
+   }
+
+   int getHeight() {
+      return height_;
+   }
+
+   /**
+    * Transform the row-major width x height complex array in place. The
+    * inverse transform is scaled by 1 / (width * height), so that it undoes
+    * the forward transform.
+    */
+   void transform(float[] re, float[] im, boolean inverse) {
+      for (int y = 0; y < height_; ++y) {
+         rowPlan_.transform(re, im, y * width_, inverse);
+      }
+      for (int x = 0; x < width_; ++x) {
+         for (int y = 0, i = x; y < height_; ++y, i += width_) {
+            columnRe_[y] = re[i];
+            columnIm_[y] = im[i];
+         }
+         columnPlan_.transform(columnRe_, columnIm_, 0, inverse);
+         for (int y = 0, i = x; y < height_; ++y, i += width_) {
+            re[i] = columnRe_[y];
+            im[i] = columnIm_[y];
+         }
+      }
+      if (inverse) {
+         float scale = 1.0f / (width_ * height_);
+         for (int i = 0; i < re.length; ++i) {
+            re[i] *= scale;
+            im[i] *= scale;
+         }
+      }
+   }
+}
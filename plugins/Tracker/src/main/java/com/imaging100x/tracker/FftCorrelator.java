@@ -0,0 +1,314 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package com.imaging100x.tracker;
+
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+
+/**
+ * Finds how far the tracked region moved between two frames by normalized
+ * cross-correlation, computed with FFTs, with the same inputs and search
+ * range as {@link BruteForceCorrelator}.
+ * <p>
+ * The ROI of the previous frame is weighted with a Hann window, to
+ * suppress edge effects, and compared with the current frame at every
+ * offset within the search range. Each offset is scored by the weighted
+ * correlation coefficient of the two, so that a bright feature entering
+ * the region does not pull the peak towards it; this peaks exactly at the
+ * true shift. The highest peak is refined to sub-pixel precision by
+ * fitting a parabola through it and its neighbors in x and in y.
+ * <p>
+ * The three sums needed at each offset (of template times image, and of
+ * window times image and image squared) are correlations, computed in a
+ * power-of-two window large enough to hold the ROI shifted by the full
+ * search range. Real inputs are transformed in pairs with a single complex
+ * FFT and separated using the conjugate symmetry of real transforms; pairs
+ * of real results are likewise transformed back together. The cost is four
+ * FFTs of the window per frame, independent of the search resolution,
+ * instead of one pass over the ROI per offset tried. The FFT plan, the
+ * transformed window and the buffers are kept for as long as the ROI size
+ * and search range stay the same.
+ * <p>
+ * Not thread-safe.
+ */
+final class FftCorrelator {
+   private Fft2D fft_;
+   // Template and current window, then template and window correlations
+   private float[] re_;
+   private float[] im_;
+   // Current window squared, then its correlation with the window
+   private float[] squareRe_;
+   private float[] squareIm_;
+   // Transform of the Hann window, placed where the ROI is in the window
+   private float[] weightRe_;
+   private float[] weightIm_;
+   private float weightSum_;
+   private int roiWidth_;
+   private int roiHeight_;
+   private float[] taperX_;
+   private float[] taperY_;
+   // Weighted sum of squares of the template
+   private float templateEnergy_;
+
+   /**
+    * @param pixelsPrev previous frame
+    * @param pixelsCur current frame
+    * @param imWidth width of the frames
+    * @param r the tracked region in the previous frame
+    * @param offsetPix the search range, in pixels, in each direction
+    * @param resolutionPix the step between the entries of corrMap
+    * @param corrMap if not null, receives the correlation at each offset on
+    * the grid used by {@link BruteForceCorrelator}
+    * @return the offset of the region in the current frame, in pixels
+    */
+   Point2D.Double correlate(float[] pixelsPrev, float[] pixelsCur,
+         int imWidth, Rectangle r, int offsetPix, int resolutionPix,
+         float[] corrMap)
+   {
+      int imHeight = pixelsCur.length / imWidth;
+      setUp(r.width, r.height, offsetPix);
+      int width = fft_.getWidth();
+      int height = fft_.getHeight();
+      // Window origin, centering the ROI
+      int wx = r.x - (width - r.width) / 2;
+      int wy = r.y - (height - r.height) / 2;
+
+      fill(pixelsPrev, pixelsCur, imWidth, imHeight, r, wx, wy);
+      fft_.transform(re_, im_, false);
+      fft_.transform(squareRe_, squareIm_, false);
+      crossSpectra();
+      fft_.transform(re_, im_, true);
+      fft_.transform(squareRe_, squareIm_, true);
+
+      int xMax = 0;
+      int yMax = 0;
+      float maxCor = Float.NEGATIVE_INFINITY;
+      int range = Math.min(offsetPix, Math.min(width, height) / 2);
+      for (int dy = -range; dy < range; ++dy) {
+         for (int dx = -range; dx < range; ++dx) {
+            float cor = correlationAt(dx, dy);
+            if (cor > maxCor) {
+               maxCor = cor;
+               xMax = dx;
+               yMax = dy;
+            }
+         }
+      }
+
+      if (corrMap != null) {
+         int count = 2 * offsetPix / resolutionPix;
+         for (int y = 0; y < count; ++y) {
+            int dy = y * resolutionPix - offsetPix;
+            for (int x = 0; x < count; ++x) {
+               int dx = x * resolutionPix - offsetPix;
+               corrMap[x + count * y] = correlationAt(dx, dy);
+            }
+         }
+      }
+
+      return new Point2D.Double(xMax + refinePeak(xMax, yMax, 1, 0),
+            yMax + refinePeak(xMax, yMax, 0, 1));
+   }
+
+   private void setUp(int roiWidth, int roiHeight, int offsetPix) {
+      int width = Fft2D.nextPowerOfTwo(roiWidth + 2 * offsetPix);
+      int height = Fft2D.nextPowerOfTwo(roiHeight + 2 * offsetPix);
+      boolean resized = fft_ == null || fft_.getWidth() != width ||
+            fft_.getHeight() != height;
+      if (resized) {
+         fft_ = new Fft2D(width, height);
+         re_ = new float[width * height];
+         im_ = new float[width * height];
+         squareRe_ = new float[width * height];
+         squareIm_ = new float[width * height];
+         weightRe_ = new float[width * height];
+         weightIm_ = new float[width * height];
+      }
+      if (resized || roiWidth != roiWidth_ || roiHeight != roiHeight_) {
+         roiWidth_ = roiWidth;
+         roiHeight_ = roiHeight;
+         taperX_ = hann(roiWidth);
+         taperY_ = hann(roiHeight);
+         Arrays.fill(weightRe_, 0.0f);
+         Arrays.fill(weightIm_, 0.0f);
+         double sum = 0.0;
+         int x0 = (width - roiWidth) / 2;
+         int y0 = (height - roiHeight) / 2;
+         for (int y = 0; y < roiHeight; ++y) {
+            for (int x = 0; x < roiWidth; ++x) {
+               float weight = taperY_[y] * taperX_[x];
+               weightRe_[(y0 + y) * width + x0 + x] = weight;
+               sum += weight;
+            }
+         }
+         weightSum_ = (float) sum;
+         fft_.transform(weightRe_, weightIm_, false);
+      }
+   }
+
+   private static float[] hann(int n) {
+      float[] taper = new float[n];
+      for (int i = 0; i < n; ++i) {
+         taper[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * (i + 0.5) / n));
+      }
+      return taper;
+   }
+
+   // Weighted previous ROI, less its weighted mean, into re_; current
+   // window, less its mean, into im_ and squared into squareRe_. Parts of
+   // the window outside the frame are left at 0.
+   private void fill(float[] pixelsPrev, float[] pixelsCur, int imWidth,
+         int imHeight, Rectangle r, int wx, int wy)
+   {
+      int width = fft_.getWidth();
+      int height = fft_.getHeight();
+      Arrays.fill(re_, 0.0f);
+      Arrays.fill(im_, 0.0f);
+      Arrays.fill(squareRe_, 0.0f);
+      Arrays.fill(squareIm_, 0.0f);
+
+      int x0 = Math.max(0, r.x);
+      int x1 = Math.min(imWidth, r.x + r.width);
+      int y0 = Math.max(0, r.y);
+      int y1 = Math.min(imHeight, r.y + r.height);
+      double sum = 0.0;
+      double weights = 0.0;
+      for (int y = y0; y < y1; ++y) {
+         float taperY = taperY_[y - r.y];
+         for (int x = x0; x < x1; ++x) {
+            float weight = taperY * taperX_[x - r.x];
+            sum += weight * pixelsPrev[y * imWidth + x];
+            weights += weight;
+         }
+      }
+      float mean = (float) (sum / Math.max(1e-20, weights));
+      double energy = 0.0;
+      for (int y = y0; y < y1; ++y) {
+         float taperY = taperY_[y - r.y];
+         int in = y * imWidth;
+         int out = (y - wy) * width - wx;
+         for (int x = x0; x < x1; ++x) {
+            float weight = taperY * taperX_[x - r.x];
+            float value = pixelsPrev[in + x] - mean;
+            re_[out + x] = weight * value;
+            energy += weight * value * value;
+         }
+      }
+      templateEnergy_ = (float) energy;
+
+      x0 = Math.max(0, wx);
+      x1 = Math.min(imWidth, wx + width);
+      y0 = Math.max(0, wy);
+      y1 = Math.min(imHeight, wy + height);
+      sum = 0.0;
+      for (int y = y0; y < y1; ++y) {
+         for (int x = x0; x < x1; ++x) {
+            sum += pixelsCur[y * imWidth + x];
+         }
+      }
+      mean = (float) (sum / Math.max(1, (x1 - x0) * (y1 - y0)));
+      for (int y = y0; y < y1; ++y) {
+         int in = y * imWidth;
+         int out = (y - wy) * width - wx;
+         for (int x = x0; x < x1; ++x) {
+            float value = pixelsCur[in + x] - mean;
+            im_[out + x] = value;
+            squareRe_[out + x] = value * value;
+         }
+      }
+   }
+
+   // With T, C and S the transforms of the template, the current window
+   // and its square, and K that of the Hann window: replace Z = T + i C
+   // with conj(T) C + i conj(K) C, and S with conj(K) S. Transformed back,
+   // these give the three correlations.
+   // With Z' the conjugate of Z at the mirrored frequency,
+   // T = (Z + Z') / 2 and C = (Z - Z') / 2i. The results are Hermitian, so
+   // each pair of mirrored frequencies is done together.
+   private void crossSpectra() {
+      int width = fft_.getWidth();
+      int height = fft_.getHeight();
+      for (int v = 0; v < height; ++v) {
+         int mv = (height - v) & (height - 1);
+         for (int u = 0; u < width; ++u) {
+            int mu = (width - u) & (width - 1);
+            int k = v * width + u;
+            int mk = mv * width + mu;
+            if (mk < k) {
+               continue;
+            }
+            float a = re_[k];
+            float b = im_[k];
+            float ma = re_[mk];
+            float mb = im_[mk];
+            float tRe = 0.5f * (a + ma);
+            float tIm = 0.5f * (b - mb);
+            float cRe = 0.5f * (b + mb);
+            float cIm = 0.5f * (ma - a);
+            float kRe = weightRe_[k];
+            float kIm = weightIm_[k];
+            float sRe = squareRe_[k];
+            float sIm = squareIm_[k];
+            // conj(T) C
+            float nRe = tRe * cRe + tIm * cIm;
+            float nIm = tRe * cIm - tIm * cRe;
+            // conj(K) C
+            float mRe = kRe * cRe + kIm * cIm;
+            float mIm = kRe * cIm - kIm * cRe;
+            // conj(K) S
+            float qRe = kRe * sRe + kIm * sIm;
+            float qIm = kRe * sIm - kIm * sRe;
+            re_[k] = nRe - mIm;
+            im_[k] = nIm + mRe;
+            re_[mk] = nRe + mIm;
+            im_[mk] = mRe - nIm;
+            squareRe_[k] = qRe;
+            squareIm_[k] = qIm;
+            squareRe_[mk] = qRe;
+            squareIm_[mk] = -qIm;
+         }
+      }
+   }
+
+   // Vertex of the parabola through the peak and its neighbors along
+   // (stepX, stepY), relative to the peak
+   private double refinePeak(int xMax, int yMax, int stepX, int stepY) {
+      double before = correlationAt(xMax - stepX, yMax - stepY);
+      double peak = correlationAt(xMax, yMax);
+      double after = correlationAt(xMax + stepX, yMax + stepY);
+      double curvature = before - 2 * peak + after;
+      if (curvature >= 0.0) {
+         return 0.0;
+      }
+      double delta = 0.5 * (before - after) / curvature;
+      return Math.max(-0.5, Math.min(0.5, delta));
+   }
+
+   // Weighted correlation coefficient at offset (dx, dy), whose sums are at
+   // index (dy mod h) * w + dx mod w
+   private float correlationAt(int dx, int dy) {
+      int width = fft_.getWidth();
+      int height = fft_.getHeight();
+      int i = ((dy + height) & (height - 1)) * width +
+            ((dx + width) & (width - 1));
+      float product = re_[i];
+      float sum = im_[i];
+      float sumOfSquares = squareRe_[i];
+      float variance = sumOfSquares - sum * sum / weightSum_;
+      // Flat image, or rounding error
+      if (variance <= 1e-5f * sumOfSquares || templateEnergy_ <= 0.0f) {
+         return 0.0f;
+      }
+      return product / (float) Math.sqrt(variance * templateEnergy_);
+   }
+}
@@ -36,12 +36,14 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.Insets;
+import java.awt.geom.Point2D;
 import java.io.File;
 import java.util.GregorianCalendar;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JRadioButton;
 import javax.swing.JTextField;
@@ -88,6 +90,8 @@ public class TrackerControl extends MMFrame {
    private double pixelSizeUm_ = 1.0;
    private int resolutionPix_ = 5;
    private int offsetPix_ = 100;
+   private boolean useFftCorrelation_ = false;
+   private final FftCorrelator fftCorrelator_ = new FftCorrelator();
    private Timer timer_;
    private float[] pixelsPrev_ = null;
    private float[] pixelsCur_ = null;
@@ -110,6 +114,7 @@ public class TrackerControl extends MMFrame {
    private static final String RESOLUTION_PIX = "resolution_pix";
    private static final String OFFSET_PIX = "offset_pix";
    private static final String INTERVAL_MS = "interval_pix";
+   private static final String FFT_CORRELATION = "fft_correlation";
    private static final String DISK_RECORDING = "disk_recording";
    private static final String ROOT = "root";
    private static final String NAME = "name";
@@ -130,6 +135,7 @@ public class TrackerControl extends MMFrame {
    private final JRadioButton memoryRadioButton_;
    private JRadioButton diskRadioButton_;
    private final JLabel speedLabel_;
+   private final JCheckBox fftCorrelationCheckBox_;
    private double distUm_;
    private final JButton topLeftButton_;
    private final JButton bottomRightButton_;
@@ -197,6 +203,8 @@ public class TrackerControl extends MMFrame {
             resolutionPix_ = up.getInt(this.getClass(), RESOLUTION_PIX, resolutionPix_);
             offsetPix_ = up.getInt(this.getClass(), OFFSET_PIX, offsetPix_);
             intervalMs_ = up.getInt(this.getClass(), INTERVAL_MS, intervalMs_);
+            useFftCorrelation_ = up.getBoolean(this.getClass(),
+                    FFT_CORRELATION, useFftCorrelation_);
             diskRadioButton_.setSelected(up.getBoolean(this.getClass(), 
                     DISK_RECORDING, diskRadioButton_.isSelected()));
             rootField_.setText(up.getString(this.getClass(), ROOT, ""));
@@ -206,6 +214,7 @@ public class TrackerControl extends MMFrame {
             offsetField_.setText(Integer.toString(offsetPix_));
             pixelSizeField_.setText(Double.toString(pixelSizeUm_));
             intervalField_.setText(Integer.toString(intervalMs_));
+            fftCorrelationCheckBox_.setSelected(useFftCorrelation_);
          }
 
          @Override
@@ -213,6 +222,8 @@ public class TrackerControl extends MMFrame {
             up.setInt(this.getClass(), RESOLUTION_PIX, resolutionPix_);
             up.setInt(this.getClass(), OFFSET_PIX, offsetPix_);
             up.setInt(this.getClass(), INTERVAL_MS, intervalMs_);
+            up.setBoolean(this.getClass(), FFT_CORRELATION,
+                    useFftCorrelation_);
             up.setBoolean(this.getClass(), DISK_RECORDING, 
                     diskRadioButton_.isSelected());
             up.setString(this.getClass(), ROOT, rootField_.getText());
@@ -242,6 +253,7 @@ public class TrackerControl extends MMFrame {
             pixelSizeUm_ = Double.parseDouble(pixelSizeField_.getText());
             offsetPix_ = Integer.parseInt(offsetField_.getText());
             resolutionPix_ = Integer.parseInt(resField_.getText());
+            useFftCorrelation_ = fftCorrelationCheckBox_.isSelected();
             pixelsPrev_ = null;
             pixelsCur_ = null;
             timer_.setDelay(intervalMs_);
@@ -279,6 +291,13 @@ public class TrackerControl extends MMFrame {
       resField_.setBounds(140, 75, 93, 19);
       getContentPane().add(resField_);
 
+      fftCorrelationCheckBox_ = new JCheckBox();
+      fftCorrelationCheckBox_.setText("FFT correlation");
+      fftCorrelationCheckBox_.setToolTipText("<html>Find the shift by normalized correlation computed with FFTs, to sub-pixel precision.<br>"
+              + "Otherwise, try every shift on the resolution grid (slower at fine resolutions).</html>");
+      fftCorrelationCheckBox_.setBounds(240, 72, 160, 24);
+      getContentPane().add(fftCorrelationCheckBox_);
+
       final JButton stopButton = new JButton();
       stopButton.addActionListener(new ActionListener() {
          @Override
@@ -537,56 +556,26 @@ public class TrackerControl extends MMFrame {
 
       int kCount = 2 * offsetPix_ / resolutionPix_;
       int lCount = 2 * offsetPix_ / resolutionPix_;
-      ImageProcessor corrImproc = new ij.process.FloatProcessor(lCount, kCount);
-      corrStack_.addSlice(corrImproc);
-
-      // position of correlation maximum
-      int kMax = 0;
-      int lMax = 0;
+      float[] corr = new float[lCount * kCount];
 
       Rectangle r = roi_.getBounds();
       display_.getImagePlus().setRoi(roi_, true);
       //IJ.write("ROI pos: " + r.x + "," + r.y);
 
-      int width = r.width, height = r.height;
-      double corScale = width * height;
-
-      double maxCor = 0;
-      for (int k=-offsetPix_; k<offsetPix_; k += resolutionPix_) {
-         for (int l=-offsetPix_; l<offsetPix_; l += resolutionPix_) {
-
-            // calculate correlation
-            double sum = 0.0;
-            double meanPrev = 0.0;
-            double meanCur = 0.0;
-            for (int i = 0; i < height; i++) {
-               for (int j = 0; j < width; j++) {
-                  int row = r.y + i;
-                  int col = r.x + j;
-                  double pixPrev = pixelsPrev_[row * imWidth_ + col];
-                  double pixCur = pixelsCur_[(row + k) * imWidth_ + (col + l)];
-                  sum += pixPrev * pixCur;
-                  meanPrev += pixPrev;
-                  meanCur += pixCur;
-               }
-            }
-            sum /= corScale;
-            meanPrev /= corScale;
-            meanCur /= corScale;
-            sum /= meanPrev*meanCur;
-
-            int x = (l + offsetPix_) / resolutionPix_;
-            int y = (k + offsetPix_) / resolutionPix_;
-            corrImproc.setf(x + lCount * y, (float) sum);
-
-            // check for max value
-            if (sum > maxCor) {
-               maxCor = sum;
-               kMax = k;
-               lMax = l;
-            }
-         }
+      // position of correlation maximum
+      Point2D.Double shift;
+      if (useFftCorrelation_) {
+         shift = fftCorrelator_.correlate(pixelsPrev_, pixelsCur_, imWidth_,
+               r, offsetPix_, resolutionPix_, corr);
+      }
+      else {
+         shift = BruteForceCorrelator.correlate(pixelsPrev_, pixelsCur_,
+               imWidth_, r, offsetPix_, resolutionPix_, corr);
       }
+      double lMax = shift.x;
+      double kMax = shift.y;
+      corrStack_.addSlice(new ij.process.FloatProcessor(lCount, kCount, corr,
+            null));
 
       if (corrImplus_ == null) {
          corrImplus_ = new ij.ImagePlus("Cross Correlation", corrStack_);
@@ -662,7 +651,8 @@ public class TrackerControl extends MMFrame {
          } // relative motion
       } else {
          // move the roi
-         roi_.setLocation(r.x + lMax, r.y + kMax);
+         roi_.setLocation(r.x + (int) Math.round(lMax),
+               r.y + (int) Math.round(kMax));
 
          display_.getImagePlus().setRoi(roi_, true);
       }
@@ -0,0 +1,148 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package com.imaging100x.tracker;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class Fft2DTest {
+   private static final float TOLERANCE = 1e-3f;
+
+   // The forward transform, straight from the definition
+   private static void naiveDft(float[] re, float[] im, int width,
+         int height, float[] outRe, float[] outIm) {
+      for (int v = 0; v < height; ++v) {
+         for (int u = 0; u < width; ++u) {
+            double sumRe = 0.0;
+            double sumIm = 0.0;
+            for (int y = 0; y < height; ++y) {
+               for (int x = 0; x < width; ++x) {
+                  double angle = -2 * Math.PI *
+                        ((double) u * x / width + (double) v * y / height);
+                  double c = Math.cos(angle);
+                  double s = Math.sin(angle);
+                  int i = y * width + x;
+                  sumRe += re[i] * c - im[i] * s;
+                  sumIm += re[i] * s + im[i] * c;
+               }
+            }
+            outRe[v * width + u] = (float) sumRe;
+            outIm[v * width + u] = (float) sumIm;
+         }
+      }
+   }
+
+   private static float[] random(int n, Random random) {
+      float[] values = new float[n];
+      for (int i = 0; i < n; ++i) {
+         values[i] = random.nextFloat() * 2.0f - 1.0f;
+      }
+      return values;
+   }
+
+   private static void checkAgainstNaiveDft(int width, int height) {
+      Random random = new Random(19);
+      float[] re = random(width * height, random);
+      float[] im = random(width * height, random);
+      float[] expectedRe = new float[width * height];
+      float[] expectedIm = new float[width * height];
+      naiveDft(re, im, width, height, expectedRe, expectedIm);
+
+      new Fft2D(width, height).transform(re, im, false);
+      assertArrayEquals(expectedRe, re, TOLERANCE);
+      assertArrayEquals(expectedIm, im, TOLERANCE);
+   }
+
+   @Test
+   public void testMatchesDefinition() {
+      checkAgainstNaiveDft(8, 8);
+      checkAgainstNaiveDft(16, 4);
+      checkAgainstNaiveDft(2, 32);
+      checkAgainstNaiveDft(1, 8);
+      checkAgainstNaiveDft(1, 1);
+   }
+
+   @Test
+   public void testRoundTrip() {
+      Random random = new Random(19);
+      int width = 64;
+      int height = 32;
+      float[] re = random(width * height, random);
+      float[] im = random(width * height, random);
+      float[] originalRe = re.clone();
+      float[] originalIm = im.clone();
+      Fft2D fft = new Fft2D(width, height);
+      for (int pass = 0; pass < 3; ++pass) {
+         fft.transform(re, im, false);
+         fft.transform(re, im, true);
+      }
+      assertArrayEquals(originalRe, re, TOLERANCE);
+      assertArrayEquals(originalIm, im, TOLERANCE);
+   }
+
+   // As the correlator does: data that is not a power of two in size,
+   // zero-padded to one
+   @Test
+   public void testPaddedRoundTrip() {
+      Random random = new Random(19);
+      int dataWidth = 13;
+      int dataHeight = 7;
+      int width = Fft2D.nextPowerOfTwo(dataWidth);
+      int height = Fft2D.nextPowerOfTwo(dataHeight);
+      assertEquals(16, width);
+      assertEquals(8, height);
+      float[] data = random(dataWidth * dataHeight, random);
+      float[] re = new float[width * height];
+      float[] im = new float[width * height];
+      for (int y = 0; y < dataHeight; ++y) {
+         System.arraycopy(data, y * dataWidth, re, y * width, dataWidth);
+      }
+      float[] padded = re.clone();
+      float[] expectedRe = new float[width * height];
+      float[] expectedIm = new float[width * height];
+      naiveDft(padded, new float[width * height], width, height,
+            expectedRe, expectedIm);
+
+      Fft2D fft = new Fft2D(width, height);
+      fft.transform(re, im, false);
+      assertArrayEquals(expectedRe, re, TOLERANCE);
+      assertArrayEquals(expectedIm, im, TOLERANCE);
+      fft.transform(re, im, true);
+      // The data comes back, and the padding stays empty
+      assertArrayEquals(padded, re, TOLERANCE);
+      assertArrayEquals(new float[width * height], im, TOLERANCE);
+   }
+
+   @Test
+   public void testNextPowerOfTwo() {
+      assertEquals(1, Fft2D.nextPowerOfTwo(0));
+      assertEquals(1, Fft2D.nextPowerOfTwo(1));
+      assertEquals(2, Fft2D.nextPowerOfTwo(2));
+      assertEquals(4, Fft2D.nextPowerOfTwo(3));
+      assertEquals(64, Fft2D.nextPowerOfTwo(64));
+      assertEquals(128, Fft2D.nextPowerOfTwo(65));
+      assertTrue(Fft2D.isPowerOfTwo(1));
+      assertTrue(Fft2D.isPowerOfTwo(256));
+      assertFalse(Fft2D.isPowerOfTwo(0));
+      assertFalse(Fft2D.isPowerOfTwo(96));
+   }
+
+   @Test
+   public void testRejectsNonPowerOfTwo() {
+      try {
+         new Fft2D(12, 8);
+         fail("12x8 is not a power of two");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+}
@@ -0,0 +1,110 @@
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package com.imaging100x.tracker;
+
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FftCorrelatorTest {
+   private static final int SIZE = 160;
+   private static final Rectangle ROI = new Rectangle(56, 56, 48, 48);
+   private static final int OFFSET_PIX = 12;
+
+   // Gaussian spots on a flat background, sampled with the scene moved by
+   // (shiftX, shiftY), which need not be whole pixels
+   private static float[] makeFrame(double shiftX, double shiftY) {
+      Random random = new Random(19);
+      float[] pixels = new float[SIZE * SIZE];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = 100.0f;
+      }
+      for (int spot = 0; spot < 60; ++spot) {
+         double cx = random.nextDouble() * SIZE + shiftX;
+         double cy = random.nextDouble() * SIZE + shiftY;
+         double sigma = 1.5 + 2.5 * random.nextDouble();
+         double amplitude = 200.0 + 800.0 * random.nextDouble();
+         for (int y = 0; y < SIZE; ++y) {
+            for (int x = 0; x < SIZE; ++x) {
+               double dx = x - cx;
+               double dy = y - cy;
+               pixels[y * SIZE + x] += (float) (amplitude *
+                     Math.exp(-(dx * dx + dy * dy) / (2 * sigma * sigma)));
+            }
+         }
+      }
+      return pixels;
+   }
+
+   private static Point2D.Double fftCorrelate(float[] prev, float[] cur) {
+      return new FftCorrelator().correlate(prev, cur, SIZE, ROI,
+            OFFSET_PIX, 1, null);
+   }
+
+   private static Point2D.Double bruteForceCorrelate(float[] prev,
+         float[] cur) {
+      return BruteForceCorrelator.correlate(prev, cur, SIZE, ROI,
+            OFFSET_PIX, 1, null);
+   }
+
+   @Test
+   public void testWholePixelShifts() {
+      float[] prev = makeFrame(0, 0);
+      int[][] shifts = new int[][] {{0, 0}, {3, -5}, {-7, 2}, {10, 9},
+            {-11, -11}};
+      for (int[] shift : shifts) {
+         float[] cur = makeFrame(shift[0], shift[1]);
+         Point2D.Double expected = bruteForceCorrelate(prev, cur);
+         assertEquals(shift[0], expected.x, 0.0);
+         assertEquals(shift[1], expected.y, 0.0);
+         Point2D.Double actual = fftCorrelate(prev, cur);
+         assertEquals("x for " + shift[0], shift[0], actual.x, 0.05);
+         assertEquals("y for " + shift[1], shift[1], actual.y, 0.05);
+      }
+   }
+
+   @Test
+   public void testSubPixelShifts() {
+      float[] prev = makeFrame(0, 0);
+      double[][] shifts = new double[][] {{2.3, -4.6}, {-1.7, 0.25},
+            {6.4, 7.8}};
+      for (double[] shift : shifts) {
+         float[] cur = makeFrame(shift[0], shift[1]);
+         // The brute-force search only finds the nearest whole pixel
+         Point2D.Double nearest = bruteForceCorrelate(prev, cur);
+         assertEquals(Math.round(shift[0]), nearest.x, 0.0);
+         assertEquals(Math.round(shift[1]), nearest.y, 0.0);
+         Point2D.Double actual = fftCorrelate(prev, cur);
+         assertEquals("x for " + shift[0], shift[0], actual.x, 0.1);
+         assertEquals("y for " + shift[1], shift[1], actual.y, 0.1);
+      }
+   }
+
+   // The correlator keeps its buffers between frames; results must not
+   // depend on what it was used for before
+   @Test
+   public void testReuse() {
+      float[] prev = makeFrame(0, 0);
+      float[] cur = makeFrame(4, -3);
+      FftCorrelator correlator = new FftCorrelator();
+      Point2D.Double first = correlator.correlate(prev, cur, SIZE, ROI,
+            OFFSET_PIX, 1, null);
+      correlator.correlate(prev, makeFrame(-6, 1), SIZE,
+            new Rectangle(40, 50, 30, 20), 8, 2, new float[64]);
+      Point2D.Double second = correlator.correlate(prev, cur, SIZE, ROI,
+            OFFSET_PIX, 1, null);
+      assertEquals(first.x, second.x, 1e-6);
+      assertEquals(first.y, second.y, 1e-6);
+   }
+}